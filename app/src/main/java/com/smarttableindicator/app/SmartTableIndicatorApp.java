@@ -1,13 +1,60 @@
 package com.smarttableindicator.app;
 
+import android.app.Activity;
 import android.app.Application;
 import android.content.SharedPreferences;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatDelegate;
+import com.google.firebase.database.FirebaseDatabase;
 import com.google.firebase.installations.FirebaseInstallations;
 import android.util.Log;
 import com.smarttableindicator.app.activities.SettingsActivity;
+import com.smarttableindicator.app.config.Constants;
+import com.smarttableindicator.app.data.HistoryCompactor;
+import com.smarttableindicator.app.data.TableSnapshotFile;
+import com.smarttableindicator.app.data.TableStateStore;
+import com.smarttableindicator.app.data.TransitionLog;
+import com.smarttableindicator.app.services.NotificationDispatcher;
+import com.smarttableindicator.app.stats.StatisticsEngine;
+import com.smarttableindicator.app.sync.AdaptiveSyncPolicy;
+import com.smarttableindicator.app.sync.EventLatencyTracer;
+import com.smarttableindicator.app.sync.LatencyProbe;
+import com.smarttableindicator.app.sync.ReconnectManager;
+import com.smarttableindicator.app.sync.StaleUpdateFilter;
+import com.smarttableindicator.app.sync.TableEventApplier;
+import com.smarttableindicator.app.sync.TableStreamRecorder;
+import com.smarttableindicator.app.sync.TableStreamReplayer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.UUID;
 
 public class SmartTableIndicatorApp extends Application {
+
+    private static final String TAG = "SmartTableIndicatorApp";
+
+    private final TableStateStore tableStateStore = new TableStateStore();
+    private final StaleUpdateFilter staleUpdateFilter = new StaleUpdateFilter();
+    private final StatisticsEngine statisticsEngine = new StatisticsEngine();
+    private final AdaptiveSyncPolicy adaptiveSyncPolicy = new AdaptiveSyncPolicy();
+    private final TableStreamRecorder tableStreamRecorder =
+            new TableStreamRecorder(Constants.TABLE_STREAM_RECORDING_MAX_BYTES);
+    private final ReconnectManager reconnectManager = new ReconnectManager(Constants.RECONNECT_BASE_DELAY_MS,
+            Constants.RECONNECT_FAILURES_BEFORE_CIRCUIT_OPENS, Constants.RECONNECT_CIRCUIT_OPEN_MS);
+    private TableSnapshotFile tableSnapshotFile;
+    private volatile boolean replayActive = false;
+    private TableStreamReplayer tableStreamReplayer;
+    private TransitionLog transitionLog;
+    private HistoryCompactor historyCompactor;
+    private NotificationDispatcher notificationDispatcher;
+    private TableEventApplier tableEventApplier;
+    private LatencyProbe latencyProbe;
+    private EventLatencyTracer eventLatencyTracer;
+
     @Override
     public void onCreate() {
         super.onCreate();
@@ -17,6 +64,27 @@ public class SmartTableIndicatorApp extends Application {
 
         AppCompatDelegate.setDefaultNightMode(currentNightMode);
 
+        notificationDispatcher = new NotificationDispatcher(this);
+        tableEventApplier = new TableEventApplier(tableStateStore, notificationDispatcher, staleUpdateFilter);
+        latencyProbe = new LatencyProbe(FirebaseDatabase.getInstance(),
+                Constants.FIREBASE_LATENCY_PROBE_PATH + "/" + getProbeDeviceId(),
+                Constants.LATENCY_PROBE_INTERVAL_MS, Constants.LATENCY_PROBE_TIMEOUT_MS,
+                Constants.LATENCY_PROBE_WINDOW_MS, Constants.LATENCY_PROBE_WINDOW_SLICES);
+        registerActivityLifecycleCallbacks(new DatabaseConnectionGate(latencyProbe));
+        eventLatencyTracer = new EventLatencyTracer(FirebaseDatabase.getInstance(),
+                Constants.LATENCY_TRACE_MAX_DELIVERY_AGE_MS, Constants.LATENCY_TRACE_MAX_PENDING_DRAWS);
+        eventLatencyTracer.start();
+
+        restoreTableSnapshot();
+
+        File historyDirectory = new File(getFilesDir(), Constants.HISTORY_DIRECTORY_NAME);
+        transitionLog = new TransitionLog(historyDirectory);
+        tableStateStore.addListener(transitionLog);
+        historyCompactor = new HistoryCompactor(transitionLog,
+                new File(historyDirectory, Constants.HISTORY_ROLLUP_DIRECTORY_NAME));
+        historyCompactor.start(Constants.HISTORY_COMPACTION_INTERVAL_MS);
+        transitionLog.addObserver(() -> historyCompactor.rebuild(statisticsEngine), statisticsEngine);
+
         FirebaseInstallations.getInstance().getId().addOnCompleteListener(task -> {
             if (task.isSuccessful() && task.getResult() != null) {
                 String fid = task.getResult();
@@ -26,4 +94,216 @@ public class SmartTableIndicatorApp extends Application {
             }
         });
     }
+
+    /**
+     * @return A random id for this installation, made on first use and kept, under
+     * which the latency probe writes
+     */
+    private String getProbeDeviceId() {
+        SharedPreferences prefs = getSharedPreferences(Constants.PREFS_NAME, MODE_PRIVATE);
+        String deviceId = prefs.getString(Constants.KEY_PROBE_DEVICE_ID, null);
+        if (deviceId == null) {
+            deviceId = UUID.randomUUID().toString();
+            prefs.edit().putString(Constants.KEY_PROBE_DEVICE_ID, deviceId).apply();
+        }
+        return deviceId;
+    }
+
+    /**
+     * Fills the table store from the on-disk snapshot and keeps the snapshot
+     * updated with every later change
+     */
+    private void restoreTableSnapshot() {
+        try {
+            TableSnapshotFile snapshotFile = TableSnapshotFile.open(new File(getFilesDir(), Constants.TABLE_SNAPSHOT_FILE_NAME));
+            int restored = snapshotFile.restoreInto(tableStateStore);
+            tableStateStore.addListener(snapshotFile);
+            tableSnapshotFile = snapshotFile;
+            Log.i(TAG, "Restored " + restored + " tables from snapshot");
+        } catch (IOException e) {
+            Log.e(TAG, "Could not open table snapshot, starting empty", e);
+        }
+    }
+
+    /**
+     * Starts replaying a recording in place of the live data, ending any replay already
+     * running. The session outlives the dashboard, which attaches its decoder to the
+     * returned replayer, so a recreated dashboard carries on with it until
+     * {@link #endReplay} is called.
+     * @param speed Replay speed, see {@link TableStreamReplayer}
+     */
+    @NonNull
+    public synchronized TableStreamReplayer startReplay(@NonNull File recording, double speed) {
+        endReplay();
+        beginReplay();
+        tableStreamReplayer = new TableStreamReplayer(recording, speed);
+        tableStreamReplayer.start();
+        return tableStreamReplayer;
+    }
+
+    /**
+     * @return The replay session running, or null
+     */
+    @Nullable
+    public synchronized TableStreamReplayer getTableStreamReplayer() {
+        return tableStreamReplayer;
+    }
+
+    /**
+     * Empties the table store for a replayed recording and keeps the replayed changes
+     * out of the snapshot file, the transition history and the statistics, so those
+     * keep describing the real floor
+     */
+    private void beginReplay() {
+        if (replayActive) {
+            return;
+        }
+        replayActive = true;
+        if (tableSnapshotFile != null) {
+            tableStateStore.removeListener(tableSnapshotFile);
+        }
+        tableStateStore.removeListener(transitionLog);
+        tableStateStore.clear();
+        staleUpdateFilter.clear();
+        Log.i(TAG, "Replay started, persistence paused");
+    }
+
+    /**
+     * Stops the replay, puts back the table state from before it and resumes persisting
+     * changes. Does nothing if no replay is running.
+     */
+    public synchronized void endReplay() {
+        if (!replayActive) {
+            return;
+        }
+        if (tableStreamReplayer != null) {
+            tableStreamReplayer.stop();
+            tableStreamReplayer = null;
+        }
+        tableStateStore.clear();
+        if (tableSnapshotFile != null) {
+            tableSnapshotFile.restoreInto(tableStateStore);
+            tableStateStore.addListener(tableSnapshotFile);
+        }
+        tableStateStore.addListener(transitionLog);
+        // The replayed timestamps say nothing about the live data, which is applied afresh
+        staleUpdateFilter.clear();
+        replayActive = false;
+        Log.i(TAG, "Replay ended, table state restored");
+    }
+
+    /**
+     * @return true while a recording is replayed instead of the live data being shown
+     */
+    public boolean isReplayActive() {
+        return replayActive;
+    }
+
+    /**
+     * Keeps the Realtime Database socket open only while an activity is visible.
+     * In the background the table state is kept current by FCM data messages, so the
+     * connection is closed shortly after the last activity stops, and reopened, with
+     * the listeners still attached, when one starts again. The latency probe runs only
+     * while the connection is meant to be open.
+     */
+    private static class DatabaseConnectionGate implements ActivityLifecycleCallbacks {
+
+        private final Handler handler = new Handler(Looper.getMainLooper());
+        private final LatencyProbe latencyProbe;
+        private final Runnable goOffline = () -> {
+            Log.i(TAG, "App in background, closing database connection");
+            latencyProbe.stop();
+            FirebaseDatabase.getInstance().goOffline();
+            offline = true;
+        };
+        private int startedActivities = 0;
+        private boolean offline = false;
+
+        DatabaseConnectionGate(LatencyProbe latencyProbe) {
+            this.latencyProbe = latencyProbe;
+        }
+
+        @Override
+        public void onActivityStarted(@NonNull Activity activity) {
+            startedActivities++;
+            handler.removeCallbacks(goOffline);
+            latencyProbe.start();
+            if (offline) {
+                Log.i(TAG, "App in foreground, reopening database connection");
+                FirebaseDatabase.getInstance().goOnline();
+                offline = false;
+            }
+        }
+
+        @Override
+        public void onActivityStopped(@NonNull Activity activity) {
+            startedActivities = Math.max(0, startedActivities - 1);
+            if (startedActivities == 0) {
+                handler.postDelayed(goOffline, Constants.FIREBASE_BACKGROUND_OFFLINE_DELAY_MS);
+            }
+        }
+
+        @Override
+        public void onActivityCreated(@NonNull Activity activity, @Nullable Bundle savedInstanceState) {}
+
+        @Override
+        public void onActivityResumed(@NonNull Activity activity) {}
+
+        @Override
+        public void onActivityPaused(@NonNull Activity activity) {}
+
+        @Override
+        public void onActivitySaveInstanceState(@NonNull Activity activity, @NonNull Bundle outState) {}
+
+        @Override
+        public void onActivityDestroyed(@NonNull Activity activity) {}
+    }
+
+    public TableStateStore getTableStateStore() {
+        return tableStateStore;
+    }
+
+    public StaleUpdateFilter getStaleUpdateFilter() {
+        return staleUpdateFilter;
+    }
+
+    public TransitionLog getTransitionLog() {
+        return transitionLog;
+    }
+
+    public HistoryCompactor getHistoryCompactor() {
+        return historyCompactor;
+    }
+
+    public TableEventApplier getTableEventApplier() {
+        return tableEventApplier;
+    }
+
+    public NotificationDispatcher getNotificationDispatcher() {
+        return notificationDispatcher;
+    }
+
+    public LatencyProbe getLatencyProbe() {
+        return latencyProbe;
+    }
+
+    public TableStreamRecorder getTableStreamRecorder() {
+        return tableStreamRecorder;
+    }
+
+    public EventLatencyTracer getEventLatencyTracer() {
+        return eventLatencyTracer;
+    }
+
+    public ReconnectManager getReconnectManager() {
+        return reconnectManager;
+    }
+
+    public AdaptiveSyncPolicy getAdaptiveSyncPolicy() {
+        return adaptiveSyncPolicy;
+    }
+
+    public StatisticsEngine getStatisticsEngine() {
+        return statisticsEngine;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,207 @@
+package com.smarttableindicator.app.activities;
+
+import androidx.annotation.NonNull;
+import androidx.appcompat.app.AppCompatActivity;
+
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.MenuItem;
+import android.widget.Button;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import com.smarttableindicator.app.R;
+import com.smarttableindicator.app.SmartTableIndicatorApp;
+import com.smarttableindicator.app.config.Constants;
+import com.smarttableindicator.app.stats.LatencyHistogram;
+import com.smarttableindicator.app.sync.AdaptiveSyncPolicy;
+import com.smarttableindicator.app.sync.EventLatencyTracer;
+import com.smarttableindicator.app.sync.ReconnectManager;
+import com.smarttableindicator.app.sync.TableStreamRecorder;
+import com.smarttableindicator.app.sync.TableStreamReplayer;
+import com.smarttableindicator.app.views.LatencyHistogramView;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Shows where the time goes between an indicator changing and the change appearing on
+ * screen, stage by stage, from the {@link EventLatencyTracer}, refreshed while visible,
+ * along with how the {@link AdaptiveSyncPolicy} has been switching modes and how the
+ * {@link ReconnectManager}'s attempts went.
+ * The traced data can be shared as CSV. The live event stream can be recorded here and
+ * replayed on the dashboard in place of Firebase, at the recorded pace, faster, or as
+ * fast as possible.
+ */
+public class DiagnosticsActivity extends AppCompatActivity {
+
+    private static final long REFRESH_INTERVAL_MS = 2000;
+
+    private EventLatencyTracer eventLatencyTracer;
+    private AdaptiveSyncPolicy syncPolicy;
+    private ReconnectManager reconnectManager;
+    private TableStreamRecorder tableStreamRecorder;
+    private File recordingFile;
+    private TextView textViewRecording;
+    private Button buttonRecord;
+    private TextView textViewStages;
+    private TextView textViewCounters;
+    private LatencyHistogramView latencyHistogramView;
+    private TextView textViewSyncPolicy;
+    private TextView textViewReconnect;
+
+    private final Handler refreshHandler = new Handler(Looper.getMainLooper());
+    private final Runnable refreshRunnable = new Runnable() {
+        @Override
+        public void run() {
+            refresh();
+            refreshHandler.postDelayed(this, REFRESH_INTERVAL_MS);
+        }
+    };
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_diagnostics);
+
+        if (getSupportActionBar() != null) {
+            getSupportActionBar().setTitle("Diagnostics");
+            getSupportActionBar().setDisplayHomeAsUpEnabled(true);
+        }
+
+        eventLatencyTracer = ((SmartTableIndicatorApp) getApplication()).getEventLatencyTracer();
+        textViewStages = findViewById(R.id.textViewDiagnosticsStages);
+        textViewCounters = findViewById(R.id.textViewDiagnosticsCounters);
+        latencyHistogramView = findViewById(R.id.latencyHistogramViewEndToEnd);
+        syncPolicy = ((SmartTableIndicatorApp) getApplication()).getAdaptiveSyncPolicy();
+        textViewSyncPolicy = findViewById(R.id.textViewDiagnosticsSyncPolicy);
+        reconnectManager = ((SmartTableIndicatorApp) getApplication()).getReconnectManager();
+        textViewReconnect = findViewById(R.id.textViewDiagnosticsReconnect);
+        tableStreamRecorder = ((SmartTableIndicatorApp) getApplication()).getTableStreamRecorder();
+        recordingFile = new File(getFilesDir(), Constants.TABLE_STREAM_RECORDING_FILE_NAME);
+        textViewRecording = findViewById(R.id.textViewDiagnosticsRecording);
+        buttonRecord = findViewById(R.id.buttonDiagnosticsRecord);
+        Button buttonExport = findViewById(R.id.buttonDiagnosticsExport);
+        Button buttonReset = findViewById(R.id.buttonDiagnosticsReset);
+
+        buttonExport.setOnClickListener(v -> exportCsv());
+        buttonReset.setOnClickListener(v -> {
+            eventLatencyTracer.reset();
+            refresh();
+        });
+        buttonRecord.setOnClickListener(v -> toggleRecording());
+        findViewById(R.id.buttonDiagnosticsReplayRealTime).setOnClickListener(v -> openDashboard(1));
+        findViewById(R.id.buttonDiagnosticsReplayFast).setOnClickListener(
+                v -> openDashboard(Constants.TABLE_STREAM_REPLAY_FAST_SPEED));
+        findViewById(R.id.buttonDiagnosticsReplayMax).setOnClickListener(
+                v -> openDashboard(TableStreamReplayer.AS_FAST_AS_POSSIBLE));
+        findViewById(R.id.buttonDiagnosticsLive).setOnClickListener(v -> openDashboard(-1));
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        refreshHandler.post(refreshRunnable);
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        refreshHandler.removeCallbacks(refreshRunnable);
+    }
+
+    private void refresh() {
+        StringBuilder stages = new StringBuilder(String.format(Locale.getDefault(),
+                "%-19s %6s %6s %6s %6s\n", "", "n", "p50", "p95", "p99"));
+        for (EventLatencyTracer.Stage stage : EventLatencyTracer.Stage.values()) {
+            LatencyHistogram histogram = eventLatencyTracer.getHistogram(stage);
+            stages.append(String.format(Locale.getDefault(), "%-19s %6d %6s %6s %6s\n",
+                    stage.getLabel(), histogram.getCount(),
+                    formatMs(histogram, 50), formatMs(histogram, 95), formatMs(histogram, 99)));
+        }
+        textViewStages.setText(stages);
+        textViewCounters.setText(getString(R.string.diagnostics_counters,
+                eventLatencyTracer.getTracedCount(), eventLatencyTracer.getReplayedCount(),
+                eventLatencyTracer.getClockSkewCount(), eventLatencyTracer.getDroppedCount(),
+                eventLatencyTracer.getOffscreenCount(), eventLatencyTracer.getServerTimeOffsetMs()));
+        latencyHistogramView.setHistogram(eventLatencyTracer.getHistogram(EventLatencyTracer.Stage.SERVER_TO_DRAW));
+        textViewSyncPolicy.setText(getString(R.string.diagnostics_sync_policy,
+                getString(syncPolicy.getMode() == AdaptiveSyncPolicy.Mode.LOW_BANDWIDTH
+                        ? R.string.diagnostics_sync_mode_low_bandwidth : R.string.diagnostics_sync_mode_full_live),
+                syncPolicy.getSwitchCount(), syncPolicy.getSwitchesToLowBandwidth(),
+                syncPolicy.getLowBandwidthTimeMs() / 1000));
+        LatencyHistogram connectLatency = reconnectManager.getConnectLatencyMs();
+        textViewReconnect.setText(getString(R.string.diagnostics_reconnect,
+                reconnectManager.getAttemptCount(), reconnectManager.getMergedRequestCount(),
+                reconnectManager.getCircuitOpenCount(), formatMs(connectLatency, 50), formatMs(connectLatency, 95)));
+
+        boolean recording = tableStreamRecorder.isRecording();
+        if (recording) {
+            textViewRecording.setText(getString(R.string.diagnostics_recording, tableStreamRecorder.getRecordedCount()));
+        } else if (((SmartTableIndicatorApp) getApplication()).isReplayActive()) {
+            textViewRecording.setText(R.string.diagnostics_replaying);
+        } else if (recordingFile.exists()) {
+            textViewRecording.setText(getString(R.string.diagnostics_recording_saved, recordingFile.length() / 1024));
+        } else {
+            textViewRecording.setText(R.string.diagnostics_recording_none);
+        }
+        buttonRecord.setText(recording ? R.string.diagnostics_record_stop : R.string.diagnostics_record_start);
+        buttonRecord.setEnabled(!((SmartTableIndicatorApp) getApplication()).isReplayActive());
+    }
+
+    private void toggleRecording() {
+        if (tableStreamRecorder.isRecording()) {
+            tableStreamRecorder.stop();
+        } else {
+            try {
+                tableStreamRecorder.start(recordingFile);
+            } catch (IOException e) {
+                Toast.makeText(this, getString(R.string.diagnostics_record_failed, e.getMessage()),
+                        Toast.LENGTH_LONG).show();
+            }
+        }
+        refresh();
+    }
+
+    /**
+     * Brings the dashboard back to the front, recreated either to replay the recording
+     * or to show live data again
+     * @param replaySpeed Speed to replay at, see {@link TableStreamReplayer}, or -1 for live data
+     */
+    private void openDashboard(double replaySpeed) {
+        if (replaySpeed >= 0) {
+            // The replay must not record itself over the file it is reading
+            tableStreamRecorder.stop();
+        }
+        Intent dashboard = new Intent(this, MainActivity.class);
+        dashboard.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP);
+        if (replaySpeed >= 0) {
+            dashboard.putExtra(Constants.EXTRA_REPLAY_SPEED, replaySpeed);
+        }
+        startActivity(dashboard);
+    }
+
+    private void exportCsv() {
+        Intent send = new Intent(Intent.ACTION_SEND);
+        send.setType("text/csv");
+        send.putExtra(Intent.EXTRA_SUBJECT, getString(R.string.diagnostics_export_subject));
+        send.putExtra(Intent.EXTRA_TEXT, eventLatencyTracer.toCsv());
+        startActivity(Intent.createChooser(send, getString(R.string.diagnostics_export)));
+    }
+
+    private static String formatMs(LatencyHistogram histogram, double percentile) {
+        return histogram.getCount() == 0 ? "-" : histogram.getValueAtPercentile(percentile) + "ms";
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(@NonNull MenuItem item) {
+        if (item.getItemId() == android.R.id.home) {
+            finish();
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+}
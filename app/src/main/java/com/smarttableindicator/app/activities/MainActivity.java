@@ -1,14 +1,15 @@
 package com.smarttableindicator.app.activities;
 
-import android.app.NotificationManager;
 
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.UriPermission;
-import android.content.Context;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
+import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.widget.TextView;
@@ -23,6 +24,7 @@ import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
 import androidx.drawerlayout.widget.DrawerLayout;
+import androidx.lifecycle.Lifecycle;
 import androidx.recyclerview.widget.GridLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
@@ -32,28 +34,96 @@ import com.google.firebase.database.DataSnapshot;
 import com.google.firebase.database.DatabaseError;
 import com.google.firebase.database.DatabaseReference;
 import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.database.ValueEventListener;
 import com.google.firebase.messaging.FirebaseMessaging;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.BitSet;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import de.hdodenhof.circleimageview.CircleImageView;
 
 import com.smarttableindicator.app.R;
+import com.smarttableindicator.app.SmartTableIndicatorApp;
 import com.smarttableindicator.app.adapters.TableAdapter;
 import com.smarttableindicator.app.config.Constants;
+import com.smarttableindicator.app.data.TableStateStore;
+import com.smarttableindicator.app.models.FloorPlan;
+import com.smarttableindicator.app.models.TableEvent;
 import com.smarttableindicator.app.models.TableModel;
+import com.smarttableindicator.app.services.NotificationDispatcher;
+import com.smarttableindicator.app.sync.AdaptiveSyncPolicy;
+import com.smarttableindicator.app.sync.EventLatencyTracer;
+import com.smarttableindicator.app.sync.PagedTableLoader;
+import com.smarttableindicator.app.sync.ReconnectManager;
+import com.smarttableindicator.app.sync.StaleUpdateFilter;
+import com.smarttableindicator.app.sync.TableEventApplier;
+import com.smarttableindicator.app.sync.TableEventCoalescer;
+import com.smarttableindicator.app.sync.TableSnapshotDecoder;
+import com.smarttableindicator.app.sync.TableStatusCodec;
+import com.smarttableindicator.app.sync.TableStreamReplayer;
+import com.smarttableindicator.app.sync.TableZones;
+import com.smarttableindicator.app.sync.ZoneSubscriptionManager;
 import com.smarttableindicator.app.utils.NetworkManager;
 import com.smarttableindicator.app.utils.FirebaseErrorHandler;
+import com.smarttableindicator.app.utils.LinkQuality;
+import com.smarttableindicator.app.views.FloorPlanView;
+import com.smarttableindicator.app.views.TableGridView;
 
 public class MainActivity extends AppCompatActivity {
 
     private DrawerLayout drawerLayout;
     private NavigationView navigationView;
     private TableAdapter tableAdapter;
-    private List<TableModel> tableList;
+    private RecyclerView recyclerViewTables;
+    private TableGridView tableGridView;
+    private FloorPlanView floorPlanView;
+    private TextView textViewStatusSummary;
+    /** Only tables with this status are shown, or every table if null */
+    private TableModel.Status statusFilter;
+    private boolean floorPlanRequested = false;
+    private final ExecutorService floorPlanExecutor = Executors.newSingleThreadExecutor(
+            runnable -> new Thread(runnable, "FloorPlanLoader"));
+    private int tableViewMode = Constants.TABLE_VIEW_MODE_CARDS;
+    private TableStateStore tableStore;
+    private TableEventCoalescer tableEventCoalescer;
+    private TableSnapshotDecoder tableSnapshotDecoder;
+    private NotificationDispatcher notificationDispatcher;
+    private TableEventApplier tableEventApplier;
+    private boolean initialSyncPending = false;
+    private ZoneSubscriptionManager zoneSubscriptions;
+    private PagedTableLoader pagedTableLoader;
+    private AdaptiveSyncPolicy syncPolicy;
+    private ReconnectManager reconnectManager;
+    /** This dashboard's key to the shared reconnect manager */
+    private final ReconnectManager.Connector firebaseConnector = this::setupFirebaseTableListener;
+    private EventLatencyTracer eventLatencyTracer;
+    /** Plays a recording in place of the live data, or null when showing live data */
+    private TableStreamReplayer tableStreamReplayer;
+    private final AdaptiveSyncPolicy.Listener syncModeListener = mode -> runOnUiThread(this::applySyncMode);
+    private String networkType;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable viewportUpdate = this::updateViewport;
+
+    /**
+     * Redraws the grid for store changes made off the main thread, such as FCM data
+     * messages applied by the messaging service. Changes made on the main thread come
+     * from applyTableBatch, which redraws by itself.
+     */
+    private final AtomicBoolean gridRefreshPending = new AtomicBoolean();
+    private final TableStateStore.Listener backgroundChangeListener = change -> {
+        if (Looper.myLooper() != Looper.getMainLooper() && gridRefreshPending.compareAndSet(false, true)) {
+            runOnUiThread(() -> {
+                gridRefreshPending.set(false);
+                refreshTables();
+            });
+        }
+    };
 
     private static final String TAG = Constants.TAG_MAIN_ACTIVITY;
 
@@ -147,7 +217,13 @@ public class MainActivity extends AppCompatActivity {
             if (id == R.id.nav_dashboard) {
                 Toast.makeText(MainActivity.this, "Dashboard selected", Toast.LENGTH_SHORT).show();
             } else if (id == R.id.nav_statistics) {
-                Toast.makeText(MainActivity.this, "Statistics (placeholder)", Toast.LENGTH_SHORT).show();
+                Log.d(TAG, "Statistics item selected. Launching StatisticsActivity.");
+                Intent statisticsIntent = new Intent(MainActivity.this, StatisticsActivity.class);
+                startActivity(statisticsIntent);
+            } else if (id == R.id.nav_diagnostics) {
+                Log.d(TAG, "Diagnostics item selected. Launching DiagnosticsActivity.");
+                Intent diagnosticsIntent = new Intent(MainActivity.this, DiagnosticsActivity.class);
+                startActivity(diagnosticsIntent);
             } else if (id == R.id.nav_help) {
                 Log.d(TAG, "Help item selected. Launching HelpActivity.");
                 Intent helpIntent = new Intent(MainActivity.this, HelpActivity.class);
@@ -169,6 +245,7 @@ public class MainActivity extends AppCompatActivity {
                             editor.remove(Constants.KEY_LOGGED_IN_FLAG);
                             editor.apply();
                             Log.d(TAG, "Selective prefs removed for logout.");
+                            notificationDispatcher.cancelAllTables();
                             Intent intent = new Intent(MainActivity.this, LoginActivity.class);
                             intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TASK);
                             startActivity(intent);
@@ -184,14 +261,61 @@ public class MainActivity extends AppCompatActivity {
             return true;
         });
 
-        RecyclerView recyclerViewTables = findViewById(R.id.recyclerViewTables);
+        recyclerViewTables = findViewById(R.id.recyclerViewTables);
         recyclerViewTables.setLayoutManager(new GridLayoutManager(this, Constants.TABLE_GRID_COLUMNS));
-        tableList = new ArrayList<>();
-        tableAdapter = new TableAdapter(tableList, this);
+        tableStore = ((SmartTableIndicatorApp) getApplication()).getTableStateStore();
+        notificationDispatcher = ((SmartTableIndicatorApp) getApplication()).getNotificationDispatcher();
+        tableEventApplier = ((SmartTableIndicatorApp) getApplication()).getTableEventApplier();
+        syncPolicy = ((SmartTableIndicatorApp) getApplication()).getAdaptiveSyncPolicy();
+        eventLatencyTracer = ((SmartTableIndicatorApp) getApplication()).getEventLatencyTracer();
+        tableAdapter = new TableAdapter(this);
         recyclerViewTables.setAdapter(tableAdapter);
+        tableGridView = findViewById(R.id.tableGridView);
+        tableGridView.setOnTableClickListener((tableNumber, status) -> Toast.makeText(MainActivity.this,
+                getString(R.string.table_status_summary, tableNumber, status.name()), Toast.LENGTH_SHORT).show());
+        floorPlanView = findViewById(R.id.floorPlanView);
+        floorPlanView.setOnTableClickListener((tableNumber, status) -> Toast.makeText(MainActivity.this,
+                status != null
+                        ? getString(R.string.table_status_summary, tableNumber, status.name())
+                        : getString(R.string.table_status_unknown, tableNumber),
+                Toast.LENGTH_SHORT).show());
+        recyclerViewTables.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                scheduleViewportUpdate();
+            }
+        });
+        tableGridView.setOnViewportChangedListener(this::scheduleViewportUpdate);
+        floorPlanView.setOnViewportChangedListener(this::scheduleViewportUpdate);
+        tableGridView.setOnTablesDrawnListener(this::traceTablesDrawn);
+        floorPlanView.setOnTablesDrawnListener(this::traceTablesDrawn);
+        tableViewMode = prefs.getInt(Constants.KEY_TABLE_VIEW_MODE, Constants.TABLE_VIEW_MODE_CARDS);
+        textViewStatusSummary = findViewById(R.id.textViewStatusSummary);
+        String savedFilter = prefs.getString(Constants.KEY_TABLE_STATUS_FILTER, null);
+        statusFilter = savedFilter != null ? TableStatusCodec.decodeText(savedFilter) : null;
+        applyTableViewMode();
+        tableEventCoalescer = new TableEventCoalescer(syncPolicy.getCoalesceWindowMs(), this::applyTableBatch);
+        syncPolicy.addListener(syncModeListener);
+        double replaySpeed = getIntent().getDoubleExtra(Constants.EXTRA_REPLAY_SPEED, -1);
+        StaleUpdateFilter staleUpdateFilter = ((SmartTableIndicatorApp) getApplication()).getStaleUpdateFilter();
+        tableSnapshotDecoder = new TableSnapshotDecoder(event -> {
+            // Only a cheap early drop; the timestamp is recorded once the event is applied
+            if (staleUpdateFilter.isNewer(event)) {
+                tableEventCoalescer.offer(event);
+            }
+        });
 
+        reconnectManager = ((SmartTableIndicatorApp) getApplication()).getReconnectManager();
+        if (replaySpeed >= 0) {
+            startReplay(replaySpeed, savedInstanceState != null);
+        } else {
+            // Back to live data, ending a replay the previous dashboard left running
+            ((SmartTableIndicatorApp) getApplication()).endReplay();
+            tableSnapshotDecoder.setRecorder(((SmartTableIndicatorApp) getApplication()).getTableStreamRecorder());
+            reconnectManager.start(firebaseConnector);
+        }
         setupNetworkMonitoring();
-        setupFirebaseTableListener();
+        reconnectManager.connect();
         Log.d(TAG, "onCreate: Lifecycle END");
 
         FirebaseMessaging.getInstance().getToken()
@@ -268,9 +392,7 @@ public class MainActivity extends AppCompatActivity {
                 isNetworkAvailable = true;
                 runOnUiThread(() -> {
                     Toast.makeText(MainActivity.this, "Koneksi internet tersedia", Toast.LENGTH_SHORT).show();
-                    if (tablesDatabaseReference == null || tablesChildEventListener == null) {
-                        setupFirebaseTableListener();
-                    }
+                    reconnectManager.onNetworkAvailable(firebaseConnector);
                 });
             }
             
@@ -284,11 +406,16 @@ public class MainActivity extends AppCompatActivity {
             }
             
             @Override
-            public void onNetworkCapabilitiesChanged(boolean isWifi, boolean isCellular) {
-                Log.d(TAG, "Network capabilities changed - WiFi: " + isWifi + ", Cellular: " + isCellular);
-                String networkType = isWifi ? "WiFi" : (isCellular ? "Data Seluler" : "Tidak diketahui");
+            public void onNetworkCapabilitiesChanged(@NonNull LinkQuality linkQuality) {
+                Log.d(TAG, "Network capabilities changed - " + linkQuality);
+                syncPolicy.onLinkQualityChanged(linkQuality);
+                String type = linkQuality.isWifi() ? "WiFi" : (linkQuality.isCellular() ? "Data Seluler" : "Tidak diketahui");
                 runOnUiThread(() -> {
-                    Toast.makeText(MainActivity.this, "Menggunakan " + networkType, Toast.LENGTH_SHORT).show();
+                    // Bandwidth estimates change often; only a new transport is worth a toast
+                    if (!type.equals(networkType)) {
+                        networkType = type;
+                        Toast.makeText(MainActivity.this, "Menggunakan " + type, Toast.LENGTH_SHORT).show();
+                    }
                 });
             }
         });
@@ -302,116 +429,30 @@ public class MainActivity extends AppCompatActivity {
         if (!isNetworkAvailable) {
             Log.w(TAG, "No network available, skipping Firebase setup");
             Toast.makeText(this, FirebaseErrorHandler.getNetworkErrorMessage(false), Toast.LENGTH_LONG).show();
+            reconnectManager.onSkipped(firebaseConnector);
             return;
         }
         
         try {
             tablesDatabaseReference = FirebaseDatabase.getInstance().getReference(Constants.FIREBASE_TABLES_PATH);
 
-            if (tablesChildEventListener == null) {
+            if (Constants.FIREBASE_TABLES_SHARDED_BY_ZONE) {
+                setupZoneSubscriptions();
+            } else if (Constants.FIREBASE_TABLES_PAGED) {
+                setupPagedLoading();
+            } else if (tablesChildEventListener == null) {
             tablesChildEventListener = new ChildEventListener() {
                 @Override
                 public void onChildAdded(@NonNull DataSnapshot dataSnapshot, @Nullable String previousChildName) {
-                    String tableId = dataSnapshot.getKey();
-                    FirebaseTableData firebaseTable = dataSnapshot.getValue(FirebaseTableData.class);
-                    if (tableId != null && firebaseTable != null && firebaseTable.getStatus() != null) {
-                        Log.i(TAG, "onChildAdded: tableId=" + tableId + ", status=" + firebaseTable.getStatus());
-                        try {
-                            int tableNumber = Integer.parseInt(tableId.replaceAll("[^0-9]", ""));
-                            TableModel.Status newStatus = convertFirebaseStatusToEnum(firebaseTable.getStatus());
-                            boolean exists = false;
-                            for (TableModel tm : tableList) {
-                                if (tm.getTableNumber() == tableNumber) {
-                                    tm.setStatus(newStatus);
-                                    exists = true;
-                                    break;
-                                }
-                            }
-                            if (!exists) {
-                                tableList.add(new TableModel(tableNumber, newStatus));
-                            }
-                            Collections.sort(tableList, Comparator.comparingInt(TableModel::getTableNumber));
-                            tableAdapter.notifyDataSetChanged();
-
-                            if (newStatus == TableModel.Status.DIRTY) {
-                                int notificationId = tableNumber;
-                                String title = "Table Alert!";
-                                String body = "Table " + tableNumber + " needs cleaning!";
-                                NotificationHelper.sendTableNotification(getApplicationContext(), title, body, tableId, notificationId);
-                            }
-                        } catch (NumberFormatException e) {
-                            Log.e(TAG, "onChildAdded: Error parsing table number from ID: " + tableId, e);
-                        }
-                    } else {
-                        Log.w(TAG, "onChildAdded: Received null data for tableId: " + tableId);
-                    }
+                    tableSnapshotDecoder.submitUpsert(dataSnapshot);
                 }
                 @Override
                 public void onChildChanged(@NonNull DataSnapshot dataSnapshot, @Nullable String previousChildName) {
-                    String tableId = dataSnapshot.getKey();
-                    FirebaseTableData firebaseTable = dataSnapshot.getValue(FirebaseTableData.class);
-                    if (tableId != null && firebaseTable != null && firebaseTable.getStatus() != null) {
-                        Log.i(TAG, "onChildChanged: tableId=" + tableId + ", newStatus=" + firebaseTable.getStatus());
-                        try {
-                            int tableNumber = Integer.parseInt(tableId.replaceAll("[^0-9]", ""));
-                            TableModel.Status newStatus = convertFirebaseStatusToEnum(firebaseTable.getStatus());
-                            boolean found = false;
-                            for (int i = 0; i < tableList.size(); i++) {
-                                if (tableList.get(i).getTableNumber() == tableNumber) {
-                                    tableList.get(i).setStatus(newStatus);
-                                    tableAdapter.notifyItemChanged(i);
-                                    found = true;
-                                    break;
-                                }
-                            }
-                            if (newStatus == TableModel.Status.DIRTY) {
-                                int notificationId = tableNumber;
-                                String title = "Table Alert!";
-                                String body = "Table " + tableNumber + " needs cleaning!";
-                                NotificationHelper.sendTableNotification(getApplicationContext(), title, body, tableId, notificationId);
-                            } else {
-                                int notificationId = tableNumber;
-
-                                NotificationManager notificationManager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
-
-                                if (notificationManager != null) {
-                                    notificationManager.cancel(notificationId);
-                                    Log.d(TAG, "Attempted to cancel notification for tableId: " + tableId + " (Notification ID: " + notificationId + ")");
-                                } else {
-                                    Log.e(TAG, "Could not get NotificationManager to cancel notification for tableId: " + tableId);
-                                }
-                            }
-                            if (!found) {
-                                Log.w(TAG, "onChildChanged: Table " + tableNumber + " not found in list, adding it.");
-                                tableList.add(new TableModel(tableNumber, newStatus));
-                                Collections.sort(tableList, Comparator.comparingInt(TableModel::getTableNumber));
-                                tableAdapter.notifyDataSetChanged();
-                            }
-                        } catch (NumberFormatException e) {
-                            Log.e(TAG, "onChildChanged: Error parsing table number from ID: " + tableId, e);
-                        }
-                    } else {
-                        Log.w(TAG, "onChildChanged: Received null data for tableId: " + tableId);
-                    }
+                    tableSnapshotDecoder.submitUpsert(dataSnapshot);
                 }
                 @Override
                 public void onChildRemoved(@NonNull DataSnapshot dataSnapshot) {
-                    String tableId = dataSnapshot.getKey();
-                    if (tableId != null) {
-                        Log.i(TAG, "onChildRemoved: tableId=" + tableId);
-                        try {
-                            int tableNumber = Integer.parseInt(tableId.replaceAll("[^0-9]", ""));
-                            for (int i = 0; i < tableList.size(); i++) {
-                                if (tableList.get(i).getTableNumber() == tableNumber) {
-                                    tableList.remove(i);
-                                    tableAdapter.notifyItemRemoved(i);
-                                    break;
-                                }
-                            }
-                        } catch (NumberFormatException e) {
-                            Log.e(TAG, "onChildRemoved: Error parsing table number from ID: " + tableId, e);
-                        }
-                    }
+                    tableSnapshotDecoder.submitRemove(dataSnapshot);
                 }
                 @Override
                 public void onChildMoved(@NonNull DataSnapshot dataSnapshot, @Nullable String previousChildName) {
@@ -424,57 +465,629 @@ public class MainActivity extends AppCompatActivity {
                     FirebaseErrorHandler.ErrorResult errorResult = FirebaseErrorHandler.handleDatabaseError(databaseError);
                     FirebaseErrorHandler.showErrorToUser(MainActivity.this, errorResult);
                     
-                    if (errorResult.isRetryable() && isNetworkAvailable) {
-                        Log.d(TAG, "Attempting to reconnect Firebase listener in " + errorResult.getRetryDelayMs() + "ms");
-                        
-                        new android.os.Handler(getMainLooper()).postDelayed(() -> {
-                            Log.d(TAG, "Retrying Firebase connection");
-                            setupFirebaseTableListener();
-                        }, errorResult.getRetryDelayMs());
-                    } else {
-                        Log.w(TAG, "Not retrying Firebase connection - Retryable: " + errorResult.isRetryable() + 
-                                  ", Network available: " + isNetworkAvailable);
+                    // The database has already removed the listener, so the retry attaches a new one
+                    if (tablesChildEventListener == this) {
+                        tablesChildEventListener = null;
                     }
+                    reconnectManager.onFailure(firebaseConnector, errorResult);
                 }
             };
                 tablesDatabaseReference.addChildEventListener(tablesChildEventListener);
                 Log.d(TAG, "setupFirebaseTableListener: ChildEventListener attached to /" + Constants.FIREBASE_TABLES_PATH);
+                awaitInitialSync();
             } else {
                 Log.d(TAG, "setupFirebaseTableListener: ChildEventListener already attached.");
+                // Nothing to wait for unless the initial sync is still on its way
+                if (!initialSyncPending) {
+                    reconnectManager.onConnected(firebaseConnector);
+                }
             }
         } catch (Exception e) {
             Log.e(TAG, "Error setting up Firebase listener", e);
             FirebaseErrorHandler.ErrorResult errorResult = FirebaseErrorHandler.handleException(e);
             FirebaseErrorHandler.showErrorToUser(this, errorResult);
-            
-            if (errorResult.isRetryable() && isNetworkAvailable) {
-                new android.os.Handler(getMainLooper()).postDelayed(() -> {
-                    Log.d(TAG, "Retrying Firebase setup after exception");
-                    setupFirebaseTableListener();
-                }, errorResult.getRetryDelayMs());
+            reconnectManager.onFailure(firebaseConnector, errorResult);
+        }
+    }
+
+    /**
+     * Shows a recorded event stream instead of the live data. Firebase is not listened
+     * to, and the recording goes through the same decoder, filter, coalescer and store
+     * as live events, so the whole pipeline can be profiled offline.
+     * The replay session belongs to the application, so a dashboard recreated for a
+     * configuration change picks it up where it was instead of starting over.
+     * @param speed Replay speed, see {@link TableStreamReplayer}
+     * @param recreated true if the dashboard is recreated rather than newly opened
+     */
+    private void startReplay(double speed, boolean recreated) {
+        SmartTableIndicatorApp app = (SmartTableIndicatorApp) getApplication();
+        tableStreamReplayer = recreated ? app.getTableStreamReplayer() : null;
+        if (tableStreamReplayer == null) {
+            File recording = new File(getFilesDir(), Constants.TABLE_STREAM_RECORDING_FILE_NAME);
+            tableStreamReplayer = app.startReplay(recording, speed);
+            Log.i(TAG, "startReplay: Replaying " + recording + " at speed " + speed);
+        } else {
+            Log.i(TAG, "startReplay: Resuming the replay after " + tableStreamReplayer.getSubmittedCount() + " events");
+        }
+        if (getSupportActionBar() != null) {
+            getSupportActionBar().setSubtitle(tableStreamReplayer.getSpeed() == TableStreamReplayer.AS_FAST_AS_POSSIBLE
+                    ? getString(R.string.replay_subtitle_max_speed)
+                    : getString(R.string.replay_subtitle, tableStreamReplayer.getSpeed()));
+        }
+        tableStreamReplayer.attach(tableSnapshotDecoder,
+                (submittedCount, elapsedMs, error) -> runOnUiThread(() -> finishReplay(submittedCount, elapsedMs, error)));
+    }
+
+    private void finishReplay(long submittedCount, long elapsedMs, @Nullable IOException error) {
+        if (isFinishing() || isDestroyed()) {
+            return;
+        }
+        Toast.makeText(this, error == null
+                        ? getString(R.string.replay_finished, submittedCount, elapsedMs)
+                        : getString(R.string.replay_failed, error.getMessage()),
+                Toast.LENGTH_LONG).show();
+    }
+
+    /**
+     * Holds back per-table alerts until Firebase has replayed the existing children.
+     * A value listener added after the child listener fires once all initial
+     * onChildAdded calls are done, and is served from the same synced data.
+     */
+    private void awaitInitialSync() {
+        initialSyncPending = true;
+        tablesDatabaseReference.addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(@NonNull DataSnapshot snapshot) {
+                tableSnapshotDecoder.submitInitialSync(snapshot,
+                        tableNumbers -> runOnUiThread(() -> finishInitialSync(tableNumbers)));
             }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError error) {
+                Log.w(TAG, "Initial sync listener cancelled, enabling per-table alerts", error.toException());
+                initialSyncPending = false;
+            }
+        });
+    }
+
+    /**
+     * Applies the rest of the initial data, drops tables restored from the local
+     * snapshot that no longer exist, and reports every dirty table in one summary
+     * @param presentTables Numbers of the tables present in Firebase
+     */
+    private void finishInitialSync(@NonNull BitSet presentTables) {
+        if (isFinishing() || isDestroyed()) {
+            return;
+        }
+        tableEventCoalescer.flush();
+        pruneMissingTables(presentTables, -1);
+        reconnectManager.onConnected(firebaseConnector);
+
+        List<Integer> dirtyTables = findDirtyTables(null);
+        initialSyncPending = false;
+        notificationDispatcher.notifyInitialSummary(dirtyTables);
+        Log.i(TAG, "finishInitialSync: " + presentTables.cardinality() + " tables synced, "
+                + dirtyTables.size() + " need cleaning");
+    }
+
+    /**
+     * Starts listening to the assigned and viewed zones when tables are sharded by zone.
+     * Staff without assigned zones are asked to pick them.
+     */
+    private void setupZoneSubscriptions() {
+        if (zoneSubscriptions != null) {
+            zoneSubscriptions.refresh();
+            return;
+        }
+        zoneSubscriptions = new ZoneSubscriptionManager(tablesDatabaseReference, tableSnapshotDecoder,
+                Constants.ZONE_IDLE_DETACH_MS, new ZoneSubscriptionManager.Callback() {
+                    @Override
+                    public void onZoneSynced(int zone, @NonNull BitSet tableNumbers) {
+                        finishZoneSync(zone, tableNumbers);
+                    }
+
+                    @Override
+                    public void onZoneCancelled(int zone, @NonNull DatabaseError error) {
+                        FirebaseErrorHandler.ErrorResult errorResult = FirebaseErrorHandler.handleDatabaseError(error);
+                        FirebaseErrorHandler.showErrorToUser(MainActivity.this, errorResult);
+                        reconnectManager.onFailure(firebaseConnector, errorResult);
+                        refreshTables();
+                    }
+
+                    @Override
+                    public void onZoneDetached(int zone) {
+                        refreshTables();
+                    }
+                });
+        BitSet assignedZones = loadAssignedZones();
+        initialSyncPending = !assignedZones.isEmpty();
+        zoneSubscriptions.setFollowViewedZones(syncPolicy.followsViewedZones());
+        zoneSubscriptions.setAssignedZones(assignedZones);
+        updateViewport();
+        Log.d(TAG, "setupZoneSubscriptions: Assigned zones " + assignedZones);
+        if (assignedZones.isEmpty()) {
+            showZonePicker();
+        }
+    }
+
+    /**
+     * Drops tables of a zone that disappeared while it was not listened to, and shows
+     * the rest as live again. Once every assigned zone has synced for the first time,
+     * reports their dirty tables in one summary.
+     */
+    private void finishZoneSync(int zone, @NonNull BitSet presentTables) {
+        if (isFinishing() || isDestroyed()) {
+            return;
+        }
+        tableEventCoalescer.flush();
+        pruneMissingTables(presentTables, zone);
+        refreshTables();
+        reconnectManager.onConnected(firebaseConnector);
+        Log.i(TAG, "finishZoneSync: Zone " + zone + " synced with " + presentTables.cardinality() + " tables");
+
+        if (initialSyncPending && zoneSubscriptions.areAssignedZonesSynced()) {
+            initialSyncPending = false;
+            notificationDispatcher.notifyInitialSummary(findDirtyTables(zoneSubscriptions.getAssignedZones()));
+        }
+    }
+
+    /**
+     * Starts loading the tables page by page as the user scrolls, instead of syncing the
+     * whole tables node. Per-table alerts are held back until the first page has synced.
+     */
+    private void setupPagedLoading() {
+        if (pagedTableLoader != null) {
+            // Fetches or listens again to pages whose query failed
+            updateViewport();
+            return;
+        }
+        pagedTableLoader = new PagedTableLoader(tablesDatabaseReference, tableSnapshotDecoder,
+                Constants.TABLE_PAGE_SIZE, syncPolicy.getPagePrefetch(), new PagedTableLoader.Callback() {
+                    @Override
+                    public void onPageSynced(int page, @NonNull BitSet tableNumbers, @NonNull BitSet goneTables) {
+                        finishPageSync(page, tableNumbers, goneTables);
+                    }
+
+                    @Override
+                    public void onAllPagesFound(@NonNull BitSet allTables) {
+                        tableEventCoalescer.flush();
+                        pruneMissingTables(allTables, -1);
+                        Log.i(TAG, "onAllPagesFound: " + pagedTableLoader.getPageCount() + " pages, "
+                                + allTables.cardinality() + " tables");
+                    }
+
+                    @Override
+                    public void onPagesReleased(@NonNull BitSet releasedTables) {
+                        refreshTables();
+                    }
+
+                    @Override
+                    public void onPageFailed(int page, @NonNull DatabaseError error) {
+                        FirebaseErrorHandler.ErrorResult errorResult = FirebaseErrorHandler.handleDatabaseError(error);
+                        FirebaseErrorHandler.showErrorToUser(MainActivity.this, errorResult);
+                        reconnectManager.onFailure(firebaseConnector, errorResult);
+                        refreshTables();
+                    }
+                });
+        initialSyncPending = true;
+        pagedTableLoader.start();
+        Log.d(TAG, "setupPagedLoading: Page size " + Constants.TABLE_PAGE_SIZE
+                + ", prefetch " + syncPolicy.getPagePrefetch());
+    }
+
+    /**
+     * Applies the sync policy's current mode to event batching, zone listening and
+     * page prefetch
+     */
+    private void applySyncMode() {
+        if (isDestroyed()) {
+            return;
+        }
+        tableEventCoalescer.setWindowMs(syncPolicy.getCoalesceWindowMs());
+        if (zoneSubscriptions != null) {
+            zoneSubscriptions.setFollowViewedZones(syncPolicy.followsViewedZones());
         }
+        if (pagedTableLoader != null) {
+            pagedTableLoader.setPrefetchPages(syncPolicy.getPagePrefetch());
+            updateViewport();
+        }
+        Log.i(TAG, "applySyncMode: " + syncPolicy.getMode() + ", switches so far: " + syncPolicy.getSwitchCount());
     }
 
-    private TableModel.Status convertFirebaseStatusToEnum(String firebaseStatus) {
-        if (firebaseStatus == null) {
-            Log.w(TAG, "convertFirebaseStatusToEnum: Firebase status is null, defaulting to AVAILABLE.");
-            return TableModel.Status.AVAILABLE;
+    /**
+     * Drops tables of a page that disappeared while it was not listened to. After the
+     * first page, reports its dirty tables in one summary.
+     */
+    private void finishPageSync(int page, @NonNull BitSet presentTables, @NonNull BitSet goneTables) {
+        if (isFinishing() || isDestroyed()) {
+            return;
         }
-        switch (firebaseStatus.toUpperCase()) {
-            case Constants.STATUS_OCCUPIED:
-                return TableModel.Status.OCCUPIED;
-            case Constants.STATUS_DIRTY:
-                return TableModel.Status.DIRTY;
-            case "CLEAN":
-            case Constants.STATUS_AVAILABLE:
-                return TableModel.Status.AVAILABLE;
-            default:
-                Log.w(TAG, "convertFirebaseStatusToEnum: Unknown status '" + firebaseStatus + "', defaulting to AVAILABLE.");
-                return TableModel.Status.AVAILABLE;
+        tableEventCoalescer.flush();
+        for (int tableNumber = goneTables.nextSetBit(0); tableNumber >= 0; tableNumber = goneTables.nextSetBit(tableNumber + 1)) {
+            if (tableStore.remove(tableNumber) != null) {
+                notificationDispatcher.cancelTable(tableNumber);
+            }
+        }
+        // Also brings the page's tables back from faded
+        refreshTables();
+        reconnectManager.onConnected(firebaseConnector);
+        Log.i(TAG, "finishPageSync: Page " + page + " synced with " + presentTables.cardinality() + " tables");
+
+        if (initialSyncPending) {
+            initialSyncPending = false;
+            notificationDispatcher.notifyInitialSummary(findDirtyTables(null));
         }
     }
 
+    /**
+     * Removes tables restored from the local snapshot that are no longer in Firebase
+     * @param presentTables Numbers of the tables present in Firebase
+     * @param zone Only prune tables of this zone, or -1 to prune every table
+     */
+    private void pruneMissingTables(@NonNull BitSet presentTables, int zone) {
+        boolean pruned = false;
+        for (TableModel table : tableStore.snapshot()) {
+            int tableNumber = table.getTableNumber();
+            if ((zone < 0 || TableZones.zoneOf(tableNumber) == zone) && !presentTables.get(tableNumber)) {
+                tableStore.remove(tableNumber);
+                notificationDispatcher.cancelTable(tableNumber);
+                pruned = true;
+            }
+        }
+        if (pruned) {
+            refreshTables();
+        }
+    }
+
+    /**
+     * @param zones Zones to look in, or null for every table
+     * @return Numbers of the DIRTY tables
+     */
+    @NonNull
+    private List<Integer> findDirtyTables(@Nullable BitSet zones) {
+        BitSet dirty = tableStore.tablesWith(TableModel.Status.DIRTY);
+        List<Integer> dirtyTables = new ArrayList<>(dirty.cardinality());
+        for (int tableNumber = dirty.nextSetBit(0); tableNumber >= 0; tableNumber = dirty.nextSetBit(tableNumber + 1)) {
+            if (zones == null || zones.get(TableZones.zoneOf(tableNumber))) {
+                dirtyTables.add(tableNumber);
+            }
+        }
+        return dirtyTables;
+    }
+
+    private BitSet loadAssignedZones() {
+        SharedPreferences prefs = getSharedPreferences(Constants.PREFS_NAME, MODE_PRIVATE);
+        String staffId = prefs.getString(Constants.KEY_STAFF_ID, "");
+        return TableZones.parse(prefs.getString(Constants.KEY_ASSIGNED_ZONES_PREFIX + staffId, null));
+    }
+
+    private void saveAssignedZones(@NonNull BitSet zones) {
+        SharedPreferences prefs = getSharedPreferences(Constants.PREFS_NAME, MODE_PRIVATE);
+        String staffId = prefs.getString(Constants.KEY_STAFF_ID, "");
+        prefs.edit().putString(Constants.KEY_ASSIGNED_ZONES_PREFIX + staffId, TableZones.format(zones)).apply();
+    }
+
+    private void showZonePicker() {
+        BitSet assignedZones = loadAssignedZones();
+        String[] names = new String[Constants.MAX_ZONES];
+        boolean[] checked = new boolean[Constants.MAX_ZONES];
+        for (int zone = 0; zone < Constants.MAX_ZONES; zone++) {
+            names[zone] = getString(R.string.zone_name, zone);
+            checked[zone] = assignedZones.get(zone);
+        }
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.zone_picker_title)
+                .setMultiChoiceItems(names, checked, (dialog, which, isChecked) -> checked[which] = isChecked)
+                .setPositiveButton(android.R.string.ok, (dialog, which) -> {
+                    BitSet zones = new BitSet(Constants.MAX_ZONES);
+                    for (int zone = 0; zone < Constants.MAX_ZONES; zone++) {
+                        if (checked[zone]) {
+                            zones.set(zone);
+                        }
+                    }
+                    saveAssignedZones(zones);
+                    if (zoneSubscriptions != null) {
+                        zoneSubscriptions.setAssignedZones(zones);
+                    }
+                    Log.d(TAG, "showZonePicker: Assigned zones " + zones);
+                })
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
+    private void scheduleViewportUpdate() {
+        if (zoneSubscriptions != null || pagedTableLoader != null) {
+            mainHandler.removeCallbacks(viewportUpdate);
+            mainHandler.postDelayed(viewportUpdate, Constants.ZONE_VIEW_UPDATE_DELAY_MS);
+        }
+    }
+
+    /**
+     * Tells the zone subscriptions which zones are in the active view, and the paged
+     * loader which tables are on screen and how many loaded tables lie below.
+     * Viewed zones come from the zone layout, not from the tables loaded so far, so a
+     * zone that was never attached can come into view: in the grids, every zone in the
+     * scrolled number range plus, at either end, the zones beyond it; on a floor plan
+     * from the venue's layout, the zones of the tables placed on screen.
+     * Nothing is viewed while the activity is stopped. The floor plan has no end to
+     * scroll towards, so pages are fetched until all are found while it is shown.
+     */
+    private void updateViewport() {
+        if (zoneSubscriptions == null && pagedTableLoader == null) {
+            return;
+        }
+        BitSet visibleTables = new BitSet();
+        int remainingBelow = Integer.MAX_VALUE;
+        boolean atStart = false;
+        boolean started = getLifecycle().getCurrentState().isAtLeast(Lifecycle.State.STARTED);
+        if (started) {
+            if (tableViewMode == Constants.TABLE_VIEW_MODE_COMPACT) {
+                tableGridView.forEachVisibleTable(visibleTables::set);
+                atStart = tableGridView.getTablesAboveViewport() == 0;
+                remainingBelow = tableGridView.getTablesBelowViewport();
+            } else if (tableViewMode == Constants.TABLE_VIEW_MODE_FLOOR_PLAN) {
+                floorPlanView.forEachVisibleTable(visibleTables::set);
+                atStart = true;
+                remainingBelow = 0;
+            } else {
+                GridLayoutManager layoutManager = (GridLayoutManager) recyclerViewTables.getLayoutManager();
+                List<TableModel> shown = tableAdapter.getCurrentSnapshot();
+                int first = Math.max(0, layoutManager.findFirstVisibleItemPosition());
+                int last = Math.min(layoutManager.findLastVisibleItemPosition(), shown.size() - 1);
+                for (int position = first; position <= last; position++) {
+                    visibleTables.set(shown.get(position).getTableNumber());
+                }
+                atStart = first == 0;
+                remainingBelow = shown.size() - 1 - last;
+            }
+        }
+        if (zoneSubscriptions != null) {
+            BitSet zones = new BitSet(Constants.MAX_ZONES);
+            FloorPlan plan = floorPlanView.getFloorPlan();
+            if (started && tableViewMode == Constants.TABLE_VIEW_MODE_FLOOR_PLAN && plan != null && !plan.isGenerated()) {
+                for (int tableNumber = visibleTables.nextSetBit(0); tableNumber >= 0; tableNumber = visibleTables.nextSetBit(tableNumber + 1)) {
+                    zones.set(TableZones.zoneOf(tableNumber));
+                }
+            } else if (started) {
+                zones = TableZones.viewedZones(visibleTables, atStart, remainingBelow <= 0,
+                        zoneSubscriptions.getEmptyZones());
+            }
+            zoneSubscriptions.setViewedZones(zones);
+        }
+        if (pagedTableLoader != null) {
+            pagedTableLoader.onViewportChanged(visibleTables, remainingBelow);
+        }
+    }
+
+    /**
+     * Applies one coalesced batch of table events to the store, then updates the grid
+     * once and raises or clears the cleaning notifications for tables that changed.
+     * Tables that turn dirty during the initial sync are left to the initial summary,
+     * and a replayed recording raises no alerts.
+     * The events that changed the store are handed to the latency tracer, which
+     * completes them once the active table view has drawn them.
+     * @param batch Events collected during one coalescing window
+     */
+    private void applyTableBatch(@NonNull List<TableEvent> batch) {
+        // A closing dashboard's decoder may still be finishing events of its own source
+        if (isFinishing() || isDestroyed()) {
+            return;
+        }
+        List<TableEvent> applied = new ArrayList<>();
+        boolean changed = tableEventApplier.apply(batch, !initialSyncPending && tableStreamReplayer == null, applied);
+        if (changed) {
+            if (!initialSyncPending) {
+                eventLatencyTracer.onApplied(applied, tableStreamReplayer != null);
+            }
+            refreshTables();
+        }
+        Log.d(TAG, "applyTableBatch: Applied " + batch.size() + " events, merged so far: " + tableEventCoalescer.getEventsMerged());
+    }
+
+    /**
+     * Shows the current store snapshot, narrowed to the status filter, in whichever
+     * table view is active, and updates the status counts.
+     * The hidden view is brought up to date when it is switched to. The floor plan keeps
+     * every table in place and draws the ones filtered out as outlines. Tables whose
+     * status is not kept up to date right now are faded.
+     */
+    private void refreshTables() {
+        List<TableModel> snapshot = tableStore.snapshot(statusFilter);
+        BitSet staleTables = findStaleTables(snapshot);
+        if (tableViewMode == Constants.TABLE_VIEW_MODE_COMPACT) {
+            tableGridView.setStaleTables(staleTables);
+            tableGridView.setTables(snapshot);
+        } else if (tableViewMode == Constants.TABLE_VIEW_MODE_FLOOR_PLAN) {
+            floorPlanView.setStaleTables(staleTables);
+            FloorPlan plan = floorPlanView.getFloorPlan();
+            if (plan != null && plan.isGenerated()) {
+                List<TableModel> tables = tableStore.snapshot();
+                if (!plan.placesExactly(tables)) {
+                    floorPlanView.setFloorPlan(FloorPlan.grid(tables), true);
+                }
+            }
+            floorPlanView.setTables(snapshot);
+        } else {
+            tableAdapter.setStaleTables(staleTables);
+            tableAdapter.submitSnapshot(snapshot, this::traceTablesDrawn);
+        }
+        textViewStatusSummary.setText(getString(R.string.table_status_counts,
+                tableStore.countOf(TableModel.Status.AVAILABLE),
+                tableStore.countOf(TableModel.Status.OCCUPIED),
+                tableStore.countOf(TableModel.Status.DIRTY)));
+        scheduleViewportUpdate();
+    }
+
+    /**
+     * Completes the latency trace of the applied events, once the active view has drawn
+     * them or, for the cards, once the diffed snapshot is committed to the list
+     */
+    private void traceTablesDrawn() {
+        if (!eventLatencyTracer.hasPending()) {
+            return;
+        }
+        BitSet drawnTables = new BitSet();
+        if (tableViewMode == Constants.TABLE_VIEW_MODE_COMPACT) {
+            tableGridView.forEachVisibleTable(drawnTables::set);
+        } else if (tableViewMode == Constants.TABLE_VIEW_MODE_FLOOR_PLAN) {
+            floorPlanView.forEachVisibleTable(drawnTables::set);
+        } else {
+            GridLayoutManager layoutManager = (GridLayoutManager) recyclerViewTables.getLayoutManager();
+            List<TableModel> shown = tableAdapter.getCurrentSnapshot();
+            int last = Math.min(layoutManager.findLastVisibleItemPosition(), shown.size() - 1);
+            for (int position = Math.max(0, layoutManager.findFirstVisibleItemPosition()); position <= last; position++) {
+                drawnTables.set(shown.get(position).getTableNumber());
+            }
+        }
+        eventLatencyTracer.onTablesDrawn(drawnTables);
+    }
+
+    /**
+     * @return Numbers of the shown tables whose status is only the last one known,
+     * because their zone or page is not attached and synced
+     */
+    private BitSet findStaleTables(@NonNull List<TableModel> tables) {
+        BitSet staleTables = new BitSet();
+        if (zoneSubscriptions != null) {
+            BitSet syncedZones = zoneSubscriptions.getSyncedZones();
+            for (TableModel table : tables) {
+                if (!syncedZones.get(TableZones.zoneOf(table.getTableNumber()))) {
+                    staleTables.set(table.getTableNumber());
+                }
+            }
+        } else if (pagedTableLoader != null) {
+            BitSet liveTables = pagedTableLoader.getLiveTables();
+            for (TableModel table : tables) {
+                if (!liveTables.get(table.getTableNumber())) {
+                    staleTables.set(table.getTableNumber());
+                }
+            }
+        }
+        return staleTables;
+    }
+
+    private void applyTableViewMode() {
+        recyclerViewTables.setVisibility(
+                tableViewMode == Constants.TABLE_VIEW_MODE_CARDS ? View.VISIBLE : View.GONE);
+        tableGridView.setVisibility(
+                tableViewMode == Constants.TABLE_VIEW_MODE_COMPACT ? View.VISIBLE : View.GONE);
+        floorPlanView.setVisibility(
+                tableViewMode == Constants.TABLE_VIEW_MODE_FLOOR_PLAN ? View.VISIBLE : View.GONE);
+        if (tableViewMode == Constants.TABLE_VIEW_MODE_FLOOR_PLAN) {
+            loadFloorPlan();
+        }
+        refreshTables();
+        updateBlinking(getLifecycle().getCurrentState().isAtLeast(Lifecycle.State.STARTED));
+    }
+
+    /**
+     * Loads the venue's floor plan asset off the main thread, once. Venues without one
+     * get the current tables laid out in a square grid.
+     */
+    private void loadFloorPlan() {
+        if (floorPlanRequested) {
+            return;
+        }
+        floorPlanRequested = true;
+        floorPlanExecutor.execute(() -> {
+            FloorPlan loaded = FloorPlan.loadAsset(getAssets(), Constants.FLOOR_PLAN_ASSET_NAME);
+            runOnUiThread(() -> {
+                if (isDestroyed()) {
+                    return;
+                }
+                FloorPlan plan = loaded != null ? loaded : FloorPlan.grid(tableStore.snapshot());
+                Log.d(TAG, "loadFloorPlan: " + plan.size() + " tables placed, generated: " + plan.isGenerated());
+                floorPlanView.setFloorPlan(plan);
+                floorPlanView.setTables(tableStore.snapshot(statusFilter));
+            });
+        });
+    }
+
+    /**
+     * Runs the pulse of the active table view only while the activity is visible
+     */
+    private void updateBlinking(boolean visible) {
+        if (visible && tableViewMode == Constants.TABLE_VIEW_MODE_CARDS) {
+            tableAdapter.startBlinking();
+        } else {
+            tableAdapter.stopBlinking();
+        }
+        if (visible && tableViewMode == Constants.TABLE_VIEW_MODE_COMPACT) {
+            tableGridView.startBlinking();
+        } else {
+            tableGridView.stopBlinking();
+        }
+        if (visible && tableViewMode == Constants.TABLE_VIEW_MODE_FLOOR_PLAN) {
+            floorPlanView.startBlinking();
+        } else {
+            floorPlanView.stopBlinking();
+        }
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.menu_main, menu);
+        menu.findItem(R.id.action_zones).setVisible(Constants.FIREBASE_TABLES_SHARDED_BY_ZONE);
+        int checkedId;
+        if (tableViewMode == Constants.TABLE_VIEW_MODE_COMPACT) {
+            checkedId = R.id.action_view_compact;
+        } else if (tableViewMode == Constants.TABLE_VIEW_MODE_FLOOR_PLAN) {
+            checkedId = R.id.action_view_floor_plan;
+        } else {
+            checkedId = R.id.action_view_cards;
+        }
+        menu.findItem(checkedId).setChecked(true);
+        if (statusFilter == TableModel.Status.DIRTY) {
+            checkedId = R.id.action_filter_dirty;
+        } else if (statusFilter == TableModel.Status.AVAILABLE) {
+            checkedId = R.id.action_filter_available;
+        } else {
+            checkedId = R.id.action_filter_all;
+        }
+        menu.findItem(checkedId).setChecked(true);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(@NonNull MenuItem item) {
+        int id = item.getItemId();
+        if (id == R.id.action_view_cards || id == R.id.action_view_compact || id == R.id.action_view_floor_plan) {
+            item.setChecked(true);
+            if (id == R.id.action_view_compact) {
+                tableViewMode = Constants.TABLE_VIEW_MODE_COMPACT;
+            } else if (id == R.id.action_view_floor_plan) {
+                tableViewMode = Constants.TABLE_VIEW_MODE_FLOOR_PLAN;
+            } else {
+                tableViewMode = Constants.TABLE_VIEW_MODE_CARDS;
+            }
+            getSharedPreferences(Constants.PREFS_NAME, MODE_PRIVATE).edit()
+                    .putInt(Constants.KEY_TABLE_VIEW_MODE, tableViewMode).apply();
+            applyTableViewMode();
+            return true;
+        } else if (id == R.id.action_filter_all || id == R.id.action_filter_dirty || id == R.id.action_filter_available) {
+            item.setChecked(true);
+            if (id == R.id.action_filter_dirty) {
+                statusFilter = TableModel.Status.DIRTY;
+            } else if (id == R.id.action_filter_available) {
+                statusFilter = TableModel.Status.AVAILABLE;
+            } else {
+                statusFilter = null;
+            }
+            getSharedPreferences(Constants.PREFS_NAME, MODE_PRIVATE).edit()
+                    .putString(Constants.KEY_TABLE_STATUS_FILTER, statusFilter != null ? statusFilter.name() : null)
+                    .apply();
+            refreshTables();
+            return true;
+        } else if (id == R.id.action_zones) {
+            showZonePicker();
+            return true;
+        } else if (id == R.id.action_settings) {
+            startActivity(new Intent(this, SettingsActivity.class));
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
     @Override
     protected void onActivityResult(int requestCode, int resultCode, Intent data) {
         super.onActivityResult(requestCode, resultCode, data);
@@ -485,6 +1098,9 @@ public class MainActivity extends AppCompatActivity {
     protected void onStart() {
         super.onStart();
         Log.d(TAG, "onStart: Lifecycle event.");
+        tableStore.addListener(backgroundChangeListener);
+        refreshTables();
+        updateBlinking(true);
     }
 
     @Override
@@ -503,18 +1119,52 @@ public class MainActivity extends AppCompatActivity {
     protected void onStop() {
         super.onStop();
         Log.d(TAG, "onStop: Lifecycle event.");
+        tableStore.removeListener(backgroundChangeListener);
+        updateBlinking(false);
+        scheduleViewportUpdate();
+        eventLatencyTracer.discardPending();
     }
 
     @Override
     protected void onDestroy() {
         super.onDestroy();
         Log.d(TAG, "onDestroy: Lifecycle event. Cleaning up resources.");
+        syncPolicy.removeListener(syncModeListener);
+        reconnectManager.stop(firebaseConnector);
+        // The replay only ends when the dashboard is closed for good and no newer
+        // dashboard has taken it over or started another
+        SmartTableIndicatorApp app = (SmartTableIndicatorApp) getApplication();
+        if (tableStreamReplayer != null && tableStreamReplayer.detach(tableSnapshotDecoder) && isFinishing()
+                && app.getTableStreamReplayer() == tableStreamReplayer) {
+            app.endReplay();
+            Log.i(TAG, "onDestroy: Replay stopped, live table state restored.");
+        }
         
         if (tablesDatabaseReference != null && tablesChildEventListener != null) {
             tablesDatabaseReference.removeEventListener(tablesChildEventListener);
             tablesChildEventListener = null;
             Log.i(TAG, "onDestroy: Firebase ChildEventListener removed.");
         }
+
+        if (zoneSubscriptions != null) {
+            zoneSubscriptions.detachAll();
+            Log.i(TAG, "onDestroy: Zone listeners removed.");
+        }
+
+        if (pagedTableLoader != null) {
+            pagedTableLoader.releaseAll();
+            Log.i(TAG, "onDestroy: Page listeners removed.");
+        }
+        mainHandler.removeCallbacks(viewportUpdate);
+
+        if (tableSnapshotDecoder != null) {
+            tableSnapshotDecoder.shutdown();
+        }
+        floorPlanExecutor.shutdownNow();
+
+        if (tableEventCoalescer != null) {
+            tableEventCoalescer.cancel();
+        }
         
         if (networkManager != null) {
             networkManager.stopNetworkMonitoring();
@@ -13,23 +13,24 @@ import android.widget.Button;
 import android.widget.RadioButton;
 import android.widget.RadioGroup;
 import android.widget.TextView;
-import android.widget.Toast;
 
 import com.google.firebase.FirebaseApp;
-import com.google.firebase.database.DataSnapshot;
-import com.google.firebase.database.DatabaseError;
-import com.google.firebase.database.DatabaseReference;
-import com.google.firebase.database.FirebaseDatabase;
-import com.google.firebase.database.ValueEventListener;
 
 import com.smarttableindicator.app.R;
+import com.smarttableindicator.app.SmartTableIndicatorApp;
 import com.smarttableindicator.app.config.Constants;
+import com.smarttableindicator.app.stats.LatencyHistogram;
+import com.smarttableindicator.app.sync.LatencyProbe;
+import com.smarttableindicator.app.views.LatencyHistogramView;
 
 public class SettingsActivity extends AppCompatActivity {
 
     private TextView textViewFirebaseProjectId;
     private Button buttonTestFirebase;
     private TextView textViewFirebaseTestStatus;
+    private LatencyHistogramView latencyHistogramView;
+    private LatencyProbe latencyProbe;
+    private final LatencyProbe.Listener probeListener = latencyMs -> showProbeResults();
 
     private RadioGroup radioGroupTheme;
     private RadioButton radioButtonLight;
@@ -51,6 +52,8 @@ public class SettingsActivity extends AppCompatActivity {
         textViewFirebaseProjectId = findViewById(R.id.textViewFirebaseProjectId);
         buttonTestFirebase = findViewById(R.id.buttonTestFirebase);
         textViewFirebaseTestStatus = findViewById(R.id.textViewFirebaseTestStatus);
+        latencyHistogramView = findViewById(R.id.latencyHistogramView);
+        latencyProbe = ((SmartTableIndicatorApp) getApplication()).getLatencyProbe();
 
         try {
             String projectId = FirebaseApp.getInstance().getOptions().getProjectId();
@@ -64,7 +67,11 @@ public class SettingsActivity extends AppCompatActivity {
             Log.e(TAG, "FirebaseApp not initialized: " + e.getMessage());
         }
 
-        buttonTestFirebase.setOnClickListener(v -> testFirebaseConnection());
+        buttonTestFirebase.setOnClickListener(v -> {
+            if (latencyProbe.isRunning()) {
+                latencyProbe.probeNow();
+            }
+        });
 
         radioGroupTheme = findViewById(R.id.radioGroupTheme);
         radioButtonLight = findViewById(R.id.radioButtonLight);
@@ -94,53 +101,36 @@ public class SettingsActivity extends AppCompatActivity {
         });
     }
 
-    private void testFirebaseConnection() {
-        textViewFirebaseTestStatus.setText("Testing connection...");
-        try {
-            FirebaseDatabase database = FirebaseDatabase.getInstance();
-            DatabaseReference testRef = database.getReference(Constants.FIREBASE_CONNECTION_TEST_PATH);
-            long timestamp = System.currentTimeMillis();
-
-            testRef.setValue(timestamp)
-                    .addOnSuccessListener(aVoid -> {
-                        Log.d(TAG, "Successfully wrote to Firebase: " + timestamp);
-                        testRef.addListenerForSingleValueEvent(new ValueEventListener() {
-                            @Override
-                            public void onDataChange(@NonNull DataSnapshot dataSnapshot) {
-                                Long value = dataSnapshot.getValue(Long.class);
-                                if (value != null && value == timestamp) {
-                                    String successMsg = "Test successful! Wrote & Read: " + value;
-                                    textViewFirebaseTestStatus.setText(successMsg);
-                                    Toast.makeText(SettingsActivity.this, "Firebase test successful!", Toast.LENGTH_SHORT).show();
-                                    Log.d(TAG, successMsg);
-                                } else {
-                                    String errorMsg = "Test failed: Value mismatch or null. Read: " + value;
-                                    textViewFirebaseTestStatus.setText(errorMsg);
-                                    Toast.makeText(SettingsActivity.this, "Firebase test: Value mismatch.", Toast.LENGTH_LONG).show();
-                                    Log.e(TAG, errorMsg);
-                                }
-                            }
-                            @Override
-                            public void onCancelled(@NonNull DatabaseError databaseError) {
-                                String errorMsg = "Test failed: Read cancelled. " + databaseError.getMessage();
-                                textViewFirebaseTestStatus.setText(errorMsg);
-                                Toast.makeText(SettingsActivity.this, "Firebase test: Read cancelled.", Toast.LENGTH_LONG).show();
-                                Log.e(TAG, "Firebase read cancelled: " + databaseError.getMessage());
-                            }
-                        });
-                    })
-                    .addOnFailureListener(e -> {
-                        String errorMsg = "Test failed: Write error. " + e.getMessage();
-                        textViewFirebaseTestStatus.setText(errorMsg);
-                        Toast.makeText(SettingsActivity.this, "Firebase test: Write error.", Toast.LENGTH_LONG).show();
-                        Log.e(TAG, "Firebase write error: " + e.getMessage());
-                    });
-        } catch (Exception e) {
-            String errorMsg = "Test failed: Exception during Firebase init/operation. " + e.getMessage();
-            textViewFirebaseTestStatus.setText(errorMsg);
-            Toast.makeText(SettingsActivity.this, "Firebase operation error.", Toast.LENGTH_LONG).show();
-            Log.e(TAG, "Exception during Firebase test: " + e.getMessage(), e);
+    @Override
+    protected void onStart() {
+        super.onStart();
+        latencyProbe.addListener(probeListener);
+        showProbeResults();
+    }
+
+    @Override
+    protected void onStop() {
+        latencyProbe.removeListener(probeListener);
+        super.onStop();
+    }
+
+    private void showProbeResults() {
+        LatencyHistogram latencies = latencyProbe.getRecentLatencies();
+        long windowMinutes = latencyProbe.getWindowMs() / 60_000;
+        if (latencies.getCount() == 0 && latencyProbe.getRecentFailureRate() == 0) {
+            textViewFirebaseTestStatus.setText(getString(R.string.latency_probe_waiting, windowMinutes));
+        } else {
+            textViewFirebaseTestStatus.setText(getString(R.string.latency_probe_summary,
+                    latencies.getValueAtPercentile(50),
+                    latencies.getValueAtPercentile(95),
+                    latencies.getValueAtPercentile(99),
+                    latencies.getMax(),
+                    latencies.getCount(),
+                    latencyProbe.getRecentFailureRate() * 100,
+                    windowMinutes,
+                    latencyProbe.getSkippedCount()));
         }
+        latencyHistogramView.setHistogram(latencies);
     }
 
     private void loadAndSetCurrentThemeRadioSelection() {
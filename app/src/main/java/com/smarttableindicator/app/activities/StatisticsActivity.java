@@ -0,0 +1,204 @@
+package com.smarttableindicator.app.activities;
+
+import androidx.annotation.NonNull;
+import androidx.appcompat.app.AppCompatActivity;
+
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.MenuItem;
+import android.widget.TextView;
+
+import com.smarttableindicator.app.R;
+import com.smarttableindicator.app.SmartTableIndicatorApp;
+import com.smarttableindicator.app.config.Constants;
+import com.smarttableindicator.app.data.HistoryCompactor;
+import com.smarttableindicator.app.data.TableHourRollup;
+import com.smarttableindicator.app.stats.StatisticsEngine;
+
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Shows turnover, occupied time and cleaning latency over the retained history, kept
+ * by the {@link StatisticsEngine}, refreshed while visible, and weekly and monthly
+ * totals read from the compacted history once each time the screen is shown.
+ */
+public class StatisticsActivity extends AppCompatActivity {
+
+    private static final long REFRESH_INTERVAL_MS = 5000;
+    private static final long DAY_MS = 24L * 60 * 60 * 1000;
+    private static final int[] HISTORY_DAYS = {7, 30};
+
+    private StatisticsEngine statisticsEngine;
+    private HistoryCompactor historyCompactor;
+    private final ExecutorService historyExecutor = Executors.newSingleThreadExecutor();
+    private boolean historyQueryPending = false;
+    private TextView textViewHistory;
+    private TextView textViewOverall;
+    private TextView textViewByHour;
+    private TextView textViewByZone;
+    private TextView textViewByTable;
+
+    private final Handler refreshHandler = new Handler(Looper.getMainLooper());
+    private final Runnable refreshRunnable = new Runnable() {
+        @Override
+        public void run() {
+            refresh();
+            refreshHandler.postDelayed(this, REFRESH_INTERVAL_MS);
+        }
+    };
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_statistics);
+
+        if (getSupportActionBar() != null) {
+            getSupportActionBar().setTitle("Statistics");
+            getSupportActionBar().setDisplayHomeAsUpEnabled(true);
+        }
+
+        SmartTableIndicatorApp app = (SmartTableIndicatorApp) getApplication();
+        statisticsEngine = app.getStatisticsEngine();
+        historyCompactor = app.getHistoryCompactor();
+        textViewHistory = findViewById(R.id.textViewStatisticsHistory);
+        textViewOverall = findViewById(R.id.textViewStatisticsOverall);
+        textViewByHour = findViewById(R.id.textViewStatisticsByHour);
+        textViewByZone = findViewById(R.id.textViewStatisticsByZone);
+        textViewByTable = findViewById(R.id.textViewStatisticsByTable);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        refreshHistory();
+        refreshHandler.post(refreshRunnable);
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        refreshHandler.removeCallbacks(refreshRunnable);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        historyExecutor.shutdownNow();
+    }
+
+    private void refresh() {
+        textViewOverall.setText(formatSummary(statisticsEngine.getOverall()));
+
+        StringBuilder byHour = new StringBuilder();
+        for (int hour = 0; hour < 24; hour++) {
+            StatisticsEngine.Summary summary = statisticsEngine.getHour(hour);
+            if (summary != null) {
+                byHour.append(String.format(Locale.getDefault(), "%02d:00\n", hour))
+                        .append(formatSummary(summary)).append('\n');
+            }
+        }
+        textViewByHour.setText(orEmpty(byHour));
+
+        StringBuilder byZone = new StringBuilder();
+        for (int zone = 0; zone < Constants.MAX_ZONES; zone++) {
+            StatisticsEngine.Summary summary = statisticsEngine.getZone(zone);
+            if (summary != null) {
+                byZone.append("Zone ").append(zone).append('\n')
+                        .append(formatSummary(summary)).append('\n');
+            }
+        }
+        textViewByZone.setText(orEmpty(byZone));
+
+        StringBuilder byTable = new StringBuilder();
+        for (int tableNumber : statisticsEngine.getTrackedTables()) {
+            StatisticsEngine.Summary summary = statisticsEngine.getTable(tableNumber);
+            if (summary != null) {
+                byTable.append("Table ").append(tableNumber).append('\n')
+                        .append(formatSummary(summary)).append('\n');
+            }
+        }
+        textViewByTable.setText(orEmpty(byTable));
+    }
+
+    /**
+     * Sums the last weeks from the rollups and raw log on a background thread, every
+     * window in one pass, one query at a time
+     */
+    private void refreshHistory() {
+        if (historyQueryPending) {
+            return;
+        }
+        historyQueryPending = true;
+        historyExecutor.execute(() -> {
+            long now = System.currentTimeMillis();
+            long[] fromTimes = new long[HISTORY_DAYS.length];
+            for (int i = 0; i < HISTORY_DAYS.length; i++) {
+                fromTimes[i] = now - HISTORY_DAYS[i] * DAY_MS;
+            }
+            TableHourRollup[] totals = historyCompactor.summarize(fromTimes, now, TableHourRollup.ALL_TABLES);
+            StringBuilder history = new StringBuilder();
+            for (int i = 0; i < HISTORY_DAYS.length; i++) {
+                if (!totals[i].isEmpty()) {
+                    history.append("Last ").append(HISTORY_DAYS[i]).append(" days\n")
+                            .append(formatRollup(totals[i])).append('\n');
+                }
+            }
+            runOnUiThread(() -> {
+                historyQueryPending = false;
+                if (!isDestroyed()) {
+                    textViewHistory.setText(orEmpty(history));
+                }
+            });
+        });
+    }
+
+    private CharSequence orEmpty(StringBuilder text) {
+        return text.length() > 0 ? text : getString(R.string.statistics_empty);
+    }
+
+    private static String formatSummary(StatisticsEngine.Summary summary) {
+        return "Turnovers: " + summary.getTurnovers() + "\n"
+                + "Occupied (" + summary.getOccupiedCount() + "): p50 " + formatDuration(summary.getOccupiedP50())
+                + ", p90 " + formatDuration(summary.getOccupiedP90())
+                + ", p99 " + formatDuration(summary.getOccupiedP99()) + "\n"
+                + "Cleaning (" + summary.getCleaningCount() + "): p50 " + formatDuration(summary.getCleaningP50())
+                + ", p90 " + formatDuration(summary.getCleaningP90())
+                + ", p99 " + formatDuration(summary.getCleaningP99()) + "\n";
+    }
+
+    private static String formatRollup(TableHourRollup rollup) {
+        long occupiedCount = rollup.getOccupiedCount();
+        long cleaningCount = rollup.getCleaningCount();
+        return "Turnovers: " + rollup.getTurnovers() + "\n"
+                + "Occupied (" + occupiedCount + "): avg "
+                + formatDuration(occupiedCount > 0 ? rollup.getOccupiedSeconds() / occupiedCount : 0)
+                + ", p50 " + formatDuration(rollup.getOccupiedHistogram().getValueAtPercentile(50))
+                + ", p90 " + formatDuration(rollup.getOccupiedHistogram().getValueAtPercentile(90)) + "\n"
+                + "Cleaning (" + cleaningCount + "): avg "
+                + formatDuration(cleaningCount > 0 ? rollup.getCleaningSeconds() / cleaningCount : 0)
+                + ", p50 " + formatDuration(rollup.getCleaningHistogram().getValueAtPercentile(50))
+                + ", p90 " + formatDuration(rollup.getCleaningHistogram().getValueAtPercentile(90)) + "\n";
+    }
+
+    private static String formatDuration(long seconds) {
+        if (seconds < 60) {
+            return seconds + "s";
+        }
+        if (seconds < 3600) {
+            return (seconds / 60) + "m " + (seconds % 60) + "s";
+        }
+        return (seconds / 3600) + "h " + ((seconds % 3600) / 60) + "m";
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(@NonNull MenuItem item) {
+        if (item.getItemId() == android.R.id.home) {
+            finish();
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+}
@@ -1,8 +1,6 @@
 package com.smarttableindicator.app.adapters;
 
-import android.animation.ValueAnimator;
 import android.content.Context;
-import android.graphics.Color;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -10,24 +8,119 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.core.content.ContextCompat;
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
+import java.util.BitSet;
 import java.util.List;
 
 import com.smarttableindicator.app.R;
 import com.smarttableindicator.app.config.Constants;
 import com.smarttableindicator.app.models.TableModel;
-
+import com.smarttableindicator.app.utils.BlinkClock;
+
+/**
+ * Shows immutable table snapshots. Snapshots are diffed off the main thread and
+ * a status change is delivered as a {@link #PAYLOAD_STATUS} payload, so only the
+ * status icon of the affected cell is re-tinted.
+ * OCCUPIED and DIRTY cells pulse from one shared {@link BlinkClock}, and only while
+ * they are attached to the window. Stale tables, whose status is only the last one
+ * known, are faded through a {@link #PAYLOAD_STALE} payload.
+ */
 public class TableAdapter extends RecyclerView.Adapter<TableAdapter.TableViewHolder> {
 
     private static final String TAG = Constants.TAG_TABLE_ADAPTER;
-    private final List<TableModel> tableList;
+
+    static final Object PAYLOAD_STATUS = new Object();
+    static final Object PAYLOAD_STALE = new Object();
+
+    private static final DiffUtil.ItemCallback<TableModel> DIFF_CALLBACK = new DiffUtil.ItemCallback<TableModel>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull TableModel oldItem, @NonNull TableModel newItem) {
+            return oldItem.getTableNumber() == newItem.getTableNumber();
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull TableModel oldItem, @NonNull TableModel newItem) {
+            return oldItem.getStatus() == newItem.getStatus();
+        }
+
+        @Override
+        public Object getChangePayload(@NonNull TableModel oldItem, @NonNull TableModel newItem) {
+            return PAYLOAD_STATUS;
+        }
+    };
+
+    private final AsyncListDiffer<TableModel> differ;
     private final Context context;
 
-    public TableAdapter(List<TableModel> tableList, Context context) {
-        this.tableList = tableList;
+    private final int colorAvailable;
+    private final BlinkClock blinkClock = new BlinkClock(Constants.ANIMATION_DURATION_MS);
+    private final int paletteOccupied;
+    private final int paletteDirty;
+    private BitSet staleTables = new BitSet();
+
+    public TableAdapter(Context context) {
         this.context = context;
+        this.differ = new AsyncListDiffer<>(this, DIFF_CALLBACK);
+        this.colorAvailable = ContextCompat.getColor(context, R.color.table_available);
+        this.paletteOccupied = blinkClock.addPalette(
+                ContextCompat.getColor(context, R.color.table_occupied_off),
+                ContextCompat.getColor(context, R.color.table_occupied_on));
+        this.paletteDirty = blinkClock.addPalette(
+                ContextCompat.getColor(context, R.color.table_dirty_off),
+                ContextCompat.getColor(context, R.color.table_dirty_on));
+        setHasStableIds(true);
+    }
+
+    /**
+     * Resumes the pulse of OCCUPIED and DIRTY cells. Call from the activity's onStart.
+     */
+    public void startBlinking() {
+        blinkClock.start();
+    }
+
+    /**
+     * Stops the pulse and its frame callbacks. Call from the activity's onStop.
+     */
+    public void stopBlinking() {
+        blinkClock.stop();
+    }
+
+    /**
+     * Replaces the shown tables with a new snapshot. The diff runs on a background thread.
+     * @param snapshot Immutable list of tables in display order
+     * @param commitCallback Run once the snapshot is committed, unless a newer one
+     *                       replaces it first
+     */
+    public void submitSnapshot(List<TableModel> snapshot, @Nullable Runnable commitCallback) {
+        differ.submitList(snapshot, commitCallback);
+    }
+
+    /**
+     * Fades the given tables, rebinding only the cells whose staleness changed
+     * @param tableNumbers Numbers of the tables whose status is not live
+     */
+    public void setStaleTables(@NonNull BitSet tableNumbers) {
+        if (staleTables.equals(tableNumbers)) {
+            return;
+        }
+        BitSet previous = staleTables;
+        staleTables = (BitSet) tableNumbers.clone();
+        List<TableModel> current = differ.getCurrentList();
+        for (int position = 0; position < current.size(); position++) {
+            int tableNumber = current.get(position).getTableNumber();
+            if (previous.get(tableNumber) != staleTables.get(tableNumber)) {
+                notifyItemChanged(position, PAYLOAD_STALE);
+            }
+        }
+    }
+
+    public List<TableModel> getCurrentSnapshot() {
+        return differ.getCurrentList();
     }
 
     @NonNull
@@ -39,70 +132,87 @@ public class TableAdapter extends RecyclerView.Adapter<TableAdapter.TableViewHol
 
     @Override
     public void onBindViewHolder(@NonNull TableViewHolder holder, int position) {
-        TableModel table = tableList.get(position);
+        TableModel table = differ.getCurrentList().get(position);
         holder.textViewTableNumber.setText(
                 context.getString(R.string.table_number, table.getTableNumber())
         );
+        bindStatus(holder, table.getStatus());
+        bindStale(holder, table.getTableNumber());
+    }
 
+    @Override
+    public void onBindViewHolder(@NonNull TableViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if (payloads.isEmpty()) {
+            onBindViewHolder(holder, position);
+            return;
+        }
+        TableModel table = differ.getCurrentList().get(position);
+        if (payloads.contains(PAYLOAD_STATUS)) {
+            bindStatus(holder, table.getStatus());
+        }
+        if (payloads.contains(PAYLOAD_STALE)) {
+            bindStale(holder, table.getTableNumber());
+        }
+    }
+
+    private void bindStale(@NonNull TableViewHolder holder, int tableNumber) {
+        holder.itemView.setAlpha(staleTables.get(tableNumber) ? Constants.STALE_TABLE_ALPHA : 1f);
+    }
 
-        if (holder.colorAnimator != null) {
-            holder.colorAnimator.cancel();
-            holder.colorAnimator = null;
+    private void bindStatus(@NonNull TableViewHolder holder, TableModel.Status status) {
+        if (status == holder.boundStatus) {
+            return;
         }
+        holder.boundStatus = status;
 
-        if (table.getStatus() == TableModel.Status.AVAILABLE) {
-            holder.imageViewStatus.setColorFilter(ContextCompat.getColor(context, R.color.table_available));
-        } else {
-            int colorOn, colorOff;
-            if (table.getStatus() == TableModel.Status.OCCUPIED) {
-                colorOn = ContextCompat.getColor(context, R.color.table_occupied_on);
-                colorOff = ContextCompat.getColor(context, R.color.table_occupied_off);
-            } else {
-                colorOn = ContextCompat.getColor(context, R.color.table_dirty_on);
-                colorOff = ContextCompat.getColor(context, R.color.table_dirty_off);
-            }
+        if (status == TableModel.Status.AVAILABLE) {
+            blinkClock.detach(holder.imageViewStatus);
+            holder.imageViewStatus.setColorFilter(colorAvailable);
+        } else if (holder.itemView.isAttachedToWindow()) {
+            blinkClock.attach(holder.imageViewStatus, paletteOf(status));
+        }
+    }
 
-            ValueAnimator animator = ValueAnimator.ofFloat(0f, 1f);
-            animator.setDuration(Constants.ANIMATION_DURATION_MS);
-            animator.setRepeatMode(ValueAnimator.REVERSE);
-            animator.setRepeatCount(ValueAnimator.INFINITE);
-            animator.addUpdateListener(animation -> {
-                float fraction = (float) animation.getAnimatedValue();
-                int animatedColor = blendColors(colorOff, colorOn, fraction);
-                holder.imageViewStatus.setColorFilter(animatedColor);
-            });
-            animator.start();
-            holder.colorAnimator = animator;
+    @Override
+    public void onViewAttachedToWindow(@NonNull TableViewHolder holder) {
+        super.onViewAttachedToWindow(holder);
+        if (holder.boundStatus != null && holder.boundStatus != TableModel.Status.AVAILABLE) {
+            blinkClock.attach(holder.imageViewStatus, paletteOf(holder.boundStatus));
         }
     }
 
+    @Override
+    public void onViewDetachedFromWindow(@NonNull TableViewHolder holder) {
+        blinkClock.detach(holder.imageViewStatus);
+        super.onViewDetachedFromWindow(holder);
+    }
+
     @Override
     public void onViewRecycled(@NonNull TableViewHolder holder) {
-        if (holder.colorAnimator != null) {
-            holder.colorAnimator.cancel();
-            holder.colorAnimator = null;
-        }
+        blinkClock.detach(holder.imageViewStatus);
+        holder.boundStatus = null;
         super.onViewRecycled(holder);
     }
 
+    private int paletteOf(TableModel.Status status) {
+        return status == TableModel.Status.OCCUPIED ? paletteOccupied : paletteDirty;
+    }
+
     @Override
     public int getItemCount() {
-        return tableList.size();
+        return differ.getCurrentList().size();
     }
 
-
-    private int blendColors(int colorFrom, int colorTo, float ratio) {
-        final float inverseRatio = 1f - ratio;
-        float r = Color.red(colorFrom) * inverseRatio + Color.red(colorTo) * ratio;
-        float g = Color.green(colorFrom) * inverseRatio + Color.green(colorTo) * ratio;
-        float b = Color.blue(colorFrom) * inverseRatio + Color.blue(colorTo) * ratio;
-        return Color.rgb((int) r, (int) g, (int) b);
+    @Override
+    public long getItemId(int position) {
+        return differ.getCurrentList().get(position).getTableNumber();
     }
 
+
     public static class TableViewHolder extends RecyclerView.ViewHolder {
         ImageView imageViewStatus;
         TextView textViewTableNumber;
-        ValueAnimator colorAnimator;
+        TableModel.Status boundStatus;
 
         public TableViewHolder(@NonNull View itemView) {
             super(itemView);
@@ -110,4 +220,4 @@ public class TableAdapter extends RecyclerView.Adapter<TableAdapter.TableViewHol
             textViewTableNumber = itemView.findViewById(R.id.textViewTableNumber);
         }
     }
-}
\ No newline at end of file
+}
@@ -9,31 +9,89 @@ public final class Constants {
     public static final String KEY_STAFF_NAME = "staff_name";
     public static final String KEY_PROFILE_PIC_URI_PREFIX = "profile_pic_uri_";
     public static final String KEY_LOGGED_IN_FLAG = "logged_in";
+    public static final String KEY_TABLE_VIEW_MODE = "table_view_mode";
+    public static final String KEY_TABLE_STATUS_FILTER = "table_status_filter";
+    public static final String KEY_ASSIGNED_ZONES_PREFIX = "assigned_zones_";
+    public static final String KEY_PROBE_DEVICE_ID = "probe_device_id";
+    public static final String EXTRA_REPLAY_SPEED = "replay_speed";
     
     public static final String THEME_PREF_NAME = "ThemePrefs";
     public static final String KEY_THEME = "selectedThemeMode";
     
     public static final String FIREBASE_TABLES_PATH = "tables";
-    public static final String FIREBASE_CONNECTION_TEST_PATH = "appSettings/connectionTest";
+    /** Parent of the per-device latency probe nodes */
+    public static final String FIREBASE_LATENCY_PROBE_PATH = "appSettings/latencyProbes";
+    public static final long FIREBASE_BACKGROUND_OFFLINE_DELAY_MS = 10_000;
+    public static final long RECONNECT_BASE_DELAY_MS = 1_000;
+    public static final int RECONNECT_FAILURES_BEFORE_CIRCUIT_OPENS = 5;
+    public static final long RECONNECT_CIRCUIT_OPEN_MS = 60_000;
+    public static final long LATENCY_PROBE_INTERVAL_MS = 15_000;
+    public static final long LATENCY_PROBE_TIMEOUT_MS = 10_000;
+    public static final long LATENCY_PROBE_WINDOW_MS = 5 * 60_000;
+    public static final int LATENCY_PROBE_WINDOW_SLICES = 10;
+    public static final long LATENCY_TRACE_MAX_DELIVERY_AGE_MS = 60_000;
+    public static final int LATENCY_TRACE_MAX_PENDING_DRAWS = 1024;
+    public static final boolean FIREBASE_TABLES_SHARDED_BY_ZONE = false;
+    public static final String FIREBASE_ZONE_KEY_PREFIX = "zone";
+    public static final long ZONE_IDLE_DETACH_MS = 60_000;
+    public static final long ZONE_VIEW_UPDATE_DELAY_MS = 250;
+    public static final boolean FIREBASE_TABLES_PAGED = false;
+    /** Numeric child pages are ordered by; needs ".indexOn" on the tables node */
+    public static final String FIREBASE_TABLE_NUMBER_CHILD = "number";
+    public static final int TABLE_PAGE_SIZE = 100;
+    public static final int TABLE_PAGE_PREFETCH = 1;
+    public static final int SYNC_LOW_BANDWIDTH_KBPS = 1_000;
+    public static final int SYNC_METERED_LOW_BANDWIDTH_KBPS = 5_000;
+    public static final long SYNC_LOW_BANDWIDTH_COALESCE_WINDOW_MS = 2_000;
+    
+    public static final String TABLE_SNAPSHOT_FILE_NAME = "table_state.bin";
+    public static final String TABLE_STREAM_RECORDING_FILE_NAME = "table_events.rec";
+    public static final int TABLE_STREAM_RECORDING_MAX_BYTES = 64 * 1024 * 1024;
+    public static final double TABLE_STREAM_REPLAY_FAST_SPEED = 10;
+    public static final String HISTORY_DIRECTORY_NAME = "history";
+    public static final String HISTORY_ROLLUP_DIRECTORY_NAME = "rollups";
+    public static final long HISTORY_RAW_RETENTION_MS = 2L * 24 * 60 * 60 * 1000;
+    public static final long HISTORY_ROLLUP_RETENTION_MS = 400L * 24 * 60 * 60 * 1000;
+    public static final long HISTORY_COMPACTION_INTERVAL_MS = 60L * 60 * 1000;
     
     public static final String TABLE_STATUS_CHANNEL_ID = "TABLE_STATUS_UPDATES_CHANNEL";
     public static final String FCM_CHANNEL_ID = "TABLE_STATUS_CHANNEL";
+    public static final int NOTIFICATION_ID_TABLE_SUMMARY = Integer.MAX_VALUE;
+    public static final int NOTIFICATION_ID_PUSH_MESSAGE = Integer.MAX_VALUE - 1;
+    public static final int NOTIFICATION_ID_INITIAL_SUMMARY = Integer.MAX_VALUE - 2;
+    public static final int NOTIFICATION_MAX_POSTS_PER_SECOND = 4;
+    public static final long NOTIFICATION_DEBOUNCE_MS = 30_000;
     
     public static final String DEMO_STAFF_ID = "12345";
     public static final String DEMO_PASSWORD = "password";
     
     public static final int TABLE_GRID_COLUMNS = 3;
+    public static final int TABLE_VIEW_MODE_CARDS = 0;
+    public static final int TABLE_VIEW_MODE_COMPACT = 1;
+    public static final int TABLE_VIEW_MODE_FLOOR_PLAN = 2;
+    public static final String FLOOR_PLAN_ASSET_NAME = "floor_plan.json";
+    public static final int MAX_TABLE_NUMBER = 65535;
+    public static final int MAX_ZONES = 64;
+    public static final int DEFAULT_ZONE_SIZE = 100;
     public static final int ANIMATION_DURATION_MS = 800;
+    public static final float STALE_TABLE_ALPHA = 0.4f;
+    public static final long EVENT_COALESCE_WINDOW_MS = 0;
+    public static final int TABLE_KEY_CACHE_SIZE = 4096;
     
     public static final int REQUEST_CODE_NOTIFICATION = 1001;
     
     public static final String STATUS_AVAILABLE = "AVAILABLE";
     public static final String STATUS_OCCUPIED = "OCCUPIED";
     public static final String STATUS_DIRTY = "DIRTY";
+    
+    public static final int STATUS_CODE_AVAILABLE = 0;
+    public static final int STATUS_CODE_OCCUPIED = 1;
+    public static final int STATUS_CODE_DIRTY = 2;
+    
     public static final String TAG_MAIN_ACTIVITY = "MainActivity";
     public static final String TAG_LOGIN_ACTIVITY = "LoginActivity";
     public static final String TAG_SETTINGS_ACTIVITY = "SettingsActivity";
-    public static final String TAG_NOTIFICATION_HELPER = "NotificationHelper";
+    public static final String TAG_NOTIFICATION_DISPATCHER = "NotificationDispatcher";
     public static final String TAG_FCM_SERVICE = "MyFirebaseMsgService";
     public static final String TAG_TABLE_ADAPTER = "TableAdapter";
 } 
\ No newline at end of file
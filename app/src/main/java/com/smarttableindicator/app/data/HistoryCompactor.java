@@ -0,0 +1,323 @@
+package com.smarttableindicator.app.data;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.smarttableindicator.app.config.Constants;
+import com.smarttableindicator.app.models.TableModel;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the transition history bounded. On a background thread it folds raw
+ * {@link TransitionLog} segments that are older than the raw retention window into
+ * hourly {@link TableHourRollup}s in a {@link RollupStore}, then deletes them, and
+ * drops rollups older than the rollup retention window.
+ * Segments are compacted strictly oldest first. Durations that span two segments are
+ * completed through a carry state (last transition time and status per table) that is
+ * saved next to the rollups after each segment, together with the start of the last
+ * compacted segment, so a segment is never folded in twice.
+ * Rollups built from the raw segments for queries are kept until a transition is
+ * appended or a segment compacted, so repeated queries do not rescan the log, which
+ * would hold up its writer.
+ */
+public class HistoryCompactor implements Closeable {
+
+    private static final String TAG = "HistoryCompactor";
+
+    /**
+     * Receives the whole retained history during {@link #rebuild}
+     */
+    public interface HistoryVisitor extends RollupStore.Visitor {
+        /**
+         * Called after every rollup with the last transition of each table, from which
+         * its next duration is measured
+         */
+        void onLastTransition(int tableNumber, long time, @NonNull TableModel.Status status);
+    }
+
+    private static final String STATE_FILE_NAME = "compaction.state";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int MAGIC = 0x53544353; // "STCS"
+    private static final int VERSION = 1;
+    private static final long INITIAL_DELAY_MS = 30_000;
+
+    private final TransitionLog transitionLog;
+    private final RollupStore rollupStore;
+    private final File stateFile;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+            runnable -> new Thread(runnable, "HistoryCompactor"));
+
+    private volatile long rawRetentionMs = Constants.HISTORY_RAW_RETENTION_MS;
+    private volatile long rollupRetentionMs = Constants.HISTORY_ROLLUP_RETENTION_MS;
+
+    private boolean stateLoaded = false;
+    private RollupBuilder carry = new RollupBuilder();
+    private long lastCompactedSegmentStart = Long.MIN_VALUE;
+    private long compactedUntil = 0;
+    private long compactedSegmentCount = 0;
+    /** Rollups and carry built from the raw segments, valid while nothing is appended */
+    private RollupBuilder recent;
+    private long recentAppendedCount = -1;
+
+    /**
+     * @param transitionLog Log whose old segments are compacted
+     * @param rollupDirectory Directory for the rollup files and compaction state
+     */
+    public HistoryCompactor(@NonNull TransitionLog transitionLog, @NonNull File rollupDirectory) {
+        this.transitionLog = transitionLog;
+        this.rollupStore = new RollupStore(rollupDirectory);
+        this.stateFile = new File(rollupDirectory, STATE_FILE_NAME);
+    }
+
+    /**
+     * Schedules compaction shortly after start and then at a fixed interval
+     * @param intervalMs Delay between the end of one run and the start of the next
+     */
+    public void start(long intervalMs) {
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                int compacted = compact(System.currentTimeMillis());
+                if (compacted > 0) {
+                    Log.i(TAG, "Compacted " + compacted + " segments, rollups now "
+                            + rollupStore.getSizeBytes() + " bytes");
+                }
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Compaction failed", e);
+            }
+        }, Math.min(INITIAL_DELAY_MS, intervalMs), intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Compacts every sealed segment whose newest transition is older than the raw
+     * retention window, then applies the rollup retention window.
+     * Blocks on disk I/O, so call it off the main thread.
+     * @param now Current time in epoch milliseconds
+     * @return Number of segments compacted
+     */
+    public synchronized int compact(long now) {
+        loadState();
+        long cutoff = now - rawRetentionMs;
+        int compacted = 0;
+        transitionLog.closeExpiredSegment(now);
+        for (File file : transitionLog.sealedSegments(now)) {
+            try {
+                long maxTime = TransitionLog.readMaxTime(file);
+                if (maxTime >= cutoff) {
+                    break;
+                }
+                if (maxTime >= 0) {
+                    RollupBuilder builder = carry.copyCarry();
+                    TransitionLog.readSegment(file, Long.MIN_VALUE, Long.MAX_VALUE, builder);
+                    rollupStore.merge(builder.getRollups());
+                    carry = builder.copyCarry();
+                    compactedUntil = Math.max(compactedUntil, maxTime);
+                }
+                lastCompactedSegmentStart = TransitionLog.segmentStart(file);
+                saveState();
+            } catch (IOException e) {
+                Log.e(TAG, "Stopping compaction at " + file.getName(), e);
+                break;
+            }
+            transitionLog.deleteSegment(file);
+            compacted++;
+        }
+        compactedSegmentCount += compacted;
+        if (compacted > 0) {
+            recent = null;
+        }
+        rollupStore.deleteBefore(now - rollupRetentionMs);
+        return compacted;
+    }
+
+    /**
+     * Sums the history whose hours start in [fromTime, toTime), reading rollups for the
+     * compacted part and only the retained raw segments for the rest.
+     * Blocks on disk I/O, so call it off the main thread.
+     * @param fromTime Start of the range in epoch milliseconds, inclusive
+     * @param toTime End of the range in epoch milliseconds, exclusive
+     * @param tableNumber A table number, or {@link TableHourRollup#ALL_TABLES}
+     * @return The totals, with {@code fromTime} as hour start
+     */
+    public synchronized TableHourRollup summarize(long fromTime, long toTime, int tableNumber) {
+        return summarize(new long[] {fromTime}, toTime, tableNumber)[0];
+    }
+
+    /**
+     * Sums several ranges ending at the same time in one pass over the history
+     * @param fromTimes Start of each range in epoch milliseconds, inclusive
+     * @param toTime End of every range in epoch milliseconds, exclusive
+     * @param tableNumber A table number, or {@link TableHourRollup#ALL_TABLES}
+     * @return The totals of each range, in the order of {@code fromTimes}
+     */
+    public synchronized TableHourRollup[] summarize(@NonNull long[] fromTimes, long toTime, int tableNumber) {
+        TableHourRollup[] totals = new TableHourRollup[fromTimes.length];
+        long earliest = Long.MAX_VALUE;
+        for (int i = 0; i < fromTimes.length; i++) {
+            totals[i] = new TableHourRollup(tableNumber, fromTimes[i]);
+            earliest = Math.min(earliest, fromTimes[i]);
+        }
+        collect(earliest, toTime, rollup -> {
+            if (tableNumber != TableHourRollup.ALL_TABLES && rollup.getTableNumber() != tableNumber) {
+                return;
+            }
+            for (int i = 0; i < fromTimes.length; i++) {
+                if (rollup.getHourStart() >= fromTimes[i]) {
+                    totals[i].merge(rollup);
+                }
+            }
+        });
+        return totals;
+    }
+
+    /**
+     * Visits the per-table hourly rollups whose hours start in [fromTime, toTime): the
+     * stored ones for the compacted part, then the ones built from the retained raw
+     * segments. Blocks on disk I/O, so call it off the main thread.
+     * @param fromTime Start of the range in epoch milliseconds, inclusive
+     * @param toTime End of the range in epoch milliseconds, exclusive
+     */
+    public synchronized void collect(long fromTime, long toTime, @NonNull RollupStore.Visitor visitor) {
+        loadState();
+        rollupStore.query(fromTime, toTime, visitor);
+
+        if (toTime > Math.min(compactedUntil, carry.getEarliestCarriedTime())) {
+            collectRecent(fromTime, toTime, visitor);
+        }
+    }
+
+    /**
+     * Visits every retained rollup, then the last transition of each table, so that
+     * totals kept elsewhere can be rebuilt and carried on from the live transitions.
+     * Blocks on disk I/O, so call it off the main thread.
+     */
+    public synchronized void rebuild(@NonNull HistoryVisitor visitor) {
+        loadState();
+        rollupStore.query(Long.MIN_VALUE, Long.MAX_VALUE, visitor);
+        RollupBuilder recent = collectRecent(Long.MIN_VALUE, Long.MAX_VALUE, visitor);
+        recent.visitCarry(visitor::onLastTransition);
+    }
+
+    /**
+     * Builds rollups from the raw segments, continuing from the compaction carry state,
+     * unless nothing was appended since they were last built, and visits those whose
+     * hours start in [fromTime, toTime)
+     * @return The builder, holding the last transition of each table; not to be changed
+     */
+    private RollupBuilder collectRecent(long fromTime, long toTime, RollupStore.Visitor visitor) {
+        // Read before the scan, so an append during it only makes the next query rebuild
+        long appendedCount = transitionLog.getAppendedCount();
+        if (recent == null || appendedCount != recentAppendedCount) {
+            recent = carry.copyCarry();
+            transitionLog.scan(Long.MIN_VALUE, Long.MAX_VALUE, recent);
+            recentAppendedCount = appendedCount;
+        }
+        for (TableHourRollup rollup : recent.getRollups()) {
+            if (rollup.getHourStart() >= fromTime && rollup.getHourStart() < toTime) {
+                visitor.onRollup(rollup);
+            }
+        }
+        return recent;
+    }
+
+    public long getRawRetentionMs() {
+        return rawRetentionMs;
+    }
+
+    /**
+     * @param rawRetentionMs How long raw transitions are kept before being compacted
+     */
+    public void setRawRetentionMs(long rawRetentionMs) {
+        this.rawRetentionMs = Math.max(0, rawRetentionMs);
+    }
+
+    public long getRollupRetentionMs() {
+        return rollupRetentionMs;
+    }
+
+    /**
+     * @param rollupRetentionMs How long hourly rollups are kept before being deleted
+     */
+    public void setRollupRetentionMs(long rollupRetentionMs) {
+        this.rollupRetentionMs = Math.max(0, rollupRetentionMs);
+    }
+
+    public synchronized long getCompactedSegmentCount() {
+        return compactedSegmentCount;
+    }
+
+    public RollupStore getRollupStore() {
+        return rollupStore;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    /**
+     * Reads the saved carry state once, and removes segments that were compacted
+     * before a crash but not yet deleted
+     */
+    private void loadState() {
+        if (stateLoaded) {
+            return;
+        }
+        stateLoaded = true;
+        if (stateFile.exists()) {
+            try {
+                ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(stateFile.toPath()));
+                if (in.remaining() >= 24 && in.getInt() == MAGIC && in.getInt() == VERSION) {
+                    long segmentStart = in.getLong();
+                    long until = in.getLong();
+                    carry = RollupBuilder.readCarry(in);
+                    lastCompactedSegmentStart = segmentStart;
+                    compactedUntil = until;
+                } else {
+                    Log.w(TAG, "Ignoring invalid compaction state");
+                }
+            } catch (IOException | RuntimeException e) {
+                // Also runs on the log's writer thread, where a corrupt file must not
+                // stop the statistics from being rebuilt
+                Log.e(TAG, "Failed to read compaction state, starting fresh", e);
+                carry = new RollupBuilder();
+            }
+        }
+        for (File file : transitionLog.sealedSegments(System.currentTimeMillis())) {
+            if (TransitionLog.segmentStart(file) <= lastCompactedSegmentStart) {
+                transitionLog.deleteSegment(file);
+            }
+        }
+    }
+
+    private void saveState() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteBuffer header = ByteBuffer.allocate(24).putInt(MAGIC).putInt(VERSION)
+                .putLong(lastCompactedSegmentStart).putLong(compactedUntil);
+        out.write(header.array(), 0, header.capacity());
+        carry.writeCarry(out);
+
+        File directory = stateFile.getParentFile();
+        if (directory != null && !directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        File temp = new File(stateFile.getPath() + TEMP_SUFFIX);
+        try (FileOutputStream stream = new FileOutputStream(temp)) {
+            out.writeTo(stream);
+            stream.getFD().sync();
+        }
+        if (!temp.renameTo(stateFile)) {
+            throw new IOException("Cannot replace " + stateFile);
+        }
+    }
+}
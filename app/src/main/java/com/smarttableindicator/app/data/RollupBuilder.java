@@ -0,0 +1,170 @@
+package com.smarttableindicator.app.data;
+
+import com.smarttableindicator.app.config.Constants;
+import com.smarttableindicator.app.models.TableModel;
+import com.smarttableindicator.app.sync.TableStatusCodec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Folds raw transitions, oldest first, into per-table per-hour rollups.
+ * A duration is only known once the transition that ends it is seen, so the builder
+ * carries the last transition time and status of every table from one batch of
+ * segments to the next; that carry state is what the compactor persists between runs.
+ */
+class RollupBuilder implements TransitionLog.Visitor {
+
+    interface CarryVisitor {
+        void onCarry(int tableNumber, long time, TableModel.Status status);
+    }
+
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int TABLE_BITS = 16;
+
+    private long[] lastTimes;
+    private byte[] lastStatuses;
+    private final TreeMap<Long, TableHourRollup> rollups = new TreeMap<>();
+
+    RollupBuilder() {
+        this(new long[INITIAL_CAPACITY], new byte[INITIAL_CAPACITY]);
+    }
+
+    private RollupBuilder(long[] lastTimes, byte[] lastStatuses) {
+        this.lastTimes = lastTimes;
+        this.lastStatuses = lastStatuses;
+    }
+
+    @Override
+    public boolean onTransition(long time, int tableNumber, TableModel.Status from, TableModel.Status to,
+                                long serverTimestamp, double clientTimestamp) {
+        ensureCapacity(tableNumber + 1);
+        long since = lastTimes[tableNumber];
+        if (since > 0 && time >= since && lastStatuses[tableNumber] == TableStatusCodec.encode(from)) {
+            long seconds = (time - since) / 1000;
+            if (from == TableModel.Status.OCCUPIED) {
+                rollup(tableNumber, since).recordOccupied(seconds);
+            } else if (from == TableModel.Status.DIRTY && to == TableModel.Status.AVAILABLE) {
+                rollup(tableNumber, since).recordCleaning(seconds);
+            }
+        }
+        if (from != TableModel.Status.OCCUPIED && to == TableModel.Status.OCCUPIED) {
+            rollup(tableNumber, time).addTurnovers(1);
+        }
+        lastTimes[tableNumber] = time;
+        lastStatuses[tableNumber] = (byte) TableStatusCodec.encode(to);
+        return true;
+    }
+
+    /**
+     * @return The rollups built so far, ordered by hour then table number
+     */
+    List<TableHourRollup> getRollups() {
+        return new ArrayList<>(rollups.values());
+    }
+
+    /**
+     * @return The oldest carried transition time, or Long.MAX_VALUE if nothing is carried.
+     * Durations completed later are attributed to hours at or after this time.
+     */
+    long getEarliestCarriedTime() {
+        long earliest = Long.MAX_VALUE;
+        for (long time : lastTimes) {
+            if (time > 0 && time < earliest) {
+                earliest = time;
+            }
+        }
+        return earliest;
+    }
+
+    /**
+     * Visits the carried last transition time and status of every table
+     */
+    void visitCarry(CarryVisitor visitor) {
+        for (int tableNumber = 0; tableNumber < lastTimes.length; tableNumber++) {
+            TableModel.Status status = TableStatusCodec.decodeCode(lastStatuses[tableNumber]);
+            if (lastTimes[tableNumber] > 0 && status != null) {
+                visitor.onCarry(tableNumber, lastTimes[tableNumber], status);
+            }
+        }
+    }
+
+    /**
+     * @return A builder with the same carry state and no rollups
+     */
+    RollupBuilder copyCarry() {
+        return new RollupBuilder(lastTimes.clone(), lastStatuses.clone());
+    }
+
+    void writeCarry(ByteArrayOutputStream out) {
+        int count = 0;
+        for (long time : lastTimes) {
+            if (time > 0) {
+                count++;
+            }
+        }
+        VarInts.writeUnsigned(out, count);
+        int previousTable = 0;
+        long previousTime = 0;
+        for (int tableNumber = 0; tableNumber < lastTimes.length; tableNumber++) {
+            if (lastTimes[tableNumber] <= 0) {
+                continue;
+            }
+            VarInts.writeUnsigned(out, tableNumber - previousTable);
+            VarInts.writeSigned(out, lastTimes[tableNumber] - previousTime);
+            out.write(lastStatuses[tableNumber]);
+            previousTable = tableNumber;
+            previousTime = lastTimes[tableNumber];
+        }
+    }
+
+    static RollupBuilder readCarry(ByteBuffer in) throws IOException {
+        RollupBuilder builder = new RollupBuilder();
+        long count = VarInts.readUnsigned(in);
+        long tableNumber = 0;
+        long time = 0;
+        for (long i = 0; i < count; i++) {
+            tableNumber += VarInts.readUnsigned(in);
+            if (tableNumber < 0 || tableNumber > Constants.MAX_TABLE_NUMBER) {
+                throw new IOException("Invalid table number in carry state: " + tableNumber);
+            }
+            time += VarInts.readSigned(in);
+            if (!in.hasRemaining()) {
+                throw new IOException("Truncated carry state");
+            }
+            byte status = in.get();
+            builder.ensureCapacity((int) tableNumber + 1);
+            builder.lastTimes[(int) tableNumber] = time;
+            builder.lastStatuses[(int) tableNumber] = status;
+        }
+        return builder;
+    }
+
+    private TableHourRollup rollup(int tableNumber, long time) {
+        long hourStart = TableHourRollup.hourStartOf(time);
+        long key = (hourStart / TableHourRollup.HOUR_MS) << TABLE_BITS | tableNumber;
+        TableHourRollup rollup = rollups.get(key);
+        if (rollup == null) {
+            rollup = new TableHourRollup(tableNumber, hourStart);
+            rollups.put(key, rollup);
+        }
+        return rollup;
+    }
+
+    private void ensureCapacity(int required) {
+        if (required <= lastTimes.length) {
+            return;
+        }
+        int capacity = lastTimes.length;
+        while (capacity < required) {
+            capacity *= 2;
+        }
+        lastTimes = Arrays.copyOf(lastTimes, capacity);
+        lastStatuses = Arrays.copyOf(lastStatuses, capacity);
+    }
+}
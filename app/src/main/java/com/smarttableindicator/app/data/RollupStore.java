@@ -0,0 +1,274 @@
+package com.smarttableindicator.app.data;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.smarttableindicator.app.stats.LatencyHistogram;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compacted history: one small file per UTC day holding the {@link TableHourRollup}s
+ * of that day, sorted by hour and table number.
+ * Every field is written as a varint, and hours, table numbers and histogram bucket
+ * indexes as deltas from the previous entry, so a busy day takes a few kilobytes.
+ * Only non-empty histogram buckets are stored. Files are rewritten whole through a
+ * temporary file and a rename, so a reader never sees a half-written day.
+ */
+public class RollupStore {
+
+    private static final String TAG = "RollupStore";
+
+    private static final String FILE_PREFIX = "rollup-";
+    private static final String FILE_SUFFIX = ".bin";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final int MAGIC = 0x53545255; // "STRU"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+
+    private static final long DAY_MS = 24 * TableHourRollup.HOUR_MS;
+    private static final int TABLE_BITS = 16;
+
+    /**
+     * Receives rollups during a query
+     */
+    public interface Visitor {
+        void onRollup(@NonNull TableHourRollup rollup);
+    }
+
+    private final File directory;
+
+    /**
+     * @param directory Directory holding the rollup files; created on first write
+     */
+    public RollupStore(@NonNull File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Adds rollups to the stored ones, merging entries for the same table and hour
+     * @throws IOException if a day file cannot be written
+     */
+    public synchronized void merge(@NonNull List<TableHourRollup> rollups) throws IOException {
+        Map<Long, List<TableHourRollup>> byDay = new TreeMap<>();
+        for (TableHourRollup rollup : rollups) {
+            long day = Math.floorDiv(rollup.getHourStart(), DAY_MS);
+            List<TableHourRollup> dayRollups = byDay.get(day);
+            if (dayRollups == null) {
+                dayRollups = new ArrayList<>();
+                byDay.put(day, dayRollups);
+            }
+            dayRollups.add(rollup);
+        }
+        if (!byDay.isEmpty() && !directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        for (Map.Entry<Long, List<TableHourRollup>> entry : byDay.entrySet()) {
+            long day = entry.getKey();
+            TreeMap<Long, TableHourRollup> merged = new TreeMap<>();
+            for (TableHourRollup rollup : readDay(day)) {
+                merged.put(keyOf(rollup), rollup);
+            }
+            for (TableHourRollup rollup : entry.getValue()) {
+                TableHourRollup existing = merged.get(keyOf(rollup));
+                if (existing == null) {
+                    existing = new TableHourRollup(rollup.getTableNumber(), rollup.getHourStart());
+                    merged.put(keyOf(rollup), existing);
+                }
+                existing.merge(rollup);
+            }
+            writeDay(day, merged.values());
+        }
+    }
+
+    /**
+     * Visits every stored rollup whose hour starts in [fromTime, toTime), oldest first.
+     * Reads files, so call it off the main thread.
+     */
+    public synchronized void query(long fromTime, long toTime, @NonNull Visitor visitor) {
+        long firstDay = Math.floorDiv(fromTime, DAY_MS);
+        long lastDay = Math.floorDiv(toTime - 1, DAY_MS);
+        for (File file : listFiles()) {
+            long day = dayOf(file);
+            if (day < firstDay || day > lastDay) {
+                continue;
+            }
+            try {
+                for (TableHourRollup rollup : readDay(day)) {
+                    if (rollup.getHourStart() >= fromTime && rollup.getHourStart() < toTime) {
+                        visitor.onRollup(rollup);
+                    }
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to read " + file.getName(), e);
+            }
+        }
+    }
+
+    /**
+     * Deletes the days that end at or before the given time
+     * @return Number of files deleted
+     */
+    public synchronized int deleteBefore(long time) {
+        int deleted = 0;
+        for (File file : listFiles()) {
+            if ((dayOf(file) + 1) * DAY_MS <= time && file.delete()) {
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * @return Total size of the stored rollups in bytes
+     */
+    public synchronized long getSizeBytes() {
+        long size = 0;
+        for (File file : listFiles()) {
+            size += file.length();
+        }
+        return size;
+    }
+
+    private List<TableHourRollup> readDay(long day) throws IOException {
+        List<TableHourRollup> rollups = new ArrayList<>();
+        File file = fileOf(day);
+        if (!file.exists()) {
+            return rollups;
+        }
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        if (in.remaining() < HEADER_SIZE || in.getInt() != MAGIC || in.getInt() != VERSION) {
+            Log.w(TAG, "Ignoring invalid rollup file " + file.getName());
+            return rollups;
+        }
+        long count = VarInts.readUnsigned(in);
+        long hour = 0;
+        int tableNumber = 0;
+        for (long i = 0; i < count; i++) {
+            long hourDelta = VarInts.readUnsigned(in);
+            long tableValue = VarInts.readUnsigned(in);
+            hour += hourDelta;
+            tableNumber = (int) (i == 0 || hourDelta > 0 ? tableValue : tableNumber + tableValue);
+            TableHourRollup rollup = new TableHourRollup(tableNumber, day * DAY_MS + hour * TableHourRollup.HOUR_MS);
+            rollup.addTurnovers(VarInts.readUnsigned(in));
+            rollup.addTotals(VarInts.readUnsigned(in), VarInts.readUnsigned(in));
+            readHistogram(in, rollup.getOccupiedHistogram());
+            readHistogram(in, rollup.getCleaningHistogram());
+            rollups.add(rollup);
+        }
+        return rollups;
+    }
+
+    private void writeDay(long day, Iterable<TableHourRollup> rollups) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION);
+        out.write(header.array(), 0, HEADER_SIZE);
+
+        List<TableHourRollup> entries = new ArrayList<>();
+        for (TableHourRollup rollup : rollups) {
+            if (!rollup.isEmpty()) {
+                entries.add(rollup);
+            }
+        }
+        VarInts.writeUnsigned(out, entries.size());
+        long previousHour = 0;
+        int previousTable = 0;
+        boolean first = true;
+        for (TableHourRollup rollup : entries) {
+            long hour = (rollup.getHourStart() - day * DAY_MS) / TableHourRollup.HOUR_MS;
+            long hourDelta = hour - previousHour;
+            VarInts.writeUnsigned(out, hourDelta);
+            VarInts.writeUnsigned(out, first || hourDelta > 0
+                    ? rollup.getTableNumber() : rollup.getTableNumber() - previousTable);
+            VarInts.writeUnsigned(out, rollup.getTurnovers());
+            VarInts.writeUnsigned(out, rollup.getOccupiedSeconds());
+            VarInts.writeUnsigned(out, rollup.getCleaningSeconds());
+            writeHistogram(out, rollup.getOccupiedHistogram());
+            writeHistogram(out, rollup.getCleaningHistogram());
+            previousHour = hour;
+            previousTable = rollup.getTableNumber();
+            first = false;
+        }
+
+        File file = fileOf(day);
+        File temp = new File(directory, file.getName() + TEMP_SUFFIX);
+        try (FileOutputStream stream = new FileOutputStream(temp)) {
+            out.writeTo(stream);
+            stream.getFD().sync();
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Cannot replace " + file);
+        }
+    }
+
+    private static void writeHistogram(ByteArrayOutputStream out, LatencyHistogram histogram) {
+        int nonEmpty = 0;
+        for (int i = 0; i < histogram.getBucketCount(); i++) {
+            if (histogram.getCountInBucket(i) > 0) {
+                nonEmpty++;
+            }
+        }
+        VarInts.writeUnsigned(out, nonEmpty);
+        int previousIndex = 0;
+        for (int i = 0; i < histogram.getBucketCount(); i++) {
+            int count = histogram.getCountInBucket(i);
+            if (count > 0) {
+                VarInts.writeUnsigned(out, i - previousIndex);
+                VarInts.writeUnsigned(out, count);
+                previousIndex = i;
+            }
+        }
+    }
+
+    private static void readHistogram(ByteBuffer in, LatencyHistogram histogram) throws IOException {
+        long nonEmpty = VarInts.readUnsigned(in);
+        int index = 0;
+        for (long i = 0; i < nonEmpty; i++) {
+            index += (int) VarInts.readUnsigned(in);
+            int count = (int) VarInts.readUnsigned(in);
+            if (index >= histogram.getBucketCount()) {
+                throw new IOException("Histogram bucket out of range: " + index);
+            }
+            histogram.record(histogram.getBucketLowerBound(index), count);
+        }
+    }
+
+    private File[] listFiles() {
+        File[] files = directory.listFiles((dir, name) ->
+                name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX));
+        if (files == null) {
+            return new File[0];
+        }
+        Arrays.sort(files, (a, b) -> Long.compare(dayOf(a), dayOf(b)));
+        return files;
+    }
+
+    private File fileOf(long day) {
+        return new File(directory, FILE_PREFIX + day + FILE_SUFFIX);
+    }
+
+    private static long dayOf(File file) {
+        String name = file.getName();
+        try {
+            return Long.parseLong(name.substring(FILE_PREFIX.length(), name.length() - FILE_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return Long.MAX_VALUE / DAY_MS - 1;
+        }
+    }
+
+    private static long keyOf(TableHourRollup rollup) {
+        return (rollup.getHourStart() / TableHourRollup.HOUR_MS) << TABLE_BITS | rollup.getTableNumber();
+    }
+}
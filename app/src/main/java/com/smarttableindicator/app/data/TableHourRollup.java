@@ -0,0 +1,96 @@
+package com.smarttableindicator.app.data;
+
+import androidx.annotation.NonNull;
+
+import com.smarttableindicator.app.stats.LatencyHistogram;
+import com.smarttableindicator.app.stats.StatisticsEngine;
+
+/**
+ * Aggregated transitions of one table during one hour: turnovers, total occupied and
+ * cleaning time, and their duration histograms in seconds.
+ * Durations belong to the hour in which the occupied or dirty period started, turnovers
+ * to the hour in which the table became OCCUPIED, as in {@link StatisticsEngine}.
+ * Also used for query results that span many hours or tables.
+ */
+public class TableHourRollup {
+
+    /**
+     * Table number of a rollup that sums every table
+     */
+    public static final int ALL_TABLES = -1;
+
+    public static final long HOUR_MS = 60L * 60 * 1000;
+
+    private final int tableNumber;
+    private final long hourStart;
+    private final LatencyHistogram occupied = StatisticsEngine.newDurationHistogram();
+    private final LatencyHistogram cleaning = StatisticsEngine.newDurationHistogram();
+    private long turnovers = 0;
+    private long occupiedSeconds = 0;
+    private long cleaningSeconds = 0;
+
+    /**
+     * @param tableNumber The table number, or {@link #ALL_TABLES}
+     * @param hourStart Start of the hour (or of the queried range) in epoch milliseconds
+     */
+    public TableHourRollup(int tableNumber, long hourStart) {
+        this.tableNumber = tableNumber;
+        this.hourStart = hourStart;
+    }
+
+    public static long hourStartOf(long time) {
+        return Math.floorDiv(time, HOUR_MS) * HOUR_MS;
+    }
+
+    public int getTableNumber() { return tableNumber; }
+    public long getHourStart() { return hourStart; }
+    public long getTurnovers() { return turnovers; }
+    public long getOccupiedCount() { return occupied.getCount(); }
+    public long getOccupiedSeconds() { return occupiedSeconds; }
+    public long getCleaningCount() { return cleaning.getCount(); }
+    public long getCleaningSeconds() { return cleaningSeconds; }
+
+    /**
+     * @return The occupied-time histogram; owned by this rollup, do not modify
+     */
+    public LatencyHistogram getOccupiedHistogram() { return occupied; }
+
+    /**
+     * @return The cleaning-latency histogram; owned by this rollup, do not modify
+     */
+    public LatencyHistogram getCleaningHistogram() { return cleaning; }
+
+    public boolean isEmpty() {
+        return turnovers == 0 && occupied.getCount() == 0 && cleaning.getCount() == 0;
+    }
+
+    void recordOccupied(long seconds) {
+        occupied.record(seconds);
+        occupiedSeconds += seconds;
+    }
+
+    void recordCleaning(long seconds) {
+        cleaning.record(seconds);
+        cleaningSeconds += seconds;
+    }
+
+    void addTurnovers(long count) {
+        turnovers += count;
+    }
+
+    void addTotals(long occupiedSeconds, long cleaningSeconds) {
+        this.occupiedSeconds += occupiedSeconds;
+        this.cleaningSeconds += cleaningSeconds;
+    }
+
+    /**
+     * Adds every count and duration of another rollup to this one
+     */
+    public void merge(@NonNull TableHourRollup other) {
+        turnovers += other.turnovers;
+        occupiedSeconds += other.occupiedSeconds;
+        cleaningSeconds += other.cleaningSeconds;
+        occupied.add(other.occupied);
+        cleaning.add(other.cleaning);
+    }
+}
@@ -0,0 +1,173 @@
+package com.smarttableindicator.app.data;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.smarttableindicator.app.config.Constants;
+import com.smarttableindicator.app.models.TableModel;
+import com.smarttableindicator.app.sync.TableStatusCodec;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Keeps the last known state of every table in a small memory-mapped file, so the
+ * grid can be drawn on cold start before Firebase has delivered anything.
+ * The file holds one fixed-size slot per table number, and each change rewrites only
+ * the slot of the table that changed. Writes go to the page cache and survive the
+ * process being killed; they are not forced to disk on every change.
+ */
+public class TableSnapshotFile implements TableStateStore.Listener, Closeable {
+
+    private static final String TAG = "TableSnapshotFile";
+
+    private static final int MAGIC = 0x53544931; // "STI1"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int SLOT_SIZE = 4;
+    private static final int INITIAL_CAPACITY = 256;
+
+    private static final byte FLAG_PRESENT = 1;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int capacity;
+
+    private TableSnapshotFile(RandomAccessFile file) {
+        this.file = file;
+        this.channel = file.getChannel();
+    }
+
+    /**
+     * Opens the snapshot file, creating or resetting it if it is missing or unreadable
+     * @param path Location of the snapshot file
+     * @return The opened snapshot file
+     * @throws IOException if the file cannot be opened or mapped
+     */
+    public static TableSnapshotFile open(@NonNull File path) throws IOException {
+        TableSnapshotFile snapshotFile = new TableSnapshotFile(new RandomAccessFile(path, "rw"));
+        try {
+            snapshotFile.mapExisting();
+        } catch (IOException e) {
+            snapshotFile.close();
+            throw e;
+        }
+        return snapshotFile;
+    }
+
+    /**
+     * Loads every table stored in the file into the given store
+     * @param store Store to fill, normally still empty
+     * @return Number of tables restored
+     */
+    public synchronized int restoreInto(@NonNull TableStateStore store) {
+        int restored = 0;
+        for (int tableNumber = 0; tableNumber < capacity; tableNumber++) {
+            int offset = slotOffset(tableNumber);
+            if (buffer.get(offset) != FLAG_PRESENT) {
+                continue;
+            }
+            TableModel.Status status = TableStatusCodec.decodeCode(buffer.get(offset + 1));
+            if (status == null) {
+                continue;
+            }
+            store.upsert(tableNumber, status);
+            restored++;
+        }
+        return restored;
+    }
+
+    @Override
+    public void onTableChanged(@NonNull TableStateStore.Change change) {
+        try {
+            if (change.getType() == TableStateStore.ChangeType.REMOVED) {
+                erase(change.getPrevious().getTableNumber());
+            } else {
+                write(change.getTable().getTableNumber(), change.getTable().getStatus());
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to persist table change", e);
+        }
+    }
+
+    /**
+     * Stores the status of one table
+     * @param tableNumber The table number
+     * @param status The table status
+     * @throws IOException if the file has to grow and cannot be remapped
+     */
+    public synchronized void write(int tableNumber, TableModel.Status status) throws IOException {
+        ensureCapacity(tableNumber + 1);
+        int offset = slotOffset(tableNumber);
+        buffer.put(offset + 1, (byte) TableStatusCodec.encode(status));
+        buffer.put(offset, FLAG_PRESENT);
+    }
+
+    /**
+     * Clears the slot of a removed table
+     * @param tableNumber The table number
+     */
+    public synchronized void erase(int tableNumber) {
+        if (tableNumber < capacity) {
+            buffer.put(slotOffset(tableNumber), (byte) 0);
+        }
+    }
+
+    /**
+     * Forces pending writes to storage. Blocks on disk I/O, so call it off the main thread.
+     */
+    public synchronized void flush() {
+        buffer.force();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+        file.close();
+    }
+
+    private void mapExisting() throws IOException {
+        if (file.length() >= HEADER_SIZE) {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, file.length());
+            int storedCapacity = buffer.getInt(8);
+            if (buffer.getInt(0) == MAGIC && buffer.getInt(4) == VERSION && storedCapacity > 0
+                    && storedCapacity <= Constants.MAX_TABLE_NUMBER + 1
+                    && file.length() >= HEADER_SIZE + (long) storedCapacity * SLOT_SIZE) {
+                capacity = storedCapacity;
+                return;
+            }
+            Log.w(TAG, "Snapshot file header invalid, resetting");
+        }
+        file.setLength(0);
+        remap(INITIAL_CAPACITY);
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+    }
+
+    private void ensureCapacity(int required) throws IOException {
+        if (required <= capacity) {
+            return;
+        }
+        int newCapacity = capacity;
+        while (newCapacity < required) {
+            newCapacity *= 2;
+        }
+        remap(Math.min(newCapacity, Constants.MAX_TABLE_NUMBER + 1));
+    }
+
+    private void remap(int newCapacity) throws IOException {
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) newCapacity * SLOT_SIZE);
+        buffer.putInt(8, newCapacity);
+        capacity = newCapacity;
+    }
+
+    private static int slotOffset(int tableNumber) {
+        return HEADER_SIZE + tableNumber * SLOT_SIZE;
+    }
+}
@@ -0,0 +1,361 @@
+package com.smarttableindicator.app.data;
+
+import com.smarttableindicator.app.config.Constants;
+import com.smarttableindicator.app.models.TableModel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Holds the current state of every table, ordered by table number.
+ * Each table lives in the slot matching its number, and a Fenwick tree over the
+ * occupied slots gives the display position of any table in O(log n), so
+ * inserts, updates and removals never scan or re-sort the whole list.
+ * A bitset and a counter per status are updated on every transition, so the number
+ * of tables in a status is read in O(1) and the tables in a status are listed without
+ * looking at the others.
+ */
+public class TableStateStore {
+
+    private static final int INITIAL_CAPACITY = 64;
+    private static final TableModel.Status[] STATUSES = TableModel.Status.values();
+
+    public enum ChangeType {
+        INSERTED,
+        UPDATED,
+        REMOVED
+    }
+
+    /**
+     * Describes a single mutation of the store and the position it happened at
+     */
+    public static class Change {
+        private final ChangeType type;
+        private final int position;
+        private final TableModel table;
+        private final TableModel previous;
+        private final long serverTimestamp;
+        private final double clientTimestamp;
+
+        private Change(ChangeType type, int position, TableModel table, TableModel previous,
+                       long serverTimestamp, double clientTimestamp) {
+            this.type = type;
+            this.position = position;
+            this.table = table;
+            this.previous = previous;
+            this.serverTimestamp = serverTimestamp;
+            this.clientTimestamp = clientTimestamp;
+        }
+
+        public ChangeType getType() { return type; }
+        public int getPosition() { return position; }
+        public TableModel getTable() { return table; }
+        public TableModel getPrevious() { return previous; }
+        public long getServerTimestamp() { return serverTimestamp; }
+        public double getClientTimestamp() { return clientTimestamp; }
+    }
+
+    /**
+     * Observes every mutation of the store. Called on the mutating thread while the
+     * store is locked, so changes are seen in the order they were applied.
+     */
+    public interface Listener {
+        void onTableChanged(Change change);
+    }
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private TableModel[] slots = new TableModel[INITIAL_CAPACITY];
+    private int[] tree = new int[INITIAL_CAPACITY + 1];
+    private int size = 0;
+    private List<TableModel> snapshot;
+    private final BitSet[] tablesByStatus = new BitSet[STATUSES.length];
+    private final int[] statusCounts = new int[STATUSES.length];
+    private final List<List<TableModel>> statusSnapshots = new ArrayList<>(STATUSES.length);
+
+    public TableStateStore() {
+        for (int i = 0; i < STATUSES.length; i++) {
+            tablesByStatus[i] = new BitSet(INITIAL_CAPACITY);
+            statusSnapshots.add(null);
+        }
+    }
+
+    /**
+     * Inserts a table or updates its status
+     * @param tableNumber The table number, between 0 and {@link Constants#MAX_TABLE_NUMBER}
+     * @param status The new status
+     * @return The change that was applied, or null if the table already had this status
+     */
+    public Change upsert(int tableNumber, TableModel.Status status) {
+        return upsert(tableNumber, status, 0, 0);
+    }
+
+    /**
+     * Inserts a table or updates its status, recording when the update was made
+     * @param tableNumber The table number, between 0 and {@link Constants#MAX_TABLE_NUMBER}
+     * @param status The new status
+     * @param serverTimestamp Firebase server timestamp of the update, or 0 if unknown
+     * @param clientTimestamp ESP32 timestamp of the update, or 0 if unknown
+     * @return The change that was applied, or null if the table already had this status
+     */
+    public synchronized Change upsert(int tableNumber, TableModel.Status status,
+                                      long serverTimestamp, double clientTimestamp) {
+        checkTableNumber(tableNumber);
+        ensureCapacity(tableNumber + 1);
+
+        TableModel previous = slots[tableNumber];
+        if (previous != null && previous.getStatus() == status) {
+            return null;
+        }
+
+        TableModel table = new TableModel(tableNumber, status);
+        slots[tableNumber] = table;
+        snapshot = null;
+        if (previous != null) {
+            untrackStatus(tableNumber, previous.getStatus());
+        }
+        trackStatus(tableNumber, status);
+
+        Change change;
+        if (previous == null) {
+            addToTree(tableNumber, 1);
+            size++;
+            change = new Change(ChangeType.INSERTED, countBefore(tableNumber), table, null,
+                    serverTimestamp, clientTimestamp);
+        } else {
+            change = new Change(ChangeType.UPDATED, countBefore(tableNumber), table, previous,
+                    serverTimestamp, clientTimestamp);
+        }
+        notifyListeners(change);
+        return change;
+    }
+
+    /**
+     * Removes a table from the store
+     * @param tableNumber The table number
+     * @return The change that was applied, or null if the table was not present
+     */
+    public synchronized Change remove(int tableNumber) {
+        if (tableNumber < 0 || tableNumber >= slots.length || slots[tableNumber] == null) {
+            return null;
+        }
+        TableModel previous = slots[tableNumber];
+        int position = countBefore(tableNumber);
+        slots[tableNumber] = null;
+        snapshot = null;
+        untrackStatus(tableNumber, previous.getStatus());
+        addToTree(tableNumber, -1);
+        size--;
+        Change change = new Change(ChangeType.REMOVED, position, null, previous, 0, 0);
+        notifyListeners(change);
+        return change;
+    }
+
+    /**
+     * Gets the table shown at the given position
+     * @param position Position in table-number order (0-based)
+     * @return The table at that position
+     */
+    public synchronized TableModel get(int position) {
+        if (position < 0 || position >= size) {
+            throw new IndexOutOfBoundsException("Position " + position + ", size " + size);
+        }
+        return slots[findSlot(position + 1)];
+    }
+
+    /**
+     * Looks up a table by its number
+     * @param tableNumber The table number
+     * @return The table, or null if it is not in the store
+     */
+    public synchronized TableModel find(int tableNumber) {
+        if (tableNumber < 0 || tableNumber >= slots.length) {
+            return null;
+        }
+        return slots[tableNumber];
+    }
+
+    /**
+     * Gets the display position of a table
+     * @param tableNumber The table number
+     * @return The position, or -1 if the table is not in the store
+     */
+    public synchronized int positionOf(int tableNumber) {
+        if (find(tableNumber) == null) {
+            return -1;
+        }
+        return countBefore(tableNumber);
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Copies the current tables, in table-number order, into an immutable list.
+     * The copy is reused until the next mutation.
+     * @return Snapshot of the store
+     */
+    public synchronized List<TableModel> snapshot() {
+        if (snapshot == null) {
+            List<TableModel> tables = new ArrayList<>(size);
+            for (TableModel table : slots) {
+                if (table != null) {
+                    tables.add(table);
+                }
+            }
+            snapshot = Collections.unmodifiableList(tables);
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return How many tables currently have the given status, in O(1)
+     */
+    public synchronized int countOf(TableModel.Status status) {
+        return statusCounts[status.ordinal()];
+    }
+
+    /**
+     * @return Numbers of the tables that currently have the given status
+     */
+    public synchronized BitSet tablesWith(TableModel.Status status) {
+        return (BitSet) tablesByStatus[status.ordinal()].clone();
+    }
+
+    /**
+     * Copies the tables with the given status, in table-number order, into an immutable
+     * list. Only tables with that status are visited, and the copy is reused until a
+     * table enters or leaves the status.
+     * @param status Status to keep, or null for every table
+     * @return Filtered snapshot of the store
+     */
+    public synchronized List<TableModel> snapshot(TableModel.Status status) {
+        if (status == null) {
+            return snapshot();
+        }
+        List<TableModel> tables = statusSnapshots.get(status.ordinal());
+        if (tables == null) {
+            BitSet numbers = tablesByStatus[status.ordinal()];
+            List<TableModel> copy = new ArrayList<>(statusCounts[status.ordinal()]);
+            for (int tableNumber = numbers.nextSetBit(0); tableNumber >= 0; tableNumber = numbers.nextSetBit(tableNumber + 1)) {
+                copy.add(slots[tableNumber]);
+            }
+            tables = Collections.unmodifiableList(copy);
+            statusSnapshots.set(status.ordinal(), tables);
+        }
+        return tables;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Empties the store without notifying listeners
+     */
+    public synchronized void clear() {
+        Arrays.fill(slots, null);
+        Arrays.fill(tree, 0);
+        size = 0;
+        snapshot = null;
+        for (int i = 0; i < STATUSES.length; i++) {
+            tablesByStatus[i].clear();
+            statusCounts[i] = 0;
+            statusSnapshots.set(i, null);
+        }
+    }
+
+    private void trackStatus(int tableNumber, TableModel.Status status) {
+        tablesByStatus[status.ordinal()].set(tableNumber);
+        statusCounts[status.ordinal()]++;
+        statusSnapshots.set(status.ordinal(), null);
+    }
+
+    private void untrackStatus(int tableNumber, TableModel.Status status) {
+        tablesByStatus[status.ordinal()].clear(tableNumber);
+        statusCounts[status.ordinal()]--;
+        statusSnapshots.set(status.ordinal(), null);
+    }
+
+    private void notifyListeners(Change change) {
+        for (Listener listener : listeners) {
+            listener.onTableChanged(change);
+        }
+    }
+
+    private void checkTableNumber(int tableNumber) {
+        if (tableNumber < 0 || tableNumber > Constants.MAX_TABLE_NUMBER) {
+            throw new IllegalArgumentException("Table number out of range: " + tableNumber);
+        }
+    }
+
+    private void ensureCapacity(int required) {
+        if (required <= slots.length) {
+            return;
+        }
+        int capacity = slots.length;
+        while (capacity < required) {
+            capacity *= 2;
+        }
+        capacity = Math.min(capacity, Constants.MAX_TABLE_NUMBER + 1);
+        slots = Arrays.copyOf(slots, capacity);
+        rebuildTree();
+    }
+
+    /**
+     * Rebuilds the Fenwick tree from the slots in O(capacity)
+     */
+    private void rebuildTree() {
+        tree = new int[slots.length + 1];
+        for (int i = 1; i <= slots.length; i++) {
+            if (slots[i - 1] != null) {
+                tree[i]++;
+            }
+            int parent = i + (i & -i);
+            if (parent <= slots.length) {
+                tree[parent] += tree[i];
+            }
+        }
+    }
+
+    private void addToTree(int slot, int delta) {
+        for (int i = slot + 1; i < tree.length; i += i & -i) {
+            tree[i] += delta;
+        }
+    }
+
+    /**
+     * Counts the tables whose number is lower than the given slot
+     */
+    private int countBefore(int slot) {
+        int count = 0;
+        for (int i = slot; i > 0; i -= i & -i) {
+            count += tree[i];
+        }
+        return count;
+    }
+
+    /**
+     * Finds the slot holding the k-th table (1-based) by descending the Fenwick tree
+     */
+    private int findSlot(int k) {
+        int index = 0;
+        for (int step = Integer.highestOneBit(slots.length); step > 0; step >>= 1) {
+            int next = index + step;
+            if (next < tree.length && tree[next] < k) {
+                index = next;
+                k -= tree[next];
+            }
+        }
+        return index;
+    }
+}
@@ -0,0 +1,389 @@
+package com.smarttableindicator.app.data;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.smarttableindicator.app.models.TableModel;
+import com.smarttableindicator.app.sync.TableStatusCodec;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Append-only history of table status transitions, stored as a series of fixed-size
+ * segment files written through a memory-mapped buffer.
+ * Appends are handed to a single background thread and only land in the page cache;
+ * a segment is forced to disk once, when it is closed. A segment covers at most one
+ * UTC day, like the rollup files, and is closed when it is full or its day is over, so
+ * the {@link HistoryCompactor} can fold it away once it leaves the raw retention
+ * window. Each segment header keeps the time range it covers, so a time-range scan
+ * skips whole segments and reads the rest sequentially.
+ *
+ * Record layout (32 bytes): time, serverTimestamp, clientTimestamp, table number,
+ * old status code, new status code. The time is the server timestamp when known,
+ * otherwise the local time the transition was recorded.
+ */
+public class TransitionLog implements TableStateStore.Listener, Closeable {
+
+    private static final String TAG = "TransitionLog";
+
+    static final String SEGMENT_PREFIX = "transitions-";
+    static final String SEGMENT_SUFFIX = ".seg";
+
+    private static final int MAGIC = 0x5354544C; // "STTL"
+    private static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    static final int RECORD_SIZE = 32;
+    static final int RECORDS_PER_SEGMENT = 32 * 1024;
+    private static final int SEGMENT_SIZE = HEADER_SIZE + RECORDS_PER_SEGMENT * RECORD_SIZE;
+    private static final long SEGMENT_SPAN_MS = 24L * 60 * 60 * 1000;
+
+    private static final int OFFSET_COUNT = 8;
+    private static final int OFFSET_MIN_TIME = 16;
+    private static final int OFFSET_MAX_TIME = 24;
+
+    /**
+     * Receives transitions during a scan
+     */
+    public interface Visitor {
+        /**
+         * @return false to stop the scan
+         */
+        boolean onTransition(long time, int tableNumber, TableModel.Status from, TableModel.Status to,
+                             long serverTimestamp, double clientTimestamp);
+    }
+
+    private final File directory;
+    private final List<Visitor> observers = new CopyOnWriteArrayList<>();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(
+            runnable -> new Thread(runnable, "TransitionLog"));
+
+    private RandomAccessFile segmentFile;
+    private File activeSegmentFile;
+    private MappedByteBuffer segment;
+    private int segmentCount;
+
+    private long appendedCount = 0;
+
+    /**
+     * @param directory Directory holding the segment files; created if missing
+     */
+    public TransitionLog(@NonNull File directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public void onTableChanged(@NonNull TableStateStore.Change change) {
+        if (change.getType() != TableStateStore.ChangeType.UPDATED) {
+            return;
+        }
+        append(change.getTable().getTableNumber(), change.getPrevious().getStatus(),
+                change.getTable().getStatus(), change.getServerTimestamp(), change.getClientTimestamp());
+    }
+
+    /**
+     * Runs a catch-up task on the writer thread once every transition queued so far is
+     * written, then passes each later transition to the observer as it is written.
+     * Nothing is appended while the catch-up runs, so between what it reads from the
+     * log and what the observer receives, every transition is seen exactly once.
+     * @param catchUp Reads the history written so far, for example to rebuild totals
+     * @param observer Receives later transitions on the writer thread; its return value
+     *                 is ignored
+     */
+    public void addObserver(@NonNull Runnable catchUp, @NonNull Visitor observer) {
+        executor.execute(() -> {
+            catchUp.run();
+            observers.add(observer);
+        });
+    }
+
+    /**
+     * Queues a transition for writing
+     */
+    public void append(int tableNumber, TableModel.Status from, TableModel.Status to,
+                       long serverTimestamp, double clientTimestamp) {
+        long recordedAt = System.currentTimeMillis();
+        executor.execute(() -> {
+            synchronized (this) {
+                try {
+                    writeRecord(serverTimestamp > 0 ? serverTimestamp : recordedAt,
+                            tableNumber, from, to, serverTimestamp, clientTimestamp);
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to append transition for table " + tableNumber, e);
+                }
+            }
+            for (Visitor observer : observers) {
+                observer.onTransition(serverTimestamp > 0 ? serverTimestamp : recordedAt,
+                        tableNumber, from, to, serverTimestamp, clientTimestamp);
+            }
+        });
+    }
+
+    /**
+     * Visits every transition whose time falls in [fromTime, toTime), oldest segment first.
+     * Reads the segment files directly, so call it off the main thread.
+     * @param fromTime Start of the range in epoch milliseconds, inclusive
+     * @param toTime End of the range in epoch milliseconds, exclusive
+     * @param visitor Receives matching transitions
+     */
+    public synchronized void scan(long fromTime, long toTime, @NonNull Visitor visitor) {
+        for (File file : listSegments()) {
+            try {
+                if (!readSegment(file, fromTime, toTime, visitor)) {
+                    return;
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to scan segment " + file.getName(), e);
+            }
+        }
+    }
+
+    /**
+     * Closes the active segment if its day is over, so it is sealed even when no
+     * transition arrives to roll it
+     * @param now Current time in epoch milliseconds
+     */
+    synchronized void closeExpiredSegment(long now) {
+        if (activeSegmentFile != null && now >= segmentEnd(activeSegmentFile)) {
+            closeSegment();
+        }
+    }
+
+    /**
+     * @param now Current time in epoch milliseconds
+     * @return Segments that will not be written to again, oldest first. The newest
+     * segment is only included once its day is over, because until then it is
+     * reopened for appends.
+     */
+    synchronized File[] sealedSegments(long now) {
+        File[] files = listSegments();
+        if (files.length == 0 || (now >= segmentEnd(files[files.length - 1])
+                && !files[files.length - 1].equals(activeSegmentFile))) {
+            return files;
+        }
+        return Arrays.copyOf(files, files.length - 1);
+    }
+
+    /**
+     * Deletes a sealed segment, typically after it has been compacted
+     * @return true if the file is gone
+     */
+    synchronized boolean deleteSegment(File file) {
+        if (file.equals(activeSegmentFile)) {
+            return false;
+        }
+        return file.delete() || !file.exists();
+    }
+
+    /**
+     * Forces the active segment to disk. Blocks on disk I/O, so call it off the main thread.
+     */
+    public synchronized void flush() {
+        if (segment != null) {
+            segment.force();
+        }
+    }
+
+    public synchronized long getAppendedCount() {
+        return appendedCount;
+    }
+
+    /**
+     * Writes out the queued transitions, then closes the active segment
+     */
+    @Override
+    public void close() {
+        executor.execute(() -> {
+            synchronized (this) {
+                closeSegment();
+            }
+        });
+        executor.shutdown();
+    }
+
+    /**
+     * @return Segment files, oldest first
+     */
+    File[] listSegments() {
+        File[] files = directory.listFiles((dir, name) ->
+                name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+        if (files == null) {
+            return new File[0];
+        }
+        Arrays.sort(files, (a, b) -> Long.compare(segmentStart(a), segmentStart(b)));
+        return files;
+    }
+
+    /**
+     * @return End of the UTC day in which a segment was started, in epoch milliseconds
+     */
+    static long segmentEnd(File file) {
+        long start = segmentStart(file);
+        return start == Long.MAX_VALUE ? start : (Math.floorDiv(start, SEGMENT_SPAN_MS) + 1) * SEGMENT_SPAN_MS;
+    }
+
+    static long segmentStart(File file) {
+        String name = file.getName();
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Maps one segment file and reads the transitions that fall in [fromTime, toTime)
+     * @return false if the visitor asked to stop
+     */
+    static boolean readSegment(File file, long fromTime, long toTime, Visitor visitor) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            if (raf.length() < HEADER_SIZE) {
+                return true;
+            }
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            return scanSegment(buffer, fromTime, toTime, visitor);
+        }
+    }
+
+    /**
+     * @return The latest transition time recorded in a segment, or -1 if it holds no valid records
+     */
+    static long readMaxTime(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            if (raf.length() < HEADER_SIZE || raf.readInt() != MAGIC || raf.readInt() != VERSION
+                    || raf.readInt() == 0) {
+                return -1;
+            }
+            raf.seek(OFFSET_MAX_TIME);
+            return raf.readLong();
+        }
+    }
+
+    /**
+     * Reads the transitions of one segment that fall in [fromTime, toTime)
+     * @return false if the visitor asked to stop
+     */
+    static boolean scanSegment(MappedByteBuffer buffer, long fromTime, long toTime, Visitor visitor) {
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            return true;
+        }
+        int count = buffer.getInt(OFFSET_COUNT);
+        if (count == 0 || buffer.getLong(OFFSET_MAX_TIME) < fromTime || buffer.getLong(OFFSET_MIN_TIME) >= toTime) {
+            return true;
+        }
+        int limit = Math.min(count, (buffer.capacity() - HEADER_SIZE) / RECORD_SIZE);
+        for (int i = 0; i < limit; i++) {
+            int offset = HEADER_SIZE + i * RECORD_SIZE;
+            long time = buffer.getLong(offset);
+            if (time < fromTime || time >= toTime) {
+                continue;
+            }
+            TableModel.Status from = TableStatusCodec.decodeCode(buffer.get(offset + 28));
+            TableModel.Status to = TableStatusCodec.decodeCode(buffer.get(offset + 29));
+            if (from == null || to == null) {
+                continue;
+            }
+            if (!visitor.onTransition(time, buffer.getInt(offset + 24), from, to,
+                    buffer.getLong(offset + 8), buffer.getDouble(offset + 16))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void writeRecord(long time, int tableNumber, TableModel.Status from, TableModel.Status to,
+                             long serverTimestamp, double clientTimestamp) throws IOException {
+        long now = System.currentTimeMillis();
+        if (segment == null || segmentCount >= RECORDS_PER_SEGMENT || now >= segmentEnd(activeSegmentFile)) {
+            rollSegment(time, now);
+        }
+        int offset = HEADER_SIZE + segmentCount * RECORD_SIZE;
+        segment.putLong(offset, time);
+        segment.putLong(offset + 8, serverTimestamp);
+        segment.putDouble(offset + 16, clientTimestamp);
+        segment.putInt(offset + 24, tableNumber);
+        segment.put(offset + 28, (byte) TableStatusCodec.encode(from));
+        segment.put(offset + 29, (byte) TableStatusCodec.encode(to));
+        segment.putShort(offset + 30, (short) 0);
+
+        if (segmentCount == 0 || time < segment.getLong(OFFSET_MIN_TIME)) {
+            segment.putLong(OFFSET_MIN_TIME, time);
+        }
+        if (segmentCount == 0 || time > segment.getLong(OFFSET_MAX_TIME)) {
+            segment.putLong(OFFSET_MAX_TIME, time);
+        }
+        segmentCount++;
+        segment.putInt(OFFSET_COUNT, segmentCount);
+        appendedCount++;
+    }
+
+    /**
+     * Opens the newest segment if it still has room and its day is not over, otherwise
+     * starts a new one
+     */
+    private void rollSegment(long time, long now) throws IOException {
+        if (segment == null) {
+            File[] existing = listSegments();
+            File newest = existing.length > 0 ? existing[existing.length - 1] : null;
+            if (newest != null && now < segmentEnd(newest) && openSegment(newest, false)
+                    && segmentCount < RECORDS_PER_SEGMENT) {
+                return;
+            }
+        }
+        closeSegment();
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        long start = Math.max(time, now);
+        File file = new File(directory, SEGMENT_PREFIX + start + SEGMENT_SUFFIX);
+        while (file.exists()) {
+            file = new File(directory, SEGMENT_PREFIX + (++start) + SEGMENT_SUFFIX);
+        }
+        if (!openSegment(file, true)) {
+            throw new IOException("Cannot open new segment " + file);
+        }
+    }
+
+    private boolean openSegment(File file, boolean create) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+        if (create) {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(OFFSET_COUNT, 0);
+        } else if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            raf.close();
+            return false;
+        }
+        segmentFile = raf;
+        segment = buffer;
+        activeSegmentFile = file;
+        segmentCount = buffer.getInt(OFFSET_COUNT);
+        return true;
+    }
+
+    private void closeSegment() {
+        if (segment == null) {
+            return;
+        }
+        segment.force();
+        try {
+            segmentFile.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to close segment", e);
+        }
+        segment = null;
+        segmentFile = null;
+        activeSegmentFile = null;
+    }
+}
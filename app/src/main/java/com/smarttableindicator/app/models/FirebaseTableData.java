@@ -4,6 +4,10 @@ import com.google.firebase.database.IgnoreExtraProperties;
 
 @IgnoreExtraProperties
 public class FirebaseTableData {
+    public static final String FIELD_STATUS = "status";
+    public static final String FIELD_CLIENT_TIMESTAMP = "clientTimestamp";
+    public static final String FIELD_SERVER_TIMESTAMP = "serverTimestamp";
+
     public String status;
     public double clientTimestamp;
     public long serverTimestamp;
@@ -0,0 +1,243 @@
+package com.smarttableindicator.app.models;
+
+import android.content.res.AssetManager;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.smarttableindicator.app.config.Constants;
+import com.smarttableindicator.app.utils.SpatialGridIndex;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Where every table physically sits, in plan units (for example centimetres), with a
+ * spatial index over the table rectangles.
+ * A layout definition is a JSON object with an array of tables and, optionally, the
+ * plan size; without it the size is taken from the tables' extent:
+ * <pre>
+ * { "width": 4000, "height": 2500,
+ *   "tables": [ { "table": 12, "x": 100, "y": 200, "w": 80, "h": 80 }, ... ] }
+ * </pre>
+ * Entries with an invalid table number or size, and repeats of a table, are skipped.
+ * Immutable apart from the index's query scratch space.
+ */
+public class FloorPlan {
+
+    private static final String TAG = "FloorPlan";
+
+    public static final String KEY_WIDTH = "width";
+    public static final String KEY_HEIGHT = "height";
+    public static final String KEY_TABLES = "tables";
+    public static final String KEY_TABLE = "table";
+    public static final String KEY_X = "x";
+    public static final String KEY_Y = "y";
+    public static final String KEY_W = "w";
+    public static final String KEY_H = "h";
+
+    private static final float GENERATED_TABLE_SIZE = 100f;
+    private static final float GENERATED_TABLE_GAP = 40f;
+
+    private final int[] tableNumbers;
+    private final float[] bounds;
+    private final float width;
+    private final float height;
+    private final boolean generated;
+    private final SpatialGridIndex index;
+    private final BitSet placedTables = new BitSet();
+
+    private FloorPlan(int[] tableNumbers, float[] bounds, float width, float height, boolean generated) {
+        this.tableNumbers = tableNumbers;
+        for (int tableNumber : tableNumbers) {
+            placedTables.set(tableNumber);
+        }
+        this.bounds = bounds;
+        this.width = width;
+        this.height = height;
+        this.generated = generated;
+        this.index = new SpatialGridIndex(bounds, tableNumbers.length, width, height);
+    }
+
+    /**
+     * Reads a layout definition from the app's assets
+     * @return The plan, or null if the asset is missing or malformed
+     */
+    @Nullable
+    public static FloorPlan loadAsset(@NonNull AssetManager assets, @NonNull String name) {
+        try (InputStream in = assets.open(name)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return parse(new String(out.toByteArray(), StandardCharsets.UTF_8));
+        } catch (FileNotFoundException e) {
+            Log.i(TAG, "No floor plan asset " + name);
+            return null;
+        } catch (IOException | JSONException e) {
+            Log.e(TAG, "Could not load floor plan " + name, e);
+            return null;
+        }
+    }
+
+    /**
+     * @param json A layout definition
+     * @return The plan with the valid entries of the definition
+     * @throws JSONException if the definition is not a JSON object with a tables array
+     */
+    @NonNull
+    public static FloorPlan parse(@NonNull String json) throws JSONException {
+        JSONObject root = new JSONObject(json);
+        JSONArray entries = root.optJSONArray(KEY_TABLES);
+        if (entries == null) {
+            throw new JSONException("Missing " + KEY_TABLES + " array");
+        }
+        int[] numbers = new int[entries.length()];
+        float[] bounds = new float[entries.length() * 4];
+        BitSet seen = new BitSet();
+        float maxRight = 0;
+        float maxBottom = 0;
+        int count = 0;
+        for (int i = 0; i < entries.length(); i++) {
+            JSONObject entry = entries.optJSONObject(i);
+            if (entry == null) {
+                Log.w(TAG, "Skipping floor plan entry " + i + ": not an object");
+                continue;
+            }
+            int tableNumber = entry.optInt(KEY_TABLE, -1);
+            float x = (float) entry.optDouble(KEY_X, Double.NaN);
+            float y = (float) entry.optDouble(KEY_Y, Double.NaN);
+            float w = (float) entry.optDouble(KEY_W, Double.NaN);
+            float h = (float) entry.optDouble(KEY_H, Double.NaN);
+            if (tableNumber < 0 || tableNumber > Constants.MAX_TABLE_NUMBER || seen.get(tableNumber)) {
+                Log.w(TAG, "Skipping floor plan entry " + i + ": invalid or repeated table " + tableNumber);
+                continue;
+            }
+            if (!(x >= 0) || !(y >= 0) || !(w > 0) || !(h > 0)) {
+                Log.w(TAG, "Skipping floor plan entry " + i + ": invalid position or size for table " + tableNumber);
+                continue;
+            }
+            seen.set(tableNumber);
+            numbers[count] = tableNumber;
+            bounds[count * 4] = x;
+            bounds[count * 4 + 1] = y;
+            bounds[count * 4 + 2] = x + w;
+            bounds[count * 4 + 3] = y + h;
+            maxRight = Math.max(maxRight, x + w);
+            maxBottom = Math.max(maxBottom, y + h);
+            count++;
+        }
+        float width = (float) root.optDouble(KEY_WIDTH, 0);
+        float height = (float) root.optDouble(KEY_HEIGHT, 0);
+        return new FloorPlan(Arrays.copyOf(numbers, count), Arrays.copyOf(bounds, count * 4),
+                Math.max(width, maxRight), Math.max(height, maxBottom), false);
+    }
+
+    /**
+     * Lays the given tables out in a square grid, for venues without a layout definition
+     * @param tables Tables in display order
+     */
+    @NonNull
+    public static FloorPlan grid(@NonNull List<TableModel> tables) {
+        int count = tables.size();
+        int columns = Math.max(1, (int) Math.ceil(Math.sqrt(count)));
+        int rows = (count + columns - 1) / columns;
+        float pitch = GENERATED_TABLE_SIZE + GENERATED_TABLE_GAP;
+        int[] numbers = new int[count];
+        float[] bounds = new float[count * 4];
+        for (int i = 0; i < count; i++) {
+            float left = GENERATED_TABLE_GAP + (i % columns) * pitch;
+            float top = GENERATED_TABLE_GAP + (i / columns) * pitch;
+            numbers[i] = tables.get(i).getTableNumber();
+            bounds[i * 4] = left;
+            bounds[i * 4 + 1] = top;
+            bounds[i * 4 + 2] = left + GENERATED_TABLE_SIZE;
+            bounds[i * 4 + 3] = top + GENERATED_TABLE_SIZE;
+        }
+        return new FloorPlan(numbers, bounds,
+                GENERATED_TABLE_GAP + columns * pitch, GENERATED_TABLE_GAP + rows * pitch, true);
+    }
+
+    public int size() {
+        return tableNumbers.length;
+    }
+
+    public int getTableNumber(int index) {
+        return tableNumbers[index];
+    }
+
+    public float getLeft(int index) {
+        return bounds[index * 4];
+    }
+
+    public float getTop(int index) {
+        return bounds[index * 4 + 1];
+    }
+
+    public float getRight(int index) {
+        return bounds[index * 4 + 2];
+    }
+
+    public float getBottom(int index) {
+        return bounds[index * 4 + 3];
+    }
+
+    public float getWidth() {
+        return width;
+    }
+
+    public float getHeight() {
+        return height;
+    }
+
+    /**
+     * @return true if the plan was laid out by {@link #grid} rather than loaded
+     */
+    public boolean isGenerated() {
+        return generated;
+    }
+
+    /**
+     * @return true if the plan places exactly the given tables, in any order
+     */
+    public boolean placesExactly(@NonNull List<TableModel> tables) {
+        if (tables.size() != placedTables.cardinality()) {
+            return false;
+        }
+        for (TableModel table : tables) {
+            if (!placedTables.get(table.getTableNumber())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The highest table number in the plan, or -1 if it is empty
+     */
+    public int getMaxTableNumber() {
+        int max = -1;
+        for (int tableNumber : tableNumbers) {
+            max = Math.max(max, tableNumber);
+        }
+        return max;
+    }
+
+    @NonNull
+    public SpatialGridIndex getIndex() {
+        return index;
+    }
+}
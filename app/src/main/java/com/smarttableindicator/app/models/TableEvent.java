@@ -0,0 +1,59 @@
+package com.smarttableindicator.app.models;
+
+/**
+ * A single decoded change to one table, as delivered by the table listener.
+ * Events decoded from the live listener also carry when their snapshot arrived and
+ * when it was decoded, on the SystemClock.elapsedRealtime() clock, for latency tracing.
+ */
+public class TableEvent {
+    public enum Type { UPSERT, REMOVE }
+
+    private final Type type;
+    private final String tableId;
+    private final int tableNumber;
+    private final TableModel.Status status;
+    private final double clientTimestamp;
+    private final long serverTimestamp;
+    private final long receivedAt;
+    private final long decodedAt;
+
+    private TableEvent(Type type, String tableId, int tableNumber, TableModel.Status status,
+                       double clientTimestamp, long serverTimestamp, long receivedAt, long decodedAt) {
+        this.type = type;
+        this.tableId = tableId;
+        this.tableNumber = tableNumber;
+        this.status = status;
+        this.clientTimestamp = clientTimestamp;
+        this.serverTimestamp = serverTimestamp;
+        this.receivedAt = receivedAt;
+        this.decodedAt = decodedAt;
+    }
+
+    public static TableEvent upsert(String tableId, int tableNumber, TableModel.Status status,
+                                    double clientTimestamp, long serverTimestamp) {
+        return upsert(tableId, tableNumber, status, clientTimestamp, serverTimestamp, 0, 0);
+    }
+
+    /**
+     * @param receivedAt When the snapshot reached the listener, or 0 if unknown
+     * @param decodedAt When the snapshot was decoded, or 0 if unknown
+     */
+    public static TableEvent upsert(String tableId, int tableNumber, TableModel.Status status,
+                                    double clientTimestamp, long serverTimestamp, long receivedAt, long decodedAt) {
+        return new TableEvent(Type.UPSERT, tableId, tableNumber, status, clientTimestamp, serverTimestamp,
+                receivedAt, decodedAt);
+    }
+
+    public static TableEvent remove(String tableId, int tableNumber) {
+        return new TableEvent(Type.REMOVE, tableId, tableNumber, null, 0, 0, 0, 0);
+    }
+
+    public Type getType() { return type; }
+    public String getTableId() { return tableId; }
+    public int getTableNumber() { return tableNumber; }
+    public TableModel.Status getStatus() { return status; }
+    public double getClientTimestamp() { return clientTimestamp; }
+    public long getServerTimestamp() { return serverTimestamp; }
+    public long getReceivedAt() { return receivedAt; }
+    public long getDecodedAt() { return decodedAt; }
+}
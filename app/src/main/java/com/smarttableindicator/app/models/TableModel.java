@@ -3,8 +3,8 @@ package com.smarttableindicator.app.models;
 public class TableModel {
     public enum Status { AVAILABLE, OCCUPIED, DIRTY }
 
-    private int tableNumber;
-    private Status status;
+    private final int tableNumber;
+    private final Status status;
 
     public TableModel(int tableNumber, Status status) {
         this.tableNumber = tableNumber;
@@ -13,5 +13,4 @@ public class TableModel {
 
     public int getTableNumber() { return tableNumber; }
     public Status getStatus() { return status; }
-    public void setStatus(Status status) { this.status = status; }
 }
\ No newline at end of file
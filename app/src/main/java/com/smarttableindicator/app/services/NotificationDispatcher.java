@@ -0,0 +1,451 @@
+package com.smarttableindicator.app.services;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.service.notification.StatusBarNotification;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.app.NotificationCompat;
+
+import com.smarttableindicator.app.R;
+import com.smarttableindicator.app.activities.MainActivity;
+import com.smarttableindicator.app.config.Constants;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Posts table alerts and push messages from a single worker thread.
+ * Channels are created once, when the dispatcher is created at app start.
+ * Table alerts are grouped under one summary notification that lists every table
+ * waiting for cleaning. A table alerted again within the debounce window is updated
+ * silently instead of ringing again. Posts go through a queue drained at no more than
+ * {@link Constants#NOTIFICATION_MAX_POSTS_PER_SECOND}, because the platform drops
+ * notifications posted faster than its per-app rate limit. A queued post that is
+ * superseded (a newer post or a cancel for the same table) is replaced, not sent twice.
+ * Tables that were already dirty when the app synced are reported together in one
+ * standalone summary, kept up to date as those tables are cleaned.
+ * Alerts the user swiped away or tapped are forgotten: the platform reports neither,
+ * so the shown notifications are checked before the active tables are used, at most
+ * once per {@link #RECONCILE_INTERVAL_MS} because each check is a call into the system.
+ * All public methods may be called from any thread.
+ */
+public class NotificationDispatcher {
+
+    private static final String TAG = Constants.TAG_NOTIFICATION_DISPATCHER;
+
+    private static final String TABLE_CHANNEL_NAME = "Table Status Updates";
+    private static final String TABLE_CHANNEL_DESCRIPTION = "Notifications for important table status changes";
+    private static final String FCM_CHANNEL_NAME = "Table Status Notifications";
+    private static final String FCM_CHANNEL_DESCRIPTION = "Notifications for table status changes";
+
+    private static final String GROUP_KEY_TABLE_ALERTS = "com.smarttableindicator.app.TABLE_ALERTS";
+    private static final String EXTRA_HIGHLIGHT_TABLE_ID = "highlightTableId";
+    private static final int MAX_SUMMARY_LINES = 6;
+    private static final long RATE_WINDOW_MS = 1000;
+    /** A post can take this long to show up in the active notifications */
+    private static final long RECONCILE_GRACE_MS = 2000;
+    private static final long RECONCILE_INTERVAL_MS = 1000;
+
+    private final Context context;
+    private final NotificationManager notificationManager;
+    private final Handler handler;
+
+    // Only touched on the worker thread
+    private final LinkedHashMap<Integer, Notification> queue = new LinkedHashMap<>();
+    private final ArrayDeque<Long> recentPostTimes = new ArrayDeque<>();
+    private final TreeSet<Integer> activeTables = new TreeSet<>();
+    private final TreeSet<Integer> initialTables = new TreeSet<>();
+    private final Set<Integer> reportedInitialTables = new HashSet<>();
+    private final Map<Integer, Long> lastAlertTimes = new HashMap<>();
+    private final Map<Integer, Long> lastPostTimes = new HashMap<>();
+    private final Map<Integer, PendingIntent> tableIntents = new HashMap<>();
+    private PendingIntent openAppIntent;
+    private boolean summaryStale = false;
+    private boolean initialSummaryStale = false;
+    private boolean drainScheduled = false;
+    private long lastReconcileAt = Long.MIN_VALUE;
+
+    private volatile long postedCount = 0;
+    private volatile long debouncedCount = 0;
+    private volatile long replacedCount = 0;
+
+    private final Runnable drainRunnable = () -> {
+        drainScheduled = false;
+        drain();
+    };
+
+    /**
+     * Creates the notification channels and starts the worker thread
+     * @param context Any context; the application context is kept
+     */
+    public NotificationDispatcher(@NonNull Context context) {
+        this.context = context.getApplicationContext();
+        this.notificationManager = (NotificationManager) this.context.getSystemService(Context.NOTIFICATION_SERVICE);
+        HandlerThread thread = new HandlerThread("NotificationDispatcher");
+        thread.start();
+        this.handler = new Handler(thread.getLooper());
+        createChannels();
+    }
+
+    /**
+     * Raises the cleaning alert of a table
+     * @param tableNumber The table number, also used as notification id
+     * @param tableId The Firebase key of the table, passed to MainActivity
+     */
+    public void notifyTableDirty(int tableNumber, @Nullable String tableId) {
+        long now = SystemClock.elapsedRealtime();
+        handler.post(() -> {
+            if (notificationManager == null) {
+                return;
+            }
+            reconcileShown();
+            Long lastAlert = lastAlertTimes.get(tableNumber);
+            boolean repeated = lastAlert != null && now - lastAlert < Constants.NOTIFICATION_DEBOUNCE_MS;
+            if (repeated && activeTables.contains(tableNumber)) {
+                debouncedCount++;
+                return;
+            }
+            if (repeated) {
+                debouncedCount++;
+            }
+            lastAlertTimes.put(tableNumber, now);
+            activeTables.add(tableNumber);
+            initialSummaryStale |= initialTables.remove(tableNumber);
+            enqueue(tableNumber, buildTableAlert(tableNumber, tableId, repeated));
+            summaryStale = true;
+            scheduleDrain(0);
+        });
+    }
+
+    /**
+     * Removes the alert of a table, including one still waiting in the queue
+     * @param tableNumber The table number
+     */
+    public void cancelTable(int tableNumber) {
+        handler.post(() -> {
+            if (notificationManager == null) {
+                return;
+            }
+            queue.remove(tableNumber);
+            if (activeTables.remove(tableNumber)) {
+                notificationManager.cancel(tableNumber);
+                summaryStale = true;
+            }
+            initialSummaryStale |= initialTables.remove(tableNumber);
+            reportedInitialTables.remove(tableNumber);
+            scheduleDrain(0);
+        });
+    }
+
+    /**
+     * Reports the tables that were already dirty when the initial sync finished with
+     * a single "N tables need cleaning" notification instead of one alert per table.
+     * Tables that already have their own alert are left out. The summary is updated
+     * silently as tables are cleaned and removed when none are left.
+     * The initial sync runs again on every listener attach, after a rotation, reconnect
+     * or sync mode switch, so the summary is only posted again when a table is dirty
+     * that no earlier summary in this process reported.
+     * @param tableNumbers Numbers of the dirty tables
+     */
+    public void notifyInitialSummary(@NonNull Collection<Integer> tableNumbers) {
+        List<Integer> tables = new ArrayList<>(tableNumbers);
+        handler.post(() -> {
+            if (notificationManager == null) {
+                return;
+            }
+            reconcileShown();
+            if (reportedInitialTables.containsAll(tables)) {
+                // Only forget the tables cleaned in the meantime
+                initialSummaryStale |= initialTables.retainAll(tables);
+                scheduleDrain(0);
+                return;
+            }
+            reportedInitialTables.addAll(tables);
+            initialTables.clear();
+            initialTables.addAll(tables);
+            initialTables.removeAll(activeTables);
+            initialSummaryStale = true;
+            scheduleDrain(0);
+        });
+    }
+
+    /**
+     * Posts a free-form message, such as a push notification, on the FCM channel
+     * @param notificationId Id of the notification; a later message with the same id replaces it
+     */
+    public void notifyMessage(int notificationId, @Nullable String title, @Nullable String body) {
+        handler.post(() -> {
+            if (notificationManager == null) {
+                return;
+            }
+            Notification notification = new NotificationCompat.Builder(context, Constants.FCM_CHANNEL_ID)
+                    .setSmallIcon(R.drawable.ic_notification_icon)
+                    .setContentTitle(title)
+                    .setContentText(body)
+                    .setAutoCancel(true)
+                    .setContentIntent(openAppIntent())
+                    .setPriority(NotificationCompat.PRIORITY_HIGH)
+                    .build();
+            enqueue(notificationId, notification);
+            scheduleDrain(0);
+        });
+    }
+
+    /**
+     * Removes every table alert and the summary, and drops queued table posts
+     */
+    public void cancelAllTables() {
+        handler.post(() -> {
+            if (notificationManager == null) {
+                return;
+            }
+            for (int tableNumber : activeTables) {
+                queue.remove(tableNumber);
+                notificationManager.cancel(tableNumber);
+            }
+            activeTables.clear();
+            initialTables.clear();
+            reportedInitialTables.clear();
+            queue.remove(Constants.NOTIFICATION_ID_TABLE_SUMMARY);
+            notificationManager.cancel(Constants.NOTIFICATION_ID_TABLE_SUMMARY);
+            queue.remove(Constants.NOTIFICATION_ID_INITIAL_SUMMARY);
+            notificationManager.cancel(Constants.NOTIFICATION_ID_INITIAL_SUMMARY);
+            summaryStale = false;
+            initialSummaryStale = false;
+        });
+    }
+
+    public long getPostedCount() {
+        return postedCount;
+    }
+
+    /**
+     * @return Number of table alerts that were skipped or posted silently because the
+     * same table had been alerted within the debounce window
+     */
+    public long getDebouncedCount() {
+        return debouncedCount;
+    }
+
+    /**
+     * @return Number of queued posts replaced by a newer post for the same notification
+     */
+    public long getReplacedCount() {
+        return replacedCount;
+    }
+
+    private void createChannels() {
+        if (notificationManager == null) {
+            Log.e(TAG, "NotificationManager is null. Notifications are disabled.");
+            return;
+        }
+        NotificationChannel tableChannel = new NotificationChannel(Constants.TABLE_STATUS_CHANNEL_ID,
+                TABLE_CHANNEL_NAME, NotificationManager.IMPORTANCE_HIGH);
+        tableChannel.setDescription(TABLE_CHANNEL_DESCRIPTION);
+        NotificationChannel fcmChannel = new NotificationChannel(Constants.FCM_CHANNEL_ID,
+                FCM_CHANNEL_NAME, NotificationManager.IMPORTANCE_HIGH);
+        fcmChannel.setDescription(FCM_CHANNEL_DESCRIPTION);
+        notificationManager.createNotificationChannel(tableChannel);
+        notificationManager.createNotificationChannel(fcmChannel);
+        Log.d(TAG, "Notification channels created");
+    }
+
+    private Notification buildTableAlert(int tableNumber, @Nullable String tableId, boolean silent) {
+        PendingIntent contentIntent = tableIntents.get(tableNumber);
+        if (contentIntent == null) {
+            Intent intent = mainActivityIntent();
+            if (tableId != null) {
+                intent.putExtra(EXTRA_HIGHLIGHT_TABLE_ID, tableId);
+            }
+            contentIntent = PendingIntent.getActivity(context, tableNumber, intent,
+                    PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+            tableIntents.put(tableNumber, contentIntent);
+        }
+        return new NotificationCompat.Builder(context, Constants.TABLE_STATUS_CHANNEL_ID)
+                .setSmallIcon(R.drawable.ic_notification_icon)
+                .setContentTitle("Table Alert!")
+                .setContentText("Table " + tableNumber + " needs cleaning!")
+                .setAutoCancel(true)
+                .setSilent(silent)
+                .setContentIntent(contentIntent)
+                .setPriority(NotificationCompat.PRIORITY_HIGH)
+                .setCategory(NotificationCompat.CATEGORY_ALARM)
+                .setGroup(GROUP_KEY_TABLE_ALERTS)
+                .setGroupAlertBehavior(NotificationCompat.GROUP_ALERT_CHILDREN)
+                .build();
+    }
+
+    /**
+     * @param groupSummary true for the summary of the grouped table alerts, false for the
+     * standalone initial-sync summary, which alerts once and then updates silently
+     */
+    private Notification buildTableList(Set<Integer> tables, boolean groupSummary) {
+        NotificationCompat.InboxStyle style = new NotificationCompat.InboxStyle();
+        int lines = 0;
+        for (int tableNumber : tables) {
+            if (lines++ == MAX_SUMMARY_LINES) {
+                style.setSummaryText("+" + (tables.size() - MAX_SUMMARY_LINES) + " more");
+                break;
+            }
+            style.addLine("Table " + tableNumber);
+        }
+        String title = tables.size() == 1
+                ? "1 table needs cleaning" : tables.size() + " tables need cleaning";
+        style.setBigContentTitle(title);
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(context, Constants.TABLE_STATUS_CHANNEL_ID)
+                .setSmallIcon(R.drawable.ic_notification_icon)
+                .setContentTitle(title)
+                .setContentText("Tap to open the table grid")
+                .setStyle(style)
+                .setNumber(tables.size())
+                .setAutoCancel(true)
+                .setContentIntent(openAppIntent());
+        if (groupSummary) {
+            builder.setGroup(GROUP_KEY_TABLE_ALERTS)
+                    .setGroupSummary(true)
+                    .setGroupAlertBehavior(NotificationCompat.GROUP_ALERT_CHILDREN);
+        } else {
+            builder.setPriority(NotificationCompat.PRIORITY_HIGH)
+                    .setCategory(NotificationCompat.CATEGORY_ALARM)
+                    .setOnlyAlertOnce(true);
+        }
+        return builder.build();
+    }
+
+    private PendingIntent openAppIntent() {
+        if (openAppIntent == null) {
+            openAppIntent = PendingIntent.getActivity(context, Constants.NOTIFICATION_ID_TABLE_SUMMARY,
+                    mainActivityIntent(), PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+        }
+        return openAppIntent;
+    }
+
+    private Intent mainActivityIntent() {
+        Intent intent = new Intent(context, MainActivity.class);
+        intent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP);
+        return intent;
+    }
+
+    /**
+     * Forgets the table alerts and the initial summary that are no longer shown, and
+     * marks the group summary for an update. Posts still queued or made within
+     * {@link #RECONCILE_GRACE_MS} are kept. Does nothing if the shown notifications were
+     * checked less than {@link #RECONCILE_INTERVAL_MS} ago, so a burst of alerts and
+     * drains makes one call into the system.
+     */
+    private void reconcileShown() {
+        if (activeTables.isEmpty() && initialTables.isEmpty()) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        if (lastReconcileAt != Long.MIN_VALUE && now - lastReconcileAt < RECONCILE_INTERVAL_MS) {
+            return;
+        }
+        lastReconcileAt = now;
+        Set<Integer> shown = new HashSet<>();
+        for (StatusBarNotification notification : notificationManager.getActiveNotifications()) {
+            shown.add(notification.getId());
+        }
+        Iterator<Integer> iterator = activeTables.iterator();
+        while (iterator.hasNext()) {
+            int tableNumber = iterator.next();
+            if (isGone(tableNumber, shown, now)) {
+                iterator.remove();
+                summaryStale = true;
+            }
+        }
+        if (!initialTables.isEmpty() && !initialSummaryStale
+                && isGone(Constants.NOTIFICATION_ID_INITIAL_SUMMARY, shown, now)) {
+            initialTables.clear();
+        }
+    }
+
+    private boolean isGone(int notificationId, Set<Integer> shown, long now) {
+        if (shown.contains(notificationId) || queue.containsKey(notificationId)) {
+            return false;
+        }
+        Long postedAt = lastPostTimes.get(notificationId);
+        return postedAt == null || now - postedAt >= RECONCILE_GRACE_MS;
+    }
+
+    private void enqueue(int notificationId, Notification notification) {
+        if (queue.remove(notificationId) != null) {
+            replacedCount++;
+        }
+        queue.put(notificationId, notification);
+    }
+
+    /**
+     * Posts queued notifications while the rate budget allows, the group summary last,
+     * and schedules itself again for when the budget frees up
+     */
+    private void drain() {
+        reconcileShown();
+        if (summaryStale) {
+            summaryStale = false;
+            if (activeTables.isEmpty()) {
+                queue.remove(Constants.NOTIFICATION_ID_TABLE_SUMMARY);
+                notificationManager.cancel(Constants.NOTIFICATION_ID_TABLE_SUMMARY);
+            } else {
+                enqueue(Constants.NOTIFICATION_ID_TABLE_SUMMARY, buildTableList(activeTables, true));
+            }
+        }
+        if (initialSummaryStale) {
+            initialSummaryStale = false;
+            if (initialTables.isEmpty()) {
+                queue.remove(Constants.NOTIFICATION_ID_INITIAL_SUMMARY);
+                notificationManager.cancel(Constants.NOTIFICATION_ID_INITIAL_SUMMARY);
+            } else {
+                enqueue(Constants.NOTIFICATION_ID_INITIAL_SUMMARY, buildTableList(initialTables, false));
+            }
+        }
+
+        long now = SystemClock.elapsedRealtime();
+        while (!recentPostTimes.isEmpty() && now - recentPostTimes.peekFirst() >= RATE_WINDOW_MS) {
+            recentPostTimes.pollFirst();
+        }
+
+        Iterator<Map.Entry<Integer, Notification>> iterator = queue.entrySet().iterator();
+        while (iterator.hasNext() && recentPostTimes.size() < Constants.NOTIFICATION_MAX_POSTS_PER_SECOND) {
+            Map.Entry<Integer, Notification> entry = iterator.next();
+            if (entry.getKey() == Constants.NOTIFICATION_ID_TABLE_SUMMARY && queue.size() > 1) {
+                continue;
+            }
+            iterator.remove();
+            notificationManager.notify(entry.getKey(), entry.getValue());
+            lastPostTimes.put(entry.getKey(), now);
+            recentPostTimes.addLast(now);
+            postedCount++;
+        }
+        if (!queue.isEmpty() && !recentPostTimes.isEmpty()) {
+            scheduleDrain(RATE_WINDOW_MS - (now - recentPostTimes.peekFirst()));
+        }
+    }
+
+    private void scheduleDrain(long delayMs) {
+        if (drainScheduled) {
+            return;
+        }
+        drainScheduled = true;
+        handler.postDelayed(drainRunnable, Math.max(0, delayMs));
+    }
+}
@@ -1,29 +1,23 @@
 package com.smarttableindicator.app.services;
 
-import android.app.NotificationChannel;
-import android.app.NotificationManager;
-import android.app.PendingIntent;
-import android.content.Context;
-import android.content.Intent;
-import android.media.RingtoneManager;
-import android.net.Uri;
-import android.os.Build;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
-import androidx.core.app.NotificationCompat;
 
 import com.google.firebase.messaging.FirebaseMessagingService;
 import com.google.firebase.messaging.RemoteMessage;
-import com.smarttableindicator.app.R;
-import com.smarttableindicator.app.activities.MainActivity;
+import com.smarttableindicator.app.SmartTableIndicatorApp;
 import com.smarttableindicator.app.config.Constants;
+import com.smarttableindicator.app.models.TableEvent;
+import com.smarttableindicator.app.sync.TablePushDecoder;
+
+import java.util.List;
 
 public class SmartTableMessagingService extends FirebaseMessagingService {
 
     private static final String TAG = Constants.TAG_FCM_SERVICE;
-    private static final String CHANNEL_NAME = "Table Status Notifications";
-    private static final String CHANNEL_DESCRIPTION = "Notifications for table status changes";
+
+    private final TablePushDecoder pushDecoder = new TablePushDecoder();
 
     @Override
     public void onMessageReceived(@NonNull RemoteMessage remoteMessage) {
@@ -34,6 +28,7 @@ public class SmartTableMessagingService extends FirebaseMessagingService {
 
         if (remoteMessage.getData().size() > 0) {
             Log.d(TAG, "Message data payload: " + remoteMessage.getData());
+            applyTableUpdates(remoteMessage);
         }
 
         if (remoteMessage.getNotification() != null) {
@@ -49,34 +44,29 @@ public class SmartTableMessagingService extends FirebaseMessagingService {
 
     }
 
-    private void sendNotification(String messageTitle, String messageBody) {
-        Intent intent = new Intent(this, MainActivity.class);
-        intent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP);
-        PendingIntent pendingIntent = PendingIntent.getActivity(this, 0, intent,
-                PendingIntent.FLAG_IMMUTABLE | PendingIntent.FLAG_ONE_SHOT);
-
-        Uri defaultSoundUri = RingtoneManager.getDefaultUri(RingtoneManager.TYPE_NOTIFICATION);
-        NotificationCompat.Builder notificationBuilder =
-                new NotificationCompat.Builder(this, Constants.FCM_CHANNEL_ID)
-                        .setSmallIcon(R.drawable.ic_notification_icon)
-                        .setContentTitle(messageTitle)
-                        .setContentText(messageBody)
-                        .setAutoCancel(true)
-                        .setSound(defaultSoundUri)
-                        .setContentIntent(pendingIntent)
-                        .setPriority(NotificationCompat.PRIORITY_HIGH);
-
-        NotificationManager notificationManager =
-                (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
-
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-            NotificationChannel channel = new NotificationChannel(Constants.FCM_CHANNEL_ID,
-                    CHANNEL_NAME,
-                    NotificationManager.IMPORTANCE_HIGH);
-            channel.setDescription(CHANNEL_DESCRIPTION);
-            notificationManager.createNotificationChannel(channel);
+    /**
+     * Applies table updates carried in the data payload to the shared table state,
+     * which persists them and raises the same alerts as the live listener would.
+     * Updates already delivered by the live listener are dropped by the stale filter.
+     */
+    private void applyTableUpdates(@NonNull RemoteMessage remoteMessage) {
+        List<TableEvent> events = pushDecoder.decode(remoteMessage.getData());
+        if (events.isEmpty()) {
+            return;
         }
+        SmartTableIndicatorApp app = (SmartTableIndicatorApp) getApplication();
+        if (app.isReplayActive()) {
+            // The live listener catches up with these once the replay ends
+            Log.d(TAG, "Ignoring " + events.size() + " table updates from push during replay");
+            return;
+        }
+        // The applier drops updates older than what the store already holds
+        boolean changed = app.getTableEventApplier().apply(events, true);
+        Log.d(TAG, "Applied " + events.size() + " table updates from push, changed: " + changed);
+    }
 
-        notificationManager.notify(0, notificationBuilder.build());
+    private void sendNotification(String messageTitle, String messageBody) {
+        NotificationDispatcher dispatcher = ((SmartTableIndicatorApp) getApplication()).getNotificationDispatcher();
+        dispatcher.notifyMessage(Constants.NOTIFICATION_ID_PUSH_MESSAGE, messageTitle, messageBody);
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,163 @@
+package com.smarttableindicator.app.stats;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-size log-linear histogram in the style of HdrHistogram.
+ * Values below 2^subBucketBits get exact buckets; above that, every power of two
+ * is split into 2^subBucketBits equal buckets, so the relative error stays below
+ * 1 / 2^subBucketBits at any magnitude. Recording is O(1), memory never grows,
+ * and two histograms with the same layout can be merged by adding their buckets.
+ * The histogram is unit-agnostic; values above the covered range are clamped into
+ * the last bucket. Not thread-safe.
+ */
+public class LatencyHistogram {
+
+    private final int subBucketBits;
+    private final int subBucketCount;
+    private final int maxValueBits;
+    private final int[] counts;
+
+    private long totalCount = 0;
+    private long sum = 0;
+    private long min = Long.MAX_VALUE;
+    private long max = 0;
+
+    /**
+     * @param subBucketBits Precision: each power of two is split into 2^subBucketBits buckets
+     * @param maxValueBits Values up to 2^maxValueBits - 1 are tracked without clamping
+     */
+    public LatencyHistogram(int subBucketBits, int maxValueBits) {
+        if (subBucketBits < 1 || maxValueBits <= subBucketBits || maxValueBits > 62) {
+            throw new IllegalArgumentException("Invalid layout: " + subBucketBits + "/" + maxValueBits);
+        }
+        this.subBucketBits = subBucketBits;
+        this.subBucketCount = 1 << subBucketBits;
+        this.maxValueBits = maxValueBits;
+        this.counts = new int[subBucketCount + (maxValueBits - subBucketBits) * subBucketCount];
+    }
+
+    public void record(long value) {
+        record(value, 1);
+    }
+
+    /**
+     * Records the same value several times
+     * @param value The value
+     * @param count How many times it occurred
+     */
+    public void record(long value, int count) {
+        if (count <= 0) {
+            return;
+        }
+        if (value < 0) {
+            value = 0;
+        }
+        counts[indexOf(value)] += count;
+        totalCount += count;
+        sum += value * count;
+        if (value < min) {
+            min = value;
+        }
+        if (value > max) {
+            max = value;
+        }
+    }
+
+    /**
+     * Adds every value of another histogram with the same layout to this one
+     * @param other Histogram created with the same subBucketBits and maxValueBits
+     */
+    public void add(LatencyHistogram other) {
+        if (other.subBucketBits != subBucketBits || other.maxValueBits != maxValueBits) {
+            throw new IllegalArgumentException("Histogram layouts differ");
+        }
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * @param percentile Between 0 and 100
+     * @return A value at or above the given share of recorded values, or 0 if empty
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(percentile / 100.0 * totalCount));
+        long cumulative = 0;
+        for (int i = 0; i < counts.length; i++) {
+            cumulative += counts[i];
+            if (cumulative >= target) {
+                long upper = getBucketUpperBound(i);
+                return Math.max(min, Math.min(max, upper));
+            }
+        }
+        return max;
+    }
+
+    public long getCount() { return totalCount; }
+    public long getMin() { return totalCount == 0 ? 0 : min; }
+    public long getMax() { return max; }
+    public long getSum() { return sum; }
+
+    public double getMean() {
+        return totalCount == 0 ? 0 : (double) sum / totalCount;
+    }
+
+    public int getBucketCount() {
+        return counts.length;
+    }
+
+    public int getCountInBucket(int index) {
+        return counts[index];
+    }
+
+    public long getBucketLowerBound(int index) {
+        if (index < subBucketCount) {
+            return index;
+        }
+        int shift = (index - subBucketCount) / subBucketCount;
+        int sub = (index - subBucketCount) % subBucketCount;
+        return (long) (subBucketCount + sub) << shift;
+    }
+
+    public long getBucketUpperBound(int index) {
+        if (index + 1 >= counts.length) {
+            return (1L << maxValueBits) - 1;
+        }
+        return getBucketLowerBound(index + 1) - 1;
+    }
+
+    public int indexOf(long value) {
+        if (value < subBucketCount) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent >= maxValueBits) {
+            return counts.length - 1;
+        }
+        int shift = exponent - subBucketBits;
+        int sub = (int) (value >>> shift) - subBucketCount;
+        return subBucketCount + shift * subBucketCount + sub;
+    }
+
+    public LatencyHistogram copy() {
+        LatencyHistogram copy = new LatencyHistogram(subBucketBits, maxValueBits);
+        copy.add(this);
+        return copy;
+    }
+
+    public void reset() {
+        Arrays.fill(counts, 0);
+        totalCount = 0;
+        sum = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+    }
+}
@@ -0,0 +1,101 @@
+package com.smarttableindicator.app.stats;
+
+/**
+ * Latencies and failures of the most recent time window. The window is split into
+ * equal slices, each with its own {@link LatencyHistogram} and failure count; a slice
+ * is reset when time wraps around to it, so old samples age out a slice at a time
+ * and nothing is ever re-sorted. Reading merges the live slices.
+ * Times are caller-supplied (for example from SystemClock.elapsedRealtime()), which
+ * keeps the class independent of any clock. Not thread-safe.
+ */
+public class RollingLatencyHistogram {
+
+    private final long sliceMs;
+    private final int subBucketBits;
+    private final int maxValueBits;
+    private final LatencyHistogram[] slices;
+    private final long[] failures;
+    /** Index of the slice's period since time 0, or -1 if the slice is empty */
+    private final long[] slicePeriods;
+
+    /**
+     * @param windowMs Length of the window
+     * @param sliceCount How many slices the window is split into
+     */
+    public RollingLatencyHistogram(long windowMs, int sliceCount, int subBucketBits, int maxValueBits) {
+        if (windowMs <= 0 || sliceCount <= 0) {
+            throw new IllegalArgumentException("Invalid window: " + windowMs + "ms in " + sliceCount + " slices");
+        }
+        this.sliceMs = Math.max(1, windowMs / sliceCount);
+        this.subBucketBits = subBucketBits;
+        this.maxValueBits = maxValueBits;
+        this.slices = new LatencyHistogram[sliceCount];
+        this.failures = new long[sliceCount];
+        this.slicePeriods = new long[sliceCount];
+        for (int i = 0; i < sliceCount; i++) {
+            slices[i] = new LatencyHistogram(subBucketBits, maxValueBits);
+            slicePeriods[i] = -1;
+        }
+    }
+
+    public void record(long now, long latency) {
+        slices[slotFor(now)].record(latency);
+    }
+
+    public void recordFailure(long now) {
+        failures[slotFor(now)]++;
+    }
+
+    /**
+     * @return The latencies recorded within the window, merged into a new histogram
+     */
+    public LatencyHistogram snapshot(long now) {
+        LatencyHistogram merged = new LatencyHistogram(subBucketBits, maxValueBits);
+        long period = now / sliceMs;
+        for (int i = 0; i < slices.length; i++) {
+            if (isLive(i, period)) {
+                merged.add(slices[i]);
+            }
+        }
+        return merged;
+    }
+
+    public long getFailureCount(long now) {
+        long count = 0;
+        long period = now / sliceMs;
+        for (int i = 0; i < slices.length; i++) {
+            if (isLive(i, period)) {
+                count += failures[i];
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return Share of failed operations within the window, between 0 and 1
+     */
+    public double getFailureRate(long now) {
+        long failed = getFailureCount(now);
+        long total = failed + snapshot(now).getCount();
+        return total == 0 ? 0 : (double) failed / total;
+    }
+
+    public long getWindowMs() {
+        return sliceMs * slices.length;
+    }
+
+    private boolean isLive(int slot, long period) {
+        return slicePeriods[slot] >= 0 && period - slicePeriods[slot] < slices.length;
+    }
+
+    private int slotFor(long now) {
+        long period = now / sliceMs;
+        int slot = (int) (period % slices.length);
+        if (slicePeriods[slot] != period) {
+            slices[slot].reset();
+            failures[slot] = 0;
+            slicePeriods[slot] = period;
+        }
+        return slot;
+    }
+}
@@ -0,0 +1,272 @@
+package com.smarttableindicator.app.stats;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.smarttableindicator.app.config.Constants;
+import com.smarttableindicator.app.data.HistoryCompactor;
+import com.smarttableindicator.app.data.TableHourRollup;
+import com.smarttableindicator.app.data.TransitionLog;
+import com.smarttableindicator.app.models.TableModel;
+import com.smarttableindicator.app.sync.TableZones;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * Streaming table statistics, updated from every logged transition in O(1).
+ * Tracks how long tables stay OCCUPIED, how long DIRTY tables wait before they are
+ * AVAILABLE again (cleaning latency), and turnover (number of times a table became
+ * OCCUPIED), per table, per zone, per hour of day and overall.
+ * At start the totals are rebuilt once from the retained history, rollups and raw
+ * {@link TransitionLog} segments, through {@link HistoryCompactor#rebuild}; after that
+ * the engine observes the log, so it covers the same transitions the history does and
+ * survives restarts.
+ * Durations are kept in fixed-size {@link LatencyHistogram}s measured in seconds,
+ * so memory is bounded by the number of tables and zones, not by uptime.
+ */
+public class StatisticsEngine implements TransitionLog.Visitor, HistoryCompactor.HistoryVisitor {
+
+    private static final int HISTOGRAM_SUB_BUCKET_BITS = 3;
+    private static final int HISTOGRAM_MAX_VALUE_BITS = 17; // about 36 hours in seconds
+    private static final int HOURS_PER_DAY = 24;
+
+    /**
+     * Maps a table number to its zone index, between 0 and {@link Constants#MAX_ZONES} - 1
+     */
+    public interface ZoneResolver {
+        int zoneOf(int tableNumber);
+    }
+
+    /**
+     * Immutable view of one aggregate, with durations in seconds
+     */
+    public static class Summary {
+        private final long turnovers;
+        private final long occupiedCount;
+        private final long occupiedP50;
+        private final long occupiedP90;
+        private final long occupiedP99;
+        private final long cleaningCount;
+        private final long cleaningP50;
+        private final long cleaningP90;
+        private final long cleaningP99;
+
+        private Summary(Aggregate aggregate) {
+            this.turnovers = aggregate.turnovers;
+            this.occupiedCount = aggregate.occupied.getCount();
+            this.occupiedP50 = aggregate.occupied.getValueAtPercentile(50);
+            this.occupiedP90 = aggregate.occupied.getValueAtPercentile(90);
+            this.occupiedP99 = aggregate.occupied.getValueAtPercentile(99);
+            this.cleaningCount = aggregate.cleaning.getCount();
+            this.cleaningP50 = aggregate.cleaning.getValueAtPercentile(50);
+            this.cleaningP90 = aggregate.cleaning.getValueAtPercentile(90);
+            this.cleaningP99 = aggregate.cleaning.getValueAtPercentile(99);
+        }
+
+        public long getTurnovers() { return turnovers; }
+        public long getOccupiedCount() { return occupiedCount; }
+        public long getOccupiedP50() { return occupiedP50; }
+        public long getOccupiedP90() { return occupiedP90; }
+        public long getOccupiedP99() { return occupiedP99; }
+        public long getCleaningCount() { return cleaningCount; }
+        public long getCleaningP50() { return cleaningP50; }
+        public long getCleaningP90() { return cleaningP90; }
+        public long getCleaningP99() { return cleaningP99; }
+    }
+
+    private static class Aggregate {
+        final LatencyHistogram occupied = newDurationHistogram();
+        final LatencyHistogram cleaning = newDurationHistogram();
+        long turnovers = 0;
+    }
+
+    private static class TableAggregate extends Aggregate {
+        long since = 0;
+    }
+
+    private final ZoneResolver zoneResolver;
+    private final TimeZone timeZone = TimeZone.getDefault();
+    private final Aggregate overall = new Aggregate();
+    private final Aggregate[] zones = new Aggregate[Constants.MAX_ZONES];
+    private final Aggregate[] hours = new Aggregate[HOURS_PER_DAY];
+    private TableAggregate[] tables = new TableAggregate[64];
+
+    public StatisticsEngine() {
+        this(TableZones::zoneOf);
+    }
+
+    public StatisticsEngine(@NonNull ZoneResolver zoneResolver) {
+        this.zoneResolver = zoneResolver;
+    }
+
+    @Override
+    public boolean onTransition(long time, int tableNumber, TableModel.Status from, TableModel.Status to,
+                                long serverTimestamp, double clientTimestamp) {
+        record(tableNumber, from, to, time);
+        return true;
+    }
+
+    /**
+     * Adds a rollup from the history to the totals of its table, zone, hour and overall
+     */
+    @Override
+    public synchronized void onRollup(@NonNull TableHourRollup rollup) {
+        int tableNumber = rollup.getTableNumber();
+        if (tableNumber < 0 || tableNumber > Constants.MAX_TABLE_NUMBER) {
+            return;
+        }
+        Aggregate[] targets = {
+                table(tableNumber),
+                zone(zoneResolver.zoneOf(tableNumber)),
+                hour(hourOfDay(rollup.getHourStart())),
+                overall
+        };
+        for (Aggregate aggregate : targets) {
+            aggregate.occupied.add(rollup.getOccupiedHistogram());
+            aggregate.cleaning.add(rollup.getCleaningHistogram());
+            aggregate.turnovers += rollup.getTurnovers();
+        }
+    }
+
+    @Override
+    public synchronized void onLastTransition(int tableNumber, long time, @NonNull TableModel.Status status) {
+        if (tableNumber >= 0 && tableNumber <= Constants.MAX_TABLE_NUMBER) {
+            table(tableNumber).since = time;
+        }
+    }
+
+    /**
+     * Applies one status transition
+     * @param tableNumber The table number
+     * @param from Previous status, or null if the table was not known
+     * @param to New status
+     * @param time Time of the transition in epoch milliseconds
+     */
+    public synchronized void record(int tableNumber, @Nullable TableModel.Status from,
+                                    TableModel.Status to, long time) {
+        TableAggregate table = table(tableNumber);
+        Aggregate zone = zone(zoneResolver.zoneOf(tableNumber));
+
+        if (from != null && table.since > 0 && time >= table.since) {
+            long seconds = (time - table.since) / 1000;
+            Aggregate startHour = hour(hourOfDay(table.since));
+            if (from == TableModel.Status.OCCUPIED) {
+                table.occupied.record(seconds);
+                zone.occupied.record(seconds);
+                startHour.occupied.record(seconds);
+                overall.occupied.record(seconds);
+            } else if (from == TableModel.Status.DIRTY && to == TableModel.Status.AVAILABLE) {
+                table.cleaning.record(seconds);
+                zone.cleaning.record(seconds);
+                startHour.cleaning.record(seconds);
+                overall.cleaning.record(seconds);
+            }
+        }
+
+        if (from != null && from != TableModel.Status.OCCUPIED && to == TableModel.Status.OCCUPIED) {
+            table.turnovers++;
+            zone.turnovers++;
+            hour(hourOfDay(time)).turnovers++;
+            overall.turnovers++;
+        }
+
+        table.since = time;
+    }
+
+    public synchronized Summary getOverall() {
+        return new Summary(overall);
+    }
+
+    /**
+     * @return Summary for the zone, or null if nothing was recorded for it
+     */
+    @Nullable
+    public synchronized Summary getZone(int zone) {
+        return zone >= 0 && zone < zones.length && zones[zone] != null ? new Summary(zones[zone]) : null;
+    }
+
+    /**
+     * @param hour Hour of day in local time, 0 to 23
+     * @return Summary for that hour, or null if nothing was recorded for it
+     */
+    @Nullable
+    public synchronized Summary getHour(int hour) {
+        return hour >= 0 && hour < hours.length && hours[hour] != null ? new Summary(hours[hour]) : null;
+    }
+
+    /**
+     * @return Summary for the table, or null if nothing was recorded for it
+     */
+    @Nullable
+    public synchronized Summary getTable(int tableNumber) {
+        return tableNumber >= 0 && tableNumber < tables.length && tables[tableNumber] != null
+                ? new Summary(tables[tableNumber]) : null;
+    }
+
+    /**
+     * @return Numbers of the tables that have statistics, in ascending order
+     */
+    public synchronized List<Integer> getTrackedTables() {
+        List<Integer> tableNumbers = new ArrayList<>();
+        for (int i = 0; i < tables.length; i++) {
+            if (tables[i] != null) {
+                tableNumbers.add(i);
+            }
+        }
+        return tableNumbers;
+    }
+
+    public synchronized void reset() {
+        Arrays.fill(zones, null);
+        Arrays.fill(hours, null);
+        Arrays.fill(tables, null);
+        overall.occupied.reset();
+        overall.cleaning.reset();
+        overall.turnovers = 0;
+    }
+
+    private TableAggregate table(int tableNumber) {
+        if (tableNumber >= tables.length) {
+            int capacity = tables.length;
+            while (capacity <= tableNumber) {
+                capacity *= 2;
+            }
+            tables = Arrays.copyOf(tables, Math.min(capacity, Constants.MAX_TABLE_NUMBER + 1));
+        }
+        if (tables[tableNumber] == null) {
+            tables[tableNumber] = new TableAggregate();
+        }
+        return tables[tableNumber];
+    }
+
+    private Aggregate zone(int zone) {
+        int index = Math.max(0, Math.min(zone, zones.length - 1));
+        if (zones[index] == null) {
+            zones[index] = new Aggregate();
+        }
+        return zones[index];
+    }
+
+    private Aggregate hour(int hour) {
+        if (hours[hour] == null) {
+            hours[hour] = new Aggregate();
+        }
+        return hours[hour];
+    }
+
+    private int hourOfDay(long time) {
+        long local = time + timeZone.getOffset(time);
+        return (int) Math.floorMod(local / 3_600_000L, (long) HOURS_PER_DAY);
+    }
+
+    /**
+     * @return An empty histogram with the layout used for table durations in seconds,
+     * so histograms kept elsewhere can be merged with the ones kept here
+     */
+    public static LatencyHistogram newDurationHistogram() {
+        return new LatencyHistogram(HISTOGRAM_SUB_BUCKET_BITS, HISTOGRAM_MAX_VALUE_BITS);
+    }
+}
@@ -0,0 +1,168 @@
+package com.smarttableindicator.app.sync;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.smarttableindicator.app.config.Constants;
+import com.smarttableindicator.app.utils.LinkQuality;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Chooses how eagerly table state is synced from the quality of the network link.
+ * A fast link gets the full-live mode. A slow link, judged by its estimated downstream
+ * bandwidth, gets the low-bandwidth mode, which batches table events over a longer
+ * window and listens only to what the staff member is responsible for rather than to
+ * everything on screen. A metered link has to clear a higher bandwidth bar before it
+ * counts as fast. Leaving the low-bandwidth mode needs twice the bandwidth that
+ * entering it does, so an estimate hovering around the bar does not flip the mode
+ * back and forth. A link with no bandwidth estimate is judged by the metered flag alone.
+ * Thread-safe; listeners are called on the thread that reported the link.
+ */
+public class AdaptiveSyncPolicy {
+
+    private static final String TAG = "AdaptiveSyncPolicy";
+
+    public enum Mode {
+        FULL_LIVE,
+        LOW_BANDWIDTH
+    }
+
+    public interface Listener {
+        void onSyncModeChanged(@NonNull Mode mode);
+    }
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final int lowBandwidthKbps;
+    private final int meteredLowBandwidthKbps;
+
+    private Mode mode = Mode.FULL_LIVE;
+    private LinkQuality lastLinkQuality;
+    private long modeSince = SystemClock.elapsedRealtime();
+    private long lowBandwidthTimeMs = 0;
+    private long switchesToLowBandwidth = 0;
+    private long switchesToFullLive = 0;
+
+    public AdaptiveSyncPolicy() {
+        this(Constants.SYNC_LOW_BANDWIDTH_KBPS, Constants.SYNC_METERED_LOW_BANDWIDTH_KBPS);
+    }
+
+    /**
+     * @param lowBandwidthKbps Downstream bandwidth under which an unmetered link is slow
+     * @param meteredLowBandwidthKbps Downstream bandwidth under which a metered link is slow
+     */
+    public AdaptiveSyncPolicy(int lowBandwidthKbps, int meteredLowBandwidthKbps) {
+        this.lowBandwidthKbps = lowBandwidthKbps;
+        this.meteredLowBandwidthKbps = meteredLowBandwidthKbps;
+    }
+
+    /**
+     * Re-evaluates the mode for a newly reported link
+     * @return The mode after the update
+     */
+    @NonNull
+    public Mode onLinkQualityChanged(@NonNull LinkQuality linkQuality) {
+        Mode next;
+        synchronized (this) {
+            lastLinkQuality = linkQuality;
+            next = classify(linkQuality);
+            if (next == mode) {
+                return mode;
+            }
+            long now = SystemClock.elapsedRealtime();
+            if (mode == Mode.LOW_BANDWIDTH) {
+                lowBandwidthTimeMs += now - modeSince;
+                switchesToFullLive++;
+            } else {
+                switchesToLowBandwidth++;
+            }
+            mode = next;
+            modeSince = now;
+        }
+        Log.i(TAG, "Switched to " + next + " for " + linkQuality);
+        for (Listener listener : listeners) {
+            listener.onSyncModeChanged(next);
+        }
+        return next;
+    }
+
+    private Mode classify(LinkQuality linkQuality) {
+        int threshold = linkQuality.isMetered() ? meteredLowBandwidthKbps : lowBandwidthKbps;
+        int downstreamKbps = linkQuality.getDownstreamKbps();
+        if (downstreamKbps == LinkQuality.BANDWIDTH_UNKNOWN) {
+            return linkQuality.isMetered() ? Mode.LOW_BANDWIDTH : Mode.FULL_LIVE;
+        }
+        if (mode == Mode.LOW_BANDWIDTH) {
+            threshold *= 2;
+        }
+        return downstreamKbps < threshold ? Mode.LOW_BANDWIDTH : Mode.FULL_LIVE;
+    }
+
+    @NonNull
+    public synchronized Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * @return Batching window for table events in the current mode
+     */
+    public synchronized long getCoalesceWindowMs() {
+        return mode == Mode.LOW_BANDWIDTH
+                ? Constants.SYNC_LOW_BANDWIDTH_COALESCE_WINDOW_MS
+                : Constants.EVENT_COALESCE_WINDOW_MS;
+    }
+
+    /**
+     * @return true if zones on screen are listened to, not only assigned ones
+     */
+    public synchronized boolean followsViewedZones() {
+        return mode == Mode.FULL_LIVE;
+    }
+
+    /**
+     * @return Pages to listen to ahead of and behind the screen in paged loading
+     */
+    public synchronized int getPagePrefetch() {
+        return mode == Mode.FULL_LIVE ? Constants.TABLE_PAGE_PREFETCH : 0;
+    }
+
+    @Nullable
+    public synchronized LinkQuality getLastLinkQuality() {
+        return lastLinkQuality;
+    }
+
+    public synchronized long getSwitchesToLowBandwidth() {
+        return switchesToLowBandwidth;
+    }
+
+    public synchronized long getSwitchesToFullLive() {
+        return switchesToFullLive;
+    }
+
+    public synchronized long getSwitchCount() {
+        return switchesToLowBandwidth + switchesToFullLive;
+    }
+
+    /**
+     * @return Total time spent in the low-bandwidth mode, including the current stretch
+     */
+    public synchronized long getLowBandwidthTimeMs() {
+        long time = lowBandwidthTimeMs;
+        if (mode == Mode.LOW_BANDWIDTH) {
+            time += SystemClock.elapsedRealtime() - modeSince;
+        }
+        return time;
+    }
+
+    public void addListener(@NonNull Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(@NonNull Listener listener) {
+        listeners.remove(listener);
+    }
+}
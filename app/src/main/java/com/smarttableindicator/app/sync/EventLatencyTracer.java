@@ -0,0 +1,364 @@
+package com.smarttableindicator.app.sync;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.database.ValueEventListener;
+import com.smarttableindicator.app.models.TableEvent;
+import com.smarttableindicator.app.stats.LatencyHistogram;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Follows live table updates from the ESP32 to the screen and keeps a latency histogram
+ * for each stage on the way: the device's write reaching the server, the server's
+ * update reaching the listener, decoding, the wait for the batch to be applied, and
+ * the applied change being drawn by the table view. Only events that changed the store
+ * are followed to the screen, and a change counts as drawn once the view showing it
+ * has drawn with the table on screen; changes to tables off screen are counted apart.
+ * Times on the phone are measured on SystemClock.elapsedRealtime(). Comparing them to
+ * the serverTimestamp uses the phone's wall clock corrected by Firebase's
+ * .info/serverTimeOffset, so the phone's own clock error drops out. The ESP32's
+ * clientTimestamp is taken as is, in epoch milliseconds or seconds; it is only as good
+ * as the device's NTP sync, so samples where the device seems ahead of the server are
+ * counted as clock skew instead of being recorded. Updates that reach the listener long
+ * after the server stored them are replayed state, for example after a reconnect or a
+ * new page, and are counted but not recorded.
+ * Main thread only.
+ */
+@MainThread
+public class EventLatencyTracer {
+
+    private static final String TAG = "EventLatencyTracer";
+    private static final String SERVER_TIME_OFFSET_PATH = ".info/serverTimeOffset";
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int MAX_VALUE_BITS = 20; // about 17 minutes in milliseconds
+    /** clientTimestamps below this many milliseconds are not wall-clock times, for example uptime */
+    private static final double MIN_EPOCH_MS = 1e12;
+    /** clientTimestamps between this and MIN_EPOCH_MS are read as epoch seconds */
+    private static final double MIN_EPOCH_SECONDS = 1e9;
+
+    public enum Stage {
+        DEVICE_TO_SERVER("ESP32 -> server"),
+        SERVER_TO_RECEIPT("server -> listener"),
+        RECEIPT_TO_DECODE("listener -> decoded"),
+        DECODE_TO_APPLY("decoded -> applied"),
+        APPLY_TO_DRAW("applied -> drawn"),
+        SERVER_TO_DRAW("server -> drawn"),
+        DEVICE_TO_DRAW("ESP32 -> drawn");
+
+        private final String label;
+
+        Stage(String label) {
+            this.label = label;
+        }
+
+        @NonNull
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    private final DatabaseReference serverTimeOffsetReference;
+    private final long maxDeliveryAgeMs;
+    private final int maxPendingDraws;
+    private final LatencyHistogram[] histograms = new LatencyHistogram[Stage.values().length];
+
+    private final ValueEventListener serverTimeOffsetListener = new ValueEventListener() {
+        @Override
+        public void onDataChange(@NonNull DataSnapshot snapshot) {
+            Object value = snapshot.getValue();
+            if (value instanceof Number) {
+                serverTimeOffsetMs = ((Number) value).longValue();
+            }
+        }
+
+        @Override
+        public void onCancelled(@NonNull DatabaseError error) {
+            Log.w(TAG, "Server time offset listener cancelled", error.toException());
+        }
+    };
+
+    /** Events applied but not drawn yet: table, server time, device time and apply time in ms */
+    private int[] pendingTable;
+    private long[] pendingServerTime;
+    private long[] pendingDeviceTime;
+    private long[] pendingAppliedAt;
+    private int pendingCount = 0;
+
+    private boolean started = false;
+    private long serverTimeOffsetMs = 0;
+    private long tracedCount = 0;
+    private long replayedCount = 0;
+    private long clockSkewCount = 0;
+    private long droppedCount = 0;
+    private long offscreenCount = 0;
+
+    /**
+     * @param maxDeliveryAgeMs Updates older than this when they reach the listener are
+     *                         treated as replayed state
+     * @param maxPendingDraws Applied events kept waiting to be drawn; more are dropped
+     */
+    public EventLatencyTracer(@NonNull FirebaseDatabase database, long maxDeliveryAgeMs, int maxPendingDraws) {
+        this.serverTimeOffsetReference = database.getReference(SERVER_TIME_OFFSET_PATH);
+        this.maxDeliveryAgeMs = maxDeliveryAgeMs;
+        this.maxPendingDraws = maxPendingDraws;
+        int capacity = Math.min(maxPendingDraws, 64);
+        pendingTable = new int[capacity];
+        pendingServerTime = new long[capacity];
+        pendingDeviceTime = new long[capacity];
+        pendingAppliedAt = new long[capacity];
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram(SUB_BUCKET_BITS, MAX_VALUE_BITS);
+        }
+    }
+
+    /**
+     * Starts following the server's estimate of the phone's clock offset
+     */
+    public void start() {
+        if (!started) {
+            started = true;
+            serverTimeOffsetReference.addValueEventListener(serverTimeOffsetListener);
+        }
+    }
+
+    public void stop() {
+        if (started) {
+            started = false;
+            serverTimeOffsetReference.removeEventListener(serverTimeOffsetListener);
+        }
+    }
+
+    /**
+     * Records the stages up to the apply of a batch of live events, and holds the
+     * events until the table view draws them
+     * @param events Events that changed the store; events dropped as stale or that
+     *               changed nothing must be left out
+     * Events without an arrival time, such as FCM updates, are skipped.
+     * @param local true for events from a local source such as a replayed recording,
+     *              whose server and device times lie in the past; only the stages on
+     *              the phone are recorded for them
+     */
+    public void onApplied(@NonNull List<TableEvent> events, boolean local) {
+        long now = SystemClock.elapsedRealtime();
+        long serverNow = System.currentTimeMillis() + serverTimeOffsetMs;
+        for (TableEvent event : events) {
+            long receivedAt = event.getReceivedAt();
+            long serverTime = event.getServerTimestamp();
+            if (receivedAt <= 0 || (serverTime <= 0 && !local)) {
+                continue;
+            }
+            long deviceTime = 0;
+            if (local) {
+                serverTime = 0;
+            } else {
+                long serverToReceipt = serverNow - (now - receivedAt) - serverTime;
+                if (serverToReceipt > maxDeliveryAgeMs) {
+                    replayedCount++;
+                    continue;
+                }
+                record(Stage.SERVER_TO_RECEIPT, serverToReceipt);
+                deviceTime = toEpochMs(event.getClientTimestamp());
+                if (deviceTime > 0) {
+                    record(Stage.DEVICE_TO_SERVER, serverTime - deviceTime);
+                }
+            }
+            tracedCount++;
+            record(Stage.RECEIPT_TO_DECODE, event.getDecodedAt() - receivedAt);
+            record(Stage.DECODE_TO_APPLY, now - event.getDecodedAt());
+
+            if (pendingCount == maxPendingDraws) {
+                droppedCount++;
+                continue;
+            }
+            ensurePendingCapacity();
+            pendingTable[pendingCount] = event.getTableNumber();
+            pendingServerTime[pendingCount] = serverTime;
+            pendingDeviceTime[pendingCount] = deviceTime;
+            pendingAppliedAt[pendingCount] = now;
+            pendingCount++;
+        }
+    }
+
+    /**
+     * @return true if applied events are waiting for the table view to draw them
+     */
+    public boolean hasPending() {
+        return pendingCount > 0;
+    }
+
+    /**
+     * Records the remaining stages of every event applied since the table view last
+     * drew. Called when the view has drawn the tables it was last given.
+     * @param drawnTables Tables on screen in that draw; events of other tables are
+     *                    counted as off screen instead of being recorded
+     */
+    public void onTablesDrawn(@NonNull BitSet drawnTables) {
+        if (pendingCount == 0) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        long serverNow = System.currentTimeMillis() + serverTimeOffsetMs;
+        for (int i = 0; i < pendingCount; i++) {
+            if (!drawnTables.get(pendingTable[i])) {
+                offscreenCount++;
+                continue;
+            }
+            record(Stage.APPLY_TO_DRAW, now - pendingAppliedAt[i]);
+            if (pendingServerTime[i] > 0) {
+                record(Stage.SERVER_TO_DRAW, serverNow - pendingServerTime[i]);
+            }
+            if (pendingDeviceTime[i] > 0) {
+                record(Stage.DEVICE_TO_DRAW, serverNow - pendingDeviceTime[i]);
+            }
+        }
+        pendingCount = 0;
+    }
+
+    /**
+     * Forgets events waiting to be drawn, for example when the screen stops drawing
+     */
+    public void discardPending() {
+        pendingCount = 0;
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+        pendingCount = 0;
+        tracedCount = 0;
+        replayedCount = 0;
+        clockSkewCount = 0;
+        droppedCount = 0;
+        offscreenCount = 0;
+    }
+
+    private void record(Stage stage, long latencyMs) {
+        if (latencyMs < 0) {
+            // Only the stages that compare two clocks can run backwards
+            clockSkewCount++;
+            return;
+        }
+        histograms[stage.ordinal()].record(latencyMs);
+    }
+
+    private void ensurePendingCapacity() {
+        if (pendingCount < pendingAppliedAt.length) {
+            return;
+        }
+        int capacity = Math.min(maxPendingDraws, pendingAppliedAt.length * 2);
+        pendingTable = Arrays.copyOf(pendingTable, capacity);
+        pendingServerTime = Arrays.copyOf(pendingServerTime, capacity);
+        pendingDeviceTime = Arrays.copyOf(pendingDeviceTime, capacity);
+        pendingAppliedAt = Arrays.copyOf(pendingAppliedAt, capacity);
+    }
+
+    /**
+     * @return The clientTimestamp in epoch milliseconds, or 0 if it is not a wall-clock time
+     */
+    private static long toEpochMs(double clientTimestamp) {
+        if (clientTimestamp >= MIN_EPOCH_MS) {
+            return (long) clientTimestamp;
+        }
+        if (clientTimestamp >= MIN_EPOCH_SECONDS) {
+            return (long) (clientTimestamp * 1000);
+        }
+        return 0;
+    }
+
+    /**
+     * @return A copy of the latencies recorded for a stage, in milliseconds
+     */
+    @NonNull
+    public LatencyHistogram getHistogram(@NonNull Stage stage) {
+        return histograms[stage.ordinal()].copy();
+    }
+
+    public long getServerTimeOffsetMs() {
+        return serverTimeOffsetMs;
+    }
+
+    public long getTracedCount() {
+        return tracedCount;
+    }
+
+    /**
+     * @return Updates not recorded because they were stored long before they arrived
+     */
+    public long getReplayedCount() {
+        return replayedCount;
+    }
+
+    /**
+     * @return Samples not recorded because the clocks compared put them before their cause
+     */
+    public long getClockSkewCount() {
+        return clockSkewCount;
+    }
+
+    /**
+     * @return Events whose drawing was not traced because too many were waiting to be drawn
+     */
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * @return Events whose table was not on screen when the change was drawn
+     */
+    public long getOffscreenCount() {
+        return offscreenCount;
+    }
+
+    /**
+     * Writes a summary of every stage followed by the bucket counts, as CSV
+     */
+    @NonNull
+    public String toCsv() {
+        StringBuilder csv = new StringBuilder();
+        csv.append("# serverTimeOffsetMs=").append(serverTimeOffsetMs)
+                .append(" traced=").append(tracedCount)
+                .append(" replayed=").append(replayedCount)
+                .append(" clockSkew=").append(clockSkewCount)
+                .append(" dropped=").append(droppedCount)
+                .append(" offscreen=").append(offscreenCount).append('\n');
+        csv.append("stage,count,min_ms,p50_ms,p95_ms,p99_ms,max_ms,mean_ms\n");
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram histogram = histograms[stage.ordinal()];
+            csv.append(stage.name()).append(',')
+                    .append(histogram.getCount()).append(',')
+                    .append(histogram.getMin()).append(',')
+                    .append(histogram.getValueAtPercentile(50)).append(',')
+                    .append(histogram.getValueAtPercentile(95)).append(',')
+                    .append(histogram.getValueAtPercentile(99)).append(',')
+                    .append(histogram.getMax()).append(',')
+                    .append(String.format(Locale.US, "%.1f", histogram.getMean())).append('\n');
+        }
+        csv.append('\n').append("stage,bucket_from_ms,bucket_to_ms,count\n");
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram histogram = histograms[stage.ordinal()];
+            for (int i = 0; i < histogram.getBucketCount(); i++) {
+                int count = histogram.getCountInBucket(i);
+                if (count > 0) {
+                    csv.append(stage.name()).append(',')
+                            .append(histogram.getBucketLowerBound(i)).append(',')
+                            .append(histogram.getBucketUpperBound(i)).append(',')
+                            .append(count).append('\n');
+                }
+            }
+        }
+        return csv.toString();
+    }
+}
@@ -0,0 +1,250 @@
+package com.smarttableindicator.app.sync;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.database.ValueEventListener;
+import com.smarttableindicator.app.stats.LatencyHistogram;
+import com.smarttableindicator.app.stats.RollingLatencyHistogram;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Measures the round trip to the Realtime Database on a schedule, by writing the
+ * current time to this device's own probe path and timing the server's
+ * acknowledgement, so devices neither contend for one node nor trigger each other's
+ * listeners. One probe is in flight at a time; one that is not acknowledged within the
+ * timeout counts as a failure, and its late acknowledgement is ignored. While the
+ * client is disconnected no write is made, since the database would queue it; the
+ * probe is skipped and counted apart, so the failure rate describes the link while it
+ * is up rather than how long the app was offline. Results go into a rolling histogram,
+ * so the percentiles and failure rate describe the recent link rather than the whole
+ * session.
+ * Main thread only.
+ */
+@MainThread
+public class LatencyProbe {
+
+    private static final String TAG = "LatencyProbe";
+    private static final String CONNECTED_PATH = ".info/connected";
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int MAX_VALUE_BITS = 16; // about 65 seconds in milliseconds
+
+    public interface Listener {
+        /**
+         * Called on the main thread after each probe
+         * @param latencyMs Round-trip time, or -1 if the probe failed
+         */
+        void onProbeCompleted(long latencyMs);
+    }
+
+    private final DatabaseReference probeReference;
+    private final DatabaseReference connectedReference;
+    private final long intervalMs;
+    private final long timeoutMs;
+    private final RollingLatencyHistogram window;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final Runnable scheduledProbe = this::probe;
+    private final Runnable timeout = () -> complete(-1);
+
+    private final ValueEventListener connectedListener = new ValueEventListener() {
+        @Override
+        public void onDataChange(@NonNull DataSnapshot snapshot) {
+            boolean wasConnected = connected;
+            connected = Boolean.TRUE.equals(snapshot.getValue(Boolean.class));
+            if (connected && !wasConnected) {
+                // A fresh connection is worth measuring at once
+                probeNow();
+            }
+        }
+
+        @Override
+        public void onCancelled(@NonNull DatabaseError error) {
+            Log.w(TAG, "Connection state listener cancelled", error.toException());
+        }
+    };
+
+    private boolean running = false;
+    private boolean connected = false;
+    private boolean inFlight = false;
+    private int sequence = 0;
+    private long startedAt = 0;
+
+    private long probeCount = 0;
+    private long failureCount = 0;
+    private long skippedCount = 0;
+    private long lastLatencyMs = -1;
+
+    /**
+     * @param path Database path the probe writes to, one per device
+     * @param intervalMs Pause between the end of one probe and the start of the next
+     * @param timeoutMs How long a probe waits for its acknowledgement
+     * @param windowMs How far back the histogram and failure rate look
+     * @param windowSlices How many steps old samples age out in
+     */
+    public LatencyProbe(@NonNull FirebaseDatabase database, @NonNull String path, long intervalMs, long timeoutMs,
+                        long windowMs, int windowSlices) {
+        this.probeReference = database.getReference(path);
+        this.connectedReference = database.getReference(CONNECTED_PATH);
+        this.intervalMs = intervalMs;
+        this.timeoutMs = timeoutMs;
+        this.window = new RollingLatencyHistogram(windowMs, windowSlices, SUB_BUCKET_BITS, MAX_VALUE_BITS);
+    }
+
+    /**
+     * Starts probing on the schedule. The first probe runs as soon as the client is
+     * connected.
+     */
+    public void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        connected = false;
+        connectedReference.addValueEventListener(connectedListener);
+        handler.postDelayed(scheduledProbe, intervalMs);
+        Log.d(TAG, "Started, every " + intervalMs + "ms");
+    }
+
+    /**
+     * Stops probing. A probe in flight is abandoned without being counted.
+     */
+    public void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        connectedReference.removeEventListener(connectedListener);
+        handler.removeCallbacks(scheduledProbe);
+        handler.removeCallbacks(timeout);
+        inFlight = false;
+        sequence++;
+        Log.d(TAG, "Stopped");
+    }
+
+    /**
+     * Probes now instead of at the next scheduled time, unless a probe is in flight
+     */
+    public void probeNow() {
+        if (running && !inFlight) {
+            handler.removeCallbacks(scheduledProbe);
+            probe();
+        }
+    }
+
+    private void probe() {
+        if (!running || inFlight) {
+            return;
+        }
+        if (!connected) {
+            // Measured as soon as the connection is back
+            skippedCount++;
+            handler.postDelayed(scheduledProbe, intervalMs);
+            return;
+        }
+        probeCount++;
+        inFlight = true;
+        final int probe = ++sequence;
+        startedAt = SystemClock.elapsedRealtime();
+        handler.postDelayed(timeout, timeoutMs);
+        probeReference.setValue(System.currentTimeMillis())
+                .addOnSuccessListener(result -> {
+                    if (probe == sequence) {
+                        complete(SystemClock.elapsedRealtime() - startedAt);
+                    }
+                })
+                .addOnFailureListener(e -> {
+                    Log.w(TAG, "Probe write failed", e);
+                    if (probe == sequence) {
+                        complete(-1);
+                    }
+                });
+    }
+
+    private void complete(long latencyMs) {
+        if (!inFlight) {
+            return;
+        }
+        inFlight = false;
+        sequence++;
+        handler.removeCallbacks(timeout);
+        long now = SystemClock.elapsedRealtime();
+        if (latencyMs >= 0) {
+            window.record(now, latencyMs);
+        } else {
+            window.recordFailure(now);
+            failureCount++;
+        }
+        lastLatencyMs = latencyMs;
+        if (running) {
+            handler.postDelayed(scheduledProbe, intervalMs);
+        }
+        for (Listener listener : listeners) {
+            listener.onProbeCompleted(latencyMs);
+        }
+    }
+
+    /**
+     * @return Round-trip times of the successful probes within the window, in milliseconds
+     */
+    @NonNull
+    public LatencyHistogram getRecentLatencies() {
+        return window.snapshot(SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * @return Share of probes within the window that failed, between 0 and 1
+     */
+    public double getRecentFailureRate() {
+        return window.getFailureRate(SystemClock.elapsedRealtime());
+    }
+
+    public long getWindowMs() {
+        return window.getWindowMs();
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public long getProbeCount() {
+        return probeCount;
+    }
+
+    public long getFailureCount() {
+        return failureCount;
+    }
+
+    /**
+     * @return Scheduled probes not made because the client was disconnected
+     */
+    public long getSkippedCount() {
+        return skippedCount;
+    }
+
+    /**
+     * @return Round-trip time of the last probe, or -1 if it failed or none has run
+     */
+    public long getLastLatencyMs() {
+        return lastLatencyMs;
+    }
+
+    public void addListener(@NonNull Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(@NonNull Listener listener) {
+        listeners.remove(listener);
+    }
+}
@@ -0,0 +1,447 @@
+package com.smarttableindicator.app.sync;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.firebase.database.ChildEventListener;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.Query;
+import com.google.firebase.database.ValueEventListener;
+import com.smarttableindicator.app.config.Constants;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Loads the tables under a reference page by page, in table number order, so a huge
+ * venue is never synced in one go. Each page is found with an ordered, limited query
+ * starting after the last table of the previous page, and is then listened to as the
+ * range up to the first table of the next page; the last page is open-ended. Ranges
+ * therefore cover every table exactly once, a table added between pages still lands in
+ * one, and a limit never pushes a table out of a live query.
+ * Tables are ordered by their numeric {@link Constants#FIREBASE_TABLE_NUMBER_CHILD}
+ * child, with the key breaking ties, so pages follow the grid's numeric order; keys
+ * such as "table12" would sort lexicographically. Ordering by a child needs an
+ * ".indexOn" rule for it on the tables node.
+ * The next page is fetched when the viewport comes within the prefetch distance of the
+ * end of the loaded tables. Pages more than the prefetch distance from the pages on
+ * screen have their listeners released; their tables keep the last known status until
+ * the page is listened to again, and are not reported by {@link #getLiveTables()}.
+ * Main thread only.
+ */
+@MainThread
+public class PagedTableLoader {
+
+    private static final String TAG = "PagedTableLoader";
+
+    public interface Callback {
+        /**
+         * Called on the main thread once a page's initial data has been decoded and handed
+         * to the decoder's callback
+         * @param tableNumbers Tables the page holds
+         * @param goneTables Tables the page held when it was last listened to and no longer holds
+         */
+        void onPageSynced(int page, @NonNull BitSet tableNumbers, @NonNull BitSet goneTables);
+
+        /**
+         * Called once the end of the tables has been reached
+         * @param allTables Tables of every page
+         */
+        void onAllPagesFound(@NonNull BitSet allTables);
+
+        /**
+         * Called when pages near the screen no longer are and their listeners are
+         * released
+         * @param releasedTables Tables of the released pages, now only last known
+         */
+        void onPagesReleased(@NonNull BitSet releasedTables);
+
+        /**
+         * Called when fetching or listening to a page fails. The page is fetched or
+         * listened to again on the next viewport change.
+         */
+        void onPageFailed(int page, @NonNull DatabaseError error);
+    }
+
+    private static class Page {
+        final double firstNumber;
+        final String firstKey;
+        final double lastNumber;
+        final String lastKey;
+        /** Tables last known to be in the page, kept while its listener is released */
+        final BitSet tableNumbers = new BitSet();
+        Query query;
+        ChildEventListener listener;
+        int generation;
+        /** Listened to and its initial data applied */
+        boolean synced;
+
+        Page(double firstNumber, String firstKey, double lastNumber, String lastKey) {
+            this.firstNumber = firstNumber;
+            this.firstKey = firstKey;
+            this.lastNumber = lastNumber;
+            this.lastKey = lastKey;
+        }
+    }
+
+    private final DatabaseReference reference;
+    private final TableSnapshotDecoder decoder;
+    private final Callback callback;
+    private final int pageSize;
+    private int prefetchPages;
+    private final TableKeyParser keyParser = new TableKeyParser(Constants.TABLE_KEY_CACHE_SIZE);
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private final List<Page> pages = new ArrayList<>();
+    private Query pendingQuery;
+    private ValueEventListener pendingListener;
+    private boolean complete = false;
+    private int firstNearPage = 0;
+    private int lastNearPage = 0;
+
+    private long fetchCount = 0;
+    private long attachCount = 0;
+    private long releaseCount = 0;
+
+    /**
+     * @param reference Node whose children are tables
+     * @param pageSize Tables per fetched page
+     * @param prefetchPages Pages kept listened to on each side of the pages on screen, and
+     *                      how many pages ahead of the viewport the next page is fetched
+     */
+    public PagedTableLoader(@NonNull DatabaseReference reference, @NonNull TableSnapshotDecoder decoder,
+                            int pageSize, int prefetchPages, @NonNull Callback callback) {
+        this.reference = reference;
+        this.decoder = decoder;
+        this.pageSize = Math.max(1, pageSize);
+        this.prefetchPages = Math.max(0, prefetchPages);
+        this.callback = callback;
+    }
+
+    /**
+     * Fetches the first page if none has been found yet
+     */
+    public void start() {
+        if (pages.isEmpty() && pendingQuery == null) {
+            fetchNextPage();
+        }
+    }
+
+    /**
+     * Listens to the pages near the tables on screen, releases the others, and fetches
+     * the next page when the end of the loaded tables is near
+     * @param visibleTables Numbers of the tables on screen
+     * @param remainingBelow Number of loaded tables after the last one on screen
+     */
+    public void onViewportChanged(@NonNull BitSet visibleTables, int remainingBelow) {
+        int first = -1;
+        int last = -1;
+        for (int index = 0; index < pages.size(); index++) {
+            if (pages.get(index).tableNumbers.intersects(visibleTables)) {
+                if (first < 0) {
+                    first = index;
+                }
+                last = index;
+            }
+        }
+        if (first < 0) {
+            first = 0;
+            last = 0;
+        }
+        firstNearPage = first - prefetchPages;
+        lastNearPage = last + prefetchPages;
+        BitSet releasedTables = new BitSet();
+        for (int index = 0; index < pages.size(); index++) {
+            Page page = pages.get(index);
+            boolean near = isNear(index);
+            if (near && page.listener == null) {
+                attach(index);
+            } else if (!near && page.listener != null) {
+                release(index);
+                releaseCount++;
+                releasedTables.or(page.tableNumbers);
+            }
+        }
+        if (!releasedTables.isEmpty()) {
+            callback.onPagesReleased(releasedTables);
+        }
+        if (!complete && pendingQuery == null && remainingBelow <= prefetchPages * pageSize) {
+            fetchNextPage();
+        }
+    }
+
+    /**
+     * Changes how many pages are kept listened to around the screen. Takes effect from
+     * the next viewport change.
+     */
+    public void setPrefetchPages(int prefetchPages) {
+        this.prefetchPages = Math.max(0, prefetchPages);
+    }
+
+    public int getPageCount() {
+        return pages.size();
+    }
+
+    public int getAttachedPageCount() {
+        int attached = 0;
+        for (Page page : pages) {
+            if (page.listener != null) {
+                attached++;
+            }
+        }
+        return attached;
+    }
+
+    /**
+     * @return Tables of the pages that are listened to and synced, whose status is
+     * kept up to date
+     */
+    @NonNull
+    public BitSet getLiveTables() {
+        BitSet live = new BitSet();
+        for (Page page : pages) {
+            if (page.synced) {
+                live.or(page.tableNumbers);
+            }
+        }
+        return live;
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    public long getFetchCount() {
+        return fetchCount;
+    }
+
+    public long getAttachCount() {
+        return attachCount;
+    }
+
+    public long getReleaseCount() {
+        return releaseCount;
+    }
+
+    /**
+     * Removes every listener, for example when the screen is destroyed
+     */
+    public void releaseAll() {
+        if (pendingQuery != null) {
+            pendingQuery.removeEventListener(pendingListener);
+            pendingQuery = null;
+            pendingListener = null;
+        }
+        for (int index = 0; index < pages.size(); index++) {
+            if (pages.get(index).listener != null) {
+                release(index);
+            }
+        }
+    }
+
+    private void fetchNextPage() {
+        final int index = pages.size();
+        Query query = reference.orderByChild(Constants.FIREBASE_TABLE_NUMBER_CHILD);
+        if (index > 0) {
+            Page previous = pages.get(index - 1);
+            query = query.startAfter(previous.lastNumber, previous.lastKey);
+        }
+        final Query pageQuery = query.limitToFirst(pageSize);
+        ValueEventListener listener = new ValueEventListener() {
+            @Override
+            public void onDataChange(@NonNull DataSnapshot snapshot) {
+                if (pendingListener != this) {
+                    return;
+                }
+                String firstKey = null;
+                String lastKey = null;
+                double firstNumber = 0;
+                double lastNumber = 0;
+                BitSet tableNumbers = new BitSet();
+                int count = 0;
+                for (DataSnapshot child : snapshot.getChildren()) {
+                    lastKey = child.getKey();
+                    lastNumber = orderValue(child);
+                    if (firstKey == null) {
+                        firstKey = lastKey;
+                        firstNumber = lastNumber;
+                    }
+                    int tableNumber = keyParser.parse(lastKey);
+                    if (tableNumber != TableKeyParser.INVALID) {
+                        tableNumbers.set(tableNumber);
+                    }
+                    count++;
+                }
+                if (firstKey != null) {
+                    Page page = new Page(firstNumber, firstKey, lastNumber, lastKey);
+                    page.tableNumbers.or(tableNumbers);
+                    addPage(page);
+                }
+                // Removed only after the page's range listener is attached, so the
+                // fetched data stays cached for it
+                pageQuery.removeEventListener(this);
+                pendingQuery = null;
+                pendingListener = null;
+                Log.d(TAG, "Fetched page " + index + " with " + count + " tables");
+                if (count < pageSize) {
+                    complete = true;
+                    callback.onAllPagesFound(allTables());
+                }
+            }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError error) {
+                if (pendingListener != this) {
+                    return;
+                }
+                pendingQuery = null;
+                pendingListener = null;
+                Log.w(TAG, "Fetching page " + index + " failed", error.toException());
+                callback.onPageFailed(index, error);
+            }
+        };
+        pendingQuery = pageQuery;
+        pendingListener = listener;
+        pageQuery.addValueEventListener(listener);
+        fetchCount++;
+    }
+
+    /**
+     * Appends a page. The previous last page was open-ended, so if it is listened to it
+     * is listened to again with its range closed at the new page.
+     */
+    private void addPage(Page page) {
+        int index = pages.size();
+        pages.add(page);
+        if (index > 0 && pages.get(index - 1).listener != null) {
+            Page previous = pages.get(index - 1);
+            boolean synced = previous.synced;
+            release(index - 1);
+            attach(index - 1);
+            // Same tables, so they stay live while the closed range syncs
+            previous.synced = synced;
+        }
+        attach(index);
+    }
+
+    private void attach(int index) {
+        Page page = pages.get(index);
+        Query query = reference.orderByChild(Constants.FIREBASE_TABLE_NUMBER_CHILD);
+        if (index > 0) {
+            query = query.startAt(page.firstNumber, page.firstKey);
+        }
+        if (index + 1 < pages.size()) {
+            Page next = pages.get(index + 1);
+            query = query.endBefore(next.firstNumber, next.firstKey);
+        }
+        final BitSet previous = (BitSet) page.tableNumbers.clone();
+        page.query = query;
+        page.listener = newPageListener(index, page);
+        final int generation = ++page.generation;
+        query.addChildEventListener(page.listener);
+        query.addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(@NonNull DataSnapshot snapshot) {
+                decoder.submitInitialSync(snapshot, tableNumbers -> handler.post(() -> {
+                    if (page.generation != generation || page.listener == null) {
+                        return;
+                    }
+                    BitSet gone = (BitSet) previous.clone();
+                    gone.andNot(tableNumbers);
+                    page.tableNumbers.andNot(gone);
+                    page.synced = true;
+                    callback.onPageSynced(index, tableNumbers, gone);
+                }));
+            }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError error) {
+                Log.w(TAG, "Initial sync of page " + index + " cancelled", error.toException());
+            }
+        });
+        attachCount++;
+    }
+
+    private void release(int index) {
+        Page page = pages.get(index);
+        page.query.removeEventListener(page.listener);
+        page.query = null;
+        page.listener = null;
+        page.generation++;
+        page.synced = false;
+    }
+
+    private boolean isNear(int index) {
+        return index >= firstNearPage && index <= lastNearPage;
+    }
+
+    /**
+     * @return The table's number child as the query orders it; tables without a
+     * numeric one sort before every numbered table and are read as 0
+     */
+    private static double orderValue(@NonNull DataSnapshot table) {
+        Object value = table.child(Constants.FIREBASE_TABLE_NUMBER_CHILD).getValue();
+        return value instanceof Number ? ((Number) value).doubleValue() : 0;
+    }
+
+    private BitSet allTables() {
+        BitSet all = new BitSet();
+        for (Page page : pages) {
+            all.or(page.tableNumbers);
+        }
+        return all;
+    }
+
+    private ChildEventListener newPageListener(int index, Page page) {
+        return new ChildEventListener() {
+            @Override
+            public void onChildAdded(@NonNull DataSnapshot snapshot, @Nullable String previousChildName) {
+                track(snapshot.getKey(), true);
+                decoder.submitUpsert(snapshot);
+            }
+
+            @Override
+            public void onChildChanged(@NonNull DataSnapshot snapshot, @Nullable String previousChildName) {
+                decoder.submitUpsert(snapshot);
+            }
+
+            @Override
+            public void onChildRemoved(@NonNull DataSnapshot snapshot) {
+                track(snapshot.getKey(), false);
+                decoder.submitRemove(snapshot);
+            }
+
+            @Override
+            public void onChildMoved(@NonNull DataSnapshot snapshot, @Nullable String previousChildName) {
+            }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError error) {
+                Log.e(TAG, "Listener for page " + index + " cancelled", error.toException());
+                if (page.listener == this) {
+                    // The database has already removed the listener
+                    page.query = null;
+                    page.listener = null;
+                    page.generation++;
+                    page.synced = false;
+                }
+                callback.onPageFailed(index, error);
+            }
+
+            private void track(@Nullable String key, boolean present) {
+                int tableNumber = keyParser.parse(key);
+                if (tableNumber != TableKeyParser.INVALID && page.listener == this) {
+                    page.tableNumbers.set(tableNumber, present);
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,274 @@
+package com.smarttableindicator.app.sync;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+
+import com.smarttableindicator.app.stats.LatencyHistogram;
+import com.smarttableindicator.app.utils.FirebaseErrorHandler;
+
+import java.util.Random;
+
+/**
+ * Runs the connection attempts to the table data, one at a time. An attempt is in
+ * flight from the moment it starts until it is reported connected or failed, and
+ * requests made meanwhile, or while a retry is waiting, are merged into it.
+ * A failed attempt is retried after an exponential backoff with jitter, starting from
+ * the error's own retry delay. Errors that cannot be fixed by retrying, such as denied
+ * access, stop the retries. After a run of consecutive failures the circuit opens: no
+ * attempt is made for the open period, then a single trial attempt decides whether it
+ * closes again. A newly available network resets the backoff and the circuit and tries
+ * at once.
+ * The manager outlives the screen that connects: the screen hands in its connector
+ * with {@link #start} and takes it back with {@link #stop}, while counters, backoff and
+ * an open circuit carry over to the next screen. A new screen can start before the old
+ * one is destroyed, so the connector is also the owner's key: reports and a stop from
+ * any other connector are ignored. Main thread only.
+ */
+@MainThread
+public class ReconnectManager {
+
+    private static final String TAG = "ReconnectManager";
+    private static final int LATENCY_SUB_BUCKET_BITS = 3;
+    private static final int LATENCY_MAX_VALUE_BITS = 20; // about 17 minutes in milliseconds
+
+    public interface Connector {
+        /**
+         * Starts an attempt. Its outcome is reported through {@link #onConnected} or
+         * {@link #onFailure}.
+         */
+        void connect();
+    }
+
+    public enum State {
+        IDLE,
+        CONNECTING,
+        CONNECTED,
+        WAITING_TO_RETRY,
+        CIRCUIT_OPEN,
+        GAVE_UP,
+        STOPPED
+    }
+
+    private Connector connector;
+    private final long baseDelayMs;
+    private final int failuresBeforeCircuitOpens;
+    private final long circuitOpenMs;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable scheduledAttempt = this::attempt;
+    private final Random random = new Random();
+    private final LatencyHistogram connectLatencyMs =
+            new LatencyHistogram(LATENCY_SUB_BUCKET_BITS, LATENCY_MAX_VALUE_BITS);
+
+    private State state = State.STOPPED;
+    /** State to resume in on the next start: waiting to retry, circuit open, or idle */
+    private State stoppedState = State.IDLE;
+    private int consecutiveFailures = 0;
+    private long attemptStartedAt = 0;
+    private long nextAttemptAt = 0;
+
+    private long attemptCount = 0;
+    private long successCount = 0;
+    private long failureCount = 0;
+    private long mergedRequestCount = 0;
+    private long circuitOpenCount = 0;
+    private long lastRetryDelayMs = 0;
+
+    /**
+     * @param baseDelayMs Smallest delay before the first retry
+     * @param failuresBeforeCircuitOpens Consecutive failures after which the circuit opens
+     * @param circuitOpenMs How long the circuit stays open before a trial attempt
+     */
+    public ReconnectManager(long baseDelayMs, int failuresBeforeCircuitOpens, long circuitOpenMs) {
+        this.baseDelayMs = baseDelayMs;
+        this.failuresBeforeCircuitOpens = failuresBeforeCircuitOpens;
+        this.circuitOpenMs = circuitOpenMs;
+    }
+
+    /**
+     * Hands in the connector of a new screen, taking over from a screen still holding
+     * the manager. A retry or open circuit left by the previous screen is resumed for
+     * the time it had left; otherwise the manager is idle until {@link #connect} is
+     * called, since the new screen has no listeners yet.
+     */
+    public void start(@NonNull Connector connector) {
+        if (this.connector == connector) {
+            return;
+        }
+        if (state != State.STOPPED) {
+            stop(this.connector);
+        }
+        this.connector = connector;
+        state = stoppedState;
+        if (state == State.WAITING_TO_RETRY || state == State.CIRCUIT_OPEN) {
+            handler.postDelayed(scheduledAttempt, Math.max(0, nextAttemptAt - SystemClock.elapsedRealtime()));
+        }
+    }
+
+    /**
+     * Starts an attempt unless one is in flight or waiting, the circuit is open, or the
+     * manager is stopped
+     */
+    public void connect() {
+        switch (state) {
+            case CONNECTING:
+            case WAITING_TO_RETRY:
+            case CIRCUIT_OPEN:
+                mergedRequestCount++;
+                return;
+            case STOPPED:
+                return;
+            default:
+                attempt();
+        }
+    }
+
+    /**
+     * Reports that the attempt in flight, or a trial attempt, got its data
+     * @param from Connector of the reporting screen
+     */
+    public void onConnected(@NonNull Connector from) {
+        if (from != connector || state != State.CONNECTING) {
+            return;
+        }
+        long latency = SystemClock.elapsedRealtime() - attemptStartedAt;
+        connectLatencyMs.record(latency);
+        successCount++;
+        consecutiveFailures = 0;
+        state = State.CONNECTED;
+        Log.d(TAG, "Connected in " + latency + "ms after attempt " + attemptCount);
+    }
+
+    /**
+     * Reports that the attempt in flight failed, or that a connection was lost, and
+     * schedules the next attempt if the error allows it
+     * @param from Connector of the reporting screen
+     */
+    public void onFailure(@NonNull Connector from, @NonNull FirebaseErrorHandler.ErrorResult error) {
+        if (from != connector || state == State.STOPPED || state == State.WAITING_TO_RETRY || state == State.CIRCUIT_OPEN) {
+            return;
+        }
+        failureCount++;
+        consecutiveFailures++;
+        if (!FirebaseErrorHandler.shouldRetry(error, 0, 1)) {
+            state = State.GAVE_UP;
+            Log.w(TAG, "Not retrying " + error.getCategory() + ": " + error.getTechnicalMessage());
+        } else if (!FirebaseErrorHandler.shouldRetry(error, consecutiveFailures, failuresBeforeCircuitOpens)) {
+            state = State.CIRCUIT_OPEN;
+            circuitOpenCount++;
+            nextAttemptAt = SystemClock.elapsedRealtime() + circuitOpenMs;
+            handler.postDelayed(scheduledAttempt, circuitOpenMs);
+            Log.w(TAG, "Circuit open for " + circuitOpenMs + "ms after " + consecutiveFailures + " failures");
+        } else {
+            long delay = FirebaseErrorHandler.calculateRetryDelay(consecutiveFailures - 1,
+                    Math.max(baseDelayMs, error.getRetryDelayMs()));
+            // Half fixed, half random, so clients dropped together do not retry together
+            delay = delay / 2 + (long) (random.nextDouble() * (delay / 2 + 1));
+            lastRetryDelayMs = delay;
+            state = State.WAITING_TO_RETRY;
+            nextAttemptAt = SystemClock.elapsedRealtime() + delay;
+            handler.postDelayed(scheduledAttempt, delay);
+            Log.d(TAG, "Retrying in " + delay + "ms after " + consecutiveFailures + " failures");
+        }
+    }
+
+    /**
+     * Reports that the attempt in flight could not start, for example without a network.
+     * It is not counted as a failure; the next available network tries again.
+     * @param from Connector of the reporting screen
+     */
+    public void onSkipped(@NonNull Connector from) {
+        if (from == connector && state == State.CONNECTING) {
+            state = State.IDLE;
+        }
+    }
+
+    /**
+     * Forgets earlier failures when the network comes back, and tries at once unless
+     * connected or an attempt is in flight
+     * @param from Connector of the reporting screen
+     */
+    public void onNetworkAvailable(@NonNull Connector from) {
+        if (from != connector || state == State.STOPPED) {
+            return;
+        }
+        consecutiveFailures = 0;
+        if (state == State.WAITING_TO_RETRY || state == State.CIRCUIT_OPEN) {
+            handler.removeCallbacks(scheduledAttempt);
+            attempt();
+        } else if (state == State.IDLE || state == State.GAVE_UP) {
+            attempt();
+        }
+    }
+
+    /**
+     * Cancels any waiting attempt and lets go of the connector, for example when the
+     * screen is destroyed. An attempt in flight is abandoned, since its screen's
+     * listeners go with it. Does nothing if another screen has taken over.
+     * @param from Connector handed in by the stopping screen
+     */
+    public void stop(@NonNull Connector from) {
+        if (from != connector || state == State.STOPPED) {
+            return;
+        }
+        handler.removeCallbacks(scheduledAttempt);
+        stoppedState = state == State.WAITING_TO_RETRY || state == State.CIRCUIT_OPEN ? state : State.IDLE;
+        state = State.STOPPED;
+        connector = null;
+    }
+
+    private void attempt() {
+        state = State.CONNECTING;
+        attemptStartedAt = SystemClock.elapsedRealtime();
+        attemptCount++;
+        connector.connect();
+    }
+
+    @NonNull
+    public State getState() {
+        return state;
+    }
+
+    public int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    public long getAttemptCount() {
+        return attemptCount;
+    }
+
+    public long getSuccessCount() {
+        return successCount;
+    }
+
+    public long getFailureCount() {
+        return failureCount;
+    }
+
+    /**
+     * @return How many connect requests were merged into an attempt already in flight or waiting
+     */
+    public long getMergedRequestCount() {
+        return mergedRequestCount;
+    }
+
+    public long getCircuitOpenCount() {
+        return circuitOpenCount;
+    }
+
+    public long getLastRetryDelayMs() {
+        return lastRetryDelayMs;
+    }
+
+    /**
+     * @return Time from the start of each successful attempt to its data, in milliseconds
+     */
+    @NonNull
+    public LatencyHistogram getConnectLatencyMs() {
+        return connectLatencyMs.copy();
+    }
+}
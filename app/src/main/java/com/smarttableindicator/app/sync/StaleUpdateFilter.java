@@ -0,0 +1,127 @@
+package com.smarttableindicator.app.sync;
+
+import androidx.annotation.NonNull;
+
+import com.smarttableindicator.app.models.TableEvent;
+
+import java.util.Arrays;
+
+/**
+ * Drops table updates that are older than, or identical to, the last update
+ * accepted for the same table, based on the server timestamp written by Firebase.
+ * This keeps reconnect replays and late deliveries from rebinding cells or
+ * re-raising notifications for a state that has already been shown.
+ * A timestamp is recorded only when its update is applied to the store, so updates
+ * that were queued but never applied, for example when a screen is recreated, are
+ * accepted again when Firebase redelivers them. A removal forgets the table's
+ * timestamp. Updates without a server timestamp are always accepted.
+ */
+public class StaleUpdateFilter {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private long[] lastServerTimestamps = new long[INITIAL_CAPACITY];
+
+    private long acceptedCount = 0;
+    private long staleDroppedCount = 0;
+    private long duplicateDroppedCount = 0;
+
+    /**
+     * Checks an event without recording it, so stale updates can be dropped before
+     * they are queued
+     * @param event The decoded table event
+     * @return true if the event is newer than anything applied for its table
+     */
+    public synchronized boolean isNewer(@NonNull TableEvent event) {
+        return check(event);
+    }
+
+    /**
+     * Checks an event as it is applied and, if it is accepted, records its server
+     * timestamp. A removal is always accepted and forgets the table's timestamp, so a
+     * table that is deleted and added again starts afresh.
+     * @param event The decoded table event
+     * @return true if the event is newer than anything applied for its table
+     */
+    public synchronized boolean accept(@NonNull TableEvent event) {
+        int tableNumber = event.getTableNumber();
+        if (event.getType() == TableEvent.Type.REMOVE) {
+            if (tableNumber >= 0 && tableNumber < lastServerTimestamps.length) {
+                lastServerTimestamps[tableNumber] = 0;
+            }
+            acceptedCount++;
+            return true;
+        }
+        if (!check(event)) {
+            return false;
+        }
+        if (event.getServerTimestamp() > 0) {
+            ensureCapacity(tableNumber + 1);
+            lastServerTimestamps[tableNumber] = event.getServerTimestamp();
+        }
+        acceptedCount++;
+        return true;
+    }
+
+    /**
+     * Forgets every recorded timestamp, for example when the store is emptied
+     */
+    public synchronized void clear() {
+        Arrays.fill(lastServerTimestamps, 0);
+    }
+
+    private boolean check(TableEvent event) {
+        long serverTimestamp = event.getServerTimestamp();
+        if (event.getType() == TableEvent.Type.REMOVE || serverTimestamp <= 0) {
+            return true;
+        }
+        long last = getLastServerTimestamp(event.getTableNumber());
+        if (serverTimestamp < last) {
+            staleDroppedCount++;
+            return false;
+        }
+        if (serverTimestamp == last) {
+            duplicateDroppedCount++;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param tableNumber The table number
+     * @return The server timestamp of the last accepted update, or 0 if none
+     */
+    public synchronized long getLastServerTimestamp(int tableNumber) {
+        return tableNumber >= 0 && tableNumber < lastServerTimestamps.length
+                ? lastServerTimestamps[tableNumber] : 0;
+    }
+
+    public synchronized long getAcceptedCount() {
+        return acceptedCount;
+    }
+
+    /**
+     * @return Number of updates dropped because an update with a newer server timestamp was already applied
+     */
+    public synchronized long getStaleDroppedCount() {
+        return staleDroppedCount;
+    }
+
+    /**
+     * @return Number of updates dropped because they repeated the last applied server timestamp
+     */
+    public synchronized long getDuplicateDroppedCount() {
+        return duplicateDroppedCount;
+    }
+
+    private void ensureCapacity(int required) {
+        if (required <= lastServerTimestamps.length) {
+            return;
+        }
+        int capacity = lastServerTimestamps.length;
+        while (capacity < required) {
+            capacity *= 2;
+        }
+        lastServerTimestamps = Arrays.copyOf(lastServerTimestamps, capacity);
+    }
+}
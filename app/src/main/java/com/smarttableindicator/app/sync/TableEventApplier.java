@@ -0,0 +1,92 @@
+package com.smarttableindicator.app.sync;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.smarttableindicator.app.data.TableStateStore;
+import com.smarttableindicator.app.models.TableEvent;
+import com.smarttableindicator.app.models.TableModel;
+import com.smarttableindicator.app.services.NotificationDispatcher;
+
+import java.util.List;
+
+/**
+ * Applies decoded table events to the shared {@link TableStateStore} and raises or
+ * clears the cleaning alert of every table that changed. Events older than what the
+ * store already holds are dropped here by the {@link StaleUpdateFilter}, which records
+ * each applied update.
+ * Both the live Firebase listener and FCM data messages go through here, so an update
+ * changes the store and the notifications the same way whichever path delivers it
+ * first; the later copy is then a no-op.
+ * Thread-safe; the store serialises the updates.
+ */
+public class TableEventApplier {
+
+    private static final String TAG = "TableEventApplier";
+
+    private final TableStateStore store;
+    private final NotificationDispatcher notificationDispatcher;
+    private final StaleUpdateFilter staleUpdateFilter;
+
+    public TableEventApplier(@NonNull TableStateStore store, @NonNull NotificationDispatcher notificationDispatcher,
+                             @NonNull StaleUpdateFilter staleUpdateFilter) {
+        this.store = store;
+        this.notificationDispatcher = notificationDispatcher;
+        this.staleUpdateFilter = staleUpdateFilter;
+    }
+
+    /**
+     * @param events Events to apply, in order
+     * @param alertsEnabled false to skip alerts for tables that turn dirty, for example
+     *                      while the initial data is still being replayed
+     * @return true if the store changed
+     */
+    public boolean apply(@NonNull List<TableEvent> events, boolean alertsEnabled) {
+        return apply(events, alertsEnabled, null);
+    }
+
+    /**
+     * @param applied If not null, receives the events that changed the store
+     * @return true if the store changed
+     */
+    public boolean apply(@NonNull List<TableEvent> events, boolean alertsEnabled,
+                         @Nullable List<TableEvent> applied) {
+        boolean changed = false;
+        for (TableEvent event : events) {
+            if (!staleUpdateFilter.accept(event)) {
+                continue;
+            }
+            int tableNumber = event.getTableNumber();
+            TableStateStore.Change change;
+            try {
+                change = event.getType() == TableEvent.Type.REMOVE
+                        ? store.remove(tableNumber)
+                        : store.upsert(tableNumber, event.getStatus(),
+                                event.getServerTimestamp(), event.getClientTimestamp());
+            } catch (IllegalArgumentException e) {
+                Log.e(TAG, "apply: Invalid table number in ID: " + event.getTableId(), e);
+                continue;
+            }
+            if (change == null) {
+                continue;
+            }
+            changed = true;
+            if (applied != null) {
+                applied.add(event);
+            }
+
+            if (change.getType() == TableStateStore.ChangeType.REMOVED) {
+                notificationDispatcher.cancelTable(tableNumber);
+            } else if (event.getStatus() == TableModel.Status.DIRTY) {
+                if (alertsEnabled) {
+                    notificationDispatcher.notifyTableDirty(tableNumber, event.getTableId());
+                }
+            } else if (change.getType() == TableStateStore.ChangeType.UPDATED) {
+                notificationDispatcher.cancelTable(tableNumber);
+            }
+        }
+        return changed;
+    }
+}
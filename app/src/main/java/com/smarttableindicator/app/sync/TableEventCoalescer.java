@@ -0,0 +1,152 @@
+package com.smarttableindicator.app.sync;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.view.Choreographer;
+
+import androidx.annotation.NonNull;
+
+import com.smarttableindicator.app.models.TableEvent;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Buffers incoming table events and hands them to the UI as one batch, either on
+ * the next frame or after a configurable window. Several events for the same table
+ * inside one window collapse to the most recent one.
+ * Events may be offered from any thread; batches are always delivered on the main thread.
+ */
+public class TableEventCoalescer {
+
+    private static final String TAG = "TableEventCoalescer";
+
+    public interface BatchListener {
+        void onBatch(@NonNull List<TableEvent> batch);
+    }
+
+    private final BatchListener batchListener;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final LinkedHashMap<Integer, TableEvent> pending = new LinkedHashMap<>();
+
+    private final Choreographer.FrameCallback frameCallback = frameTimeNanos -> flush();
+    private final Runnable flushRunnable = this::flush;
+    private final Runnable scheduleRunnable = this::scheduleOnMainThread;
+
+    private volatile long windowMs;
+    private boolean flushScheduled = false;
+    private boolean cancelled = false;
+
+    private long eventsReceived = 0;
+    private long eventsMerged = 0;
+    private long batchesDelivered = 0;
+
+    /**
+     * @param windowMs Batching window in milliseconds, or 0 to flush on the next frame
+     * @param batchListener Receives each batch on the main thread
+     */
+    public TableEventCoalescer(long windowMs, @NonNull BatchListener batchListener) {
+        this.windowMs = windowMs;
+        this.batchListener = batchListener;
+    }
+
+    /**
+     * Adds an event to the current window, replacing any pending event for the same
+     * table. Does nothing once cancelled.
+     * @param event The decoded table event
+     */
+    public void offer(@NonNull TableEvent event) {
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            eventsReceived++;
+            if (pending.put(event.getTableNumber(), event) != null) {
+                eventsMerged++;
+            }
+            if (flushScheduled) {
+                return;
+            }
+            flushScheduled = true;
+        }
+
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            scheduleOnMainThread();
+        } else {
+            mainHandler.post(scheduleRunnable);
+        }
+    }
+
+    /**
+     * Delivers everything that is pending right away. Must be called on the main thread.
+     */
+    public void flush() {
+        List<TableEvent> batch;
+        synchronized (this) {
+            mainHandler.removeCallbacks(flushRunnable);
+            Choreographer.getInstance().removeFrameCallback(frameCallback);
+            flushScheduled = false;
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = new ArrayList<>(pending.values());
+            pending.clear();
+            batchesDelivered++;
+        }
+        batchListener.onBatch(batch);
+    }
+
+    /**
+     * Drops pending events and any scheduled flush for good; events offered later,
+     * for example by a decoder still finishing its work, are ignored. Must be called
+     * on the main thread.
+     */
+    public void cancel() {
+        synchronized (this) {
+            cancelled = true;
+            mainHandler.removeCallbacks(scheduleRunnable);
+            mainHandler.removeCallbacks(flushRunnable);
+            Choreographer.getInstance().removeFrameCallback(frameCallback);
+            Log.d(TAG, "Cancelled with " + pending.size() + " pending events");
+            pending.clear();
+            flushScheduled = false;
+        }
+    }
+
+    /**
+     * Changes the batching window. Takes effect from the next window.
+     * @param windowMs Batching window in milliseconds, or 0 to flush on the next frame
+     */
+    public void setWindowMs(long windowMs) {
+        this.windowMs = windowMs;
+    }
+
+    public long getWindowMs() {
+        return windowMs;
+    }
+
+    public synchronized long getEventsReceived() {
+        return eventsReceived;
+    }
+
+    /**
+     * @return Number of events that were replaced by a newer event for the same table
+     */
+    public synchronized long getEventsMerged() {
+        return eventsMerged;
+    }
+
+    public synchronized long getBatchesDelivered() {
+        return batchesDelivered;
+    }
+
+    private void scheduleOnMainThread() {
+        if (windowMs <= 0) {
+            Choreographer.getInstance().postFrameCallback(frameCallback);
+        } else {
+            mainHandler.postDelayed(flushRunnable, windowMs);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.smarttableindicator.app.sync;
+
+import androidx.annotation.Nullable;
+
+import com.smarttableindicator.app.config.Constants;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Turns table keys such as "table12" into table numbers.
+ * The key is scanned character by character, keeping every digit in order, so
+ * no regex, intermediate string or exception is involved. Results, including
+ * rejected keys, are kept in a bounded LRU cache, so a repeated key costs a
+ * single map lookup.
+ */
+public class TableKeyParser {
+
+    public static final int INVALID = -1;
+
+    private final Map<String, Integer> cache;
+
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * @param cacheSize Maximum number of keys remembered
+     */
+    public TableKeyParser(final int cacheSize) {
+        this.cache = new LinkedHashMap<String, Integer>(Math.min(cacheSize, 256), 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Parses a table key, using the cache when the key has been seen before
+     * @param key Table key from the database
+     * @return The table number, or {@link #INVALID} if the key holds no valid number
+     */
+    public synchronized int parse(@Nullable String key) {
+        if (key == null) {
+            return INVALID;
+        }
+        Integer cached = cache.get(key);
+        if (cached != null) {
+            hits++;
+            return cached;
+        }
+        misses++;
+        int tableNumber = parseUncached(key);
+        cache.put(key, tableNumber);
+        return tableNumber;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Collects the digits of a key into a table number without allocating
+     * @param key Table key from the database
+     * @return The table number, or {@link #INVALID} if the key has no digits or
+     *         the number is larger than {@link Constants#MAX_TABLE_NUMBER}
+     */
+    public static int parseUncached(CharSequence key) {
+        int value = 0;
+        boolean hasDigit = false;
+        for (int i = 0, length = key.length(); i < length; i++) {
+            char c = key.charAt(i);
+            if (c < '0' || c > '9') {
+                continue;
+            }
+            value = value * 10 + (c - '0');
+            if (value > Constants.MAX_TABLE_NUMBER) {
+                return INVALID;
+            }
+            hasDigit = true;
+        }
+        return hasDigit ? value : INVALID;
+    }
+}
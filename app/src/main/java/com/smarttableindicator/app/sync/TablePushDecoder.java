@@ -0,0 +1,168 @@
+package com.smarttableindicator.app.sync;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.smarttableindicator.app.config.Constants;
+import com.smarttableindicator.app.models.FirebaseTableData;
+import com.smarttableindicator.app.models.TableEvent;
+import com.smarttableindicator.app.models.TableModel;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decodes table updates carried in FCM data messages into {@link TableEvent}s.
+ * A single update uses the data keys {@value #KEY_TABLE_ID}, {@code status},
+ * {@code serverTimestamp}, {@code clientTimestamp} and, for a deleted table,
+ * {@value #KEY_REMOVED} = "true". A batch puts a JSON array of objects with the same
+ * keys under {@value #KEY_TABLES}. Status values may be text or numeric wire codes,
+ * as in the database. Malformed entries are skipped; the rest of a batch is kept.
+ */
+public class TablePushDecoder {
+
+    private static final String TAG = "TablePushDecoder";
+
+    public static final String KEY_TABLE_ID = "tableId";
+    public static final String KEY_REMOVED = "removed";
+    public static final String KEY_TABLES = "tables";
+
+    private final TableKeyParser keyParser = new TableKeyParser(Constants.TABLE_KEY_CACHE_SIZE);
+
+    private final AtomicLong decodedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    /**
+     * @param data Data payload of a message
+     * @return Events in payload order; empty if the message carries no table update
+     */
+    @NonNull
+    public List<TableEvent> decode(@NonNull Map<String, String> data) {
+        String batch = data.get(KEY_TABLES);
+        if (batch != null) {
+            return decodeBatch(batch);
+        }
+        if (!data.containsKey(KEY_TABLE_ID)) {
+            return Collections.emptyList();
+        }
+        TableEvent event = decodeEntry(data.get(KEY_TABLE_ID),
+                "true".equalsIgnoreCase(data.get(KEY_REMOVED)),
+                data.get(FirebaseTableData.FIELD_STATUS),
+                data.get(FirebaseTableData.FIELD_SERVER_TIMESTAMP),
+                data.get(FirebaseTableData.FIELD_CLIENT_TIMESTAMP));
+        return event != null ? Collections.singletonList(event) : Collections.emptyList();
+    }
+
+    public long getDecodedCount() {
+        return decodedCount.get();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    private List<TableEvent> decodeBatch(String batch) {
+        JSONArray entries;
+        try {
+            entries = new JSONArray(batch);
+        } catch (JSONException e) {
+            rejectedCount.incrementAndGet();
+            Log.w(TAG, "Malformed table batch", e);
+            return Collections.emptyList();
+        }
+        List<TableEvent> events = new ArrayList<>(entries.length());
+        for (int i = 0; i < entries.length(); i++) {
+            JSONObject entry = entries.optJSONObject(i);
+            if (entry == null) {
+                reject("Batch entry is not an object", String.valueOf(i));
+                continue;
+            }
+            TableEvent event = decodeEntry(entry.optString(KEY_TABLE_ID, null),
+                    entry.optBoolean(KEY_REMOVED, false),
+                    entry.opt(FirebaseTableData.FIELD_STATUS),
+                    entry.opt(FirebaseTableData.FIELD_SERVER_TIMESTAMP),
+                    entry.opt(FirebaseTableData.FIELD_CLIENT_TIMESTAMP));
+            if (event != null) {
+                events.add(event);
+            }
+        }
+        return events;
+    }
+
+    @Nullable
+    private TableEvent decodeEntry(@Nullable String tableId, boolean removed, @Nullable Object rawStatus,
+                                   @Nullable Object rawServerTimestamp, @Nullable Object rawClientTimestamp) {
+        int tableNumber = keyParser.parse(tableId);
+        if (tableNumber == TableKeyParser.INVALID) {
+            return reject("Invalid table ID", tableId);
+        }
+        if (removed) {
+            decodedCount.incrementAndGet();
+            return TableEvent.remove(tableId, tableNumber);
+        }
+
+        TableModel.Status status = decodeStatus(rawStatus);
+        if (status == null) {
+            return reject("Missing or unknown status", tableId);
+        }
+        Double serverTimestamp = toNumber(rawServerTimestamp);
+        Double clientTimestamp = toNumber(rawClientTimestamp);
+        if (serverTimestamp == null || clientTimestamp == null) {
+            return reject("Non-numeric timestamp", tableId);
+        }
+
+        decodedCount.incrementAndGet();
+        return TableEvent.upsert(tableId, tableNumber, status, clientTimestamp, serverTimestamp.longValue());
+    }
+
+    @Nullable
+    private static TableModel.Status decodeStatus(@Nullable Object raw) {
+        if (raw instanceof String) {
+            String text = (String) raw;
+            if (!text.isEmpty() && Character.isDigit(text.charAt(0))) {
+                try {
+                    return TableStatusCodec.decodeCode(Long.parseLong(text));
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+            }
+        }
+        return TableStatusCodec.decode(raw);
+    }
+
+    /**
+     * @return The value as a number, 0 if absent, or null if it is not numeric
+     */
+    @Nullable
+    private static Double toNumber(@Nullable Object raw) {
+        if (raw == null || JSONObject.NULL.equals(raw)) {
+            return 0d;
+        }
+        if (raw instanceof Number) {
+            return ((Number) raw).doubleValue();
+        }
+        if (raw instanceof String) {
+            try {
+                return Double.parseDouble((String) raw);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private TableEvent reject(String reason, @Nullable String tableId) {
+        rejectedCount.incrementAndGet();
+        Log.w(TAG, reason + " for tableId: " + tableId);
+        return null;
+    }
+}
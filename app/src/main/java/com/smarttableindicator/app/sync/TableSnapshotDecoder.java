@@ -0,0 +1,237 @@
+package com.smarttableindicator.app.sync;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.firebase.database.DataSnapshot;
+import com.smarttableindicator.app.config.Constants;
+import com.smarttableindicator.app.models.FirebaseTableData;
+import com.smarttableindicator.app.models.TableEvent;
+import com.smarttableindicator.app.models.TableModel;
+
+import java.util.BitSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decodes table snapshots into {@link TableEvent}s on a background thread.
+ * Reads the child fields of each snapshot directly instead of going through
+ * Firebase's reflection-based bean mapper, and rejects malformed payloads early.
+ * Events are decoded in arrival order on a single worker thread. Besides Firebase
+ * snapshots, raw payloads can be submitted directly by a local source such as a
+ * {@link TableStreamReplayer}, and everything submitted can be written to a
+ * {@link TableStreamRecorder} on its way in.
+ */
+public class TableSnapshotDecoder {
+
+    private static final String TAG = "TableSnapshotDecoder";
+
+    public interface Callback {
+        void onDecoded(@NonNull TableEvent event);
+    }
+
+    public interface InitialSyncCallback {
+        /**
+         * Called on the worker thread once every snapshot submitted before the initial
+         * sync marker has been decoded and handed to the {@link Callback}
+         * @param tableNumbers Numbers of every table present in the initial data
+         */
+        void onInitialSync(@NonNull BitSet tableNumbers);
+    }
+
+    private final Callback callback;
+    private final TableKeyParser keyParser = new TableKeyParser(Constants.TABLE_KEY_CACHE_SIZE);
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(
+            runnable -> new Thread(runnable, "TableSnapshotDecoder"));
+
+    private volatile TableStreamRecorder recorder;
+
+    private final AtomicLong decodedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    public TableSnapshotDecoder(@NonNull Callback callback) {
+        this.callback = callback;
+    }
+
+    /**
+     * Queues an added or changed table snapshot for decoding. The event is stamped
+     * with the time of this call as its arrival time.
+     * @param snapshot Snapshot of a single table node
+     */
+    public void submitUpsert(@NonNull DataSnapshot snapshot) {
+        long receivedAt = SystemClock.elapsedRealtime();
+        executor.execute(() -> decodeAndDeliver(snapshot.getKey(),
+                snapshot.child(FirebaseTableData.FIELD_STATUS).getValue(),
+                snapshot.child(FirebaseTableData.FIELD_CLIENT_TIMESTAMP).getValue(),
+                snapshot.child(FirebaseTableData.FIELD_SERVER_TIMESTAMP).getValue(),
+                receivedAt));
+    }
+
+    /**
+     * Queues an added or changed table payload from a source other than Firebase,
+     * stamped with the time of this call as its arrival time
+     * @param tableId Key of the table node
+     * @param rawStatus Value of the status field, as Firebase would deliver it
+     * @param rawClientTimestamp Value of the clientTimestamp field
+     * @param rawServerTimestamp Value of the serverTimestamp field
+     */
+    public void submitUpsert(@Nullable String tableId, @Nullable Object rawStatus,
+                             @Nullable Object rawClientTimestamp, @Nullable Object rawServerTimestamp) {
+        long receivedAt = SystemClock.elapsedRealtime();
+        executor.execute(() -> decodeAndDeliver(tableId, rawStatus, rawClientTimestamp, rawServerTimestamp,
+                receivedAt));
+    }
+
+    /**
+     * Queues a removed table snapshot for decoding
+     * @param snapshot Snapshot of the removed table node
+     */
+    public void submitRemove(@NonNull DataSnapshot snapshot) {
+        submitRemove(snapshot.getKey());
+    }
+
+    /**
+     * Queues the removal of a table from a source other than Firebase
+     * @param tableId Key of the removed table node
+     */
+    public void submitRemove(@Nullable String tableId) {
+        long receivedAt = SystemClock.elapsedRealtime();
+        executor.execute(() -> {
+            TableStreamRecorder activeRecorder = recorder;
+            if (activeRecorder != null) {
+                activeRecorder.recordRemove(tableId, receivedAt);
+            }
+            TableEvent event = decodeRemove(tableId);
+            if (event != null) {
+                callback.onDecoded(event);
+            }
+        });
+    }
+
+    /**
+     * @param recorder Receives every payload submitted from now on, before it is
+     *                 decoded, or null to stop handing them over
+     */
+    public void setRecorder(@Nullable TableStreamRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    private void decodeAndDeliver(String tableId, Object rawStatus, Object rawClientTimestamp,
+                                  Object rawServerTimestamp, long receivedAt) {
+        TableStreamRecorder activeRecorder = recorder;
+        if (activeRecorder != null) {
+            activeRecorder.recordUpsert(tableId, rawStatus, rawClientTimestamp, rawServerTimestamp, receivedAt);
+        }
+        TableEvent event = decodeUpsert(tableId, rawStatus, rawClientTimestamp, rawServerTimestamp, receivedAt);
+        if (event != null) {
+            callback.onDecoded(event);
+        }
+    }
+
+    /**
+     * Queues a marker for the end of the initial sync. Firebase delivers the initial
+     * children of a location before any value listener added after the child listener,
+     * so the value snapshot of the whole tables node marks the point where every
+     * initial child event has been submitted.
+     * @param tablesSnapshot Value snapshot of the whole tables node
+     * @param initialSyncCallback Receives the table numbers present in the snapshot
+     */
+    public void submitInitialSync(@NonNull DataSnapshot tablesSnapshot,
+                                  @NonNull InitialSyncCallback initialSyncCallback) {
+        executor.execute(() -> {
+            BitSet tableNumbers = new BitSet();
+            for (DataSnapshot child : tablesSnapshot.getChildren()) {
+                int tableNumber = keyParser.parse(child.getKey());
+                if (tableNumber != TableKeyParser.INVALID) {
+                    tableNumbers.set(tableNumber);
+                }
+            }
+            initialSyncCallback.onInitialSync(tableNumbers);
+        });
+    }
+
+    /**
+     * Decodes an added or changed table snapshot on the calling thread
+     * @param snapshot Snapshot of a single table node
+     * @return The decoded event, or null if the payload is malformed
+     */
+    @Nullable
+    public TableEvent decodeUpsert(@NonNull DataSnapshot snapshot) {
+        return decodeUpsert(snapshot.getKey(),
+                snapshot.child(FirebaseTableData.FIELD_STATUS).getValue(),
+                snapshot.child(FirebaseTableData.FIELD_CLIENT_TIMESTAMP).getValue(),
+                snapshot.child(FirebaseTableData.FIELD_SERVER_TIMESTAMP).getValue(),
+                0);
+    }
+
+    @Nullable
+    private TableEvent decodeUpsert(String tableId, Object rawStatus, Object rawClientTimestamp,
+                                    Object rawServerTimestamp, long receivedAt) {
+        int tableNumber = keyParser.parse(tableId);
+        if (tableNumber == TableKeyParser.INVALID) {
+            return reject("Invalid table ID", tableId);
+        }
+
+        if (!(rawStatus instanceof String) && !(rawStatus instanceof Number)) {
+            return reject("Missing status", tableId);
+        }
+        TableModel.Status status = TableStatusCodec.decode(rawStatus);
+        if (status == null) {
+            return reject("Unknown status", tableId);
+        }
+
+        if (rawClientTimestamp != null && !(rawClientTimestamp instanceof Number)) {
+            return reject("Non-numeric clientTimestamp", tableId);
+        }
+
+        if (rawServerTimestamp != null && !(rawServerTimestamp instanceof Number)) {
+            return reject("Non-numeric serverTimestamp", tableId);
+        }
+
+        decodedCount.incrementAndGet();
+        return TableEvent.upsert(tableId, tableNumber, status,
+                rawClientTimestamp != null ? ((Number) rawClientTimestamp).doubleValue() : 0,
+                rawServerTimestamp != null ? ((Number) rawServerTimestamp).longValue() : 0,
+                receivedAt, receivedAt > 0 ? SystemClock.elapsedRealtime() : 0);
+    }
+
+    /**
+     * Decodes the key of a removed table on the calling thread
+     * @param tableId Key of the removed table node
+     * @return The decoded event, or null if the key is malformed
+     */
+    @Nullable
+    public TableEvent decodeRemove(@Nullable String tableId) {
+        int tableNumber = keyParser.parse(tableId);
+        if (tableNumber == TableKeyParser.INVALID) {
+            return reject("Invalid table ID", tableId);
+        }
+        decodedCount.incrementAndGet();
+        return TableEvent.remove(tableId, tableNumber);
+    }
+
+    public long getDecodedCount() {
+        return decodedCount.get();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * Stops the worker thread. Snapshots still queued are dropped.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private TableEvent reject(String reason, @Nullable String tableId) {
+        rejectedCount.incrementAndGet();
+        Log.w(TAG, reason + " for tableId: " + tableId);
+        return null;
+    }
+}
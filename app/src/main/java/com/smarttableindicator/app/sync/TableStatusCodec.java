@@ -0,0 +1,95 @@
+package com.smarttableindicator.app.sync;
+
+import androidx.annotation.Nullable;
+
+import com.smarttableindicator.app.config.Constants;
+import com.smarttableindicator.app.models.TableModel;
+
+/**
+ * Maps status values from the database to {@link TableModel.Status} without allocating.
+ * Accepts the text spellings in any case, or the compact numeric wire code the
+ * ESP32 firmware can send instead:
+ * {@link Constants#STATUS_CODE_AVAILABLE}, {@link Constants#STATUS_CODE_OCCUPIED}
+ * and {@link Constants#STATUS_CODE_DIRTY}.
+ */
+public final class TableStatusCodec {
+
+    private static final String STATUS_CLEAN = "CLEAN";
+
+    private static final TableModel.Status[] BY_CODE = new TableModel.Status[3];
+
+    static {
+        BY_CODE[Constants.STATUS_CODE_AVAILABLE] = TableModel.Status.AVAILABLE;
+        BY_CODE[Constants.STATUS_CODE_OCCUPIED] = TableModel.Status.OCCUPIED;
+        BY_CODE[Constants.STATUS_CODE_DIRTY] = TableModel.Status.DIRTY;
+    }
+
+    private TableStatusCodec() {}
+
+    /**
+     * Decodes a raw status value as read from a snapshot
+     * @param raw A String or a whole Number
+     * @return The status, or null if the value is not a known status
+     */
+    @Nullable
+    public static TableModel.Status decode(@Nullable Object raw) {
+        if (raw instanceof String) {
+            return decodeText((String) raw);
+        }
+        if (raw instanceof Long || raw instanceof Integer) {
+            return decodeCode(((Number) raw).longValue());
+        }
+        if (raw instanceof Number) {
+            double value = ((Number) raw).doubleValue();
+            long code = (long) value;
+            return code == value ? decodeCode(code) : null;
+        }
+        return null;
+    }
+
+    /**
+     * @param text Status spelling, in any case
+     * @return The status, or null if the spelling is unknown
+     */
+    @Nullable
+    public static TableModel.Status decodeText(String text) {
+        if (text.equalsIgnoreCase(Constants.STATUS_AVAILABLE) || text.equalsIgnoreCase(STATUS_CLEAN)) {
+            return TableModel.Status.AVAILABLE;
+        }
+        if (text.equalsIgnoreCase(Constants.STATUS_OCCUPIED)) {
+            return TableModel.Status.OCCUPIED;
+        }
+        if (text.equalsIgnoreCase(Constants.STATUS_DIRTY)) {
+            return TableModel.Status.DIRTY;
+        }
+        return null;
+    }
+
+    /**
+     * @param code Numeric wire code
+     * @return The status, or null if the code is unknown
+     */
+    @Nullable
+    public static TableModel.Status decodeCode(long code) {
+        if (code < 0 || code >= BY_CODE.length) {
+            return null;
+        }
+        return BY_CODE[(int) code];
+    }
+
+    /**
+     * @param status A table status
+     * @return The numeric wire code for the status
+     */
+    public static int encode(TableModel.Status status) {
+        switch (status) {
+            case OCCUPIED:
+                return Constants.STATUS_CODE_OCCUPIED;
+            case DIRTY:
+                return Constants.STATUS_CODE_DIRTY;
+            case AVAILABLE:
+            default:
+                return Constants.STATUS_CODE_AVAILABLE;
+        }
+    }
+}
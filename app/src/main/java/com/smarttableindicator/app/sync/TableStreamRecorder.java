@@ -0,0 +1,245 @@
+package com.smarttableindicator.app.sync;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+
+/**
+ * Writes the raw table event stream, as it reaches the {@link TableSnapshotDecoder},
+ * to a file that a {@link TableStreamReplayer} can play back later. Each record holds
+ * the table key, the raw status, clientTimestamp and serverTimestamp values, and the
+ * arrival time relative to the start of the recording, so malformed payloads and the
+ * original pacing are kept. Recording is off until started, and costs nothing then.
+ * Records are flushed to the file within {@link #FLUSH_INTERVAL_MS} of being written,
+ * so a crash loses at most that much, and the recording stops by itself once the file
+ * reaches its size limit.
+ * Thread-safe; records are written on the decoder's worker thread.
+ * <p>
+ * File layout: a header of magic, version and the wall-clock start time, then one
+ * record per event: type byte, arrival offset in milliseconds, key, and for upserts
+ * the three values, each as a type tag followed by the value.
+ */
+public class TableStreamRecorder {
+
+    private static final String TAG = "TableStreamRecorder";
+    static final long FLUSH_INTERVAL_MS = 1_000;
+
+    static final int MAGIC = 0x53545352; // "STSR"
+    static final int VERSION = 1;
+
+    static final byte RECORD_UPSERT = 0;
+    static final byte RECORD_REMOVE = 1;
+
+    private static final byte VALUE_NULL = 0;
+    private static final byte VALUE_STRING = 1;
+    private static final byte VALUE_LONG = 2;
+    private static final byte VALUE_DOUBLE = 3;
+    private static final byte VALUE_BOOLEAN = 4;
+    /** Maps, lists and anything else, kept as text only */
+    private static final byte VALUE_OTHER = 5;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable flushRunnable = this::flush;
+    private final int maxBytes;
+
+    private DataOutputStream out;
+    private File file;
+    private long startedAt;
+    private long recordedCount;
+    private boolean flushScheduled = false;
+
+    /**
+     * @param maxBytes File size at which the recording stops
+     */
+    public TableStreamRecorder(int maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Starts a new recording, replacing any earlier one at the same path
+     * @throws IOException if the file cannot be created
+     */
+    public synchronized void start(@NonNull File file) throws IOException {
+        stop();
+        DataOutputStream stream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            stream.writeInt(MAGIC);
+            stream.writeInt(VERSION);
+            stream.writeLong(System.currentTimeMillis());
+        } catch (IOException e) {
+            stream.close();
+            throw e;
+        }
+        this.out = stream;
+        this.file = file;
+        this.startedAt = SystemClock.elapsedRealtime();
+        this.recordedCount = 0;
+        Log.i(TAG, "Recording to " + file);
+    }
+
+    /**
+     * Finishes the recording and closes the file. Does nothing if not recording.
+     */
+    public synchronized void stop() {
+        if (out == null) {
+            return;
+        }
+        handler.removeCallbacks(flushRunnable);
+        flushScheduled = false;
+        try {
+            out.close();
+            Log.i(TAG, "Recorded " + recordedCount + " events to " + file);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not finish recording " + file, e);
+        }
+        out = null;
+    }
+
+    public synchronized boolean isRecording() {
+        return out != null;
+    }
+
+    /**
+     * @return Events in the current or last recording
+     */
+    public synchronized long getRecordedCount() {
+        return recordedCount;
+    }
+
+    /**
+     * @param receivedAt Arrival time on the SystemClock.elapsedRealtime() clock
+     */
+    public synchronized void recordUpsert(@Nullable String tableId, @Nullable Object rawStatus,
+                                          @Nullable Object rawClientTimestamp, @Nullable Object rawServerTimestamp,
+                                          long receivedAt) {
+        if (out == null) {
+            return;
+        }
+        try {
+            writeHeader(RECORD_UPSERT, tableId, receivedAt);
+            writeValue(rawStatus);
+            writeValue(rawClientTimestamp);
+            writeValue(rawServerTimestamp);
+            onRecorded();
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * @param receivedAt Arrival time on the SystemClock.elapsedRealtime() clock
+     */
+    public synchronized void recordRemove(@Nullable String tableId, long receivedAt) {
+        if (out == null) {
+            return;
+        }
+        try {
+            writeHeader(RECORD_REMOVE, tableId, receivedAt);
+            onRecorded();
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void onRecorded() {
+        recordedCount++;
+        if (out.size() >= maxBytes) {
+            Log.w(TAG, "Recording reached " + maxBytes + " bytes, stopping");
+            stop();
+        } else if (!flushScheduled) {
+            flushScheduled = true;
+            handler.postDelayed(flushRunnable, FLUSH_INTERVAL_MS);
+        }
+    }
+
+    private synchronized void flush() {
+        flushScheduled = false;
+        if (out == null) {
+            return;
+        }
+        try {
+            out.flush();
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void writeHeader(byte type, String tableId, long receivedAt) throws IOException {
+        out.writeByte(type);
+        out.writeLong(Math.max(0, receivedAt - startedAt));
+        out.writeBoolean(tableId != null);
+        if (tableId != null) {
+            out.writeUTF(tableId);
+        }
+    }
+
+    private void writeValue(Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(VALUE_NULL);
+        } else if (value instanceof String) {
+            out.writeByte(VALUE_STRING);
+            out.writeUTF((String) value);
+        } else if (value instanceof Long || value instanceof Integer) {
+            out.writeByte(VALUE_LONG);
+            out.writeLong(((Number) value).longValue());
+        } else if (value instanceof Number) {
+            out.writeByte(VALUE_DOUBLE);
+            out.writeDouble(((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            out.writeByte(VALUE_BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else {
+            out.writeByte(VALUE_OTHER);
+            out.writeUTF(value.toString());
+        }
+    }
+
+    /**
+     * Reads a value written by {@link #writeValue}. Values that were neither text,
+     * numbers nor booleans come back as a list holding their text, which the decoder
+     * rejects the same way it rejected the original.
+     */
+    static Object readValue(@NonNull DataInputStream in) throws IOException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case VALUE_NULL:
+                return null;
+            case VALUE_STRING:
+                return in.readUTF();
+            case VALUE_LONG:
+                return in.readLong();
+            case VALUE_DOUBLE:
+                return in.readDouble();
+            case VALUE_BOOLEAN:
+                return in.readBoolean();
+            case VALUE_OTHER:
+                return Collections.singletonList(in.readUTF());
+            default:
+                throw new IOException("Unknown value tag " + tag);
+        }
+    }
+
+    private void fail(IOException e) {
+        Log.e(TAG, "Recording to " + file + " failed after " + recordedCount + " events", e);
+        handler.removeCallbacks(flushRunnable);
+        flushScheduled = false;
+        try {
+            out.close();
+        } catch (IOException ignored) {
+            // Already failing
+        }
+        out = null;
+    }
+}
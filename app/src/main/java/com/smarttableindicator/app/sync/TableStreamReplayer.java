@@ -0,0 +1,203 @@
+package com.smarttableindicator.app.sync;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * A local stand-in for the Firebase table listener: plays a file written by
+ * {@link TableStreamRecorder} into a {@link TableSnapshotDecoder}, so the rest of the
+ * pipeline runs exactly as it does on live data. Events are submitted in recorded
+ * order from one thread, at the recorded pace scaled by a speed factor, or back to
+ * back with {@link #AS_FAST_AS_POSSIBLE}.
+ * A replay outlives the screen showing it: the screen attaches its decoder, and while
+ * none is attached, for example while the screen is recreated, the replay pauses and
+ * the pause is left out of the pacing. A recording cut off in the middle of a record,
+ * as when the app died while recording, ends at the last complete record.
+ */
+public class TableStreamReplayer {
+
+    private static final String TAG = "TableStreamReplayer";
+
+    /** Speed that submits every event without waiting */
+    public static final double AS_FAST_AS_POSSIBLE = 0;
+
+    public interface Listener {
+        /**
+         * Called on the replay thread when the recording has been submitted, or stopped
+         * @param submittedCount Events handed to the decoder
+         * @param elapsedMs Time the replay took
+         * @param error Why the replay ended early, or null
+         */
+        void onReplayFinished(long submittedCount, long elapsedMs, @Nullable IOException error);
+    }
+
+    private final File file;
+    private final double speed;
+
+    private Thread thread;
+    private TableSnapshotDecoder decoder;
+    private Listener listener;
+    private long pausedMs = 0;
+    private volatile long submittedCount = 0;
+
+    /**
+     * @param speed 1 for the recorded pace, N for N times faster, or
+     *              {@link #AS_FAST_AS_POSSIBLE}
+     */
+    public TableStreamReplayer(@NonNull File file, double speed) {
+        if (speed < 0) {
+            throw new IllegalArgumentException("Invalid speed: " + speed);
+        }
+        this.file = file;
+        this.speed = speed;
+    }
+
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        thread = new Thread(this::replay, "TableStreamReplayer");
+        thread.start();
+    }
+
+    /**
+     * Stops submitting events. Events already submitted are still decoded, unless the
+     * decoder is shut down.
+     */
+    public synchronized void stop() {
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * Hands the replay to a screen, replacing any screen attached before
+     * @param decoder Decoder the events are submitted to from now on
+     * @param listener Told when the replay ends
+     */
+    public synchronized void attach(@NonNull TableSnapshotDecoder decoder, @NonNull Listener listener) {
+        this.decoder = decoder;
+        this.listener = listener;
+        notifyAll();
+    }
+
+    /**
+     * Pauses the replay until a screen attaches again. Call before shutting the decoder down.
+     * @return false if the decoder had already been replaced by another screen's
+     */
+    public synchronized boolean detach(@NonNull TableSnapshotDecoder decoder) {
+        if (this.decoder != decoder) {
+            return false;
+        }
+        this.decoder = null;
+        this.listener = null;
+        return true;
+    }
+
+    public double getSpeed() {
+        return speed;
+    }
+
+    public long getSubmittedCount() {
+        return submittedCount;
+    }
+
+    private void replay() {
+        long startedAt = SystemClock.elapsedRealtime();
+        IOException error = null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != TableStreamRecorder.MAGIC || in.readInt() != TableStreamRecorder.VERSION) {
+                throw new IOException("Not a table stream recording: " + file);
+            }
+            long recordedAt = in.readLong();
+            Log.i(TAG, "Replaying " + file + " recorded at " + recordedAt + ", speed " + speed);
+            while (!Thread.currentThread().isInterrupted()) {
+                byte type;
+                long offsetMs;
+                String tableId;
+                Object rawStatus = null;
+                Object rawClientTimestamp = null;
+                Object rawServerTimestamp = null;
+                try {
+                    type = in.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                try {
+                    offsetMs = in.readLong();
+                    tableId = in.readBoolean() ? in.readUTF() : null;
+                    if (type == TableStreamRecorder.RECORD_UPSERT) {
+                        rawStatus = TableStreamRecorder.readValue(in);
+                        rawClientTimestamp = TableStreamRecorder.readValue(in);
+                        rawServerTimestamp = TableStreamRecorder.readValue(in);
+                    } else if (type != TableStreamRecorder.RECORD_REMOVE) {
+                        throw new IOException("Unknown record type " + type);
+                    }
+                } catch (EOFException e) {
+                    Log.w(TAG, "Recording ends inside a record, replayed up to the last complete one");
+                    break;
+                }
+                if (speed != AS_FAST_AS_POSSIBLE) {
+                    long delay = startedAt + pausedMs + (long) (offsetMs / speed) - SystemClock.elapsedRealtime();
+                    if (delay > 0) {
+                        Thread.sleep(delay);
+                    }
+                }
+                while (true) {
+                    TableSnapshotDecoder target = awaitDecoder();
+                    try {
+                        if (type == TableStreamRecorder.RECORD_UPSERT) {
+                            target.submitUpsert(tableId, rawStatus, rawClientTimestamp, rawServerTimestamp);
+                        } else {
+                            target.submitRemove(tableId);
+                        }
+                        break;
+                    } catch (RejectedExecutionException e) {
+                        // The screen shut its decoder down; wait for the next one
+                        detach(target);
+                    }
+                }
+                submittedCount++;
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Replay of " + file + " failed after " + submittedCount + " events", e);
+            error = e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        long elapsed = SystemClock.elapsedRealtime() - startedAt;
+        Log.i(TAG, "Replayed " + submittedCount + " events in " + elapsed + "ms");
+        Listener finishedListener;
+        synchronized (this) {
+            finishedListener = listener;
+        }
+        if (finishedListener != null) {
+            finishedListener.onReplayFinished(submittedCount, elapsed, error);
+        }
+    }
+
+    /**
+     * @return The attached decoder, once one is attached; the wait is added to the pause
+     */
+    private synchronized TableSnapshotDecoder awaitDecoder() throws InterruptedException {
+        if (decoder == null) {
+            long pausedAt = SystemClock.elapsedRealtime();
+            while (decoder == null) {
+                wait();
+            }
+            pausedMs += SystemClock.elapsedRealtime() - pausedAt;
+        }
+        return decoder;
+    }
+}
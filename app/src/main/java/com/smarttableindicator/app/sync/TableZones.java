@@ -0,0 +1,105 @@
+package com.smarttableindicator.app.sync;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.smarttableindicator.app.config.Constants;
+
+import java.util.BitSet;
+
+/**
+ * Maps tables to zones. Zone z holds tables z * {@link Constants#DEFAULT_ZONE_SIZE}
+ * up to the next zone, and the last zone takes every higher number. When the
+ * database is sharded by zone, a zone's tables live under
+ * tables/{@value Constants#FIREBASE_ZONE_KEY_PREFIX}{zone}/{tableId}.
+ */
+public final class TableZones {
+
+    private TableZones() {}
+
+    /**
+     * @return The zone of a table, between 0 and {@link Constants#MAX_ZONES} - 1
+     */
+    public static int zoneOf(int tableNumber) {
+        return Math.min(tableNumber / Constants.DEFAULT_ZONE_SIZE, Constants.MAX_ZONES - 1);
+    }
+
+    /**
+     * Works out which zones a grid in table number order shows, from the zone layout
+     * rather than from the tables already loaded. Zones are ranges of numbers, so every
+     * zone between the first and last table on screen is in view, even one with no
+     * tables loaded yet. At the start of the grid the zones before the first table are
+     * in view as well, and at its end the zones after the last table, up to and
+     * including the first one not known to be empty.
+     * @param visibleTables Numbers of the tables on screen
+     * @param atStart true if no table is above the first one on screen
+     * @param atEnd true if no table is below the last one on screen
+     * @param emptyZones Zones known to hold no tables
+     */
+    @NonNull
+    public static BitSet viewedZones(@NonNull BitSet visibleTables, boolean atStart, boolean atEnd,
+                                     @NonNull BitSet emptyZones) {
+        BitSet zones = new BitSet(Constants.MAX_ZONES);
+        int first = visibleTables.nextSetBit(0);
+        int last = -1;
+        if (first >= 0) {
+            last = zoneOf(visibleTables.length() - 1);
+            zones.set(atStart ? 0 : zoneOf(first), last + 1);
+        }
+        if (atEnd) {
+            for (int zone = last + 1; zone < Constants.MAX_ZONES; zone++) {
+                zones.set(zone);
+                if (!emptyZones.get(zone)) {
+                    break;
+                }
+            }
+        }
+        return zones;
+    }
+
+    /**
+     * @return The database key of a zone's node under the tables path
+     */
+    @NonNull
+    public static String keyOf(int zone) {
+        return Constants.FIREBASE_ZONE_KEY_PREFIX + zone;
+    }
+
+    /**
+     * Parses a comma-separated list of zone numbers, as stored in preferences.
+     * Entries that are not valid zones are ignored.
+     */
+    @NonNull
+    public static BitSet parse(@Nullable String zones) {
+        BitSet result = new BitSet(Constants.MAX_ZONES);
+        if (zones == null || zones.isEmpty()) {
+            return result;
+        }
+        for (String entry : zones.split(",")) {
+            try {
+                int zone = Integer.parseInt(entry.trim());
+                if (zone >= 0 && zone < Constants.MAX_ZONES) {
+                    result.set(zone);
+                }
+            } catch (NumberFormatException e) {
+                // Not a zone number, skip it
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return The zones as a comma-separated list, the inverse of {@link #parse}
+     */
+    @NonNull
+    public static String format(@NonNull BitSet zones) {
+        StringBuilder builder = new StringBuilder();
+        for (int zone = zones.nextSetBit(0); zone >= 0; zone = zones.nextSetBit(zone + 1)) {
+            if (builder.length() > 0) {
+                builder.append(',');
+            }
+            builder.append(zone);
+        }
+        return builder.toString();
+    }
+}
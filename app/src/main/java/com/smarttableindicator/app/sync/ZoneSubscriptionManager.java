@@ -0,0 +1,330 @@
+package com.smarttableindicator.app.sync;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.firebase.database.ChildEventListener;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.ValueEventListener;
+import com.smarttableindicator.app.config.Constants;
+
+import java.util.BitSet;
+
+/**
+ * Listens to zone-sharded tables, tables/{zone}/{tableId}, one zone at a time, instead
+ * of to the whole tables node. A zone is attached while it is assigned to the staff
+ * member or shown on screen. A zone that stops being wanted stays attached for an idle
+ * timeout, so scrolling back and forth does not resync it, and is then detached.
+ * Table events of every attached zone go to the same {@link TableSnapshotDecoder} as
+ * the unsharded listener. Tables of a detached zone keep their last known status in
+ * the store until the zone is attached again and its initial data replaces them; the
+ * screen shows them as stale while their zone is not synced.
+ * Main thread only.
+ */
+@MainThread
+public class ZoneSubscriptionManager {
+
+    private static final String TAG = "ZoneSubscriptions";
+
+    public interface Callback {
+        /**
+         * Called on the main thread once the initial data of a newly attached zone has
+         * been decoded and handed to the decoder's callback
+         * @param tableNumbers Numbers of every table present in the zone
+         */
+        void onZoneSynced(int zone, @NonNull BitSet tableNumbers);
+
+        /**
+         * Called when the database cancels a zone listener, for example when access is
+         * denied. The zone is detached and is attached again by the next update of the
+         * wanted zones.
+         */
+        void onZoneCancelled(int zone, @NonNull DatabaseError error);
+
+        /**
+         * Called when an idle zone is detached, after which its tables are no longer
+         * kept up to date
+         */
+        void onZoneDetached(int zone);
+    }
+
+    private final DatabaseReference tablesReference;
+    private final TableSnapshotDecoder decoder;
+    private final Callback callback;
+    private final long idleDetachMs;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable idleSweep = this::detachIdleZones;
+
+    private final DatabaseReference[] references = new DatabaseReference[Constants.MAX_ZONES];
+    private final ChildEventListener[] listeners = new ChildEventListener[Constants.MAX_ZONES];
+    private final int[] generations = new int[Constants.MAX_ZONES];
+    /** Uptime at which an attached zone stopped being wanted, 0 while it is wanted */
+    private final long[] releasedAt = new long[Constants.MAX_ZONES];
+
+    private final BitSet assignedZones = new BitSet(Constants.MAX_ZONES);
+    private final BitSet viewedZones = new BitSet(Constants.MAX_ZONES);
+    private final BitSet syncedZones = new BitSet(Constants.MAX_ZONES);
+    private final BitSet emptyZones = new BitSet(Constants.MAX_ZONES);
+    private boolean followViewedZones = true;
+
+    private long attachCount = 0;
+    private long detachCount = 0;
+    private long cancelCount = 0;
+
+    /**
+     * @param tablesReference Reference to the tables node holding one child per zone
+     * @param idleDetachMs How long a zone stays attached after it stops being wanted
+     */
+    public ZoneSubscriptionManager(@NonNull DatabaseReference tablesReference, @NonNull TableSnapshotDecoder decoder,
+                                   long idleDetachMs, @NonNull Callback callback) {
+        this.tablesReference = tablesReference;
+        this.decoder = decoder;
+        this.idleDetachMs = idleDetachMs;
+        this.callback = callback;
+    }
+
+    /**
+     * Sets the zones the staff member is responsible for. They stay attached until
+     * they are unassigned.
+     */
+    public void setAssignedZones(@NonNull BitSet zones) {
+        assignedZones.clear();
+        assignedZones.or(zones);
+        update();
+    }
+
+    /**
+     * Sets the zones with tables currently on screen
+     */
+    public void setViewedZones(@NonNull BitSet zones) {
+        if (viewedZones.equals(zones)) {
+            return;
+        }
+        viewedZones.clear();
+        viewedZones.or(zones);
+        update();
+    }
+
+    /**
+     * Sets whether zones on screen are wanted as well as assigned ones. When not, zones
+     * that are only viewed are released like zones scrolled away from, and keep their
+     * last known status.
+     */
+    public void setFollowViewedZones(boolean follow) {
+        if (followViewedZones == follow) {
+            return;
+        }
+        followViewedZones = follow;
+        update();
+    }
+
+    /**
+     * Attaches any wanted zone that is not attached, such as one whose listener was
+     * cancelled or which was skipped while offline
+     */
+    public void refresh() {
+        update();
+    }
+
+    /**
+     * @return true once every assigned zone has delivered its initial data
+     */
+    public boolean areAssignedZonesSynced() {
+        BitSet pending = (BitSet) assignedZones.clone();
+        pending.andNot(syncedZones);
+        return pending.isEmpty();
+    }
+
+    /**
+     * @return Zones whose initial data has arrived and that are still attached, so their
+     * tables are live
+     */
+    @NonNull
+    public BitSet getSyncedZones() {
+        return (BitSet) syncedZones.clone();
+    }
+
+    /**
+     * @return Attached zones that hold no tables, as far as their listener knows
+     */
+    @NonNull
+    public BitSet getEmptyZones() {
+        return (BitSet) emptyZones.clone();
+    }
+
+    public boolean isAssigned(int zone) {
+        return assignedZones.get(zone);
+    }
+
+    @NonNull
+    public BitSet getAssignedZones() {
+        return (BitSet) assignedZones.clone();
+    }
+
+    @NonNull
+    public BitSet getAttachedZones() {
+        BitSet attached = new BitSet(Constants.MAX_ZONES);
+        for (int zone = 0; zone < Constants.MAX_ZONES; zone++) {
+            if (listeners[zone] != null) {
+                attached.set(zone);
+            }
+        }
+        return attached;
+    }
+
+    public long getAttachCount() {
+        return attachCount;
+    }
+
+    public long getDetachCount() {
+        return detachCount;
+    }
+
+    public long getCancelCount() {
+        return cancelCount;
+    }
+
+    /**
+     * Detaches every zone, for example when the screen is destroyed
+     */
+    public void detachAll() {
+        handler.removeCallbacks(idleSweep);
+        for (int zone = 0; zone < Constants.MAX_ZONES; zone++) {
+            if (listeners[zone] != null) {
+                detach(zone);
+            }
+        }
+    }
+
+    private void update() {
+        long now = SystemClock.uptimeMillis();
+        for (int zone = 0; zone < Constants.MAX_ZONES; zone++) {
+            boolean wanted = assignedZones.get(zone) || (followViewedZones && viewedZones.get(zone));
+            if (wanted) {
+                releasedAt[zone] = 0;
+                if (listeners[zone] == null) {
+                    attach(zone);
+                }
+            } else if (listeners[zone] != null && releasedAt[zone] == 0) {
+                releasedAt[zone] = now;
+            }
+        }
+        scheduleIdleSweep(now);
+    }
+
+    private void attach(int zone) {
+        DatabaseReference reference = tablesReference.child(TableZones.keyOf(zone));
+        ChildEventListener listener = newZoneListener(zone);
+        references[zone] = reference;
+        listeners[zone] = listener;
+        final int generation = ++generations[zone];
+        reference.addChildEventListener(listener);
+        // Fires after the zone's initial children, as for the unsharded listener
+        reference.addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(@NonNull DataSnapshot snapshot) {
+                decoder.submitInitialSync(snapshot, tableNumbers -> handler.post(() -> {
+                    if (generations[zone] == generation && listeners[zone] != null) {
+                        syncedZones.set(zone);
+                        emptyZones.set(zone, tableNumbers.isEmpty());
+                        callback.onZoneSynced(zone, tableNumbers);
+                    }
+                }));
+            }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError error) {
+                Log.w(TAG, "Initial sync of zone " + zone + " cancelled", error.toException());
+            }
+        });
+        attachCount++;
+        Log.d(TAG, "Attached zone " + zone);
+    }
+
+    private void detach(int zone) {
+        references[zone].removeEventListener(listeners[zone]);
+        forget(zone);
+        detachCount++;
+        Log.d(TAG, "Detached zone " + zone);
+    }
+
+    /**
+     * Drops the local record of a zone listener. Any initial sync still in flight for
+     * it is ignored.
+     */
+    private void forget(int zone) {
+        references[zone] = null;
+        listeners[zone] = null;
+        releasedAt[zone] = 0;
+        syncedZones.clear(zone);
+        emptyZones.clear(zone);
+        generations[zone]++;
+    }
+
+    private void detachIdleZones() {
+        long now = SystemClock.uptimeMillis();
+        for (int zone = 0; zone < Constants.MAX_ZONES; zone++) {
+            if (listeners[zone] != null && releasedAt[zone] > 0 && now - releasedAt[zone] >= idleDetachMs) {
+                detach(zone);
+                callback.onZoneDetached(zone);
+            }
+        }
+        scheduleIdleSweep(now);
+    }
+
+    private void scheduleIdleSweep(long now) {
+        handler.removeCallbacks(idleSweep);
+        long next = Long.MAX_VALUE;
+        for (int zone = 0; zone < Constants.MAX_ZONES; zone++) {
+            if (listeners[zone] != null && releasedAt[zone] > 0) {
+                next = Math.min(next, releasedAt[zone] + idleDetachMs);
+            }
+        }
+        if (next != Long.MAX_VALUE) {
+            handler.postDelayed(idleSweep, Math.max(0, next - now));
+        }
+    }
+
+    private ChildEventListener newZoneListener(int zone) {
+        return new ChildEventListener() {
+            @Override
+            public void onChildAdded(@NonNull DataSnapshot snapshot, @Nullable String previousChildName) {
+                emptyZones.clear(zone);
+                decoder.submitUpsert(snapshot);
+            }
+
+            @Override
+            public void onChildChanged(@NonNull DataSnapshot snapshot, @Nullable String previousChildName) {
+                decoder.submitUpsert(snapshot);
+            }
+
+            @Override
+            public void onChildRemoved(@NonNull DataSnapshot snapshot) {
+                decoder.submitRemove(snapshot);
+            }
+
+            @Override
+            public void onChildMoved(@NonNull DataSnapshot snapshot, @Nullable String previousChildName) {
+            }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError error) {
+                Log.e(TAG, "Listener for zone " + zone + " cancelled", error.toException());
+                if (listeners[zone] == this) {
+                    // The database has already removed the listener
+                    forget(zone);
+                    cancelCount++;
+                }
+                callback.onZoneCancelled(zone, error);
+            }
+        };
+    }
+}
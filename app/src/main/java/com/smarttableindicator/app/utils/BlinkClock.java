@@ -0,0 +1,199 @@
+package com.smarttableindicator.app.utils;
+
+import android.graphics.Color;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffColorFilter;
+import android.view.Choreographer;
+import android.widget.ImageView;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One Choreographer-driven pulse shared by every blinking view, replacing an
+ * infinite ValueAnimator per view.
+ * Each palette is a precomputed table of color filters between an "off" and an "on"
+ * color. On each frame the clock works out the current step of the pulse and, only
+ * when the step changes, applies the matching filter to the views attached to it,
+ * so all cells pulse in phase and nothing is allocated per frame.
+ * Views that draw the pulse themselves register a {@link StepListener} and read the
+ * current color with {@link #getColor}.
+ * The clock posts frame callbacks only while it is started and has views or listeners attached.
+ * Main thread only.
+ */
+@MainThread
+public class BlinkClock {
+
+    private static final int STEPS = 32;
+
+    /**
+     * Told when the pulse moves to a new step
+     */
+    public interface StepListener {
+        void onBlinkStep();
+    }
+
+    private static class Target {
+        final ImageView view;
+        int palette;
+
+        Target(ImageView view, int palette) {
+            this.view = view;
+            this.palette = palette;
+        }
+    }
+
+    private final long halfPeriodMs;
+    private final List<PorterDuffColorFilter[]> palettes = new ArrayList<>();
+    private final List<int[]> paletteColors = new ArrayList<>();
+    private final List<Target> targets = new ArrayList<>();
+    private final List<StepListener> stepListeners = new ArrayList<>();
+    private final Choreographer.FrameCallback frameCallback = this::onFrame;
+
+    private boolean started = false;
+    private boolean frameScheduled = false;
+    private int currentStep = 0;
+
+    /**
+     * @param halfPeriodMs Time to fade from the off color to the on color; the way back takes as long
+     */
+    public BlinkClock(long halfPeriodMs) {
+        this.halfPeriodMs = Math.max(1, halfPeriodMs);
+    }
+
+    /**
+     * Precomputes the color steps between two colors
+     * @return Id of the palette, for {@link #attach}
+     */
+    public int addPalette(int colorOff, int colorOn) {
+        PorterDuffColorFilter[] filters = new PorterDuffColorFilter[STEPS];
+        int[] colors = new int[STEPS];
+        for (int step = 0; step < STEPS; step++) {
+            colors[step] = blendColors(colorOff, colorOn, step / (float) (STEPS - 1));
+            filters[step] = new PorterDuffColorFilter(colors[step], PorterDuff.Mode.SRC_ATOP);
+        }
+        palettes.add(filters);
+        paletteColors.add(colors);
+        return palettes.size() - 1;
+    }
+
+    /**
+     * Starts pulsing a view with the given palette, or switches it to that palette.
+     * The view is tinted with the current step right away.
+     */
+    public void attach(@NonNull ImageView view, int palette) {
+        Target target = find(view);
+        if (target == null) {
+            targets.add(new Target(view, palette));
+        } else {
+            target.palette = palette;
+        }
+        view.setColorFilter(palettes.get(palette)[currentStep]);
+        scheduleFrame();
+    }
+
+    /**
+     * Stops pulsing a view. Its last tint is left in place.
+     */
+    public void detach(@NonNull ImageView view) {
+        for (int i = targets.size() - 1; i >= 0; i--) {
+            if (targets.get(i).view == view) {
+                targets.remove(i);
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return The color of the palette at the current step of the pulse
+     */
+    public int getColor(int palette) {
+        return paletteColors.get(palette)[currentStep];
+    }
+
+    public void addStepListener(@NonNull StepListener listener) {
+        if (!stepListeners.contains(listener)) {
+            stepListeners.add(listener);
+        }
+        scheduleFrame();
+    }
+
+    public void removeStepListener(@NonNull StepListener listener) {
+        stepListeners.remove(listener);
+    }
+
+    /**
+     * Resumes the pulse, typically when the screen showing the views becomes visible
+     */
+    public void start() {
+        started = true;
+        scheduleFrame();
+    }
+
+    /**
+     * Pauses the pulse and stops requesting frames
+     */
+    public void stop() {
+        started = false;
+        if (frameScheduled) {
+            Choreographer.getInstance().removeFrameCallback(frameCallback);
+            frameScheduled = false;
+        }
+    }
+
+    public int getAttachedCount() {
+        return targets.size();
+    }
+
+    private void onFrame(long frameTimeNanos) {
+        frameScheduled = false;
+        if (!started || !hasSubscribers()) {
+            return;
+        }
+        long position = (frameTimeNanos / 1_000_000L) % (2 * halfPeriodMs);
+        long rising = position < halfPeriodMs ? position : 2 * halfPeriodMs - position;
+        int step = (int) (rising * (STEPS - 1) / halfPeriodMs);
+        if (step != currentStep) {
+            currentStep = step;
+            for (int i = 0; i < targets.size(); i++) {
+                Target target = targets.get(i);
+                target.view.setColorFilter(palettes.get(target.palette)[step]);
+            }
+            for (int i = 0; i < stepListeners.size(); i++) {
+                stepListeners.get(i).onBlinkStep();
+            }
+        }
+        scheduleFrame();
+    }
+
+    private void scheduleFrame() {
+        if (started && !frameScheduled && hasSubscribers()) {
+            frameScheduled = true;
+            Choreographer.getInstance().postFrameCallback(frameCallback);
+        }
+    }
+
+    private boolean hasSubscribers() {
+        return !targets.isEmpty() || !stepListeners.isEmpty();
+    }
+
+    private Target find(ImageView view) {
+        for (int i = 0; i < targets.size(); i++) {
+            if (targets.get(i).view == view) {
+                return targets.get(i);
+            }
+        }
+        return null;
+    }
+
+    private static int blendColors(int colorFrom, int colorTo, float ratio) {
+        final float inverseRatio = 1f - ratio;
+        float r = Color.red(colorFrom) * inverseRatio + Color.red(colorTo) * ratio;
+        float g = Color.green(colorFrom) * inverseRatio + Color.green(colorTo) * ratio;
+        float b = Color.blue(colorFrom) * inverseRatio + Color.blue(colorTo) * ratio;
+        return Color.rgb((int) r, (int) g, (int) b);
+    }
+}
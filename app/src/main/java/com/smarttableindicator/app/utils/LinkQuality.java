@@ -0,0 +1,65 @@
+package com.smarttableindicator.app.utils;
+
+import android.net.NetworkCapabilities;
+
+import androidx.annotation.NonNull;
+
+/**
+ * What the system reports about the current network link: its transport, whether
+ * traffic is metered, and the estimated bandwidth. Immutable.
+ */
+public class LinkQuality {
+
+    /** Bandwidth value used when the system gives no estimate */
+    public static final int BANDWIDTH_UNKNOWN = 0;
+
+    private final boolean wifi;
+    private final boolean cellular;
+    private final boolean ethernet;
+    private final boolean metered;
+    private final int downstreamKbps;
+    private final int upstreamKbps;
+
+    public LinkQuality(boolean wifi, boolean cellular, boolean ethernet, boolean metered,
+                       int downstreamKbps, int upstreamKbps) {
+        this.wifi = wifi;
+        this.cellular = cellular;
+        this.ethernet = ethernet;
+        this.metered = metered;
+        this.downstreamKbps = Math.max(BANDWIDTH_UNKNOWN, downstreamKbps);
+        this.upstreamKbps = Math.max(BANDWIDTH_UNKNOWN, upstreamKbps);
+    }
+
+    @NonNull
+    public static LinkQuality from(@NonNull NetworkCapabilities capabilities) {
+        return new LinkQuality(
+                capabilities.hasTransport(NetworkCapabilities.TRANSPORT_WIFI),
+                capabilities.hasTransport(NetworkCapabilities.TRANSPORT_CELLULAR),
+                capabilities.hasTransport(NetworkCapabilities.TRANSPORT_ETHERNET),
+                !capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED),
+                capabilities.getLinkDownstreamBandwidthKbps(),
+                capabilities.getLinkUpstreamBandwidthKbps());
+    }
+
+    public boolean isWifi() { return wifi; }
+    public boolean isCellular() { return cellular; }
+    public boolean isEthernet() { return ethernet; }
+    public boolean isMetered() { return metered; }
+
+    /**
+     * @return Estimated downstream bandwidth, or {@link #BANDWIDTH_UNKNOWN}
+     */
+    public int getDownstreamKbps() { return downstreamKbps; }
+
+    /**
+     * @return Estimated upstream bandwidth, or {@link #BANDWIDTH_UNKNOWN}
+     */
+    public int getUpstreamKbps() { return upstreamKbps; }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "LinkQuality{wifi=" + wifi + ", cellular=" + cellular + ", ethernet=" + ethernet
+                + ", metered=" + metered + ", down=" + downstreamKbps + "kbps, up=" + upstreamKbps + "kbps}";
+    }
+}
@@ -26,7 +26,7 @@ public class NetworkManager {
     public interface NetworkStateListener {
         void onNetworkAvailable();
         void onNetworkLost();
-        void onNetworkCapabilitiesChanged(boolean isWifi, boolean isCellular);
+        void onNetworkCapabilitiesChanged(@NonNull LinkQuality linkQuality);
     }
     
     private NetworkStateListener networkStateListener;
@@ -207,19 +207,21 @@ public class NetworkManager {
         
         @Override
         public void onCapabilitiesChanged(@NonNull Network network, @NonNull NetworkCapabilities networkCapabilities) {
-            boolean isWifi = networkCapabilities.hasTransport(NetworkCapabilities.TRANSPORT_WIFI);
-            boolean isCellular = networkCapabilities.hasTransport(NetworkCapabilities.TRANSPORT_CELLULAR);
+            LinkQuality linkQuality = LinkQuality.from(networkCapabilities);
+            boolean isWifi = linkQuality.isWifi();
+            boolean isCellular = linkQuality.isCellular();
             boolean hasInternet = networkCapabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET);
             boolean isValidated = networkCapabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_VALIDATED);
             
             Log.d(TAG, "Network capabilities changed - WiFi: " + isWifi + ", Cellular: " + isCellular + 
-                      ", Internet: " + hasInternet + ", Validated: " + isValidated);
+                      ", Internet: " + hasInternet + ", Validated: " + isValidated +
+                      ", Metered: " + linkQuality.isMetered() + ", Down: " + linkQuality.getDownstreamKbps() + "kbps");
             
             // Update network availability based on actual internet connectivity
             isNetworkAvailable = hasInternet && isValidated;
             
             if (networkStateListener != null) {
-                networkStateListener.onNetworkCapabilitiesChanged(isWifi, isCellular);
+                networkStateListener.onNetworkCapabilitiesChanged(linkQuality);
             }
         }
     }
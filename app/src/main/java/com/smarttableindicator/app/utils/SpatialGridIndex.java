@@ -0,0 +1,164 @@
+package com.smarttableindicator.app.utils;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * Static spatial index over axis-aligned rectangles, for viewport culling and hit
+ * testing. The plane is cut into a uniform grid of buckets sized so that each holds
+ * a handful of items, and every item is listed in each bucket it overlaps. Buckets are
+ * stored as one flat array with an offset per bucket, so a large plan costs two int
+ * arrays and queries allocate nothing.
+ * Queries reuse internal scratch state and are not thread-safe; the index is built
+ * once and queried from the thread that draws.
+ */
+public class SpatialGridIndex {
+
+    private static final int ITEMS_PER_BUCKET = 4;
+    private static final int MAX_BUCKETS_PER_SIDE = 1024;
+
+    private final float[] bounds;
+    private final int count;
+    private final float bucketWidth;
+    private final float bucketHeight;
+    private final int bucketColumns;
+    private final int bucketRows;
+    private final int[] bucketStarts;
+    private final int[] bucketItems;
+
+    private final int[] visitStamps;
+    private int visitGeneration = 0;
+
+    /**
+     * @param bounds Rectangles as left, top, right, bottom per item
+     * @param count Number of items in bounds
+     * @param width Width of the indexed area; items outside it fall into the edge buckets
+     * @param height Height of the indexed area
+     */
+    public SpatialGridIndex(@NonNull float[] bounds, int count, float width, float height) {
+        this.bounds = bounds;
+        this.count = count;
+        width = Math.max(width, 1f);
+        height = Math.max(height, 1f);
+        float bucketSize = (float) Math.sqrt(width * height * ITEMS_PER_BUCKET / Math.max(count, 1));
+        this.bucketColumns = Math.max(1, Math.min(MAX_BUCKETS_PER_SIDE, (int) Math.ceil(width / bucketSize)));
+        this.bucketRows = Math.max(1, Math.min(MAX_BUCKETS_PER_SIDE, (int) Math.ceil(height / bucketSize)));
+        this.bucketWidth = width / bucketColumns;
+        this.bucketHeight = height / bucketRows;
+        this.visitStamps = new int[count];
+
+        int bucketCount = bucketColumns * bucketRows;
+        int[] sizes = new int[bucketCount + 1];
+        for (int item = 0; item < count; item++) {
+            int firstColumn = columnOf(bounds[item * 4]);
+            int lastColumn = columnOf(bounds[item * 4 + 2]);
+            int firstRow = rowOf(bounds[item * 4 + 1]);
+            int lastRow = rowOf(bounds[item * 4 + 3]);
+            for (int row = firstRow; row <= lastRow; row++) {
+                for (int column = firstColumn; column <= lastColumn; column++) {
+                    sizes[row * bucketColumns + column + 1]++;
+                }
+            }
+        }
+        for (int bucket = 1; bucket <= bucketCount; bucket++) {
+            sizes[bucket] += sizes[bucket - 1];
+        }
+        this.bucketStarts = sizes;
+        this.bucketItems = new int[sizes[bucketCount]];
+
+        int[] fill = Arrays.copyOf(sizes, bucketCount);
+        for (int item = 0; item < count; item++) {
+            int firstColumn = columnOf(bounds[item * 4]);
+            int lastColumn = columnOf(bounds[item * 4 + 2]);
+            int firstRow = rowOf(bounds[item * 4 + 1]);
+            int lastRow = rowOf(bounds[item * 4 + 3]);
+            for (int row = firstRow; row <= lastRow; row++) {
+                for (int column = firstColumn; column <= lastColumn; column++) {
+                    bucketItems[fill[row * bucketColumns + column]++] = item;
+                }
+            }
+        }
+    }
+
+    /**
+     * Collects the items that intersect a rectangle, each once, in ascending item order
+     * @param out Receives the item indices; must hold at least {@link #size()} entries
+     * @return Number of items written to out
+     */
+    public int query(float left, float top, float right, float bottom, @NonNull int[] out) {
+        if (count == 0 || right < left || bottom < top) {
+            return 0;
+        }
+        int generation = nextGeneration();
+        int found = 0;
+        int lastColumn = columnOf(right);
+        int lastRow = rowOf(bottom);
+        for (int row = rowOf(top); row <= lastRow; row++) {
+            for (int column = columnOf(left); column <= lastColumn; column++) {
+                int bucket = row * bucketColumns + column;
+                for (int i = bucketStarts[bucket]; i < bucketStarts[bucket + 1]; i++) {
+                    int item = bucketItems[i];
+                    if (visitStamps[item] != generation && intersects(item, left, top, right, bottom)) {
+                        visitStamps[item] = generation;
+                        out[found++] = item;
+                    }
+                }
+            }
+        }
+        Arrays.sort(out, 0, found);
+        return found;
+    }
+
+    /**
+     * @return The highest-numbered item containing the point, which is the one drawn on
+     * top when items are drawn in order, or -1 if there is none
+     */
+    public int hitTest(float x, float y) {
+        if (count == 0) {
+            return -1;
+        }
+        int bucket = rowOf(y) * bucketColumns + columnOf(x);
+        int hit = -1;
+        for (int i = bucketStarts[bucket]; i < bucketStarts[bucket + 1]; i++) {
+            int item = bucketItems[i];
+            if (item > hit && intersects(item, x, y, x, y)) {
+                hit = item;
+            }
+        }
+        return hit;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public int getBucketCount() {
+        return bucketColumns * bucketRows;
+    }
+
+    private boolean intersects(int item, float left, float top, float right, float bottom) {
+        int offset = item * 4;
+        return bounds[offset] <= right && bounds[offset + 2] >= left
+                && bounds[offset + 1] <= bottom && bounds[offset + 3] >= top;
+    }
+
+    private int nextGeneration() {
+        visitGeneration++;
+        if (visitGeneration == 0) {
+            Arrays.fill(visitStamps, 0);
+            visitGeneration = 1;
+        }
+        return visitGeneration;
+    }
+
+    private int columnOf(float x) {
+        int column = (int) Math.floor(x / bucketWidth);
+        return Math.max(0, Math.min(bucketColumns - 1, column));
+    }
+
+    private int rowOf(float y) {
+        int row = (int) Math.floor(y / bucketHeight);
+        return Math.max(0, Math.min(bucketRows - 1, row));
+    }
+}
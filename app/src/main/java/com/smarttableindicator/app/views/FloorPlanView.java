@@ -0,0 +1,537 @@
+package com.smarttableindicator.app.views;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.text.TextPaint;
+import android.util.AttributeSet;
+import android.util.TypedValue;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+import android.view.View;
+import android.widget.OverScroller;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.content.ContextCompat;
+
+import com.google.android.material.color.MaterialColors;
+import com.smarttableindicator.app.R;
+import com.smarttableindicator.app.config.Constants;
+import com.smarttableindicator.app.models.FloorPlan;
+import com.smarttableindicator.app.models.TableModel;
+import com.smarttableindicator.app.sync.TableStatusCodec;
+import com.smarttableindicator.app.utils.BlinkClock;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * Shows tables where they physically sit, from a {@link FloorPlan}, with pan, fling
+ * and pinch zoom. Each frame asks the plan's spatial index for the tables inside the
+ * viewport, so drawing and hit testing cost depends on what is on screen rather than
+ * on the size of the plan, and nothing is allocated while drawing.
+ * Tables are filled with their status color; OCCUPIED and DIRTY tables pulse from a
+ * {@link BlinkClock} in the same colors as the card view. Tables missing from the
+ * store are outlined, and stale tables, whose status is only the last one known, are
+ * faded. Numbers are drawn only once tables are large enough to read.
+ * Main thread only.
+ */
+@MainThread
+public class FloorPlanView extends View {
+
+    /**
+     * Told when a table of the plan is tapped
+     */
+    public interface OnTableClickListener {
+        void onTableClick(int tableNumber, @Nullable TableModel.Status status);
+    }
+
+    private static final byte STATUS_UNKNOWN = -1;
+    private static final float MIN_ZOOM = 0.5f;
+    private static final float MAX_ZOOM = 20f;
+    private static final float LABEL_TEXT_SIZE_SP = 12;
+    private static final float CORNER_RADIUS_DP = 4;
+    private static final float OUTLINE_WIDTH_DP = 1.5f;
+
+    private final BlinkClock blinkClock = new BlinkClock(Constants.ANIMATION_DURATION_MS);
+    private final BlinkClock.StepListener stepListener = this::onBlinkStep;
+    private final int paletteOccupied;
+    private final int paletteDirty;
+    private final int colorAvailable;
+
+    private final Paint floorPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint tablePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint outlinePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final TextPaint labelPaint = new TextPaint(Paint.ANTI_ALIAS_FLAG | Paint.SUBPIXEL_TEXT_FLAG);
+    private final float labelBaselineOffset;
+    private final float cornerRadius;
+
+    private final OverScroller scroller;
+    private final GestureDetector gestureDetector;
+    private final ScaleGestureDetector scaleGestureDetector;
+    private OnTableClickListener onTableClickListener;
+    private Runnable onViewportChangedListener;
+    private Runnable onTablesDrawnListener;
+    private boolean tablesDrawPending = false;
+
+    private FloorPlan floorPlan;
+    private String[] labels = new String[0];
+    private float[] labelWidths = new float[0];
+    private int[] visible = new int[0];
+    private int lastVisibleCount = 0;
+    private int visibleBlinkingCount = 0;
+
+    private List<TableModel> tables;
+    private byte[] statusByTable = new byte[0];
+    private int blinkingCount = 0;
+    private BitSet staleTables = new BitSet();
+
+    /** Screen position = plan position * scale + offset */
+    private float scale = 1f;
+    private float offsetX = 0;
+    private float offsetY = 0;
+    private float fitScale = 1f;
+
+    private boolean visibleToUser = false;
+    private boolean stepListening = false;
+
+    public FloorPlanView(@NonNull Context context) {
+        this(context, null);
+    }
+
+    public FloorPlanView(@NonNull Context context, @Nullable AttributeSet attrs) {
+        super(context, attrs);
+        colorAvailable = ContextCompat.getColor(context, R.color.table_available);
+        paletteOccupied = blinkClock.addPalette(
+                ContextCompat.getColor(context, R.color.table_occupied_off),
+                ContextCompat.getColor(context, R.color.table_occupied_on));
+        paletteDirty = blinkClock.addPalette(
+                ContextCompat.getColor(context, R.color.table_dirty_off),
+                ContextCompat.getColor(context, R.color.table_dirty_on));
+
+        floorPaint.setColor(MaterialColors.getColor(this, com.google.android.material.R.attr.colorSurfaceVariant));
+        outlinePaint.setColor(MaterialColors.getColor(this, com.google.android.material.R.attr.colorOutline));
+        outlinePaint.setStyle(Paint.Style.STROKE);
+        outlinePaint.setStrokeWidth(dp(OUTLINE_WIDTH_DP));
+        labelPaint.setColor(ContextCompat.getColor(context, R.color.black));
+        labelPaint.setFakeBoldText(true);
+        labelPaint.setTextSize(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, LABEL_TEXT_SIZE_SP,
+                getResources().getDisplayMetrics()));
+        labelBaselineOffset = labelPaint.getTextSize() / 3;
+        cornerRadius = dp(CORNER_RADIUS_DP);
+
+        scroller = new OverScroller(context);
+        gestureDetector = new GestureDetector(context, new GestureDetector.SimpleOnGestureListener() {
+            @Override
+            public boolean onDown(@NonNull MotionEvent e) {
+                scroller.forceFinished(true);
+                return true;
+            }
+
+            @Override
+            public boolean onScroll(@Nullable MotionEvent e1, @NonNull MotionEvent e2, float distanceX, float distanceY) {
+                offsetX -= distanceX;
+                offsetY -= distanceY;
+                clampOffsets();
+                postInvalidateOnAnimation();
+                return true;
+            }
+
+            @Override
+            public boolean onFling(@Nullable MotionEvent e1, @NonNull MotionEvent e2, float velocityX, float velocityY) {
+                if (floorPlan == null || scaleGestureDetector.isInProgress()) {
+                    return false;
+                }
+                scroller.fling(Math.round(offsetX), Math.round(offsetY), Math.round(velocityX), Math.round(velocityY),
+                        Math.round(minOffsetX()), Math.round(maxOffsetX()),
+                        Math.round(minOffsetY()), Math.round(maxOffsetY()));
+                postInvalidateOnAnimation();
+                return true;
+            }
+
+            @Override
+            public boolean onDoubleTap(@NonNull MotionEvent e) {
+                fitToView();
+                return true;
+            }
+
+            @Override
+            public boolean onSingleTapUp(@NonNull MotionEvent e) {
+                if (floorPlan == null) {
+                    return false;
+                }
+                int index = floorPlan.getIndex().hitTest((e.getX() - offsetX) / scale, (e.getY() - offsetY) / scale);
+                if (index < 0) {
+                    return false;
+                }
+                performClick();
+                if (onTableClickListener != null) {
+                    int tableNumber = floorPlan.getTableNumber(index);
+                    byte status = statusOf(tableNumber);
+                    onTableClickListener.onTableClick(tableNumber,
+                            status == STATUS_UNKNOWN ? null : TableStatusCodec.decodeCode(status));
+                }
+                return true;
+            }
+        });
+        scaleGestureDetector = new ScaleGestureDetector(context, new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+            @Override
+            public boolean onScale(@NonNull ScaleGestureDetector detector) {
+                zoomBy(detector.getScaleFactor(), detector.getFocusX(), detector.getFocusY());
+                return true;
+            }
+        });
+    }
+
+    public void setOnTableClickListener(@Nullable OnTableClickListener listener) {
+        this.onTableClickListener = listener;
+    }
+
+    /**
+     * @param listener Run whenever the plan is panned, zoomed or refitted
+     */
+    public void setOnViewportChangedListener(@Nullable Runnable listener) {
+        this.onViewportChangedListener = listener;
+    }
+
+    /**
+     * @param listener Run at the end of the first draw after the tables are updated
+     */
+    public void setOnTablesDrawnListener(@Nullable Runnable listener) {
+        this.onTablesDrawnListener = listener;
+    }
+
+    /**
+     * Passes the number of every table of the plan at least partly on screen to an action
+     */
+    public void forEachVisibleTable(@NonNull IntConsumer action) {
+        if (floorPlan == null || getWidth() == 0) {
+            return;
+        }
+        int count = floorPlan.getIndex().query(-offsetX / scale, -offsetY / scale,
+                (getWidth() - offsetX) / scale, (getHeight() - offsetY) / scale, visible);
+        for (int i = 0; i < count; i++) {
+            action.accept(floorPlan.getTableNumber(visible[i]));
+        }
+    }
+
+    @Nullable
+    public FloorPlan getFloorPlan() {
+        return floorPlan;
+    }
+
+    /**
+     * Shows a new plan, zoomed to fit the view
+     */
+    public void setFloorPlan(@NonNull FloorPlan plan) {
+        setFloorPlan(plan, false);
+    }
+
+    /**
+     * Shows a new plan
+     * @param keepViewport Whether to keep the current zoom and pan, for example when a
+     *                     generated plan is regenerated for a changed set of tables. A view
+     *                     that is zoomed to fit the old plan is fitted to the new one.
+     */
+    public void setFloorPlan(@NonNull FloorPlan plan, boolean keepViewport) {
+        boolean fitted = floorPlan == null || scale == fitScale;
+        floorPlan = plan;
+        int count = plan.size();
+        labels = new String[count];
+        labelWidths = new float[count];
+        for (int i = 0; i < count; i++) {
+            labels[i] = Integer.toString(plan.getTableNumber(i));
+            labelWidths[i] = labelPaint.measureText(labels[i]);
+        }
+        visible = new int[count];
+        statusByTable = new byte[plan.getMaxTableNumber() + 1];
+        if (tables != null) {
+            setTables(tables);
+        }
+        if (keepViewport && !fitted) {
+            keepViewport();
+        } else {
+            fitToView();
+        }
+    }
+
+    /**
+     * Updates the status of the tables on the plan. Tables the plan does not place
+     * are ignored.
+     * @param tables Current tables, as from a store snapshot
+     */
+    public void setTables(@NonNull List<TableModel> tables) {
+        this.tables = tables;
+        Arrays.fill(statusByTable, STATUS_UNKNOWN);
+        int blinking = 0;
+        for (int i = 0; i < tables.size(); i++) {
+            TableModel table = tables.get(i);
+            if (table.getTableNumber() < statusByTable.length) {
+                byte status = (byte) TableStatusCodec.encode(table.getStatus());
+                statusByTable[table.getTableNumber()] = status;
+                if (isBlinking(status)) {
+                    blinking++;
+                }
+            }
+        }
+        blinkingCount = blinking;
+        updateStepListener();
+        tablesDrawPending = true;
+        invalidate();
+    }
+
+    /**
+     * Fades the given tables
+     * @param tableNumbers Numbers of the tables whose status is not live
+     */
+    public void setStaleTables(@NonNull BitSet tableNumbers) {
+        if (!staleTables.equals(tableNumbers)) {
+            staleTables = (BitSet) tableNumbers.clone();
+            invalidate();
+        }
+    }
+
+    /**
+     * Resumes the pulse of OCCUPIED and DIRTY tables. Call from the activity's onStart.
+     */
+    public void startBlinking() {
+        blinkClock.start();
+    }
+
+    /**
+     * Stops the pulse and its frame callbacks. Call from the activity's onStop.
+     */
+    public void stopBlinking() {
+        blinkClock.stop();
+    }
+
+    /**
+     * @return Number of tables drawn in the last frame
+     */
+    public int getVisibleCount() {
+        return lastVisibleCount;
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        fitToView();
+    }
+
+    @Override
+    protected void onDraw(@NonNull Canvas canvas) {
+        super.onDraw(canvas);
+        drawVisibleTables(canvas);
+        if (tablesDrawPending) {
+            tablesDrawPending = false;
+            if (onTablesDrawnListener != null) {
+                onTablesDrawnListener.run();
+            }
+        }
+    }
+
+    private void drawVisibleTables(@NonNull Canvas canvas) {
+        if (floorPlan == null) {
+            return;
+        }
+        canvas.drawRect(offsetX, offsetY, offsetX + floorPlan.getWidth() * scale,
+                offsetY + floorPlan.getHeight() * scale, floorPaint);
+
+        int count = floorPlan.getIndex().query(-offsetX / scale, -offsetY / scale,
+                (getWidth() - offsetX) / scale, (getHeight() - offsetY) / scale, visible);
+        int colorOccupied = blinkClock.getColor(paletteOccupied);
+        int colorDirty = blinkClock.getColor(paletteDirty);
+        float minLabelHeight = labelPaint.getTextSize() * 1.5f;
+        int blinking = 0;
+        for (int i = 0; i < count; i++) {
+            int index = visible[i];
+            float left = floorPlan.getLeft(index) * scale + offsetX;
+            float top = floorPlan.getTop(index) * scale + offsetY;
+            float right = floorPlan.getRight(index) * scale + offsetX;
+            float bottom = floorPlan.getBottom(index) * scale + offsetY;
+            byte status = statusOf(floorPlan.getTableNumber(index));
+            if (status == STATUS_UNKNOWN) {
+                canvas.drawRoundRect(left, top, right, bottom, cornerRadius, cornerRadius, outlinePaint);
+            } else {
+                if (status == Constants.STATUS_CODE_OCCUPIED) {
+                    tablePaint.setColor(colorOccupied);
+                    blinking++;
+                } else if (status == Constants.STATUS_CODE_DIRTY) {
+                    tablePaint.setColor(colorDirty);
+                    blinking++;
+                } else {
+                    tablePaint.setColor(colorAvailable);
+                }
+                if (staleTables.get(floorPlan.getTableNumber(index))) {
+                    tablePaint.setAlpha(Math.round(tablePaint.getAlpha() * Constants.STALE_TABLE_ALPHA));
+                }
+                canvas.drawRoundRect(left, top, right, bottom, cornerRadius, cornerRadius, tablePaint);
+            }
+            if (bottom - top >= minLabelHeight && right - left >= labelWidths[index]) {
+                canvas.drawText(labels[index], (left + right - labelWidths[index]) / 2,
+                        (top + bottom) / 2 + labelBaselineOffset, labelPaint);
+            }
+        }
+        lastVisibleCount = count;
+        visibleBlinkingCount = blinking;
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        boolean handled = scaleGestureDetector.onTouchEvent(event);
+        handled |= gestureDetector.onTouchEvent(event);
+        return handled || super.onTouchEvent(event);
+    }
+
+    @Override
+    public boolean performClick() {
+        return super.performClick();
+    }
+
+    @Override
+    public void computeScroll() {
+        if (scroller.computeScrollOffset()) {
+            offsetX = scroller.getCurrX();
+            offsetY = scroller.getCurrY();
+            clampOffsets();
+            postInvalidateOnAnimation();
+        }
+    }
+
+    @Override
+    public void onVisibilityAggregated(boolean isVisible) {
+        super.onVisibilityAggregated(isVisible);
+        visibleToUser = isVisible;
+        updateStepListener();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        scroller.forceFinished(true);
+        updateStepListener();
+    }
+
+    private void onBlinkStep() {
+        if (visibleBlinkingCount > 0) {
+            invalidate();
+        }
+    }
+
+    /**
+     * Listens to the pulse only while a blinking table could be on screen
+     */
+    private void updateStepListener() {
+        boolean wanted = isAttachedToWindow() && visibleToUser && blinkingCount > 0;
+        if (wanted == stepListening) {
+            return;
+        }
+        stepListening = wanted;
+        if (wanted) {
+            blinkClock.addStepListener(stepListener);
+        } else {
+            blinkClock.removeStepListener(stepListener);
+        }
+    }
+
+    /**
+     * Scales the plan to fit the view and centres it
+     */
+    private void fitToView() {
+        scroller.forceFinished(true);
+        if (floorPlan == null || getWidth() == 0 || getHeight() == 0) {
+            return;
+        }
+        fitScale = computeFitScale();
+        scale = fitScale;
+        clampOffsets();
+        invalidate();
+    }
+
+    /**
+     * Keeps the zoom and pan on a new plan, within the zoom limits of that plan
+     */
+    private void keepViewport() {
+        scroller.forceFinished(true);
+        if (getWidth() == 0 || getHeight() == 0) {
+            return;
+        }
+        fitScale = computeFitScale();
+        scale = Math.max(fitScale * MIN_ZOOM, Math.min(fitScale * MAX_ZOOM, scale));
+        clampOffsets();
+        invalidate();
+    }
+
+    private float computeFitScale() {
+        float availableWidth = Math.max(1, getWidth() - getPaddingLeft() - getPaddingRight());
+        float availableHeight = Math.max(1, getHeight() - getPaddingTop() - getPaddingBottom());
+        return Math.min(availableWidth / Math.max(1, floorPlan.getWidth()),
+                availableHeight / Math.max(1, floorPlan.getHeight()));
+    }
+
+    private void zoomBy(float factor, float focusX, float focusY) {
+        float newScale = Math.max(fitScale * MIN_ZOOM, Math.min(fitScale * MAX_ZOOM, scale * factor));
+        float applied = newScale / scale;
+        offsetX = focusX - (focusX - offsetX) * applied;
+        offsetY = focusY - (focusY - offsetY) * applied;
+        scale = newScale;
+        clampOffsets();
+        postInvalidateOnAnimation();
+    }
+
+    /**
+     * Keeps a plan larger than the view from being dragged past its edges, centres
+     * a plan smaller than the view, and reports the new viewport
+     */
+    private void clampOffsets() {
+        if (floorPlan == null) {
+            return;
+        }
+        offsetX = Math.max(minOffsetX(), Math.min(maxOffsetX(), offsetX));
+        offsetY = Math.max(minOffsetY(), Math.min(maxOffsetY(), offsetY));
+        if (onViewportChangedListener != null) {
+            onViewportChangedListener.run();
+        }
+    }
+
+    private float minOffsetX() {
+        return Math.min(getWidth() - getPaddingRight() - floorPlan.getWidth() * scale, centredOffsetX());
+    }
+
+    private float maxOffsetX() {
+        return Math.max(getPaddingLeft(), centredOffsetX());
+    }
+
+    private float minOffsetY() {
+        return Math.min(getHeight() - getPaddingBottom() - floorPlan.getHeight() * scale, centredOffsetY());
+    }
+
+    private float maxOffsetY() {
+        return Math.max(getPaddingTop(), centredOffsetY());
+    }
+
+    private float centredOffsetX() {
+        return (getWidth() - floorPlan.getWidth() * scale) / 2;
+    }
+
+    private float centredOffsetY() {
+        return (getHeight() - floorPlan.getHeight() * scale) / 2;
+    }
+
+    private byte statusOf(int tableNumber) {
+        return tableNumber < statusByTable.length ? statusByTable[tableNumber] : STATUS_UNKNOWN;
+    }
+
+    private static boolean isBlinking(byte statusCode) {
+        return statusCode == Constants.STATUS_CODE_OCCUPIED || statusCode == Constants.STATUS_CODE_DIRTY;
+    }
+
+    private float dp(float value) {
+        return TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, value, getResources().getDisplayMetrics());
+    }
+}
@@ -0,0 +1,111 @@
+package com.smarttableindicator.app.views;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.text.TextPaint;
+import android.util.AttributeSet;
+import android.util.TypedValue;
+import android.view.View;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.android.material.color.MaterialColors;
+import com.smarttableindicator.app.stats.LatencyHistogram;
+
+/**
+ * Draws a {@link LatencyHistogram} as one bar per bucket, from the first bucket up to
+ * the one holding the largest value, with the p50, p95 and p99 marked. The buckets are
+ * log-linear, so the horizontal axis is roughly logarithmic and a slow tail stays
+ * visible next to a fast majority. Main thread only.
+ */
+@MainThread
+public class LatencyHistogramView extends View {
+
+    private static final double[] MARKED_PERCENTILES = {50, 95, 99};
+    private static final String[] MARKER_LABELS = {"p50", "p95", "p99"};
+    private static final float LABEL_TEXT_SIZE_SP = 11;
+    private static final float MARKER_WIDTH_DP = 1.5f;
+    private static final float BAR_GAP_DP = 1;
+
+    private final Paint barPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint markerPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint axisPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final TextPaint labelPaint = new TextPaint(Paint.ANTI_ALIAS_FLAG | Paint.SUBPIXEL_TEXT_FLAG);
+    private final float barGap;
+
+    private LatencyHistogram histogram;
+
+    public LatencyHistogramView(@NonNull Context context) {
+        this(context, null);
+    }
+
+    public LatencyHistogramView(@NonNull Context context, @Nullable AttributeSet attrs) {
+        super(context, attrs);
+        barPaint.setColor(MaterialColors.getColor(this, com.google.android.material.R.attr.colorPrimary));
+        markerPaint.setColor(MaterialColors.getColor(this, com.google.android.material.R.attr.colorError));
+        markerPaint.setStrokeWidth(dp(MARKER_WIDTH_DP));
+        axisPaint.setColor(MaterialColors.getColor(this, com.google.android.material.R.attr.colorOutline));
+        labelPaint.setColor(MaterialColors.getColor(this, com.google.android.material.R.attr.colorOnSurface));
+        labelPaint.setTextSize(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, LABEL_TEXT_SIZE_SP,
+                getResources().getDisplayMetrics()));
+        barGap = dp(BAR_GAP_DP);
+    }
+
+    /**
+     * @param histogram Values to show; the view keeps it, so pass a copy that is not
+     *                  recorded into afterwards
+     */
+    public void setHistogram(@Nullable LatencyHistogram histogram) {
+        this.histogram = histogram;
+        invalidate();
+    }
+
+    @Override
+    protected void onDraw(@NonNull Canvas canvas) {
+        super.onDraw(canvas);
+        float left = getPaddingLeft();
+        float right = getWidth() - getPaddingRight();
+        float labelHeight = labelPaint.getTextSize() * 1.25f;
+        float top = getPaddingTop() + labelHeight;
+        float bottom = getHeight() - getPaddingBottom() - labelHeight;
+        canvas.drawLine(left, bottom, right, bottom, axisPaint);
+        if (histogram == null || histogram.getCount() == 0 || right <= left || bottom <= top) {
+            return;
+        }
+
+        int lastBucket = histogram.indexOf(histogram.getMax());
+        int bucketCount = lastBucket + 1;
+        int highest = 0;
+        for (int i = 0; i < bucketCount; i++) {
+            highest = Math.max(highest, histogram.getCountInBucket(i));
+        }
+        float barWidth = (right - left) / bucketCount;
+        for (int i = 0; i < bucketCount; i++) {
+            int count = histogram.getCountInBucket(i);
+            if (count == 0) {
+                continue;
+            }
+            float barLeft = left + i * barWidth;
+            float barTop = bottom - (bottom - top) * count / highest;
+            canvas.drawRect(barLeft, barTop, barLeft + Math.max(1, barWidth - barGap), bottom, barPaint);
+        }
+
+        for (int m = 0; m < MARKED_PERCENTILES.length; m++) {
+            long value = histogram.getValueAtPercentile(MARKED_PERCENTILES[m]);
+            float x = left + (histogram.indexOf(value) + 0.5f) * barWidth;
+            canvas.drawLine(x, top, x, bottom, markerPaint);
+            String label = MARKER_LABELS[m];
+            float labelX = Math.max(left, Math.min(right - labelPaint.measureText(label), x - labelPaint.measureText(label) / 2));
+            // Alternate above and below the plot so neighbouring markers stay readable
+            float labelY = m % 2 == 0 ? top - labelHeight / 4 : bottom + labelHeight * 0.85f;
+            canvas.drawText(label, labelX, labelY, labelPaint);
+        }
+    }
+
+    private float dp(float value) {
+        return TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, value, getResources().getDisplayMetrics());
+    }
+}
@@ -0,0 +1,629 @@
+package com.smarttableindicator.app.views;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.RecordingCanvas;
+import android.graphics.RenderNode;
+import android.text.TextPaint;
+import android.util.AttributeSet;
+import android.util.TypedValue;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.View;
+import android.widget.OverScroller;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.content.ContextCompat;
+
+import com.google.android.material.color.MaterialColors;
+import com.smarttableindicator.app.R;
+import com.smarttableindicator.app.config.Constants;
+import com.smarttableindicator.app.models.TableModel;
+import com.smarttableindicator.app.sync.TableStatusCodec;
+import com.smarttableindicator.app.utils.BlinkClock;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * Draws every table as a cell of a vertically scrolling grid on one Canvas, a lighter
+ * alternative to the RecyclerView of inflated cards for floors with thousands of tables.
+ * Tables are held in a compact state array, one table number and status code per
+ * position, and each number's label is built and measured once.
+ * Rows are recorded in bands of {@value #BAND_ROWS} into RenderNodes: a status change
+ * re-records only the band holding that table, and scrolling replays the recorded bands.
+ * The pulsing dots of OCCUPIED and DIRTY tables are drawn on top from a {@link BlinkClock},
+ * in the same colors as the card view. Stale tables, whose status is only the last one
+ * known, are faded.
+ * Main thread only.
+ */
+@MainThread
+public class TableGridView extends View {
+
+    /**
+     * Told when a table cell is tapped
+     */
+    public interface OnTableClickListener {
+        void onTableClick(int tableNumber, @NonNull TableModel.Status status);
+    }
+
+    private static final int BAND_ROWS = 8;
+    private static final float CELL_MIN_WIDTH_DP = 72;
+    private static final float CELL_ASPECT = 1.2f;
+    private static final float CELL_GAP_DP = 6;
+    private static final float CORNER_RADIUS_DP = 8;
+    private static final float LABEL_TEXT_SIZE_SP = 14;
+    private static final float DOT_RADIUS_RATIO = 0.2f;
+
+    private final BlinkClock blinkClock = new BlinkClock(Constants.ANIMATION_DURATION_MS);
+    private final BlinkClock.StepListener stepListener = this::onBlinkStep;
+    private final int paletteOccupied;
+    private final int paletteDirty;
+    private final int colorAvailable;
+
+    private final Paint cardPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint dotPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final TextPaint labelPaint = new TextPaint(Paint.ANTI_ALIAS_FLAG | Paint.SUBPIXEL_TEXT_FLAG);
+    private final float cellMinWidth;
+    private final float gap;
+    private final float cornerRadius;
+
+    private final OverScroller scroller;
+    private final GestureDetector gestureDetector;
+    private OnTableClickListener onTableClickListener;
+    private Runnable onViewportChangedListener;
+    private Runnable onTablesDrawnListener;
+    private boolean tablesDrawPending = false;
+
+    private int count = 0;
+    private int[] numbers = new int[0];
+    private byte[] statuses = new byte[0];
+    private String[] labels = new String[0];
+    private float[] labelWidths = new float[0];
+    private int blinkingCount = 0;
+    private BitSet staleTables = new BitSet();
+
+    private int columns = 1;
+    private int rows = 0;
+    private float pitchX = 0;
+    private float pitchY = 0;
+
+    private RenderNode[] bands = new RenderNode[0];
+    private boolean[] bandDirty = new boolean[0];
+    private long bandRecordCount = 0;
+
+    private boolean visibleToUser = false;
+    private boolean stepListening = false;
+
+    public TableGridView(@NonNull Context context) {
+        this(context, null);
+    }
+
+    public TableGridView(@NonNull Context context, @Nullable AttributeSet attrs) {
+        super(context, attrs);
+        colorAvailable = ContextCompat.getColor(context, R.color.table_available);
+        paletteOccupied = blinkClock.addPalette(
+                ContextCompat.getColor(context, R.color.table_occupied_off),
+                ContextCompat.getColor(context, R.color.table_occupied_on));
+        paletteDirty = blinkClock.addPalette(
+                ContextCompat.getColor(context, R.color.table_dirty_off),
+                ContextCompat.getColor(context, R.color.table_dirty_on));
+
+        cardPaint.setColor(MaterialColors.getColor(this, com.google.android.material.R.attr.colorSurfaceVariant));
+        labelPaint.setColor(MaterialColors.getColor(this, com.google.android.material.R.attr.colorOnSurfaceVariant));
+        labelPaint.setFakeBoldText(true);
+        labelPaint.setTextSize(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, LABEL_TEXT_SIZE_SP,
+                getResources().getDisplayMetrics()));
+        cellMinWidth = dp(CELL_MIN_WIDTH_DP);
+        gap = dp(CELL_GAP_DP);
+        cornerRadius = dp(CORNER_RADIUS_DP);
+
+        scroller = new OverScroller(context);
+        gestureDetector = new GestureDetector(context, new GestureDetector.SimpleOnGestureListener() {
+            @Override
+            public boolean onDown(@NonNull MotionEvent e) {
+                scroller.forceFinished(true);
+                return true;
+            }
+
+            @Override
+            public boolean onScroll(@Nullable MotionEvent e1, @NonNull MotionEvent e2, float distanceX, float distanceY) {
+                scrollTo(0, clampScroll(getScrollY() + Math.round(distanceY)));
+                awakenScrollBars();
+                return true;
+            }
+
+            @Override
+            public boolean onFling(@Nullable MotionEvent e1, @NonNull MotionEvent e2, float velocityX, float velocityY) {
+                scroller.fling(0, getScrollY(), 0, Math.round(-velocityY), 0, 0, 0, getMaxScrollY());
+                postInvalidateOnAnimation();
+                return true;
+            }
+
+            @Override
+            public boolean onSingleTapUp(@NonNull MotionEvent e) {
+                int index = indexAt(e.getX(), e.getY());
+                if (index < 0) {
+                    return false;
+                }
+                performClick();
+                if (onTableClickListener != null) {
+                    TableModel.Status status = TableStatusCodec.decodeCode(statuses[index]);
+                    if (status != null) {
+                        onTableClickListener.onTableClick(numbers[index], status);
+                    }
+                }
+                return true;
+            }
+        });
+    }
+
+    public void setOnTableClickListener(@Nullable OnTableClickListener listener) {
+        this.onTableClickListener = listener;
+    }
+
+    /**
+     * @param listener Run whenever the grid scrolls or is resized
+     */
+    public void setOnViewportChangedListener(@Nullable Runnable listener) {
+        this.onViewportChangedListener = listener;
+    }
+
+    /**
+     * @param listener Run at the end of the first draw after the tables are replaced
+     */
+    public void setOnTablesDrawnListener(@Nullable Runnable listener) {
+        this.onTablesDrawnListener = listener;
+    }
+
+    /**
+     * Passes the number of every table at least partly on screen to an action
+     */
+    public void forEachVisibleTable(@NonNull IntConsumer action) {
+        for (int i = firstVisibleIndex(), end = endVisibleIndex(); i < end; i++) {
+            action.accept(numbers[i]);
+        }
+    }
+
+    /**
+     * Replaces the shown tables. Cells whose position is unchanged and whose status
+     * changed mark only their band for redrawing; an insert or removal marks every band
+     * from the first shifted cell on.
+     * @param tables Tables in display order, as from a store snapshot
+     */
+    public void setTables(@NonNull List<TableModel> tables) {
+        int newCount = tables.size();
+        int[] newNumbers = new int[newCount];
+        byte[] newStatuses = new byte[newCount];
+        String[] newLabels = new String[newCount];
+        float[] newLabelWidths = new float[newCount];
+        int newBlinkingCount = 0;
+        int firstShifted = -1;
+
+        int old = 0;
+        for (int i = 0; i < newCount; i++) {
+            TableModel table = tables.get(i);
+            int number = table.getTableNumber();
+            byte status = (byte) TableStatusCodec.encode(table.getStatus());
+            while (old < count && numbers[old] < number) {
+                old++;
+            }
+            boolean known = old < count && numbers[old] == number;
+            if (known) {
+                newLabels[i] = labels[old];
+                newLabelWidths[i] = labelWidths[old];
+            } else {
+                newLabels[i] = Integer.toString(number);
+                newLabelWidths[i] = labelPaint.measureText(newLabels[i]);
+            }
+            if (!known || old != i) {
+                if (firstShifted < 0) {
+                    firstShifted = i;
+                }
+            } else if (statuses[old] != status) {
+                markBandDirty(i / columns / BAND_ROWS);
+            }
+            newNumbers[i] = number;
+            newStatuses[i] = status;
+            if (isBlinking(status)) {
+                newBlinkingCount++;
+            }
+        }
+        if (firstShifted < 0 && newCount != count) {
+            firstShifted = Math.min(newCount, count);
+        }
+
+        count = newCount;
+        numbers = newNumbers;
+        statuses = newStatuses;
+        labels = newLabels;
+        labelWidths = newLabelWidths;
+        blinkingCount = newBlinkingCount;
+
+        if (firstShifted >= 0) {
+            updateRows();
+            for (int band = firstShifted / columns / BAND_ROWS; band < bandDirty.length; band++) {
+                bandDirty[band] = true;
+            }
+            scrollTo(0, clampScroll(getScrollY()));
+        }
+        updateStepListener();
+        tablesDrawPending = true;
+        invalidate();
+    }
+
+    /**
+     * Fades the given tables, and redraws only the bands whose cells changed
+     * @param tableNumbers Numbers of the tables whose status is not live
+     */
+    public void setStaleTables(@NonNull BitSet tableNumbers) {
+        if (staleTables.equals(tableNumbers)) {
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            if (staleTables.get(numbers[i]) != tableNumbers.get(numbers[i])) {
+                markBandDirty(i / columns / BAND_ROWS);
+            }
+        }
+        staleTables = (BitSet) tableNumbers.clone();
+        invalidate();
+    }
+
+    /**
+     * Resumes the pulse of OCCUPIED and DIRTY cells. Call from the activity's onStart.
+     */
+    public void startBlinking() {
+        blinkClock.start();
+    }
+
+    /**
+     * Stops the pulse and its frame callbacks. Call from the activity's onStop.
+     */
+    public void stopBlinking() {
+        blinkClock.stop();
+    }
+
+    public int getTableCount() {
+        return count;
+    }
+
+    /**
+     * @return Number of tables before the first one on screen
+     */
+    public int getTablesAboveViewport() {
+        return firstVisibleIndex();
+    }
+
+    /**
+     * @return Number of tables after the last one on screen
+     */
+    public int getTablesBelowViewport() {
+        return count - endVisibleIndex();
+    }
+
+    /**
+     * @return How many times a band of rows has been recorded, for checking that
+     * updates redraw only what changed
+     */
+    public long getBandRecordCount() {
+        return bandRecordCount;
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        float contentWidth = Math.max(0, w - getPaddingLeft() - getPaddingRight());
+        columns = Math.max(1, (int) ((contentWidth + gap) / (cellMinWidth + gap)));
+        pitchX = contentWidth / columns;
+        pitchY = (pitchX - gap) * CELL_ASPECT + gap;
+        updateRows();
+        for (int band = 0; band < bands.length; band++) {
+            bandDirty[band] = true;
+        }
+        scrollTo(0, clampScroll(getScrollY()));
+        if (onViewportChangedListener != null) {
+            onViewportChangedListener.run();
+        }
+    }
+
+    @Override
+    protected void onDraw(@NonNull Canvas canvas) {
+        super.onDraw(canvas);
+        drawVisibleCells(canvas);
+        if (tablesDrawPending) {
+            tablesDrawPending = false;
+            if (onTablesDrawnListener != null) {
+                onTablesDrawnListener.run();
+            }
+        }
+    }
+
+    private void drawVisibleCells(@NonNull Canvas canvas) {
+        if (count == 0 || pitchY <= 0) {
+            return;
+        }
+        int firstRow = Math.max(0, (int) ((getScrollY() - getPaddingTop()) / pitchY));
+        int lastRow = Math.min(rows - 1, (int) ((getScrollY() + getHeight() - getPaddingTop()) / pitchY));
+        if (firstRow > lastRow) {
+            return;
+        }
+        int from = firstRow * columns;
+        int to = Math.min(count, (lastRow + 1) * columns);
+
+        if (canvas.isHardwareAccelerated()) {
+            for (int band = firstRow / BAND_ROWS; band <= lastRow / BAND_ROWS; band++) {
+                canvas.drawRenderNode(recordBand(band));
+            }
+        } else {
+            drawCells(canvas, from, to);
+        }
+        if (blinkingCount > 0) {
+            drawPulse(canvas, from, to);
+        }
+    }
+
+    @Override
+    protected void onScrollChanged(int l, int t, int oldl, int oldt) {
+        super.onScrollChanged(l, t, oldl, oldt);
+        if (onViewportChangedListener != null) {
+            onViewportChangedListener.run();
+        }
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        return gestureDetector.onTouchEvent(event) || super.onTouchEvent(event);
+    }
+
+    @Override
+    public boolean performClick() {
+        return super.performClick();
+    }
+
+    @Override
+    public void computeScroll() {
+        if (scroller.computeScrollOffset()) {
+            scrollTo(0, clampScroll(scroller.getCurrY()));
+            postInvalidateOnAnimation();
+        }
+    }
+
+    @Override
+    protected int computeVerticalScrollRange() {
+        return (int) getContentHeight();
+    }
+
+    @Override
+    protected int computeVerticalScrollOffset() {
+        return getScrollY();
+    }
+
+    @Override
+    protected int computeVerticalScrollExtent() {
+        return getHeight();
+    }
+
+    @Override
+    public void onVisibilityAggregated(boolean isVisible) {
+        super.onVisibilityAggregated(isVisible);
+        visibleToUser = isVisible;
+        updateStepListener();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        scroller.forceFinished(true);
+        updateStepListener();
+        for (int band = 0; band < bands.length; band++) {
+            if (bands[band] != null) {
+                bands[band].discardDisplayList();
+            }
+            bandDirty[band] = true;
+        }
+    }
+
+    /**
+     * Re-records a band if it changed and returns it, positioned in content coordinates
+     */
+    private RenderNode recordBand(int band) {
+        RenderNode node = bands[band];
+        if (node == null) {
+            node = new RenderNode("TableGridBand");
+            bands[band] = node;
+            bandDirty[band] = true;
+        }
+        if (bandDirty[band] || !node.hasDisplayList()) {
+            int firstRow = band * BAND_ROWS;
+            int endRow = Math.min(rows, firstRow + BAND_ROWS);
+            int top = (int) Math.floor(getPaddingTop() + firstRow * pitchY);
+            int bottom = (int) Math.ceil(getPaddingTop() + endRow * pitchY);
+            node.setPosition(0, top, getWidth(), bottom);
+            RecordingCanvas recordingCanvas = node.beginRecording();
+            try {
+                recordingCanvas.translate(0, -top);
+                drawCells(recordingCanvas, firstRow * columns, Math.min(count, endRow * columns));
+            } finally {
+                node.endRecording();
+            }
+            bandDirty[band] = false;
+            bandRecordCount++;
+        }
+        return node;
+    }
+
+    /**
+     * Draws the static part of cells: card, label and the dot of AVAILABLE tables
+     */
+    private void drawCells(Canvas canvas, int from, int to) {
+        float cellWidth = pitchX - gap;
+        float cellHeight = pitchY - gap;
+        float radius = cellWidth * DOT_RADIUS_RATIO;
+        float baselineOffset = cellHeight * 0.8f;
+        int cardAlpha = cardPaint.getAlpha();
+        int labelAlpha = labelPaint.getAlpha();
+        dotPaint.setColor(colorAvailable);
+        int dotAlpha = dotPaint.getAlpha();
+        for (int i = from; i < to; i++) {
+            float left = cellLeft(i);
+            float top = cellTop(i);
+            float fade = staleTables.get(numbers[i]) ? Constants.STALE_TABLE_ALPHA : 1f;
+            cardPaint.setAlpha(Math.round(cardAlpha * fade));
+            labelPaint.setAlpha(Math.round(labelAlpha * fade));
+            dotPaint.setAlpha(Math.round(dotAlpha * fade));
+            canvas.drawRoundRect(left, top, left + cellWidth, top + cellHeight, cornerRadius, cornerRadius, cardPaint);
+            canvas.drawText(labels[i], left + (cellWidth - labelWidths[i]) / 2, top + baselineOffset, labelPaint);
+            if (!isBlinking(statuses[i])) {
+                canvas.drawCircle(left + cellWidth / 2, top + cellHeight * 0.4f, radius, dotPaint);
+            }
+        }
+        cardPaint.setAlpha(cardAlpha);
+        labelPaint.setAlpha(labelAlpha);
+    }
+
+    /**
+     * Draws the dots of OCCUPIED and DIRTY tables in the current color of the pulse
+     */
+    private void drawPulse(Canvas canvas, int from, int to) {
+        float cellWidth = pitchX - gap;
+        float cellHeight = pitchY - gap;
+        float radius = cellWidth * DOT_RADIUS_RATIO;
+        int colorOccupied = blinkClock.getColor(paletteOccupied);
+        int colorDirty = blinkClock.getColor(paletteDirty);
+        for (int i = from; i < to; i++) {
+            if (!isBlinking(statuses[i])) {
+                continue;
+            }
+            dotPaint.setColor(statuses[i] == Constants.STATUS_CODE_OCCUPIED ? colorOccupied : colorDirty);
+            if (staleTables.get(numbers[i])) {
+                dotPaint.setAlpha(Math.round(dotPaint.getAlpha() * Constants.STALE_TABLE_ALPHA));
+            }
+            canvas.drawCircle(cellLeft(i) + cellWidth / 2, cellTop(i) + cellHeight * 0.4f, radius, dotPaint);
+        }
+    }
+
+    private void onBlinkStep() {
+        for (int i = firstVisibleIndex(), end = endVisibleIndex(); i < end; i++) {
+            if (isBlinking(statuses[i])) {
+                invalidate();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Listens to the pulse only while a blinking table could be on screen
+     */
+    private void updateStepListener() {
+        boolean wanted = isAttachedToWindow() && visibleToUser && blinkingCount > 0;
+        if (wanted == stepListening) {
+            return;
+        }
+        stepListening = wanted;
+        if (wanted) {
+            blinkClock.addStepListener(stepListener);
+        } else {
+            blinkClock.removeStepListener(stepListener);
+        }
+    }
+
+    /**
+     * @return The position of the table under a touch point, or -1 if it falls between cells
+     */
+    private int indexAt(float x, float y) {
+        if (pitchX <= 0 || pitchY <= 0) {
+            return -1;
+        }
+        float contentX = x - getPaddingLeft();
+        float contentY = y + getScrollY() - getPaddingTop();
+        if (contentX < 0 || contentY < 0) {
+            return -1;
+        }
+        int column = (int) (contentX / pitchX);
+        int row = (int) (contentY / pitchY);
+        if (column >= columns) {
+            return -1;
+        }
+        float inCellX = contentX - column * pitchX;
+        float inCellY = contentY - row * pitchY;
+        float halfGap = gap / 2;
+        if (inCellX < halfGap || inCellX > pitchX - halfGap || inCellY < halfGap || inCellY > pitchY - halfGap) {
+            return -1;
+        }
+        int index = row * columns + column;
+        return index < count ? index : -1;
+    }
+
+    private int firstVisibleIndex() {
+        if (pitchY <= 0) {
+            return 0;
+        }
+        return Math.min(count, Math.max(0, (int) ((getScrollY() - getPaddingTop()) / pitchY)) * columns);
+    }
+
+    private int endVisibleIndex() {
+        if (pitchY <= 0) {
+            return 0;
+        }
+        return Math.min(count, ((int) ((getScrollY() + getHeight() - getPaddingTop()) / pitchY) + 1) * columns);
+    }
+
+    private void updateRows() {
+        rows = (count + columns - 1) / columns;
+        int bandCount = (rows + BAND_ROWS - 1) / BAND_ROWS;
+        if (bandCount == bands.length) {
+            return;
+        }
+        RenderNode[] newBands = new RenderNode[bandCount];
+        boolean[] newBandDirty = new boolean[bandCount];
+        for (int band = 0; band < bandCount; band++) {
+            newBands[band] = band < bands.length ? bands[band] : null;
+            newBandDirty[band] = band >= bandDirty.length || bandDirty[band];
+        }
+        for (int band = bandCount; band < bands.length; band++) {
+            if (bands[band] != null) {
+                bands[band].discardDisplayList();
+            }
+        }
+        bands = newBands;
+        bandDirty = newBandDirty;
+    }
+
+    private void markBandDirty(int band) {
+        if (band < bandDirty.length) {
+            bandDirty[band] = true;
+        }
+    }
+
+    private float cellLeft(int index) {
+        return getPaddingLeft() + (index % columns) * pitchX + gap / 2;
+    }
+
+    private float cellTop(int index) {
+        return getPaddingTop() + (index / columns) * pitchY + gap / 2;
+    }
+
+    private float getContentHeight() {
+        return getPaddingTop() + rows * pitchY + getPaddingBottom();
+    }
+
+    private int getMaxScrollY() {
+        return Math.max(0, (int) Math.ceil(getContentHeight()) - getHeight());
+    }
+
+    private int clampScroll(int scrollY) {
+        return Math.max(0, Math.min(scrollY, getMaxScrollY()));
+    }
+
+    private static boolean isBlinking(int statusCode) {
+        return statusCode == Constants.STATUS_CODE_OCCUPIED || statusCode == Constants.STATUS_CODE_DIRTY;
+    }
+
+    private float dp(float value) {
+        return TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, value, getResources().getDisplayMetrics());
+    }
+}
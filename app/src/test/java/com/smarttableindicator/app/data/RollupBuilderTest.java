@@ -0,0 +1,104 @@
+package com.smarttableindicator.app.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+
+import com.smarttableindicator.app.config.Constants;
+import com.smarttableindicator.app.models.TableModel;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.TreeMap;
+
+public class RollupBuilderTest {
+
+    private static final long HOUR = TableHourRollup.HOUR_MS;
+    private static final long START = 1_700_000_000_000L / HOUR * HOUR;
+
+    @Test
+    public void carryRoundTrip() throws IOException {
+        RollupBuilder builder = new RollupBuilder();
+        builder.onTransition(START + 5000, 3, TableModel.Status.AVAILABLE, TableModel.Status.OCCUPIED, 0, 0);
+        builder.onTransition(START + 1000, 200, TableModel.Status.OCCUPIED, TableModel.Status.DIRTY, 0, 0);
+        builder.onTransition(START + 9000, Constants.MAX_TABLE_NUMBER,
+                TableModel.Status.DIRTY, TableModel.Status.AVAILABLE, 0, 0);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        builder.writeCarry(out);
+        ByteBuffer in = ByteBuffer.wrap(out.toByteArray());
+        RollupBuilder read = RollupBuilder.readCarry(in);
+
+        assertFalse(in.hasRemaining());
+        assertEquals(carryOf(builder), carryOf(read));
+        assertEquals(3, carryOf(read).size());
+        assertEquals(START + 1000, read.getEarliestCarriedTime());
+        assertEquals(0, read.getRollups().size());
+    }
+
+    @Test
+    public void emptyCarryRoundTrip() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new RollupBuilder().writeCarry(out);
+        RollupBuilder read = RollupBuilder.readCarry(ByteBuffer.wrap(out.toByteArray()));
+        assertEquals(Long.MAX_VALUE, read.getEarliestCarriedTime());
+    }
+
+    @Test
+    public void carryContinuesDurations() throws IOException {
+        RollupBuilder builder = new RollupBuilder();
+        builder.onTransition(START, 1, TableModel.Status.AVAILABLE, TableModel.Status.OCCUPIED, 0, 0);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        builder.writeCarry(out);
+
+        RollupBuilder next = RollupBuilder.readCarry(ByteBuffer.wrap(out.toByteArray()));
+        next.onTransition(START + 90_000, 1, TableModel.Status.OCCUPIED, TableModel.Status.DIRTY, 0, 0);
+        next.onTransition(START + HOUR + 30_000, 1, TableModel.Status.DIRTY, TableModel.Status.AVAILABLE, 0, 0);
+
+        // Both periods started in the first hour, and the turnover was counted before the carry
+        List<TableHourRollup> rollups = next.getRollups();
+        assertEquals(1, rollups.size());
+        assertEquals(START, rollups.get(0).getHourStart());
+        assertEquals(0, rollups.get(0).getTurnovers());
+        assertEquals(90, rollups.get(0).getOccupiedSeconds());
+        assertEquals(HOUR / 1000 - 60, rollups.get(0).getCleaningSeconds());
+    }
+
+    @Test
+    public void truncatedCarryThrows() {
+        RollupBuilder builder = new RollupBuilder();
+        builder.onTransition(START, 1, TableModel.Status.AVAILABLE, TableModel.Status.OCCUPIED, 0, 0);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        builder.writeCarry(out);
+        byte[] bytes = out.toByteArray();
+        assertThrows(IOException.class,
+                () -> RollupBuilder.readCarry(ByteBuffer.wrap(bytes, 0, bytes.length - 1)));
+    }
+
+    @Test
+    public void outOfRangeTableNumberThrows() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        VarInts.writeUnsigned(out, 1);
+        VarInts.writeUnsigned(out, Constants.MAX_TABLE_NUMBER + 1);
+        VarInts.writeSigned(out, START);
+        out.write(1);
+        assertThrows(IOException.class, () -> RollupBuilder.readCarry(ByteBuffer.wrap(out.toByteArray())));
+
+        ByteArrayOutputStream overflow = new ByteArrayOutputStream();
+        VarInts.writeUnsigned(overflow, 1);
+        VarInts.writeUnsigned(overflow, -1);
+        VarInts.writeSigned(overflow, START);
+        overflow.write(1);
+        assertThrows(IOException.class, () -> RollupBuilder.readCarry(ByteBuffer.wrap(overflow.toByteArray())));
+    }
+
+    private static TreeMap<Integer, String> carryOf(RollupBuilder builder) {
+        TreeMap<Integer, String> carry = new TreeMap<>();
+        builder.visitCarry((tableNumber, time, status) -> carry.put(tableNumber, time + ":" + status));
+        return carry;
+    }
+}
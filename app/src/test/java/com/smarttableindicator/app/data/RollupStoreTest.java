@@ -0,0 +1,133 @@
+package com.smarttableindicator.app.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class RollupStoreTest {
+
+    private static final long HOUR = TableHourRollup.HOUR_MS;
+    private static final long DAY = 24 * HOUR;
+    private static final long START = 1_700_000_000_000L / DAY * DAY;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void rollupsRoundTrip() throws IOException {
+        RollupStore store = new RollupStore(new File(folder.getRoot(), "rollups"));
+        List<TableHourRollup> written = Arrays.asList(
+                rollup(2, START, 1, 60, 0),
+                rollup(9, START, 3, 0, 45),
+                rollup(2, START + 5 * HOUR, 0, 3600, 120),
+                rollup(40000, START + DAY + HOUR, 7, 12345, 678));
+        store.merge(written);
+
+        List<TableHourRollup> read = query(store, START, START + 2 * DAY);
+        assertEquals(written.size(), read.size());
+        for (int i = 0; i < written.size(); i++) {
+            assertSameRollup(written.get(i), read.get(i));
+        }
+        assertTrue(store.getSizeBytes() > 0);
+    }
+
+    @Test
+    public void mergeAddsToStoredRollups() throws IOException {
+        RollupStore store = new RollupStore(folder.getRoot());
+        TableHourRollup first = rollup(1, START, 1, 60, 30);
+        TableHourRollup second = rollup(1, START, 2, 120, 0);
+        store.merge(Arrays.asList(first));
+        store.merge(Arrays.asList(second, rollup(1, START + HOUR, 1, 0, 0)));
+
+        TableHourRollup expected = new TableHourRollup(1, START);
+        expected.merge(first);
+        expected.merge(second);
+        List<TableHourRollup> read = query(store, START, START + DAY);
+        assertEquals(2, read.size());
+        assertSameRollup(expected, read.get(0));
+        assertEquals(2, read.get(0).getOccupiedCount());
+        assertEquals(1, read.get(1).getTurnovers());
+    }
+
+    @Test
+    public void queryKeepsRangeAndOrder() throws IOException {
+        RollupStore store = new RollupStore(folder.getRoot());
+        List<TableHourRollup> rollups = new ArrayList<>();
+        for (int hour = 47; hour >= 0; hour--) {
+            rollups.add(rollup(hour % 3, START + hour * HOUR, 1, 0, 0));
+        }
+        store.merge(rollups);
+
+        List<TableHourRollup> read = query(store, START + 10 * HOUR, START + 30 * HOUR);
+        assertEquals(20, read.size());
+        long previous = Long.MIN_VALUE;
+        for (TableHourRollup rollup : read) {
+            assertTrue(rollup.getHourStart() >= START + 10 * HOUR && rollup.getHourStart() < START + 30 * HOUR);
+            assertTrue(rollup.getHourStart() > previous);
+            previous = rollup.getHourStart();
+        }
+    }
+
+    @Test
+    public void deleteBeforeDropsWholeDays() throws IOException {
+        RollupStore store = new RollupStore(folder.getRoot());
+        store.merge(Arrays.asList(rollup(1, START, 1, 0, 0), rollup(1, START + DAY, 1, 0, 0)));
+
+        assertEquals(0, store.deleteBefore(START + DAY - 1));
+        assertEquals(1, store.deleteBefore(START + DAY + HOUR));
+        List<TableHourRollup> read = query(store, START, START + 2 * DAY);
+        assertEquals(1, read.size());
+        assertEquals(START + DAY, read.get(0).getHourStart());
+    }
+
+    @Test
+    public void emptyRollupsAreNotStored() throws IOException {
+        RollupStore store = new RollupStore(folder.getRoot());
+        store.merge(Arrays.asList(new TableHourRollup(1, START)));
+        assertEquals(0, query(store, START, START + DAY).size());
+    }
+
+    private static TableHourRollup rollup(int tableNumber, long hourStart, long turnovers,
+                                          long occupiedSeconds, long cleaningSeconds) {
+        TableHourRollup rollup = new TableHourRollup(tableNumber, hourStart);
+        rollup.addTurnovers(turnovers);
+        if (occupiedSeconds > 0) {
+            rollup.recordOccupied(occupiedSeconds);
+        }
+        if (cleaningSeconds > 0) {
+            rollup.recordCleaning(cleaningSeconds);
+        }
+        return rollup;
+    }
+
+    private static List<TableHourRollup> query(RollupStore store, long fromTime, long toTime) {
+        List<TableHourRollup> rollups = new ArrayList<>();
+        store.query(fromTime, toTime, rollups::add);
+        return rollups;
+    }
+
+    private static void assertSameRollup(TableHourRollup expected, TableHourRollup actual) {
+        assertEquals(expected.getTableNumber(), actual.getTableNumber());
+        assertEquals(expected.getHourStart(), actual.getHourStart());
+        assertEquals(expected.getTurnovers(), actual.getTurnovers());
+        assertEquals(expected.getOccupiedSeconds(), actual.getOccupiedSeconds());
+        assertEquals(expected.getCleaningSeconds(), actual.getCleaningSeconds());
+        assertEquals(expected.getOccupiedCount(), actual.getOccupiedCount());
+        assertEquals(expected.getCleaningCount(), actual.getCleaningCount());
+        for (int i = 0; i < expected.getOccupiedHistogram().getBucketCount(); i++) {
+            assertEquals(expected.getOccupiedHistogram().getCountInBucket(i),
+                    actual.getOccupiedHistogram().getCountInBucket(i));
+            assertEquals(expected.getCleaningHistogram().getCountInBucket(i),
+                    actual.getCleaningHistogram().getCountInBucket(i));
+        }
+    }
+}
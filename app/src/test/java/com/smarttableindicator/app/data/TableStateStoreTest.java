@@ -0,0 +1,170 @@
+package com.smarttableindicator.app.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+
+import com.smarttableindicator.app.config.Constants;
+import com.smarttableindicator.app.models.TableModel;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+public class TableStateStoreTest {
+
+    private static final TableModel.Status[] STATUSES = TableModel.Status.values();
+
+    @Test
+    public void randomMutationsMatchSortedMap() {
+        TableStateStore store = new TableStateStore();
+        TreeMap<Integer, TableModel.Status> reference = new TreeMap<>();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 5000; i++) {
+            // Mostly small numbers, with some large ones to force the slots to grow
+            int tableNumber = random.nextInt(10) == 0 ? random.nextInt(Constants.MAX_TABLE_NUMBER + 1)
+                    : random.nextInt(200);
+            if (random.nextInt(4) == 0) {
+                TableStateStore.Change change = store.remove(tableNumber);
+                TableModel.Status previous = reference.remove(tableNumber);
+                if (previous == null) {
+                    assertNull(change);
+                } else {
+                    assertEquals(TableStateStore.ChangeType.REMOVED, change.getType());
+                    assertEquals(reference.headMap(tableNumber).size(), change.getPosition());
+                    assertEquals(previous, change.getPrevious().getStatus());
+                }
+            } else {
+                TableModel.Status status = STATUSES[random.nextInt(STATUSES.length)];
+                TableStateStore.Change change = store.upsert(tableNumber, status);
+                TableModel.Status previous = reference.put(tableNumber, status);
+                if (previous == status) {
+                    assertNull(change);
+                } else {
+                    assertEquals(previous == null ? TableStateStore.ChangeType.INSERTED
+                            : TableStateStore.ChangeType.UPDATED, change.getType());
+                    assertEquals(reference.headMap(tableNumber).size(), change.getPosition());
+                }
+            }
+            if (i % 250 == 0) {
+                assertMatches(reference, store);
+            }
+        }
+        assertMatches(reference, store);
+    }
+
+    @Test
+    public void snapshotIsReusedUntilNextMutation() {
+        TableStateStore store = new TableStateStore();
+        store.upsert(3, TableModel.Status.OCCUPIED);
+        List<TableModel> first = store.snapshot();
+        assertSame(first, store.snapshot());
+        assertNull(store.upsert(3, TableModel.Status.OCCUPIED));
+        assertSame(first, store.snapshot());
+
+        store.upsert(1, TableModel.Status.DIRTY);
+        List<TableModel> second = store.snapshot();
+        assertEquals(2, second.size());
+        assertEquals(1, second.get(0).getTableNumber());
+        assertEquals(3, second.get(1).getTableNumber());
+        assertEquals(1, first.size());
+    }
+
+    @Test
+    public void statusCountsFollowTransitions() {
+        TableStateStore store = new TableStateStore();
+        store.upsert(1, TableModel.Status.AVAILABLE);
+        store.upsert(2, TableModel.Status.OCCUPIED);
+        store.upsert(5, TableModel.Status.OCCUPIED);
+        store.upsert(1, TableModel.Status.DIRTY);
+        store.remove(2);
+
+        assertEquals(0, store.countOf(TableModel.Status.AVAILABLE));
+        assertEquals(1, store.countOf(TableModel.Status.OCCUPIED));
+        assertEquals(1, store.countOf(TableModel.Status.DIRTY));
+        assertEquals(bits(5), store.tablesWith(TableModel.Status.OCCUPIED));
+        assertEquals(bits(1), store.tablesWith(TableModel.Status.DIRTY));
+
+        List<TableModel> occupied = store.snapshot(TableModel.Status.OCCUPIED);
+        assertEquals(1, occupied.size());
+        assertEquals(5, occupied.get(0).getTableNumber());
+        assertSame(store.snapshot(), store.snapshot(null));
+    }
+
+    @Test
+    public void tablesWithReturnsCopy() {
+        TableStateStore store = new TableStateStore();
+        store.upsert(4, TableModel.Status.DIRTY);
+        store.tablesWith(TableModel.Status.DIRTY).clear();
+        assertEquals(bits(4), store.tablesWith(TableModel.Status.DIRTY));
+    }
+
+    @Test
+    public void clearEmptiesEverything() {
+        TableStateStore store = new TableStateStore();
+        store.upsert(7, TableModel.Status.OCCUPIED);
+        store.upsert(900, TableModel.Status.DIRTY);
+        store.clear();
+
+        assertEquals(0, store.size());
+        assertEquals(-1, store.positionOf(7));
+        assertEquals(0, store.snapshot().size());
+        for (TableModel.Status status : STATUSES) {
+            assertEquals(0, store.countOf(status));
+            assertEquals(0, store.snapshot(status).size());
+        }
+    }
+
+    @Test
+    public void rejectsOutOfRangeTableNumbers() {
+        TableStateStore store = new TableStateStore();
+        assertThrows(IllegalArgumentException.class, () -> store.upsert(-1, TableModel.Status.AVAILABLE));
+        assertThrows(IllegalArgumentException.class,
+                () -> store.upsert(Constants.MAX_TABLE_NUMBER + 1, TableModel.Status.AVAILABLE));
+        assertNull(store.remove(-1));
+        assertNull(store.find(Constants.MAX_TABLE_NUMBER + 1));
+    }
+
+    private static void assertMatches(TreeMap<Integer, TableModel.Status> reference, TableStateStore store) {
+        assertEquals(reference.size(), store.size());
+        List<TableModel> snapshot = store.snapshot();
+        assertEquals(reference.size(), snapshot.size());
+
+        int position = 0;
+        int[] counts = new int[STATUSES.length];
+        List<BitSet> expectedByStatus = new ArrayList<>();
+        for (int i = 0; i < STATUSES.length; i++) {
+            expectedByStatus.add(new BitSet());
+        }
+        for (Map.Entry<Integer, TableModel.Status> entry : reference.entrySet()) {
+            int tableNumber = entry.getKey();
+            assertEquals(tableNumber, store.get(position).getTableNumber());
+            assertEquals(tableNumber, snapshot.get(position).getTableNumber());
+            assertEquals(entry.getValue(), snapshot.get(position).getStatus());
+            assertEquals(position, store.positionOf(tableNumber));
+            counts[entry.getValue().ordinal()]++;
+            expectedByStatus.get(entry.getValue().ordinal()).set(tableNumber);
+            position++;
+        }
+        for (TableModel.Status status : STATUSES) {
+            assertEquals(counts[status.ordinal()], store.countOf(status));
+            assertEquals(expectedByStatus.get(status.ordinal()), store.tablesWith(status));
+            assertEquals(counts[status.ordinal()], store.snapshot(status).size());
+        }
+    }
+
+    private static BitSet bits(int... tableNumbers) {
+        BitSet bits = new BitSet();
+        for (int tableNumber : tableNumbers) {
+            bits.set(tableNumber);
+        }
+        return bits;
+    }
+}
@@ -0,0 +1,139 @@
+package com.smarttableindicator.app.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.smarttableindicator.app.models.TableModel;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class TransitionLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+    private TransitionLog log;
+    private long base;
+
+    @Before
+    public void setUp() {
+        directory = new File(folder.getRoot(), "transitions");
+        log = new TransitionLog(directory);
+        base = System.currentTimeMillis() - 10_000_000L;
+    }
+
+    @After
+    public void tearDown() {
+        log.close();
+    }
+
+    @Test
+    public void scanReturnsRangeInOrder() throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            log.append(i % 7, TableModel.Status.AVAILABLE, TableModel.Status.OCCUPIED, base + i * 10, i);
+        }
+        awaitWrites();
+        assertEquals(100, log.getAppendedCount());
+
+        List<Long> times = scan(base + 250, base + 500);
+        assertEquals(25, times.size());
+        for (int i = 0; i < times.size(); i++) {
+            assertEquals(base + 250 + i * 10, (long) times.get(i));
+        }
+        assertEquals(100, scan(Long.MIN_VALUE, Long.MAX_VALUE).size());
+        assertEquals(0, scan(base + 1000, Long.MAX_VALUE).size());
+        assertEquals(0, scan(Long.MIN_VALUE, base).size());
+    }
+
+    @Test
+    public void scanPassesRecordFields() throws InterruptedException {
+        log.append(42, TableModel.Status.DIRTY, TableModel.Status.AVAILABLE, base, 1234.5);
+        awaitWrites();
+
+        List<String> records = new ArrayList<>();
+        log.scan(Long.MIN_VALUE, Long.MAX_VALUE, (time, tableNumber, from, to, serverTimestamp, clientTimestamp) -> {
+            records.add(time + " " + tableNumber + " " + from + " " + to + " " + serverTimestamp + " " + clientTimestamp);
+            return true;
+        });
+        assertEquals(1, records.size());
+        assertEquals(base + " 42 DIRTY AVAILABLE " + base + " 1234.5", records.get(0));
+    }
+
+    @Test
+    public void scanStopsWhenVisitorAsks() throws InterruptedException {
+        for (int i = 0; i < 10; i++) {
+            log.append(1, TableModel.Status.AVAILABLE, TableModel.Status.OCCUPIED, base + i, 0);
+        }
+        awaitWrites();
+
+        int[] visited = {0};
+        log.scan(Long.MIN_VALUE, Long.MAX_VALUE, (time, tableNumber, from, to, serverTimestamp, clientTimestamp) ->
+                ++visited[0] < 3);
+        assertEquals(3, visited[0]);
+    }
+
+    @Test
+    public void fullSegmentRollsOver() throws InterruptedException {
+        int total = TransitionLog.RECORDS_PER_SEGMENT + 10;
+        for (int i = 0; i < total; i++) {
+            log.append(i % 50, TableModel.Status.OCCUPIED, TableModel.Status.DIRTY, base + i, 0);
+        }
+        awaitWrites();
+
+        File[] segments = log.listSegments();
+        assertTrue(segments.length >= 2);
+        assertEquals(total, scan(Long.MIN_VALUE, Long.MAX_VALUE).size());
+        assertEquals(10, scan(base + total - 10, Long.MAX_VALUE).size());
+
+        // Only the segment still being written to is held back from compaction
+        File[] sealed = log.sealedSegments(System.currentTimeMillis());
+        assertEquals(segments.length - 1, sealed.length);
+        assertTrue(log.deleteSegment(sealed[0]));
+        assertEquals(segments.length - 1, log.listSegments().length);
+    }
+
+    @Test
+    public void reopenedLogAppendsToNewestSegment() throws InterruptedException {
+        log.append(1, TableModel.Status.AVAILABLE, TableModel.Status.OCCUPIED, base, 0);
+        awaitWrites();
+        log.close();
+
+        log = new TransitionLog(directory);
+        log.append(1, TableModel.Status.OCCUPIED, TableModel.Status.DIRTY, base + 1, 0);
+        awaitWrites();
+
+        // A new segment is only started if the first one's UTC day ended in between
+        assertTrue(log.listSegments().length <= 2);
+        assertEquals(2, scan(Long.MIN_VALUE, Long.MAX_VALUE).size());
+    }
+
+    private List<Long> scan(long fromTime, long toTime) {
+        List<Long> times = new ArrayList<>();
+        log.scan(fromTime, toTime, (time, tableNumber, from, to, serverTimestamp, clientTimestamp) -> {
+            times.add(time);
+            return true;
+        });
+        return times;
+    }
+
+    /**
+     * Waits until every transition queued so far is written
+     */
+    private void awaitWrites() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        log.addObserver(latch::countDown,
+                (time, tableNumber, from, to, serverTimestamp, clientTimestamp) -> true);
+        assertTrue(latch.await(30, TimeUnit.SECONDS));
+    }
+}
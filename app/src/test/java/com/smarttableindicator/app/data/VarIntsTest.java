@@ -0,0 +1,71 @@
+package com.smarttableindicator.app.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public class VarIntsTest {
+
+    private static final long[] VALUES = {
+            0, 1, 127, 128, 300, 16383, 16384, Integer.MAX_VALUE, 1L << 35, Long.MAX_VALUE, -1, Long.MIN_VALUE
+    };
+
+    @Test
+    public void unsignedRoundTrip() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (long value : VALUES) {
+            VarInts.writeUnsigned(out, value);
+        }
+        ByteBuffer in = ByteBuffer.wrap(out.toByteArray());
+        for (long value : VALUES) {
+            assertEquals(value, VarInts.readUnsigned(in));
+        }
+        assertFalse(in.hasRemaining());
+    }
+
+    @Test
+    public void signedRoundTrip() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (long value : VALUES) {
+            VarInts.writeSigned(out, value);
+            VarInts.writeSigned(out, -value);
+        }
+        ByteBuffer in = ByteBuffer.wrap(out.toByteArray());
+        for (long value : VALUES) {
+            assertEquals(value, VarInts.readSigned(in));
+            assertEquals(-value, VarInts.readSigned(in));
+        }
+        assertFalse(in.hasRemaining());
+    }
+
+    @Test
+    public void smallValuesTakeOneByte() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        VarInts.writeUnsigned(out, 127);
+        VarInts.writeSigned(out, -64);
+        VarInts.writeSigned(out, 63);
+        assertEquals(3, out.size());
+    }
+
+    @Test
+    public void truncatedValueThrows() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        VarInts.writeUnsigned(out, 1L << 20);
+        byte[] bytes = out.toByteArray();
+        ByteBuffer in = ByteBuffer.wrap(bytes, 0, bytes.length - 1);
+        assertThrows(IOException.class, () -> VarInts.readUnsigned(in));
+    }
+
+    @Test
+    public void overlongValueThrows() {
+        byte[] bytes = new byte[11];
+        java.util.Arrays.fill(bytes, (byte) 0x80);
+        assertThrows(IOException.class, () -> VarInts.readUnsigned(ByteBuffer.wrap(bytes)));
+    }
+}
@@ -0,0 +1,125 @@
+package com.smarttableindicator.app.stats;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class LatencyHistogramTest {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int MAX_VALUE_BITS = 30;
+
+    @Test
+    public void smallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram(SUB_BUCKET_BITS, MAX_VALUE_BITS);
+        for (int value = 0; value < 1 << SUB_BUCKET_BITS; value++) {
+            assertEquals(value, histogram.getBucketLowerBound(histogram.indexOf(value)));
+            assertEquals(value, histogram.getBucketUpperBound(histogram.indexOf(value)));
+        }
+    }
+
+    @Test
+    public void bucketsContainTheirValues() {
+        LatencyHistogram histogram = new LatencyHistogram(SUB_BUCKET_BITS, MAX_VALUE_BITS);
+        Random random = new Random(1);
+        for (int i = 0; i < 10000; i++) {
+            long value = random.nextInt(1 << MAX_VALUE_BITS);
+            int index = histogram.indexOf(value);
+            assertTrue(histogram.getBucketLowerBound(index) <= value);
+            assertTrue(histogram.getBucketUpperBound(index) >= value);
+        }
+    }
+
+    @Test
+    public void percentilesStayWithinRelativeError() {
+        LatencyHistogram histogram = new LatencyHistogram(SUB_BUCKET_BITS, MAX_VALUE_BITS);
+        Random random = new Random(7);
+        long[] values = new long[20000];
+        for (int i = 0; i < values.length; i++) {
+            // Log-uniform, so every magnitude is covered
+            values[i] = (long) Math.exp(random.nextDouble() * Math.log(1 << 24));
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+
+        for (double percentile : new double[] {0, 1, 25, 50, 90, 99, 99.9, 100}) {
+            long target = Math.max(1, (long) Math.ceil(percentile / 100.0 * values.length));
+            long exact = values[(int) target - 1];
+            long reported = histogram.getValueAtPercentile(percentile);
+            assertTrue("p" + percentile + " below exact value", reported >= exact);
+            assertTrue("p" + percentile + " too far above exact value",
+                    reported <= exact + exact / (1 << SUB_BUCKET_BITS) + 1);
+        }
+        assertEquals(values[0], histogram.getMin());
+        assertEquals(values[values.length - 1], histogram.getMax());
+        assertEquals(values[values.length - 1], histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void emptyHistogramReportsZero() {
+        LatencyHistogram histogram = new LatencyHistogram(SUB_BUCKET_BITS, MAX_VALUE_BITS);
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        assertEquals(0, histogram.getMin());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getMean(), 0);
+    }
+
+    @Test
+    public void valuesAboveRangeAreClamped() {
+        LatencyHistogram histogram = new LatencyHistogram(SUB_BUCKET_BITS, MAX_VALUE_BITS);
+        histogram.record(1L << 40);
+        histogram.record(-5);
+        assertEquals(histogram.getBucketCount() - 1, histogram.indexOf(1L << 40));
+        assertEquals(1, histogram.getCountInBucket(histogram.getBucketCount() - 1));
+        assertEquals(1, histogram.getCountInBucket(0));
+        assertEquals(0, histogram.getMin());
+    }
+
+    @Test
+    public void mergeMatchesRecordingEverything() {
+        LatencyHistogram first = new LatencyHistogram(SUB_BUCKET_BITS, MAX_VALUE_BITS);
+        LatencyHistogram second = new LatencyHistogram(SUB_BUCKET_BITS, MAX_VALUE_BITS);
+        LatencyHistogram all = new LatencyHistogram(SUB_BUCKET_BITS, MAX_VALUE_BITS);
+        Random random = new Random(3);
+        for (int i = 0; i < 5000; i++) {
+            long value = random.nextInt(1 << 20);
+            (i % 3 == 0 ? first : second).record(value);
+            all.record(value);
+        }
+
+        LatencyHistogram merged = first.copy();
+        merged.add(second);
+        assertEquals(all.getCount(), merged.getCount());
+        assertEquals(all.getSum(), merged.getSum());
+        assertEquals(all.getMin(), merged.getMin());
+        assertEquals(all.getMax(), merged.getMax());
+        for (int i = 0; i < all.getBucketCount(); i++) {
+            assertEquals(all.getCountInBucket(i), merged.getCountInBucket(i));
+        }
+        for (double percentile : new double[] {50, 90, 99}) {
+            assertEquals(all.getValueAtPercentile(percentile), merged.getValueAtPercentile(percentile));
+        }
+    }
+
+    @Test
+    public void mergeRejectsDifferentLayout() {
+        LatencyHistogram histogram = new LatencyHistogram(SUB_BUCKET_BITS, MAX_VALUE_BITS);
+        assertThrows(IllegalArgumentException.class,
+                () -> histogram.add(new LatencyHistogram(SUB_BUCKET_BITS + 1, MAX_VALUE_BITS)));
+    }
+
+    @Test
+    public void resetForgetsValues() {
+        LatencyHistogram histogram = new LatencyHistogram(SUB_BUCKET_BITS, MAX_VALUE_BITS);
+        histogram.record(1234, 3);
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getSum());
+        assertEquals(0, histogram.getCountInBucket(histogram.indexOf(1234)));
+    }
+}
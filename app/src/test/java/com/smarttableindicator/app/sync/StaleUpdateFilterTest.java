@@ -0,0 +1,89 @@
+package com.smarttableindicator.app.sync;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.smarttableindicator.app.models.TableEvent;
+import com.smarttableindicator.app.models.TableModel;
+
+import org.junit.Test;
+
+public class StaleUpdateFilterTest {
+
+    @Test
+    public void isNewerDoesNotRecord() {
+        StaleUpdateFilter filter = new StaleUpdateFilter();
+        TableEvent event = upsert(5, 1000);
+        assertTrue(filter.isNewer(event));
+        assertTrue(filter.isNewer(event));
+        assertEquals(0, filter.getLastServerTimestamp(5));
+        assertEquals(0, filter.getAcceptedCount());
+
+        assertTrue(filter.accept(event));
+        assertEquals(1000, filter.getLastServerTimestamp(5));
+        assertFalse(filter.isNewer(event));
+    }
+
+    @Test
+    public void dropsStaleAndDuplicateUpdates() {
+        StaleUpdateFilter filter = new StaleUpdateFilter();
+        assertTrue(filter.accept(upsert(5, 1000)));
+        assertFalse(filter.accept(upsert(5, 999)));
+        assertFalse(filter.accept(upsert(5, 1000)));
+        assertTrue(filter.accept(upsert(5, 1001)));
+
+        assertEquals(2, filter.getAcceptedCount());
+        assertEquals(1, filter.getStaleDroppedCount());
+        assertEquals(1, filter.getDuplicateDroppedCount());
+        assertEquals(1001, filter.getLastServerTimestamp(5));
+    }
+
+    @Test
+    public void tablesAreTrackedSeparately() {
+        StaleUpdateFilter filter = new StaleUpdateFilter();
+        assertTrue(filter.accept(upsert(5, 1000)));
+        assertTrue(filter.accept(upsert(6, 500)));
+        assertTrue(filter.accept(upsert(10_000, 1)));
+        assertEquals(1, filter.getLastServerTimestamp(10_000));
+        assertEquals(0, filter.getLastServerTimestamp(7));
+    }
+
+    @Test
+    public void updatesWithoutServerTimestampAreAlwaysAccepted() {
+        StaleUpdateFilter filter = new StaleUpdateFilter();
+        assertTrue(filter.accept(upsert(5, 1000)));
+        assertTrue(filter.accept(upsert(5, 0)));
+        assertTrue(filter.isNewer(upsert(5, 0)));
+        assertEquals(1000, filter.getLastServerTimestamp(5));
+    }
+
+    @Test
+    public void removeResetsTable() {
+        StaleUpdateFilter filter = new StaleUpdateFilter();
+        assertTrue(filter.accept(upsert(5, 1000)));
+        assertTrue(filter.isNewer(TableEvent.remove("table5", 5)));
+        assertEquals(1000, filter.getLastServerTimestamp(5));
+
+        assertTrue(filter.accept(TableEvent.remove("table5", 5)));
+        assertEquals(0, filter.getLastServerTimestamp(5));
+        assertTrue(filter.accept(upsert(5, 900)));
+
+        // Removing a table never seen before is accepted too
+        assertTrue(filter.accept(TableEvent.remove("table99999", 99_999)));
+    }
+
+    @Test
+    public void clearForgetsEveryTable() {
+        StaleUpdateFilter filter = new StaleUpdateFilter();
+        filter.accept(upsert(1, 1000));
+        filter.accept(upsert(2, 2000));
+        filter.clear();
+        assertTrue(filter.isNewer(upsert(1, 1000)));
+        assertTrue(filter.isNewer(upsert(2, 1)));
+    }
+
+    private static TableEvent upsert(int tableNumber, long serverTimestamp) {
+        return TableEvent.upsert("table" + tableNumber, tableNumber, TableModel.Status.OCCUPIED, 0, serverTimestamp);
+    }
+}
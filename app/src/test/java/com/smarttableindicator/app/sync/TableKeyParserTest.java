@@ -0,0 +1,54 @@
+package com.smarttableindicator.app.sync;
+
+import static org.junit.Assert.assertEquals;
+
+import com.smarttableindicator.app.config.Constants;
+
+import org.junit.Test;
+
+public class TableKeyParserTest {
+
+    @Test
+    public void parsesDigitsOfKey() {
+        assertEquals(12, TableKeyParser.parseUncached("table12"));
+        assertEquals(0, TableKeyParser.parseUncached("table0"));
+        assertEquals(7, TableKeyParser.parseUncached("007"));
+        assertEquals(12, TableKeyParser.parseUncached("t1a2"));
+        assertEquals(Constants.MAX_TABLE_NUMBER, TableKeyParser.parseUncached("table" + Constants.MAX_TABLE_NUMBER));
+    }
+
+    @Test
+    public void rejectsKeysWithoutValidNumber() {
+        assertEquals(TableKeyParser.INVALID, TableKeyParser.parseUncached("table"));
+        assertEquals(TableKeyParser.INVALID, TableKeyParser.parseUncached(""));
+        assertEquals(TableKeyParser.INVALID, TableKeyParser.parseUncached("table" + (Constants.MAX_TABLE_NUMBER + 1)));
+        assertEquals(TableKeyParser.INVALID, TableKeyParser.parseUncached("table99999999999999999999"));
+        assertEquals(TableKeyParser.INVALID, new TableKeyParser(4).parse(null));
+    }
+
+    @Test
+    public void cachesResultsIncludingRejections() {
+        TableKeyParser parser = new TableKeyParser(4);
+        assertEquals(3, parser.parse("table3"));
+        assertEquals(3, parser.parse("table3"));
+        assertEquals(TableKeyParser.INVALID, parser.parse("bad"));
+        assertEquals(TableKeyParser.INVALID, parser.parse("bad"));
+        assertEquals(2, parser.getMisses());
+        assertEquals(2, parser.getHits());
+    }
+
+    @Test
+    public void cacheEvictsLeastRecentlyUsed() {
+        TableKeyParser parser = new TableKeyParser(2);
+        parser.parse("table1");
+        parser.parse("table2");
+        parser.parse("table1");
+        parser.parse("table3");
+        long misses = parser.getMisses();
+
+        assertEquals(1, parser.parse("table1"));
+        assertEquals(misses, parser.getMisses());
+        assertEquals(2, parser.parse("table2"));
+        assertEquals(misses + 1, parser.getMisses());
+    }
+}
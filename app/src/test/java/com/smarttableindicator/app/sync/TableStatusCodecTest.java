@@ -0,0 +1,46 @@
+package com.smarttableindicator.app.sync;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.smarttableindicator.app.config.Constants;
+import com.smarttableindicator.app.models.TableModel;
+
+import org.junit.Test;
+
+public class TableStatusCodecTest {
+
+    @Test
+    public void decodesTextInAnyCase() {
+        assertEquals(TableModel.Status.AVAILABLE, TableStatusCodec.decode("AVAILABLE"));
+        assertEquals(TableModel.Status.AVAILABLE, TableStatusCodec.decode("clean"));
+        assertEquals(TableModel.Status.OCCUPIED, TableStatusCodec.decode("Occupied"));
+        assertEquals(TableModel.Status.DIRTY, TableStatusCodec.decode("dirty"));
+    }
+
+    @Test
+    public void decodesWholeNumberCodes() {
+        assertEquals(TableModel.Status.AVAILABLE, TableStatusCodec.decode((long) Constants.STATUS_CODE_AVAILABLE));
+        assertEquals(TableModel.Status.OCCUPIED, TableStatusCodec.decode(Constants.STATUS_CODE_OCCUPIED));
+        assertEquals(TableModel.Status.DIRTY, TableStatusCodec.decode((double) Constants.STATUS_CODE_DIRTY));
+    }
+
+    @Test
+    public void rejectsUnknownValues() {
+        assertNull(TableStatusCodec.decode("BROKEN"));
+        assertNull(TableStatusCodec.decode(""));
+        assertNull(TableStatusCodec.decode(3L));
+        assertNull(TableStatusCodec.decode(-1));
+        assertNull(TableStatusCodec.decode(1.5));
+        assertNull(TableStatusCodec.decode(true));
+        assertNull(TableStatusCodec.decode(null));
+    }
+
+    @Test
+    public void encodeRoundTrips() {
+        for (TableModel.Status status : TableModel.Status.values()) {
+            assertEquals(status, TableStatusCodec.decodeCode(TableStatusCodec.encode(status)));
+            assertEquals(status, TableStatusCodec.decode(status.name()));
+        }
+    }
+}